@@ -0,0 +1,436 @@
+package eppic;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.FileAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.filter.ThreadContextMapFilter;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.apache.logging.log4j.core.util.KeyValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import gnu.getopt.Getopt;
+
+/**
+ * Runs the eppic analysis for many PDB entries (codes or files) in a single JVM, so that
+ * JVM startup, BioJava's chemical component definitions, the AtomCache and the SIFTS mappings
+ * are paid for only once. Entries are processed by a pool of workers, each entry with a new {@link Main}.
+ * <p>
+ * Each entry gets its own output directory (a subdirectory of the given output dir named as the
+ * entry's base name), its own log file and progress log file. A failure in one entry is logged
+ * and recorded in the batch summary file but does not affect the other entries.
+ * <p>
+ * Note that log messages of threads started by an entry (e.g. concurrent evolutionary context
+ * calculation) only go to the batch log file, not to the entry's log file.
+ */
+public class BatchRunner {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BatchRunner.class);
+
+	private static final String PROGRAM_NAME = "eppic-batch";
+
+	public static final String BATCH_LOG_FILE_NAME = "batch.log";
+	public static final String BATCH_SUMMARY_FILE_NAME = "batch_summary.tsv";
+	public static final String PROGRESS_LOG_FILE_SUFFIX = ".progress.log";
+
+	/**
+	 * The key in log4j's ThreadContext identifying the entry that a thread is processing
+	 */
+	private static final String ENTRY_CONTEXT_KEY = "eppicEntry";
+
+	private static final String ENTRY_LOG_PATTERN = "%d{yyyy-MM-dd HH:mm:ss} %-5level - %msg%n";
+
+	/**
+	 * The outcome of running one entry
+	 */
+	private static class EntryResult {
+		String entry;
+		boolean success;
+		long runtime;
+		String message;
+
+		EntryResult(String entry, boolean success, long runtime, String message) {
+			this.entry = entry;
+			this.success = success;
+			this.runtime = runtime;
+			this.message = message;
+		}
+	}
+
+	private List<String> entries;
+	private File outDir;
+	private int numWorkers;
+	private File configFile;
+	private String[] eppicArgs;
+
+	/**
+	 *
+	 * @param entries the PDB codes or files to run
+	 * @param outDir the base output dir: each entry's output goes to a subdirectory of it
+	 * @param numWorkers the number of entries to process at the same time
+	 * @param configFile the config file to read for each entry
+	 * @param eppicArgs the eppic command line arguments to use for every entry (except -i, -o and -L, which are set per entry)
+	 */
+	public BatchRunner(List<String> entries, File outDir, int numWorkers, File configFile, String[] eppicArgs) {
+		this.entries = entries;
+		this.outDir = outDir;
+		this.numWorkers = numWorkers;
+		this.configFile = configFile;
+		this.eppicArgs = eppicArgs;
+	}
+
+	/**
+	 * Runs all entries and writes the batch summary file
+	 * @return the number of failed entries
+	 * @throws IOException if the summary file can't be written
+	 */
+	public int run() throws IOException {
+
+		LOGGER.info("Running {} entries with {} workers", entries.size(), numWorkers);
+
+		long start = System.nanoTime();
+
+		ExecutorService executor = Executors.newFixedThreadPool(numWorkers);
+
+		List<Future<EntryResult>> futures = new ArrayList<Future<EntryResult>>();
+		for (final String entry : entries) {
+			futures.add(executor.submit(new Callable<EntryResult>() {
+				@Override
+				public EntryResult call() {
+					return runEntry(entry);
+				}
+			}));
+		}
+
+		List<EntryResult> results = new ArrayList<EntryResult>();
+		try {
+			for (int i=0;i<futures.size();i++) {
+				EntryResult result = null;
+				try {
+					result = futures.get(i).get();
+				} catch (ExecutionException e) {
+					// only Errors (e.g. OutOfMemoryError) can get here, exceptions are handled in runEntry
+					LOGGER.error("Unexpected error while running entry "+entries.get(i), e.getCause());
+					result = new EntryResult(entries.get(i), false, -1, e.getCause().toString());
+				}
+				results.add(result);
+			}
+		} catch (InterruptedException e) {
+			LOGGER.error("Interrupted while waiting for entries to finish");
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+			// the next batch in this JVM should see an updated SIFTS file
+			ChainEvolContextList.clearSharedSiftsConns();
+		}
+
+		int numFailed = 0;
+		PrintWriter pw = new PrintWriter(new File(outDir, BATCH_SUMMARY_FILE_NAME));
+		for (EntryResult result : results) {
+			if (!result.success) numFailed++;
+			pw.println(result.entry + "\t" + (result.success?"OK":"FAILED") + "\t" + result.runtime +
+					"\t" + (result.message==null?"":result.message.replaceAll("\\s+", " ")));
+		}
+		pw.close();
+
+		long end = System.nanoTime();
+		LOGGER.info("Finished {} entries ({} failed) in {}s", results.size(), numFailed, (end-start)/1000000000L);
+
+		return numFailed;
+	}
+
+	/**
+	 * Runs the eppic analysis for a single entry, catching all exceptions.
+	 * @param entry a PDB code or file
+	 * @return
+	 */
+	private EntryResult runEntry(String entry) {
+
+		long start = System.nanoTime();
+
+		EppicParams params = new EppicParams();
+
+		String[] args = Arrays.copyOf(eppicArgs, eppicArgs.length + 2);
+		args[eppicArgs.length] = "-i";
+		args[eppicArgs.length + 1] = entry;
+
+		try {
+			params.parseCommandLine(args);
+		} catch (EppicException e) {
+			LOGGER.error("Could not run entry {}: {}", entry, e.getMessage());
+			return new EntryResult(entry, false, 0, e.getMessage());
+		}
+
+		String name = params.getBaseName();
+		File entryOutDir = new File(outDir, name);
+		if (!entryOutDir.isDirectory() && !entryOutDir.mkdirs()) {
+			LOGGER.error("Could not create output dir {} for entry {}", entryOutDir, entry);
+			return new EntryResult(entry, false, 0, "Could not create output dir "+entryOutDir);
+		}
+		params.setOutDir(entryOutDir);
+
+		FileAppender appender = startEntryLog(name, new File(entryOutDir, name+".log"));
+		PrintStream progressLog = null;
+
+		try {
+			progressLog = new PrintStream(new File(entryOutDir, name+PROGRESS_LOG_FILE_SUFFIX));
+			params.setProgressLog(progressLog);
+
+			if (configFile!=null) {
+				params.readConfigFile(configFile);
+				params.checkConfigFileInput();
+			}
+
+			LOGGER.info("Running entry {} in output dir {}", entry, entryOutDir);
+
+			Main main = new Main();
+			main.runEntry(params);
+
+			long runtime = (System.nanoTime() - start)/1000000000L;
+			LOGGER.info("Finished successfully (total runtime "+runtime+"s)");
+			return new EntryResult(entry, true, runtime, null);
+
+		} catch (EppicException e) {
+			LOGGER.error(e.getMessage());
+			return new EntryResult(entry, false, (System.nanoTime() - start)/1000000000L, e.getMessage());
+
+		} catch (Exception e) {
+			LOGGER.error("Unexpected error for entry "+entry+". Please report a bug to "+EppicParams.CONTACT_EMAIL, e);
+			return new EntryResult(entry, false, (System.nanoTime() - start)/1000000000L, e.toString());
+
+		} finally {
+			if (progressLog!=null) progressLog.close();
+			stopEntryLog(appender);
+		}
+	}
+
+	/**
+	 * Starts logging the messages of the current thread to the given log file, in addition to
+	 * the configured appenders, until {@link #stopEntryLog(FileAppender)} is called in the same thread.
+	 * Used to get a log file per entry when several entries run in the same JVM.
+	 * @param name a name identifying the entry, unique among the entries running at the same time
+	 * @param logFile
+	 * @return the appender to pass to {@link #stopEntryLog(FileAppender)}
+	 */
+	public static FileAppender startEntryLog(String name, File logFile) {
+		ThreadContext.put(ENTRY_CONTEXT_KEY, name);
+		return addEntryAppender(name, logFile);
+	}
+
+	/**
+	 * Stops logging to the entry log file started with {@link #startEntryLog(String, File)}
+	 * @param appender
+	 */
+	public static void stopEntryLog(FileAppender appender) {
+		removeEntryAppender(appender);
+		ThreadContext.remove(ENTRY_CONTEXT_KEY);
+	}
+
+	/**
+	 * Adds to the root logger a file appender that only accepts messages logged by threads
+	 * processing the given entry
+	 * @param name
+	 * @param logFile
+	 * @return
+	 */
+	private static synchronized FileAppender addEntryAppender(String name, File logFile) {
+		LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+		Configuration config = ctx.getConfiguration();
+
+		PatternLayout layout = PatternLayout.newBuilder()
+				.withPattern(ENTRY_LOG_PATTERN)
+				.withConfiguration(config)
+				.build();
+
+		Filter filter = ThreadContextMapFilter.createFilter(
+				new KeyValuePair[] {new KeyValuePair(ENTRY_CONTEXT_KEY, name)},
+				"and", Filter.Result.ACCEPT, Filter.Result.DENY);
+
+		FileAppender appender = FileAppender.newBuilder()
+				.withFileName(logFile.toString())
+				.withAppend(false)
+				.withName("entry-"+name)
+				.withLayout(layout)
+				.withFilter(filter)
+				.withConfiguration(config)
+				.build();
+		appender.start();
+
+		config.addAppender(appender);
+		config.getRootLogger().addAppender(appender, Level.INFO, null);
+		ctx.updateLoggers();
+
+		return appender;
+	}
+
+	private static synchronized void removeEntryAppender(FileAppender appender) {
+		LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+		Configuration config = ctx.getConfiguration();
+
+		config.getRootLogger().removeAppender(appender.getName());
+		ctx.updateLoggers();
+		appender.stop();
+	}
+
+	/**
+	 * Reads the list of entries from the given file: one PDB code or file per line,
+	 * empty lines and lines starting with # are ignored
+	 * @param listFile
+	 * @return
+	 * @throws IOException
+	 */
+	public static List<String> readEntries(File listFile) throws IOException {
+		List<String> entries = new ArrayList<String>();
+		BufferedReader br = new BufferedReader(new FileReader(listFile));
+		String line;
+		while ((line = br.readLine())!=null) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			entries.add(line);
+		}
+		br.close();
+		return entries;
+	}
+
+	public static void main(String[] args) {
+
+		String help =
+				"Usage: "+PROGRAM_NAME+"\n" +
+				"   -f <file>   :  file with a list of PDB codes or PDB/mmCIF files, one per line\n" +
+				"   -o <dir>    :  output dir, the output of each entry goes to a subdir named\n" +
+				"                  as the entry's base name\n" +
+				"  [-n <int>]   :  number of entries to process at the same time. Default: 1\n" +
+				"  [-g <file>]  :  an "+EppicParams.PROGRAM_NAME+" config file. Default: the one in the user's\n" +
+				"                  home directory\n" +
+				"  [-- <args>]  :  "+EppicParams.PROGRAM_NAME+" arguments for all entries, e.g. -- -s -w -a 2\n" +
+				"                  (-i, -o and -L can't be used, they are set for each entry)\n\n";
+
+		File listFile = null;
+		File outDir = null;
+		int numWorkers = 1;
+		File configFile = null;
+
+		Getopt g = new Getopt(PROGRAM_NAME, args, "f:o:n:g:h?");
+		int c;
+		while ((c = g.getopt()) != -1) {
+			switch (c) {
+			case 'f':
+				listFile = new File(g.getOptarg());
+				break;
+			case 'o':
+				outDir = new File(g.getOptarg());
+				break;
+			case 'n':
+				numWorkers = Integer.parseInt(g.getOptarg());
+				break;
+			case 'g':
+				configFile = new File(g.getOptarg());
+				break;
+			case 'h':
+				System.out.println(help);
+				System.exit(0);
+				break;
+			case '?':
+				System.err.println(help);
+				System.exit(1);
+				break; // getopt() already printed an error
+			}
+		}
+
+		String[] eppicArgs = Arrays.copyOfRange(args, g.getOptind(), args.length);
+
+		if (listFile==null || outDir==null) {
+			System.err.println("Missing argument -f or -o");
+			System.err.println(help);
+			System.exit(1);
+		}
+		if (numWorkers<1) {
+			System.err.println("Number of workers must be at least 1");
+			System.exit(1);
+		}
+		for (String arg : eppicArgs) {
+			if (arg.equals("-i") || arg.equals("-o") || arg.equals("-L")) {
+				System.err.println("Argument "+arg+" can't be used in batch mode, it is set for each entry");
+				System.exit(1);
+			}
+		}
+
+		if (configFile==null) {
+			File userConfigFile = new File(System.getProperty("user.home"),EppicParams.CONFIG_FILE_NAME);
+			if (userConfigFile.exists()) configFile = userConfigFile;
+		}
+
+		if (!outDir.isDirectory() && !outDir.mkdirs()) {
+			System.err.println("Can't create output dir "+outDir);
+			System.exit(1);
+		}
+
+		// the batch log file gets the log of all entries
+		System.setProperty("logFilename", new File(outDir, BATCH_LOG_FILE_NAME).toString());
+		LoggerContext ctx = (LoggerContext) LogManager.getContext(false);
+		ctx.reconfigure();
+
+		LOGGER.info(EppicParams.PROGRAM_NAME+" version "+EppicParams.PROGRAM_VERSION);
+		LOGGER.info("Build git SHA: {}", EppicParams.BUILD_GIT_SHA);
+
+		try {
+			List<String> entries = readEntries(listFile);
+			
+			if (!entries.isEmpty()) {
+				// unknown eppic arguments make the parsing exit, better to find out before starting
+				try {
+					String[] testArgs = Arrays.copyOf(eppicArgs, eppicArgs.length + 2);
+					testArgs[eppicArgs.length] = "-i";
+					testArgs[eppicArgs.length + 1] = entries.get(0);
+					new EppicParams().parseCommandLine(testArgs);
+				} catch (EppicException e) {
+					// errors specific to the entry will be reported when running it
+				}
+			}
+
+			if (configFile!=null) {
+				// we check the config file once here so that errors are reported before starting
+				LOGGER.info("Loading configuration file " + configFile);
+				EppicParams params = new EppicParams();
+				params.readConfigFile(configFile);
+				params.checkConfigFileInput();
+			}
+
+			BatchRunner runner = new BatchRunner(entries, outDir, numWorkers, configFile, eppicArgs);
+
+			int numFailed = runner.run();
+
+			if (numFailed>0) System.exit(1);
+
+		} catch (FileNotFoundException e) {
+			LOGGER.error("Could not find file: "+e.getMessage());
+			System.exit(1);
+		} catch (IOException e) {
+			LOGGER.error("Error while reading or writing files: "+e.getMessage());
+			System.exit(1);
+		} catch (EppicException e) {
+			LOGGER.error(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
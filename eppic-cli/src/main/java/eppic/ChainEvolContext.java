@@ -19,14 +19,12 @@ import org.biojava.nbio.structure.Group;
 import org.biojava.nbio.structure.StructureTools;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
 import eppic.commons.blast.BlastException;
 import eppic.commons.blast.BlastHit;
 import eppic.commons.blast.BlastHitList;
 import eppic.commons.blast.BlastHsp;
 import eppic.commons.blast.BlastRunner;
-import eppic.commons.blast.BlastXMLParser;
 import eppic.commons.sequence.AAAlphabet;
 import eppic.commons.sequence.HomologList;
 import eppic.commons.sequence.MultipleSequenceAlignment;
@@ -34,6 +32,8 @@ import eppic.commons.sequence.NoMatchFoundException;
 import eppic.commons.sequence.Sequence;
 import eppic.commons.sequence.SiftsConnection;
 import eppic.commons.sequence.SiftsFeature;
+import eppic.commons.sequence.UniProtConnection;
+import eppic.commons.sequence.UniprotLocalConnection;
 import eppic.commons.sequence.UnirefEntry;
 import eppic.commons.util.Interval;
 import uk.ac.ebi.uniprot.dataservice.client.exception.ServiceException;
@@ -50,7 +50,6 @@ public class ChainEvolContext implements Serializable {
 	private static final Pattern ALLX_SEQ_PATTERN = Pattern.compile("^X+$");
 	
 	// blast constants
-	private static final String BLASTOUT_SUFFIX = "blast.out.xml";
 	private static final String BLAST_BASENAME = "pdb2unimapping";
 	private static final String FASTA_SUFFIX = ".fa";	
 	private static final boolean BLAST_NO_FILTERING = true;
@@ -107,6 +106,18 @@ public class ChainEvolContext implements Serializable {
 	
 	private Compound compound;
 	
+	/**
+	 * The number of threads to use for the external programs (blast, clustalo) and the redundancy reduction 
+	 * run for this sequence. If not positive then the number of threads in EppicParams is used.
+	 */
+	private int numThreads;
+	
+	/**
+	 * Whether homologs, alignment and entropies were read from an {@link EvolContextStore}
+	 * instead of being calculated
+	 */
+	private boolean evolContextFromStore;
+	
 
 	/**
 	 * Construct a ChainEvolContext from a Sequence. 
@@ -123,6 +134,8 @@ public class ChainEvolContext implements Serializable {
 		this.queryWarnings = new ArrayList<String>();
 		this.isProtein = true;
 		this.compound = null;
+		this.numThreads = 0;
+		this.evolContextFromStore = false;
 	}
 	
 	/**
@@ -146,6 +159,9 @@ public class ChainEvolContext implements Serializable {
 		this.pdbToUniProtMapper = new PdbToUniProtMapper(compound);
 		
 		this.sequence = pdbToUniProtMapper.getPdbSequence();
+		
+		this.numThreads = 0;
+		this.evolContextFromStore = false;
 	}
 	
 	public String getSequenceId() {
@@ -160,6 +176,21 @@ public class ChainEvolContext implements Serializable {
 		return compound;
 	}
 	
+	/**
+	 * Sets the number of threads to use for the external programs run for this sequence,
+	 * overriding the value in EppicParams. Useful when several ChainEvolContexts run
+	 * concurrently and have to share the available threads.
+	 * @param numThreads the number of threads, if not positive the EppicParams value is used
+	 */
+	public void setNumThreads(int numThreads) {
+		this.numThreads = numThreads;
+	}
+	
+	private int getNumThreads(EppicParams params) {
+		if (numThreads>0) return numThreads;
+		return params.getNumThreads();
+	}
+	
 	/**
 	 * Retrieves the UniProt mapping corresponding to the query PDB sequence 
 	 * @throws IOException
@@ -173,7 +204,7 @@ public class ChainEvolContext implements Serializable {
 		File blastPlusBlastp = params.getBlastpBin();
 		String blastDbDir = params.getBlastDbDir();
 		String blastDb = params.getBlastDb();
-		int blastNumThreads = params.getNumThreads();
+		int blastNumThreads = getNumThreads(params);
 		double pdb2uniprotIdThreshold = params.getPdb2uniprotIdThreshold();
 		double pdb2uniprotQcovThreshold = params.getPdb2uniprotQcovThreshold();
 		boolean useUniparc = params.isUseUniparc();
@@ -237,10 +268,17 @@ public class ChainEvolContext implements Serializable {
 
 			// once we have the identifier we get the data from uniprot
 			try {
+				// the connections are shared by all ChainEvolContexts of the parent, which could be running concurrently
 				if (parent.isUseLocalUniprot()) {
-					query = parent.getUniProtLocalConnection().getUnirefEntry(queryUniprotId);
+					UniprotLocalConnection uniprotLocalConn = parent.getUniProtLocalConnection();
+					synchronized (uniprotLocalConn) {
+						query = uniprotLocalConn.getUnirefEntry(queryUniprotId);
+					}
 				} else {
-					query = parent.getUniProtJapiConnection().getUnirefEntry(queryUniprotId);
+					UniProtConnection uniprotJapiConn = parent.getUniProtJapiConnection();
+					synchronized (uniprotJapiConn) {
+						query = uniprotJapiConn.getUnirefEntry(queryUniprotId);
+					}
 				}
 				
 				if (query.replaceNonStandardByX()) {
@@ -505,7 +543,7 @@ public class ChainEvolContext implements Serializable {
 		File blastPlusBlastp = params.getBlastpBin();
 		String blastDbDir = params.getBlastDbDir();
 		String blastDb = params.getBlastDb();
-		int blastNumThreads = params.getNumThreads(); 
+		int blastNumThreads = getNumThreads(params); 
 		int maxNumSeqs = params.getMaxNumSeqs();
 		HomologsSearchMode searchMode = params.getHomologsSearchMode();
 		boolean useUniparc = params.isUseUniparc();			
@@ -550,6 +588,66 @@ public class ChainEvolContext implements Serializable {
 		 
 	}
 	
+	/**
+	 * Reads the homologs, alignment and entropies from the given store if it contains
+	 * the evolutionary context of the query sequence. Must be called after {@link #retrieveQueryData(EppicParams)}
+	 * @param store
+	 * @param params
+	 * @return true if the evolutionary context was read from the store and thus needs not 
+	 * to be calculated, false otherwise
+	 */
+	public boolean loadEvolContext(EvolContextStore store, EppicParams params) {
+		HomologsSearchMode searchMode = params.getHomologsSearchMode();
+		Interval queryInterv = pdbToUniProtMapper.getHomologsSearchInterval(searchMode);
+		
+		HomologList stored = store.get(getEvolContextKey(queryInterv, params), HomologList.class);
+		if (stored==null) return false;
+		
+		if (!stored.setReference(query, queryInterv)) {
+			LOGGER.warn("Evolutionary context in store for chain {} does not match its query {}, will recalculate it",
+					getRepresentativeChainCode(), query.getUniId());
+			return false;
+		}
+		
+		this.homologs = stored;
+		this.searchWithFullUniprot = searchMode==HomologsSearchMode.GLOBAL;
+		this.idCutoff = homologs.getIdCutoff();
+		this.queryCov = homologs.getQCovCutoff();
+		this.evolContextFromStore = true;
+		
+		LOGGER.info("Read evolutionary context of chain {} ({} {}-{}) from store: {} homologs at {} identity cutoff",
+				getRepresentativeChainCode(), query.getUniId(), queryInterv.beg, queryInterv.end, 
+				homologs.getSizeFilteredSubset(), String.format("%4.2f",idCutoff));
+		return true;
+	}
+	
+	/**
+	 * Writes the homologs, alignment and entropies to the given store, 
+	 * to be called after {@link #computeEntropies(AAAlphabet)}
+	 * @param store
+	 * @param params
+	 */
+	public void storeEvolContext(EvolContextStore store, EppicParams params) {
+		Interval queryInterv = pdbToUniProtMapper.getHomologsSearchInterval(params.getHomologsSearchMode());
+		// the full list of blast hits is not needed anymore
+		store.put(getEvolContextKey(queryInterv, params), homologs.copyFilteredSubset());
+	}
+	
+	private String getEvolContextKey(Interval queryInterv, EppicParams params) {
+		String searchSeq = query.getSeq().getInterval(queryInterv).getSeq();
+		String domainOfLife = query.hasTaxons() ? query.getFirstTaxon() : null;
+		return EvolContextStore.getKey(searchSeq, getUniprotVer(), domainOfLife, params);
+	}
+	
+	/**
+	 * Whether the homologs, alignment and entropies were read from an {@link EvolContextStore}, 
+	 * see {@link #loadEvolContext(EvolContextStore, EppicParams)}
+	 * @return
+	 */
+	public boolean isEvolContextFromStore() {
+		return evolContextFromStore;
+	}
+	
 	public void filterToSameDomainOfLife() {
 		if (query.hasTaxons()) {
 			LOGGER.info("Filtering to domain: "+query.getFirstTaxon());
@@ -571,10 +669,18 @@ public class ChainEvolContext implements Serializable {
 	 * @throws ServiceException
 	 */
 	public void retrieveHomologsData() throws IOException, SQLException, ServiceException {
+		// the connections keep the non-returned ids of the last request as state, 
+		// we need exclusive access while retrieving if other ChainEvolContexts run concurrently
 		if (parent.isUseLocalUniprot()) {
-			homologs.retrieveUniprotKBData(parent.getUniProtLocalConnection());
+			UniprotLocalConnection uniprotLocalConn = parent.getUniProtLocalConnection();
+			synchronized (uniprotLocalConn) {
+				homologs.retrieveUniprotKBData(uniprotLocalConn);
+			}
 		} else {
-			homologs.retrieveUniprotKBData(parent.getUniProtJapiConnection());
+			UniProtConnection uniprotJapiConn = parent.getUniProtJapiConnection();
+			synchronized (uniprotJapiConn) {
+				homologs.retrieveUniprotKBData(uniprotJapiConn);
+			}
 		}
 	}
 	
@@ -612,7 +718,7 @@ public class ChainEvolContext implements Serializable {
 					String.format("%4.2f",queryCovCutoff)+" query coverage cutoff and before redundancy elimination"
 					+" (chain "+getRepresentativeChainCode()+")");
 			
-			homologs.reduceRedundancy(maxNumSeqs, params.getBlastclustBin(), params.getBlastDataDir(), params.getNumThreads());
+			homologs.reduceRedundancy(maxNumSeqs, getNumThreads(params));
 
 			this.idCutoff = currentIdCutoff;
 			
@@ -629,7 +735,7 @@ public class ChainEvolContext implements Serializable {
 
 	public void align(EppicParams params) throws IOException, InterruptedException { 
 		File clustaloBin = params.getClustaloBin();
-		int nThreads = params.getNumThreads();
+		int nThreads = getNumThreads(params);
 		
 		// 3) alignment of the protein sequences
 		File alnCacheFile = null;
@@ -706,7 +812,29 @@ public class ChainEvolContext implements Serializable {
 		}
 		return totalScore/totalWeight;
 	}
-	
+
+	/**
+	 * Returns the conservation scores of the given residues as a primitive array,
+	 * with NaN for residues that can't be mapped to the reference UniProt sequence.
+	 * Useful when scores of many subsets of the same residues have to be computed,
+	 * see {@link ResidueScoreSampler}
+	 * @param residues
+	 * @return
+	 */
+	public double[] getConservationScores(List<Group> residues) {
+		double[] scores = new double[residues.size()];
+		List<Double> conservScores = getConservationScores();
+		for (int i=0;i<residues.size();i++) {
+			int queryPos = pdbToUniProtMapper.getUniProtIndexForPdbGroup(residues.get(i), !isSearchWithFullUniprot());
+			if (queryPos!=-1) {
+				scores[i] = conservScores.get(queryPos-1);
+			} else {
+				scores[i] = Double.NaN;
+			}
+		}
+		return scores;
+	}
+
 	/**
 	 * Set the b-factors of the given pdb chain to conservation score values.
 	 * @param chain
@@ -775,28 +903,16 @@ public class ChainEvolContext implements Serializable {
 			return null;
 		}
 		
-		File outBlast = File.createTempFile(BLAST_BASENAME,BLASTOUT_SUFFIX);
 		File inputSeqFile = File.createTempFile(BLAST_BASENAME,FASTA_SUFFIX);
 		if (!DEBUG) {
-			outBlast.deleteOnExit();
 			inputSeqFile.deleteOnExit();
 		}
 		
 		new Sequence("chain"+sequenceId,this.sequence).writeToFastaFile(inputSeqFile);
 
+		// the alignments of the hits are not needed for the mapping
 		BlastRunner blastRunner = new BlastRunner(blastDbDir);
-		blastRunner.runBlastp(blastPlusBlastp, inputSeqFile, blastDb, outBlast, BlastRunner.BLASTPLUS_XML_OUTPUT_TYPE, BLAST_NO_FILTERING, blastNumThreads, 500);
-
-		BlastHitList blastList = null;
-		try {
-			// note that by setting second parameter to true we are ignoring the DTD url to avoid unnecessary network connections
-			BlastXMLParser blastParser = new BlastXMLParser(outBlast, true);
-			blastList = blastParser.getHits();
-		} catch (SAXException e) {
-			// if this happens it means that blast doesn't format correctly its XML, i.e. has a bug
-			LOGGER.error("Unexpected error while parsing blast XML output: ",e);
-			System.exit(1);
-		}
+		BlastHitList blastList = blastRunner.runBlastpTabular(blastPlusBlastp, inputSeqFile, blastDb, BLAST_NO_FILTERING, blastNumThreads, 500, false, null);
 
 		String uniprotMapping = null;
 
@@ -823,7 +939,8 @@ public class ChainEvolContext implements Serializable {
 						String.format("%5.2f%% id and %4.2f coverage",pdb2uniprotIdThreshold,pdb2uniprotQcovThreshold));
 				LOGGER.warn("Best match was "+best.getSubjectId()+", with "+
 						String.format("%5.2f%% id and %4.2f coverage",bestHsp.getQueryPercentIdentity(),bestHsp.getQueryCoverage()));
-				LOGGER.info("Alignment of best UniProt match found by blast: \n"+bestHsp.getAlignment().getFastaString(null, true));
+				LOGGER.info("Best UniProt match found by blast aligns query {}-{} to subject {}-{}",
+						bestHsp.getQueryStart(), bestHsp.getQueryEnd(), bestHsp.getSubjectStart(), bestHsp.getSubjectEnd());
 				queryWarnings.add("Blast didn't find a UniProt match for the chain. Best match was "+getDeflineAccession(best)+", with "+
 						String.format("%5.2f%% id and %4.2f coverage",bestHsp.getQueryPercentIdentity(),bestHsp.getQueryCoverage()));
 			}			
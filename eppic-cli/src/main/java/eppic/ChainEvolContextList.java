@@ -1,11 +1,21 @@
 package eppic;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.biojava.nbio.structure.Compound;
 import org.biojava.nbio.structure.Structure;
@@ -28,6 +38,8 @@ public class ChainEvolContextList implements Serializable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ChainEvolContextList.class);
 	
+	private static final String ALIGN_PROGRAM = "clustalo";
+	
 	private Structure pdb;
 	
 	/**
@@ -47,6 +59,12 @@ public class ChainEvolContextList implements Serializable {
 	private transient UniprotLocalConnection uniprotLocalConn;
 	
 	private transient SiftsConnection siftsConn;
+	
+	private transient EvolContextStore evolContextStore;
+	
+	private static final Map<String,SiftsConnection> SHARED_SIFTS_CONNS = new HashMap<String, SiftsConnection>();
+	/** the modification time of the SIFTS file of each of the SHARED_SIFTS_CONNS when it was parsed */
+	private static final Map<String,Long> SHARED_SIFTS_MTIMES = new HashMap<String, Long>();
 
 	
 	public ChainEvolContextList(Structure pdb, EppicParams params) throws SQLException {
@@ -60,7 +78,7 @@ public class ChainEvolContextList implements Serializable {
 		
 		if (params.getLocalUniprotDbName()!=null) {
 			this.useLocalUniprot = true;
-			this.uniprotLocalConn = new UniprotLocalConnection(params.getLocalUniprotDbName());
+			this.uniprotLocalConn = new UniprotLocalConnection(params.getLocalUniprotDbName(), uniprotVer);
 			LOGGER.info("Using local UniProt connection to retrieve UniProtKB data. Local database: "+params.getLocalUniprotDbName());
 		} else {
 			this.useLocalUniprot = false;
@@ -91,7 +109,7 @@ public class ChainEvolContextList implements Serializable {
 		
 		if (params.getLocalUniprotDbName()!=null) {
 			this.useLocalUniprot = true;
-			this.uniprotLocalConn = new UniprotLocalConnection(params.getLocalUniprotDbName());
+			this.uniprotLocalConn = new UniprotLocalConnection(params.getLocalUniprotDbName(), uniprotVer);
 			LOGGER.info("Using local UniProt connection to retrieve UniProtKB data. Local database: "+params.getLocalUniprotDbName());
 		} else {
 			this.useLocalUniprot = false;
@@ -185,41 +203,232 @@ public class ChainEvolContextList implements Serializable {
 		return uniprotJapiConn;
 	}
 	
-	public SiftsConnection getSiftsConn(String siftsLocation) throws IOException {
+	public synchronized SiftsConnection getSiftsConn(String siftsLocation) throws IOException {
 		// we store the sifts connection here in order not to reparse the file for every chain
+		// (synchronized since ChainEvolContexts can request it concurrently, see findEvolContextConcurrently)
 		if (this.siftsConn==null) {
-			this.siftsConn = new SiftsConnection(siftsLocation);
+			this.siftsConn = getSharedSiftsConn(siftsLocation);
 		}
 		return this.siftsConn;
 	}
 	
+	/**
+	 * Returns the SiftsConnection for the given location, parsing the SIFTS file only the first 
+	 * time it is requested in this JVM, so that it is shared by all entries when running in batch 
+	 * mode (see {@link BatchRunner}). If the location is a local file that was modified since it was
+	 * parsed, it is parsed again.
+	 * @param siftsLocation
+	 * @return
+	 * @throws IOException
+	 * @see #clearSharedSiftsConns()
+	 */
+	private static SiftsConnection getSharedSiftsConn(String siftsLocation) throws IOException {
+		synchronized (SHARED_SIFTS_CONNS) {
+			// lastModified is 0 for URLs and missing files: those are never considered outdated
+			long mtime = new File(siftsLocation).lastModified();
+			SiftsConnection conn = SHARED_SIFTS_CONNS.get(siftsLocation);
+			if (conn!=null && SHARED_SIFTS_MTIMES.get(siftsLocation)!=mtime) {
+				LOGGER.info("SIFTS file {} modified since it was read, reading it again", siftsLocation);
+				conn = null;
+			}
+			if (conn==null) {
+				conn = new SiftsConnection(siftsLocation);
+				SHARED_SIFTS_CONNS.put(siftsLocation, conn);
+				SHARED_SIFTS_MTIMES.put(siftsLocation, mtime);
+			}
+			return conn;
+		}
+	}
+	
+	/**
+	 * Removes all SIFTS connections shared in this JVM, so that the next entry parses
+	 * the SIFTS file again. To be called at the end of a batch of entries.
+	 */
+	public static void clearSharedSiftsConns() {
+		synchronized (SHARED_SIFTS_CONNS) {
+			SHARED_SIFTS_CONNS.clear();
+			SHARED_SIFTS_MTIMES.clear();
+		}
+	}
+	
+	/**
+	 * Runs the full evolutionary context calculation (query data retrieval, blast for homologs, 
+	 * UniProt data retrieval, identity cutoffs and redundancy reduction, alignment and entropies) 
+	 * for each ChainEvolContext as an independent task in a pool of the given number of workers.
+	 * The threads in {@link EppicParams#getNumThreads()} are divided among the workers for running the
+	 * external programs. 
+	 * The result is the same as calling {@link #retrieveQueryData(EppicParams)}, {@link #retrieveHomologs(EppicParams)},
+	 * {@link #align(EppicParams)} and {@link #computeEntropies(EppicParams)} in sequence. 
+	 * Progress log output and errors are reported in the order of the ChainEvolContexts, independently
+	 * of the order in which the tasks finish. 
+	 * @param params
+	 * @param numWorkers the maximum number of ChainEvolContexts to process at the same time
+	 * @throws EppicException if any of the tasks fails, the exception of the first failed ChainEvolContext (in 
+	 * ChainEvolContext order) is thrown
+	 */
+	public void findEvolContextConcurrently(final EppicParams params, int numWorkers) throws EppicException {
+		
+		this.minNumSeqs = params.getMinNumSeqs();
+		this.maxNumSeqs = params.getMaxNumSeqs();
+		this.queryCovCutoff = params.getQueryCoverageCutoff();
+		this.homSoftIdCutoff = params.getHomSoftIdCutoff();
+		this.homHardIdCutoff = params.getHomHardIdCutoff();
+		
+		int numTasks = Math.max(1, Math.min(numWorkers, cecs.size()));
+		int threadsPerTask = Math.max(1, params.getNumThreads()/numTasks);
+		
+		LOGGER.info("Finding evolutionary context concurrently for {} chains with {} workers ({} threads per external process)", 
+				cecs.size(), numTasks, threadsPerTask);
+		
+		params.getProgressLog().println("Finding homologs and calculating entropies ("+numTasks+" chains at a time)");
+		params.getProgressLog().print("chains: ");
+		
+		initEvolContextStore(params);
+		
+		ExecutorService threadPool = Executors.newFixedThreadPool(numTasks);
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		
+		for (final ChainEvolContext chainEvCont:cecs.values()) {
+			chainEvCont.setNumThreads(threadsPerTask);
+			futures.add(threadPool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws EppicException {
+					findEvolContext(chainEvCont, params);
+					return null;
+				}
+			}));
+		}
+		threadPool.shutdown();
+		
+		// we wait for the futures in the order of the cecs so that output and errors are deterministic
+		try {
+			Iterator<ChainEvolContext> it = cecs.values().iterator();
+			for (Future<Void> future:futures) {
+				ChainEvolContext chainEvCont = it.next();
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof EppicException) {
+						throw (EppicException) cause;
+					}
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new EppicException((Exception) cause, "Unexpected error while finding evolutionary context for chain "
+							+chainEvCont.getRepresentativeChainCode()+": "+cause.getMessage(), true);
+				} catch (InterruptedException e) {
+					throw new EppicException(e, "Thread interrupted while finding evolutionary context: "+e.getMessage(), true);
+				}
+				params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
+			}
+		} finally {
+			// if anything failed we don't want the remaining tasks to keep running external programs 
+			threadPool.shutdownNow();
+		}
+		params.getProgressLog().println();
+		
+		logEvolContextStoreStatistics();
+		
+		// now that we have all data we don't need the connections anymore
+		closeConnections();
+	}
+	
+	/**
+	 * Runs all steps of the evolutionary context calculation for a single ChainEvolContext
+	 * @param chainEvCont
+	 * @param params
+	 * @throws EppicException
+	 */
+	private void findEvolContext(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		retrieveQueryData(chainEvCont, params);
+		
+		if (!chainEvCont.hasQueryMatch()) {
+			// no query uniprot match, we do nothing with this sequence
+			return;
+		}
+		
+		if (evolContextStore!=null && chainEvCont.loadEvolContext(evolContextStore, params)) {
+			// homologs, alignment and entropies were read from the store
+			return;
+		}
+		
+		blastForHomologs(chainEvCont, params);
+		
+		chainEvCont.removeIdenticalToQuery(params.getMinQueryCovForIdenticalsRemoval());
+		
+		retrieveHomologsData(chainEvCont, params);
+		
+		applyIdentityCutoff(chainEvCont, params);
+		
+		if (params.isFilterByDomain()) chainEvCont.filterToSameDomainOfLife();
+		
+		align(chainEvCont, params);
+		
+		chainEvCont.computeEntropies(params.getAlphabet());
+		
+		if (evolContextStore!=null) chainEvCont.storeEvolContext(evolContextStore, params);
+	}
+	
 	public void retrieveQueryData(EppicParams params) throws EppicException {
 		params.getProgressLog().println("Finding query's UniProt mappings through SIFTS or blasting");
 		params.getProgressLog().print("chains: ");
 		for (ChainEvolContext chainEvCont:cecs.values()) {
 			params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
-			try {
-				chainEvCont.retrieveQueryData(params);
+			retrieveQueryData(chainEvCont, params);
+		}
+		params.getProgressLog().println();
+		
+		// the chains whose sequences are in the store don't need any of the steps after this
+		initEvolContextStore(params);
+		if (evolContextStore!=null) {
+			for (ChainEvolContext chainEvCont:cecs.values()) {
+				if (!chainEvCont.hasQueryMatch()) continue;
+				chainEvCont.loadEvolContext(evolContextStore, params);
+			}
+		}
+	}
+	
+	private void initEvolContextStore(EppicParams params) throws EppicException {
+		if (!HomologList.isKnownUniprotVer(uniprotVer)) {
+			// without a version stored entries could silently be out of date
+			if (params.getEvolCacheDir()!=null) 
+				LOGGER.warn("UniProt version unknown, the evolutionary context store won't be used");
+			return;
+		}
+		try {
+			this.evolContextStore = EvolContextStore.getStore(params);
+		} catch (IOException e) {
+			throw new EppicException(e, "Could not use evolutionary context store: "+e.getMessage(), true);
+		}
+	}
+	
+	private void logEvolContextStoreStatistics() {
+		if (evolContextStore==null) return;
+		LOGGER.info("Evolutionary context store {}: {}", evolContextStore.getDir(), evolContextStore.getStatistics());
+	}
+	
+	private void retrieveQueryData(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		try {
+			chainEvCont.retrieveQueryData(params);
 
-			} catch (BlastException e) {
-				throw new EppicException(e,"Couldn't run blast to retrieve query's UniProt mapping: "+e.getMessage(),true);
-			} catch (IOException e) {
-				throw new EppicException(e,"Problems while retrieving query data: "+e.getMessage(),true);
-			} catch (InterruptedException e) {
-				throw new EppicException(e,"Thread interrupted while running blast for retrieving query data: "+e.getMessage(),true);
-			} 
-			catch (Exception e) { // for any kind of exceptions thrown while connecting through uniprot JAPI
-				String msg = null;
-				if (useLocalUniprot) {
-					// we don't want to catch unexpected exceptions in this case, only the JAPI case is problematic
-					throw e;
-				} else {
-					msg = "Problems while retrieving query data through UniProt JAPI. Make sure you have the latest UniProtJAPI jar, or otherwise that the UniProt server is up\n"+e.getMessage();
-				}
-				throw new EppicException(e, msg, true);
+		} catch (BlastException e) {
+			throw new EppicException(e,"Couldn't run blast to retrieve query's UniProt mapping: "+e.getMessage(),true);
+		} catch (IOException e) {
+			throw new EppicException(e,"Problems while retrieving query data: "+e.getMessage(),true);
+		} catch (InterruptedException e) {
+			throw new EppicException(e,"Thread interrupted while running blast for retrieving query data: "+e.getMessage(),true);
+		} 
+		catch (Exception e) { // for any kind of exceptions thrown while connecting through uniprot JAPI
+			String msg = null;
+			if (useLocalUniprot) {
+				// we don't want to catch unexpected exceptions in this case, only the JAPI case is problematic
+				throw e;
+			} else {
+				msg = "Problems while retrieving query data through UniProt JAPI. Make sure you have the latest UniProtJAPI jar, or otherwise that the UniProt server is up\n"+e.getMessage();
 			}
+			throw new EppicException(e, msg, true);
 		}
-		params.getProgressLog().println();
 	}
 	
 	public void retrieveHomologs(EppicParams params) throws EppicException {
@@ -253,23 +462,31 @@ public class ChainEvolContextList implements Serializable {
 				// no query uniprot match, we do nothing with this sequence
 				continue;
 			}
+			if (chainEvCont.isEvolContextFromStore()) {
+				// homologs, alignment and entropies were read from the store
+				continue;
+			}
 			params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
 						
-			try {
-				chainEvCont.blastForHomologs(params);
-
-			} catch (BlastException e) {
-				throw new EppicException(e,"Couldn't run blast to retrieve homologs: "+e.getMessage() ,true);
-			} catch (IOException e) {
-				throw new EppicException(e,"Problem while blasting for sequence homologs: "+e.getMessage(),true);
-			} catch (InterruptedException e) {
-				throw new EppicException(e,"Thread interrupted while blasting for sequence homologs: "+e.getMessage(),true);
-			}
+			blastForHomologs(chainEvCont, params);
 
 		}
 		params.getProgressLog().println();
 	}
 	
+	private void blastForHomologs(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		try {
+			chainEvCont.blastForHomologs(params);
+
+		} catch (BlastException e) {
+			throw new EppicException(e,"Couldn't run blast to retrieve homologs: "+e.getMessage() ,true);
+		} catch (IOException e) {
+			throw new EppicException(e,"Problem while blasting for sequence homologs: "+e.getMessage(),true);
+		} catch (InterruptedException e) {
+			throw new EppicException(e,"Thread interrupted while blasting for sequence homologs: "+e.getMessage(),true);
+		}
+	}
+	
 	private void retrieveHomologsData(EppicParams params) throws EppicException {
 		params.getProgressLog().println("Retrieving UniProtKB data");
 		params.getProgressLog().print("chains: ");
@@ -278,34 +495,42 @@ public class ChainEvolContextList implements Serializable {
 				// no query uniprot match, we do nothing with this sequence
 				continue;
 			}
+			if (chainEvCont.isEvolContextFromStore()) {
+				// homologs, alignment and entropies were read from the store
+				continue;
+			}
 			
 			params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
 			
-			// we first apply the hard identity cutoff because that's the maximum list we can ever have after applying filters, i.e. that's all data we need
-			chainEvCont.applyHardIdentityCutoff(params.getHomHardIdCutoff(), params.getQueryCoverageCutoff());
-			
-			try {
-				chainEvCont.retrieveHomologsData();
-			} catch (IOException e) {
-				throw new EppicException(e, "Problems while retrieving homologs data: "+e.getMessage(),true);
-			} catch (SQLException e) {
-				throw new EppicException(e, "Problems while retrieving homologs data from UniProt local database: "+e.getMessage(), true);
-			} catch (ServiceException e) {
-				throw new EppicException(e, "Problems while retrieving homologs data from UniProt JAPI: "+e.getMessage(), true);
-			} catch (Exception e) { // for any kind of exceptions thrown while connecting through uniprot JAPI
-				String msg = null;
-				if (useLocalUniprot) {
-					msg = "Problems while retrieving homologs data from UniProt local database. Error "+e.getMessage();
-				} else {
-					msg = "Problems while retrieving homologs data through UniProt JAPI. Are UniProt servers down?. Error: "+e.getMessage();
-				}
-				throw new EppicException(e, msg, true);
-			}
+			retrieveHomologsData(chainEvCont, params);
 
 		}		
 		params.getProgressLog().println();
 	}
 	
+	private void retrieveHomologsData(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		// we first apply the hard identity cutoff because that's the maximum list we can ever have after applying filters, i.e. that's all data we need
+		chainEvCont.applyHardIdentityCutoff(params.getHomHardIdCutoff(), params.getQueryCoverageCutoff());
+		
+		try {
+			chainEvCont.retrieveHomologsData();
+		} catch (IOException e) {
+			throw new EppicException(e, "Problems while retrieving homologs data: "+e.getMessage(),true);
+		} catch (SQLException e) {
+			throw new EppicException(e, "Problems while retrieving homologs data from UniProt local database: "+e.getMessage(), true);
+		} catch (ServiceException e) {
+			throw new EppicException(e, "Problems while retrieving homologs data from UniProt JAPI: "+e.getMessage(), true);
+		} catch (Exception e) { // for any kind of exceptions thrown while connecting through uniprot JAPI
+			String msg = null;
+			if (useLocalUniprot) {
+				msg = "Problems while retrieving homologs data from UniProt local database. Error "+e.getMessage();
+			} else {
+				msg = "Problems while retrieving homologs data through UniProt JAPI. Are UniProt servers down?. Error: "+e.getMessage();
+			}
+			throw new EppicException(e, msg, true);
+		}
+	}
+	
 	private void applyIdentityCutoff(EppicParams params) throws EppicException {
 		
 		this.minNumSeqs = params.getMinNumSeqs();
@@ -319,22 +544,29 @@ public class ChainEvolContextList implements Serializable {
 				// no query uniprot match, we do nothing with this sequence
 				continue;
 			}
-
-			try {
-				
-				// applies the identity cutoffs iteratively and performs the redundancy reduction procedure 
-				chainEvCont.applyIdentityCutoff(params);
-
-
-			} catch (IOException e) {
-				throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
-			} catch (InterruptedException e) {
-				throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
-			} catch (BlastException e) {
-				throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
+			if (chainEvCont.isEvolContextFromStore()) {
+				// homologs, alignment and entropies were read from the store
+				continue;
 			}
 
+			applyIdentityCutoff(chainEvCont, params);
+			
+		}
+	}
+	
+	private void applyIdentityCutoff(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		try {
 			
+			// applies the identity cutoffs iteratively and performs the redundancy reduction procedure 
+			chainEvCont.applyIdentityCutoff(params);
+
+
+		} catch (IOException e) {
+			throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
+		} catch (InterruptedException e) {
+			throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
+		} catch (BlastException e) {
+			throw new EppicException(e, "Problems while running blastclust for redundancy reduction of homologs: "+e.getMessage(), true);
 		}
 	}
 	
@@ -344,6 +576,10 @@ public class ChainEvolContextList implements Serializable {
 				// no query uniprot match, we do nothing with this sequence
 				continue;
 			}
+			if (chainEvCont.isEvolContextFromStore()) {
+				// homologs, alignment and entropies were read from the store
+				continue;
+			}
 
 			chainEvCont.filterToSameDomainOfLife();
 		}
@@ -355,6 +591,10 @@ public class ChainEvolContextList implements Serializable {
 				// no query uniprot match, we do nothing with this sequence
 				continue;
 			}
+			if (chainEvCont.isEvolContextFromStore()) {
+				// homologs, alignment and entropies were read from the store
+				continue;
+			}
 			
 			// remove hits totally identical to query (based on the blast id and query coverage numbers)
 			chainEvCont.removeIdenticalToQuery(params.getMinQueryCovForIdenticalsRemoval());
@@ -363,37 +603,52 @@ public class ChainEvolContextList implements Serializable {
 	
 	public void align(EppicParams params) throws EppicException {
 		
-		String alignProgram = "clustalo"; 
-		params.getProgressLog().println("Aligning protein sequences with "+ alignProgram);
+		params.getProgressLog().println("Aligning protein sequences with "+ ALIGN_PROGRAM);
 		params.getProgressLog().print("chains: ");
 		for (ChainEvolContext chainEvCont:cecs.values()) {
 			if (!chainEvCont.hasQueryMatch()) {
 				// no query uniprot match, we do nothing with this sequence
 				continue;
 			}
+			if (chainEvCont.isEvolContextFromStore()) {
+				// homologs, alignment and entropies were read from the store
+				continue;
+			}
 			
 			params.getProgressLog().print(chainEvCont.getRepresentativeChainCode()+" ");
-			try {
-				chainEvCont.align(params);
-			} catch (IOException e) {
-				throw new EppicException(e, "Problems while running "+alignProgram+" to align protein sequences: "+e.getMessage(),true);
-			} catch (InterruptedException e) {
-				throw new EppicException(e, "Thread interrupted while running "+alignProgram+" to align protein sequences: "+e.getMessage(),true);
-			} 
+			align(chainEvCont, params);
 
 		}
 		params.getProgressLog().println();
 	}
 	
+	private void align(ChainEvolContext chainEvCont, EppicParams params) throws EppicException {
+		try {
+			chainEvCont.align(params);
+		} catch (IOException e) {
+			throw new EppicException(e, "Problems while running "+ALIGN_PROGRAM+" to align protein sequences: "+e.getMessage(),true);
+		} catch (InterruptedException e) {
+			throw new EppicException(e, "Thread interrupted while running "+ALIGN_PROGRAM+" to align protein sequences: "+e.getMessage(),true);
+		} 
+	}
+	
 	public void computeEntropies(EppicParams params) {
 		for (ChainEvolContext chainEvCont:cecs.values()) {
 			if (!chainEvCont.hasQueryMatch()) {
 				// no query uniprot match, we do nothing with this sequence
 				continue;
 			}
+			if (chainEvCont.isEvolContextFromStore()) {
+				// homologs, alignment and entropies were read from the store
+				continue;
+			}
 			
 			chainEvCont.computeEntropies(params.getAlphabet());
+			
+			if (evolContextStore!=null) chainEvCont.storeEvolContext(evolContextStore, params);
 		}
+		
+		logEvolContextStoreStatistics();
 	}
 	
 	/**
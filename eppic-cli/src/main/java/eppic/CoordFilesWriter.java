@@ -0,0 +1,254 @@
+package eppic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.StructureException;
+import org.biojava.nbio.structure.contact.StructureInterface;
+import org.biojava.nbio.structure.io.FileConvert;
+import org.biojava.nbio.structure.io.mmcif.MMCIFFileTools;
+import org.biojava.nbio.structure.io.mmcif.SimpleMMcifParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eppic.assembly.Assembly;
+import eppic.commons.util.AtomSiteWriter;
+
+/**
+ * Writes the coordinate files of interfaces and assemblies (mmCIF and optionally PDB, gzipped),
+ * one task per file in a pool of {@link EppicParams#getNumThreads()} threads.
+ * The records are streamed into the compressor as they are generated, without building the
+ * whole file contents in memory.
+ * <p>
+ * Optionally (see {@link EppicParams#isWriteCoordsArchive()}) all mmCIF files are also
+ * put together in a single archive, the concatenation of the gzipped files in order: interfaces
+ * and then assemblies, by id. The archive is a valid gzip file (of a multi-block mmCIF file) and each
+ * of the entries is in turn a valid gzip file that can be read independently, at the offset and
+ * length given in the index file. The index file has one tab-separated line per entry with
+ * type (interface or assembly), id, offset and length in bytes.
+ *
+ * @author Jose Duarte
+ *
+ */
+public class CoordFilesWriter {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CoordFilesWriter.class);
+
+	public static final String ARCHIVE_ENTRY_INTERFACE = "interface";
+	public static final String ARCHIVE_ENTRY_ASSEMBLY = "assembly";
+
+	private EppicParams params;
+
+	public CoordFilesWriter(EppicParams params) {
+		this.params = params;
+	}
+
+	/**
+	 * Writes the coordinate files for the given interfaces and assemblies and the archive if
+	 * {@link EppicParams#isWriteCoordsArchive()}.
+	 * Assemblies whose coordinates can't be calculated are logged and skipped.
+	 * @param interfaces
+	 * @param assemblies
+	 * @throws EppicException if any of the files can't be written, the error of the first failed
+	 * file (in the order above) is thrown
+	 */
+	public void writeCoordFiles(List<StructureInterface> interfaces, List<Assembly> assemblies) throws EppicException {
+
+		int numThreads = Math.max(1, params.getNumThreads());
+
+		LOGGER.info("Writing coordinate files for {} interfaces and {} assemblies with {} threads",
+				interfaces.size(), assemblies.size(), numThreads);
+
+		ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		List<String> entryTypes = new ArrayList<String>();
+		List<Integer> entryIds = new ArrayList<Integer>();
+
+		for (final StructureInterface interf : interfaces) {
+			futures.add(threadPool.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws IOException {
+					writeInterfaceFiles(interf);
+					return true;
+				}
+			}));
+			entryTypes.add(ARCHIVE_ENTRY_INTERFACE);
+			entryIds.add(interf.getId());
+		}
+		for (final Assembly a : assemblies) {
+			futures.add(threadPool.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws IOException {
+					return writeAssemblyFiles(a);
+				}
+			}));
+			entryTypes.add(ARCHIVE_ENTRY_ASSEMBLY);
+			entryIds.add(a.getId());
+		}
+		threadPool.shutdown();
+
+		// we wait for the futures in order so that errors are deterministic
+		List<Boolean> written = new ArrayList<Boolean>();
+		try {
+			for (int i=0;i<futures.size();i++) {
+				try {
+					written.add(futures.get(i).get());
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw new EppicException((Exception) cause, "Couldn't write coordinates file for "+
+							entryTypes.get(i)+" "+entryIds.get(i)+": "+cause.getMessage(), true);
+				} catch (InterruptedException e) {
+					throw new EppicException(e, "Thread interrupted while writing coordinate files: "+e.getMessage(), true);
+				}
+			}
+		} finally {
+			threadPool.shutdownNow();
+		}
+
+		if (!params.isWriteCoordsArchive()) return;
+
+		File archiveFile = params.getOutputFile(EppicParams.COORDS_ARCHIVE_FILE_SUFFIX);
+		File indexFile = params.getOutputFile(EppicParams.COORDS_ARCHIVE_INDEX_FILE_SUFFIX);
+		LOGGER.info("Writing coordinates archive {} with index {}", archiveFile, indexFile);
+
+		try (OutputStream archive = new FileOutputStream(archiveFile);
+			 PrintWriter index = new PrintWriter(indexFile)) {
+
+			long offset = 0;
+			for (int i=0;i<written.size();i++) {
+				if (!written.get(i)) continue;
+				File entryFile = getMmCifFile(entryTypes.get(i), entryIds.get(i));
+				long length = Files.copy(entryFile.toPath(), archive);
+				index.println(entryTypes.get(i)+"\t"+entryIds.get(i)+"\t"+offset+"\t"+length);
+				offset += length;
+			}
+		} catch (IOException e) {
+			throw new EppicException(e, "Couldn't write coordinates archive: "+e.getMessage(), true);
+		}
+	}
+
+	private File getMmCifFile(String entryType, int id) {
+		String suffix = entryType.equals(ARCHIVE_ENTRY_INTERFACE) ?
+				EppicParams.INTERFACES_COORD_FILES_SUFFIX : EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX;
+		return params.getOutputFile(suffix + "." + id + EppicParams.MMCIF_FILE_EXTENSION);
+	}
+
+	private void writeInterfaceFiles(StructureInterface interf) throws IOException {
+		File outputFile = getMmCifFile(ARCHIVE_ENTRY_INTERFACE, interf.getId());
+		try (PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(outputFile)))) {
+			writeInterfaceMmCif(interf, ps);
+		}
+		if (params.isGeneratePdbFiles()) {
+			outputFile = params.getOutputFile(EppicParams.INTERFACES_COORD_FILES_SUFFIX + "." + interf.getId() + EppicParams.PDB_FILE_EXTENSION);
+			try (PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(outputFile)))) {
+				writeInterfacePdb(interf, ps);
+			}
+		}
+	}
+
+	/**
+	 * Writes the files for the given assembly
+	 * @param a
+	 * @return false if the assembly coordinates can't be calculated
+	 * @throws IOException
+	 */
+	private boolean writeAssemblyFiles(Assembly a) throws IOException {
+		File outputFile = getMmCifFile(ARCHIVE_ENTRY_ASSEMBLY, a.getId());
+		try {
+			LOGGER.info("Writing assembly {} to {}",a.getId(),outputFile);
+			a.writeToMmCifFile(outputFile);
+			if (params.isGeneratePdbFiles()) {
+				outputFile= params.getOutputFile(EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX+"." + a.getId() +  EppicParams.PDB_FILE_EXTENSION);
+				a.writeToPdbFile(outputFile);
+			}
+		} catch (StructureException e) {
+			LOGGER.error("Could not write assembly coordinates file {}: {}",a.getId(),e.getMessage());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the given interface in mmCIF format to the given stream. The output is the same as
+	 * {@link StructureInterface#toMMCIF()} except for the column alignment, see {@link AtomSiteWriter}.
+	 * @param interf
+	 * @param ps
+	 */
+	public static void writeInterfaceMmCif(StructureInterface interf, PrintStream ps) {
+		String molecId1 = interf.getMoleculeIds().getFirst();
+		String molecId2 = interf.getMoleculeIds().getSecond();
+
+		boolean symRelated = interf.isSymRelated();
+		if (symRelated) {
+			// same chain ids: we rename the second one so that viewers treat them as different chains
+			molecId2 = molecId2 + "_" + interf.getTransforms().getSecond().getTransformId();
+		}
+
+		ps.println(SimpleMMcifParser.MMCIF_TOP_HEADER+"BioJava_interface_"+interf.getId());
+
+		AtomSiteWriter atomSites = new AtomSiteWriter(ps);
+
+		// we reassign atom ids if sym related, otherwise atom ids would be duplicated
+		int atomId = 1;
+		for (Atom atom : interf.getMolecules().getFirst()) {
+			if (symRelated)
+				atomSites.add(MMCIFFileTools.convertAtomToAtomSite(atom, 1, molecId1, molecId1, atomId));
+			else
+				atomSites.add(MMCIFFileTools.convertAtomToAtomSite(atom, 1, molecId1, molecId1));
+			atomId++;
+		}
+		for (Atom atom : interf.getMolecules().getSecond()) {
+			if (symRelated)
+				atomSites.add(MMCIFFileTools.convertAtomToAtomSite(atom, 1, molecId2, molecId2, atomId));
+			else
+				atomSites.add(MMCIFFileTools.convertAtomToAtomSite(atom, 1, molecId2, molecId2));
+			atomId++;
+		}
+		atomSites.finish();
+	}
+
+	/**
+	 * Writes the given interface in PDB format to the given stream, one atom at a time.
+	 * The output is the same as {@link StructureInterface#toPDB()}.
+	 * @param interf
+	 * @param ps
+	 */
+	public static void writeInterfacePdb(StructureInterface interf, PrintStream ps) {
+		String chainId1 = interf.getMoleculeIds().getFirst();
+		String chainId2 = interf.getMoleculeIds().getSecond();
+
+		if (chainId1.equals(chainId2)) {
+			// PDB format only allows 1-letter chain ids: we use the next letter for the second one
+			char c = chainId2.charAt(0);
+			if (c=='Z' || c=='z') chainId2 = Character.toString((char)(c-25));
+			else chainId2 = Character.toString((char)(c+1));
+		}
+
+		for (Atom atom : interf.getMolecules().getFirst()) {
+			ps.print(FileConvert.toPDB(atom, chainId1));
+		}
+		ps.println("TER");
+		for (Atom atom : interf.getMolecules().getSecond()) {
+			ps.print(FileConvert.toPDB(atom, chainId2));
+		}
+		ps.println("TER");
+		ps.println("END");
+	}
+}
@@ -47,7 +47,6 @@ import eppic.assembly.AssemblyDescription;
 import eppic.assembly.CrystalAssemblies;
 import eppic.assembly.GraphUtils;
 import eppic.commons.sequence.Homolog;
-import eppic.commons.util.Goodies;
 import eppic.model.AssemblyContentDB;
 import eppic.model.AssemblyDB;
 import eppic.model.AssemblyScoreDB;
@@ -65,6 +64,7 @@ import eppic.model.ResidueInfoDB;
 import eppic.model.RunParametersDB;
 import eppic.model.ScoringMethod;
 import eppic.model.UniProtRefWarningDB;
+import eppic.model.io.ResultFileWriter;
 import eppic.predictors.CombinedClusterPredictor;
 import eppic.predictors.CombinedPredictor;
 import eppic.predictors.EvolCoreRimClusterPredictor;
@@ -1126,9 +1126,14 @@ public class DataModelAdaptor {
 		}
 	}
 	
+	/**
+	 * Writes the model to the given file in the binary result format, see {@link ResultFileWriter}
+	 * @param file
+	 * @throws EppicException
+	 */
 	public void writeSerializedModelFile(File file) throws EppicException {
 		try {
-			Goodies.serialize(file,pdbInfo);
+			ResultFileWriter.writeToFile(pdbInfo, file);
 		} catch (IOException e) {
 			throw new EppicException(e, e.getMessage(), true);
 		}
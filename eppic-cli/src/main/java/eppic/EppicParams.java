@@ -65,13 +65,15 @@ public class EppicParams {
 	protected static final String  SERIALIZED_MODEL_FILE_SUFFIX = ".webui.dat";
 	protected static final String  SCORES_FILE_SUFFIX = ".scores";
 	protected static final String  STEPS_LOG_FILE_SUFFIX = ".steps.log";
-	protected static final String  BLAST_CACHE_FILE_SUFFIX = ".blast.xml.gz";
+	protected static final String  BLAST_CACHE_FILE_SUFFIX = ".blast.tab.gz";
 	protected static final String  ASSEMBLIES_FILE_SUFFIX = ".assemblies";
 	public static final String     ASSEMBLIES_COORD_FILES_SUFFIX = ".assembly";
 	public static final String     ASSEMBLIES_DIAGRAM_FILES_SUFFIX = ".diagram";
 	public static final String     ASSEMBLIES_3DGRAPH_FILES_SUFFIX = ".latticeGraph";
 	public static final String     INTERFACES_COORD_FILES_SUFFIX = ".interface";
 	public static final String     UNIT_CELL_COORD_FILES_SUFFIX = ".cell";
+	public static final String     COORDS_ARCHIVE_FILE_SUFFIX = ".coords.cif.gz";
+	public static final String     COORDS_ARCHIVE_INDEX_FILE_SUFFIX = ".coords.idx";
 
 	// the default used to be 5.9 to match PISA, now reduced to 5.5 in order to reduce
 	// the number of useless too small interfaces and thus make PDB-wide calculations a bit
@@ -162,8 +164,6 @@ public class EppicParams {
 	
 	// default blast settings
 	private static final File     DEF_BLASTP_BIN = new File("/usr/bin/blastp"); // from blast+ package
-	private static final File     DEF_BLASTCLUST_BIN = new File("/usr/bin/blastclust"); // from legacy blast package
-	private static final String   DEF_BLAST_DATA_DIR = "/usr/share/blast";
 	
 	// default aligner programs execs: blank files, so that we can control that one and only one is set (see checkConfigFileInput)
 	private static final File	  DEF_CLUSTALO_BIN = new File("");
@@ -204,6 +204,8 @@ public class EppicParams {
 	// default cache dirs
 	private static final String   DEF_BLAST_CACHE_DIR = null;
 	private static final String   DEF_ALN_CACHE_DIR = null;
+	private static final String   DEF_EVOL_CACHE_DIR = null;
+	private static final long     DEF_EVOL_CACHE_MAX_SIZE = 10240; // in MB
 	
 	// default use uniparc
 	private static final boolean  DEF_USE_UNIPARC = true;
@@ -211,6 +213,15 @@ public class EppicParams {
 	// default use pdb res serials for output
 	public static final boolean   DEF_USE_PDB_RES_SER = true;
 	
+	// default number of chains whose evolutionary context is calculated at the same time: 1 is serial mode
+	private static final int      DEF_NUM_EVOL_CONTEXT_WORKERS = 1;
+	
+	// default don't write the single archive of coordinate files
+	private static final boolean  DEF_WRITE_COORDS_ARCHIVE = false;
+	
+	// default seed for sampling the core-surface scores distribution: fixed so that runs are reproducible
+	public static final long      DEF_CORESURF_SAMPLING_SEED = 0;
+	
 	// Logistic regression model for interface classification
 	/** Intersection of the logistic regression classifier */
 	public static final double LOGIT_INTERSECT = -3.9;
@@ -308,11 +319,8 @@ public class EppicParams {
 	
 	private boolean  useSifts;
 	
-	private File     blastclustBin;
 	private File     blastpBin;
 	
-	private String   blastDataDir; // dir with blosum matrices only needed for blastclust
-	
 	private File	 clustaloBin;
 	
 	private File	 pymolExe;
@@ -339,11 +347,18 @@ public class EppicParams {
 			
 	private String   blastCacheDir;
 	private String   alnCacheDir;
+	private String   evolCacheDir;
+	private long     evolCacheMaxSize;
 	
 	private boolean  useUniparc;
 	
 	private boolean  usePdbResSer;
 	
+	private int      numEvolContextWorkers;
+	private long     coreSurfSamplingSeed;
+	
+	private boolean  writeCoordsArchive;
+	
 	
 	// and finally the ones with no defaults
 	private String   blastDbDir; // no default
@@ -535,7 +550,7 @@ public class EppicParams {
 		"                  This option will force the -p option\n" +
 		"  [-f]         :  if specified together with -p, coordinate output will also be produced in \n"+
 		"                  PDB (gzipped) format as well as mmCIF format\n"+
-		"  [-w]         :  if specified a serialized webui.dat file will be produced\n" +
+		"  [-w]         :  if specified a webui.dat file (binary result format) will be produced\n" +
 		"  [-L <file>]  :  a file where progress log will be written to. Default: progress\n" +
 		"                  log written to std output\n" +
 		"  [-g <file>]  :  an "+PROGRAM_NAME+" config file. This will override the existing \n" +
@@ -643,14 +658,6 @@ public class EppicParams {
 			if (!blastpBin.exists()) {
 				throw new EppicException(null,"The BLASTP_BIN path given in config file does not exist: "+blastpBin,true);
 			}
-			if (!blastclustBin.exists()) {
-				throw new EppicException(null,"The BLASTCLUST_BIN path given in config file does not exist: "+blastclustBin,true);
-			}
-			if (! new File(blastDataDir).isDirectory()) {
-				throw new EppicException(null,"BLAST_DATA_DIR must be set to a valid value in config file. Directory "+blastDataDir+ " doesn't exist.",true);
-			} else if (! new File(blastDataDir,"BLOSUM62").exists()) {
-				throw new EppicException(null, "BLAST_DATA_DIR parameter in config file must be set to a dir containing a blast BLOSUM62 file. No BLOSUM62 file in "+blastDataDir, true);
-			}
 			
 			// alignment programs: we allow one and only one to be set
 			if (!clustaloBin.exists()) {
@@ -902,6 +909,10 @@ public class EppicParams {
 		return progressLogFile;
 	}
 	
+	public void setProgressLog(PrintStream progressLog) {
+		this.progressLog = progressLog;
+	}
+	
 	public File getConfigFile() {
 		return configFile;
 	}
@@ -950,12 +961,8 @@ public class EppicParams {
 			siftsFile       = p.getProperty("SIFTS_FILE", DEF_SIFTS_FILE);
 			useSifts        = Boolean.parseBoolean(p.getProperty("USE_SIFTS", new Boolean(DEF_USE_SIFTS).toString()));
 			
-			blastclustBin   = new File(p.getProperty("BLASTCLUST_BIN", DEF_BLASTCLUST_BIN.toString()));
-			
 			blastpBin	    = new File(p.getProperty("BLASTP_BIN", DEF_BLASTP_BIN.toString()));
 			
-			blastDataDir    = p.getProperty("BLAST_DATA_DIR", DEF_BLAST_DATA_DIR);
-			
 			// for alignment programs we either read them or set them to null
 			clustaloBin		= new File(p.getProperty("CLUSTALO_BIN", DEF_CLUSTALO_BIN.toString()));
 			
@@ -987,11 +994,19 @@ public class EppicParams {
 			
 			blastCacheDir    = p.getProperty("BLAST_CACHE_DIR", DEF_BLAST_CACHE_DIR);
 			alnCacheDir		 = p.getProperty("ALN_CACHE_DIR", DEF_ALN_CACHE_DIR);
+			evolCacheDir	 = p.getProperty("EVOL_CACHE_DIR", DEF_EVOL_CACHE_DIR);
+			evolCacheMaxSize = Long.parseLong(p.getProperty("EVOL_CACHE_MAX_SIZE", new Long(DEF_EVOL_CACHE_MAX_SIZE).toString()));
 			
 			useUniparc       = Boolean.parseBoolean(p.getProperty("USE_UNIPARC",new Boolean(DEF_USE_UNIPARC).toString()));
 			
 			usePdbResSer	 = Boolean.parseBoolean(p.getProperty("USE_PDB_RES_SER",new Boolean(DEF_USE_PDB_RES_SER).toString()));
 			
+			numEvolContextWorkers = Integer.parseInt(p.getProperty("NUM_EVOL_CONTEXT_WORKERS", new Integer(DEF_NUM_EVOL_CONTEXT_WORKERS).toString()));
+			
+			coreSurfSamplingSeed = Long.parseLong(p.getProperty("CORESURF_SAMPLING_SEED", new Long(DEF_CORESURF_SAMPLING_SEED).toString()));
+			
+			writeCoordsArchive = Boolean.parseBoolean(p.getProperty("WRITE_COORDS_ARCHIVE", new Boolean(DEF_WRITE_COORDS_ARCHIVE).toString()));
+			
 			alphabet = new AAAlphabet(p.getProperty("CUSTOM_ALPHABET", DEF_ENTROPY_ALPHABET.toString()));
 			
 			
@@ -1022,14 +1037,6 @@ public class EppicParams {
 		return blastpBin;
 	}
 	
-	public File getBlastclustBin() {
-		return blastclustBin;
-	}
-
-	public String getBlastDataDir() {
-		return blastDataDir;
-	}
-	
 	public File getClustaloBin() {
 		return clustaloBin;
 	}
@@ -1081,6 +1088,18 @@ public class EppicParams {
 	public String getAlnCacheDir() {
 		return alnCacheDir;
 	}
+	
+	public String getEvolCacheDir() {
+		return evolCacheDir;
+	}
+	
+	/**
+	 * Returns the maximum size of the evolutionary context store in MB, not positive for no limit
+	 * @return
+	 */
+	public long getEvolCacheMaxSize() {
+		return evolCacheMaxSize;
+	}
 
 	public String getBlastDbDir() {
 		return blastDbDir;
@@ -1102,6 +1121,46 @@ public class EppicParams {
 		return usePdbResSer;
 	}
 	
+	/**
+	 * Returns the number of chains whose evolutionary context (blast, UniProt data retrieval, 
+	 * redundancy reduction, alignment, entropies) is calculated at the same time. 
+	 * If larger than 1 the threads given by {@link #getNumThreads()} are divided among the chains.
+	 * @return
+	 */
+	public int getNumEvolContextWorkers() {
+		return numEvolContextWorkers;
+	}
+	
+	public void setNumEvolContextWorkers(int numEvolContextWorkers) {
+		this.numEvolContextWorkers = numEvolContextWorkers;
+	}
+	
+	/**
+	 * Returns the seed used to sample the distribution of surface scores in core-surface scoring.
+	 * The same seed always yields the same core-surface scores for the same input.
+	 * @return
+	 */
+	public long getCoreSurfSamplingSeed() {
+		return coreSurfSamplingSeed;
+	}
+	
+	public void setCoreSurfSamplingSeed(long coreSurfSamplingSeed) {
+		this.coreSurfSamplingSeed = coreSurfSamplingSeed;
+	}
+	
+	/**
+	 * Returns true if all interface and assembly mmCIF files are also to be written to a single 
+	 * archive with an index of offsets, see {@link CoordFilesWriter}
+	 * @return
+	 */
+	public boolean isWriteCoordsArchive() {
+		return writeCoordsArchive;
+	}
+	
+	public void setWriteCoordsArchive(boolean writeCoordsArchive) {
+		this.writeCoordsArchive = writeCoordsArchive;
+	}
+	
 	public AAAlphabet getAlphabet() {
 		return alphabet;
 	}
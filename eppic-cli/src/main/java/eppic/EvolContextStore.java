@@ -0,0 +1,282 @@
+package eppic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eppic.commons.util.Goodies;
+
+/**
+ * A persistent store of evolutionary contexts (filtered homologs, alignment and entropies,
+ * see {@link eppic.commons.sequence.HomologList#copyFilteredSubset()}) in a directory,
+ * addressed by content: the key of an entry is a hash of the sequence used for searching
+ * homologs together with all parameters that affect the result and the UniProt version. Thus identical sequences share an entry whatever their UniProt reference, or
+ * lack of one.
+ * <p>
+ * Entries are written to a temporary file which is then atomically moved to its final
+ * name, so that any number of readers (threads or processes sharing the directory) only
+ * ever see complete entries. Reading an entry updates its modification time, and when the
+ * total size of the directory goes over the maximum the least recently used entries are deleted.
+ *
+ * @author duarte_j
+ *
+ */
+public class EvolContextStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(EvolContextStore.class);
+
+	/**
+	 * The version of the stored data, to be increased whenever the computation or the
+	 * serialized classes change in a way that makes old entries invalid
+	 */
+	private static final int STORE_VERSION = 1;
+
+	private static final String ENTRY_SUFFIX = ".evol.ser.gz";
+	private static final String TMP_PREFIX = ".tmp.";
+
+	/**
+	 * The fraction of the maximum size that the store is brought down to when evicting,
+	 * so that eviction does not happen on every write
+	 */
+	private static final double EVICTION_TARGET = 0.9;
+
+	private static final Map<File,EvolContextStore> SHARED_STORES = new HashMap<File, EvolContextStore>();
+
+	private final File dir;
+	private final long maxSize;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong writes;
+	private final AtomicLong evictions;
+	private final AtomicLong failures;
+
+	private final Object evictionLock;
+
+	/**
+	 * Constructs a new store in the given directory
+	 * @param dir
+	 * @param maxSize the maximum size of the store in bytes, if not positive there is no limit
+	 * @throws IOException if the directory does not exist and can't be created
+	 */
+	public EvolContextStore(File dir, long maxSize) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Could not create evolutionary context store directory "+dir);
+		}
+		this.dir = dir;
+		this.maxSize = maxSize;
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+		this.writes = new AtomicLong(0);
+		this.evictions = new AtomicLong(0);
+		this.failures = new AtomicLong(0);
+		this.evictionLock = new Object();
+	}
+
+	/**
+	 * Returns the store configured in the given params, shared by all entries run in this
+	 * JVM (see {@link BatchRunner}) so that statistics accumulate, or null if no store is configured
+	 * @param params
+	 * @return
+	 * @throws IOException if the directory does not exist and can't be created
+	 */
+	public static EvolContextStore getStore(EppicParams params) throws IOException {
+		if (params.getEvolCacheDir()==null) return null;
+		File dir = new File(params.getEvolCacheDir()).getAbsoluteFile();
+		synchronized (SHARED_STORES) {
+			EvolContextStore store = SHARED_STORES.get(dir);
+			if (store==null) {
+				store = new EvolContextStore(dir, params.getEvolCacheMaxSize()*1024L*1024L);
+				SHARED_STORES.put(dir, store);
+				LOGGER.info("Using evolutionary context store in {} (maximum size {} MB)", dir, params.getEvolCacheMaxSize());
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * Returns the key of the evolutionary context of the given sequence calculated with the given parameters
+	 * @param searchSeq the sequence used for searching homologs (the query's UniProt sequence in the search interval)
+	 * @param uniprotVer the version of UniProt used
+	 * @param domainOfLife the domain of life of the query, only relevant if filtering by domain of life, can be null
+	 * @param params
+	 * @return
+	 */
+	public static String getKey(String searchSeq, String uniprotVer, String domainOfLife, EppicParams params) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("v=").append(STORE_VERSION).append('\n');
+		sb.append("seq=").append(searchSeq).append('\n');
+		sb.append("uniprot=").append(uniprotVer).append('\n');
+		sb.append("blastDb=").append(params.getBlastDb()).append('\n');
+		sb.append("uniparc=").append(params.isUseUniparc()).append('\n');
+		sb.append("maxNumSeqs=").append(params.getMaxNumSeqs()).append('\n');
+		sb.append("minNumSeqs=").append(params.getMinNumSeqs()).append('\n');
+		sb.append("identicalsCov=").append(params.getMinQueryCovForIdenticalsRemoval()).append('\n');
+		sb.append("softId=").append(params.getHomSoftIdCutoff()).append('\n');
+		sb.append("hardId=").append(params.getHomHardIdCutoff()).append('\n');
+		sb.append("idStep=").append(params.getHomIdStep()).append('\n');
+		sb.append("queryCov=").append(params.getQueryCoverageCutoff()).append('\n');
+		sb.append("filterByDomain=").append(params.isFilterByDomain());
+		if (params.isFilterByDomain()) sb.append(':').append(domainOfLife);
+		sb.append('\n');
+		sb.append("alphabet=").append(params.getAlphabet()).append('\n');
+		return Goodies.computeMD5Sum(sb.toString());
+	}
+
+	/**
+	 * Returns the object stored with the given key or null if there is none.
+	 * Unreadable entries or entries of another type are deleted.
+	 * @param key
+	 * @param type
+	 * @return
+	 */
+	public <T extends Serializable> T get(String key, Class<T> type) {
+		File file = getFile(key);
+		if (!file.exists()) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		try (ObjectInputStream in = new ObjectInputStream(
+				new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))))) {
+
+			T obj = type.cast(in.readObject());
+			// recently used: last to be evicted
+			file.setLastModified(System.currentTimeMillis());
+			hits.incrementAndGet();
+			return obj;
+
+		} catch (IOException|ClassNotFoundException|ClassCastException e) {
+			// e.g. an entry written by an incompatible version or deleted while reading
+			LOGGER.warn("Could not read evolutionary context store entry {}, will recompute it. Error: {}", file, e.getMessage());
+			failures.incrementAndGet();
+			misses.incrementAndGet();
+			if (!file.delete() && file.exists()) {
+				LOGGER.warn("Could not delete evolutionary context store entry {}", file);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the given object with the given key, replacing any existing entry. 
+	 * Errors are logged and otherwise ignored: the store is only an optimisation.
+	 * @param key
+	 * @param obj
+	 */
+	public void put(String key, Serializable obj) {
+		File file = getFile(key);
+		File tmpFile = null;
+		try {
+			tmpFile = File.createTempFile(TMP_PREFIX+key+".", null, dir);
+			try (ObjectOutputStream out = new ObjectOutputStream(
+					new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))))) {
+				out.writeObject(obj);
+			}
+			try {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			writes.incrementAndGet();
+			LOGGER.info("Wrote evolutionary context store entry {}", file);
+		} catch (IOException e) {
+			LOGGER.warn("Could not write evolutionary context store entry {}. Error: {}", file, e.getMessage());
+			failures.incrementAndGet();
+			if (tmpFile!=null) tmpFile.delete();
+			return;
+		}
+
+		if (maxSize>0) evict();
+	}
+
+	/**
+	 * Deletes the least recently used entries while the store is over its maximum size.
+	 */
+	private void evict() {
+		synchronized (evictionLock) {
+			File[] files = dir.listFiles((d,name) -> name.endsWith(ENTRY_SUFFIX));
+			if (files==null) return;
+
+			long size = 0;
+			for (File file:files) size += file.length();
+			if (size<=maxSize) return;
+
+			// the modification times are read once, they can change while sorting
+			final Map<File,Long> lastUsed = new HashMap<File, Long>();
+			for (File file:files) lastUsed.put(file, file.lastModified());
+			Arrays.sort(files, Comparator.comparing(lastUsed::get));
+
+			long target = (long) (EVICTION_TARGET*maxSize);
+			for (File file:files) {
+				if (size<=target) break;
+				long length = file.length();
+				// another process can be evicting at the same time
+				if (file.delete() || !file.exists()) {
+					size -= length;
+					evictions.incrementAndGet();
+				}
+			}
+			LOGGER.info("Evicted least recently used entries from evolutionary context store, size is now {} MB", size/(1024*1024));
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(dir, key+ENTRY_SUFFIX);
+	}
+
+	public File getDir() {
+		return dir;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the hit rate of the store so far, or NaN if it was never used
+	 * @return
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		if (total==0) return Double.NaN;
+		return (double)h/(double)total;
+	}
+
+	/**
+	 * Returns a one line summary of the store usage so far
+	 * @return
+	 */
+	public String getStatistics() {
+		return String.format("%d hits, %d misses (hit rate %4.2f), %d written, %d evicted, %d failed",
+				hits.get(), misses.get(), getHitRate(), writes.get(), evictions.get(), failures.get());
+	}
+}
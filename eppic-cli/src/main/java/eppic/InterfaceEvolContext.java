@@ -4,7 +4,6 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.math.random.RandomDataImpl;
 import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.Chain;
 import org.biojava.nbio.structure.Group;
@@ -179,29 +178,35 @@ public class InterfaceEvolContext implements Serializable {
 	 * @param numSamples number of samples of size sampleSize to be taken from the surface
 	 * @param sampleSize number of residues in each sample
 	 * @param minAsaForSurface the minimum ASA for a residue to be considered surface
+	 * @param seed the seed for the random sampling, the same seed always gives the same distribution
 	 * @return
+	 * @see ResidueScoreSampler
 	 */
-	public double[] getSurfaceScoreDist(int molecId, int numSamples, int sampleSize, double minAsaForSurface) {
+	public double[] getSurfaceScoreDist(int molecId, int numSamples, int sampleSize, double minAsaForSurface, long seed) {
 		if (sampleSize==0) return new double[0];
 
-		double[] dist = new double[numSamples];
-		
 		List<Group> surfResidues = null;
 		if (molecId==FIRST) surfResidues = interf.getSurfaceResidues(minAsaForSurface).getFirst();
 		if (molecId==SECOND) surfResidues = interf.getSurfaceResidues(minAsaForSurface).getSecond();
 		
-		RandomDataImpl rd = new RandomDataImpl();
-		for (int i=0;i<numSamples;i++) {
-			Object[] sample = rd.nextSample(surfResidues, sampleSize);
-			List<Group> residues = new ArrayList<Group>(sample.length);
-			for (int j=0;j<sample.length;j++){
-				residues.add((Group)sample[j]);
-			}
-			ChainEvolContext cec = this.parent.getChainEvolContext(getChainId(molecId));
-			dist[i] = cec.calcScoreForResidueSet(residues);
-		}		
-
-		return dist;
+		ChainEvolContext cec = this.parent.getChainEvolContext(getChainId(molecId));
+		
+		ResidueScoreSampler sampler = new ResidueScoreSampler(cec.getConservationScores(surfResidues));
+		
+		return sampler.sample(numSamples, sampleSize, seed, true);
+	}
+	
+	/**
+	 * Returns the distribution of evolutionary scores of random subsets of residues in the surface for
+	 * given molecId, using a random seed
+	 * @param molecId the molecule id: either {@link #FIRST} or {@link #SECOND}
+	 * @param numSamples number of samples of size sampleSize to be taken from the surface
+	 * @param sampleSize number of residues in each sample
+	 * @param minAsaForSurface the minimum ASA for a residue to be considered surface
+	 * @return
+	 */
+	public double[] getSurfaceScoreDist(int molecId, int numSamples, int sampleSize, double minAsaForSurface) {
+		return getSurfaceScoreDist(molecId, numSamples, sampleSize, minAsaForSurface, System.nanoTime());
 	}
 	
 	/**
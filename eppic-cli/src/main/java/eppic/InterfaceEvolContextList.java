@@ -149,6 +149,12 @@ public class InterfaceEvolContextList implements Iterable<InterfaceEvolContext>,
 		}		
 	}
 	
+	public void setCoreSurfaceSamplingSeed(long samplingSeed) {
+		for (int i=0;i<list.size();i++) {
+			list.get(i).getEvolCoreSurfacePredictor().setSamplingSeed(samplingSeed);
+		}
+	}
+	
 	public void setCoreSurfaceScoreStrategy(int coreSurfaceScoreStrategy) {
 		LOGGER.info("Using core surface score strategy: "+coreSurfaceScoreStrategy);
 		for (int i=0;i<list.size();i++) {
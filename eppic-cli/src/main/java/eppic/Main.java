@@ -4,7 +4,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -15,10 +14,15 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.zip.GZIPOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.core.LoggerContext;
@@ -32,6 +36,7 @@ import org.biojava.nbio.structure.contact.StructureInterface;
 import org.biojava.nbio.structure.contact.StructureInterfaceCluster;
 import org.biojava.nbio.structure.contact.StructureInterfaceList;
 import org.biojava.nbio.structure.io.FileParsingParameters;
+import org.biojava.nbio.structure.io.LocalPDBDirectory.FetchBehavior;
 import org.biojava.nbio.structure.io.PDBFileParser;
 import org.biojava.nbio.structure.io.mmcif.ChemCompGroupFactory;
 import org.biojava.nbio.structure.io.mmcif.DownloadChemCompProvider;
@@ -80,6 +85,7 @@ public class Main {
 	private InterfaceEvolContextList iecList;
 	private List<GeometryPredictor> gps;
 	private List<GeometryClusterPredictor> gcps;
+	private List<List<Integer>> clusterMemberIndices;
 	
 	private CrystalAssemblies validAssemblies;
 	
@@ -87,6 +93,13 @@ public class Main {
 	private int stepCount;
 	
 	private DataModelAdaptor modelAdaptor;
+	
+	// resources shared by all runs in the same JVM, see initChemCompProvider and getAtomCache,
+	// only accessed while holding PDB_LOADING_LOCK
+	private static final Object PDB_LOADING_LOCK = new Object();
+	private static String chemCompProviderPath;
+	private static AtomCache atomCache;
+	private static String atomCacheKey;
 		
 	public Main() {
 		this.params = new EppicParams();
@@ -112,10 +125,7 @@ public class Main {
 		// some program that we run (which one???) produces an empty error.log file, let's also remove it here
 		new File("error.log").deleteOnExit();
 
-		if (params.getProgressLogFile()!=null) {
-			// the steps log file needed for the server, we only initialise it if a -L progress log file was passed (as that is only used by server)
-			stepsLogFile = new File(params.getOutDir(),params.getBaseName()+EppicParams.STEPS_LOG_FILE_SUFFIX);
-		}
+		initStepsLog();
 		
 		// TODO what about the debug logging? we used to do it from command line param -u, should we do it from xml file?
 //		if (params.getDebug())
@@ -124,6 +134,16 @@ public class Main {
 
 	}
 	
+	/**
+	 * Initialises the steps log file needed for the server, only if a -L progress log file 
+	 * was passed (as that is only used by server)
+	 */
+	private void initStepsLog() {
+		if (params.getProgressLogFile()!=null) {
+			stepsLogFile = new File(params.getOutDir(),params.getBaseName()+EppicParams.STEPS_LOG_FILE_SUFFIX);
+		}
+	}
+	
 	public void loadConfigFile() {
 		// loading settings from config file
 		File userConfigFile = new File(System.getProperty("user.home"),EppicParams.CONFIG_FILE_NAME);  
@@ -151,6 +171,66 @@ public class Main {
 
 	}
 
+	/**
+	 * Sets BioJava's chem comp provider to a DownloadChemCompProvider with the given path, unless 
+	 * it was already set with the same path by a previous run in this JVM: like that the
+	 * chemical component definitions already loaded are kept when running many entries in the same JVM.
+	 * Requires {@link #PDB_LOADING_LOCK}.
+	 * @param atomCachePath the path or null for BioJava's default
+	 */
+	private static void initChemCompProvider(String atomCachePath) {
+		String key = atomCachePath==null ? "" : atomCachePath;
+		if (key.equals(chemCompProviderPath) && ChemCompGroupFactory.getChemCompProvider() instanceof DownloadChemCompProvider) {
+			return;
+		}
+		if (atomCachePath!=null)
+			ChemCompGroupFactory.setChemCompProvider(new DownloadChemCompProvider(atomCachePath));
+		else 
+			ChemCompGroupFactory.setChemCompProvider(new DownloadChemCompProvider());
+		chemCompProviderPath = key;
+	}
+	
+	/**
+	 * Returns the AtomCache to load structures from, creating it only if the one used by a 
+	 * previous run in this JVM was set up with a different path or fetch behavior.
+	 * Requires {@link #PDB_LOADING_LOCK}, the AtomCache should only be used while holding it.
+	 * @param params
+	 * @return
+	 */
+	private static AtomCache getAtomCache(EppicParams params) {
+		
+		FetchBehavior fetchBehavior = params.getFetchBehavior()!=null ? params.getFetchBehavior() : EppicParams.DEF_FETCH_BEHAVIOR;
+		String key = params.getAtomCachePath()+"/"+fetchBehavior;
+		
+		if (atomCache!=null && key.equals(atomCacheKey)) {
+			return atomCache;
+		}
+		
+		AtomCache cache = null;
+		
+		if (params.getAtomCachePath()!=null) {
+			LOGGER.info("Path given in ATOM_CACHE_PATH, setting AtomCache to {} and ignoring env variable PDB_DIR", params.getAtomCachePath());
+			cache = new AtomCache(params.getAtomCachePath());
+		} else {
+			cache = new AtomCache();
+		}
+		cache.setUseMmCif(true);
+		
+		// we set default fetch behavior to FETCH_IF_OUTDATED which is the closest to rsync
+		cache.setFetchBehavior(fetchBehavior);
+		
+		FileParsingParameters fileParsingParams = new FileParsingParameters();
+		fileParsingParams.setAlignSeqRes(true);
+		fileParsingParams.setParseBioAssembly(true);
+		cache.setFileParsingParams(fileParsingParams);
+		
+		StructureIO.setAtomCache(cache); 
+		
+		atomCache = cache;
+		atomCacheKey = key;
+		return cache;
+	}
+
 	public void doLoadPdb() throws EppicException {	
 		
 		// Before loading anything we make sure that BioJava is set to DownloadChemCompProvider.
@@ -162,91 +242,70 @@ public class Main {
 		//      we will need to revise this
 		
 		
-		if (params.getAtomCachePath()!=null)
-			ChemCompGroupFactory.setChemCompProvider(new DownloadChemCompProvider(params.getAtomCachePath()));
-		else 
-			ChemCompGroupFactory.setChemCompProvider(new DownloadChemCompProvider());
+		// BioJava's chem comp definitions are static and not thread-safe: when running many entries
+		// in the same JVM (see BatchRunner) the structures are loaded one at a time
+		synchronized (PDB_LOADING_LOCK) {
+			initChemCompProvider(params.getAtomCachePath());
 		
-		params.getProgressLog().println("Loading PDB data: "+(params.getInFile()==null?params.getPdbCode():params.getInFile().getName()));
-		writeStep("Calculating Interfaces");
-		pdb = null;
-		try {
-			if (!params.isInputAFile()) {
-				
-				AtomCache cache = null;
-								
-				if (params.getAtomCachePath()!=null) {
-					LOGGER.info("Path given in ATOM_CACHE_PATH, setting AtomCache to {} and ignoring env variable PDB_DIR", params.getAtomCachePath());
-					cache = new AtomCache(params.getAtomCachePath());
-				} else {
-					cache = new AtomCache();
-				}
-				cache.setUseMmCif(true);
-				
-				// we set default fetch behavior to FETCH_IF_OUTDATED which is the closest to rsync
-				if (params.getFetchBehavior()!=null) {
-					cache.setFetchBehavior(params.getFetchBehavior());
-				} else {
-					cache.setFetchBehavior(EppicParams.DEF_FETCH_BEHAVIOR);
-				}
-				FileParsingParameters fileParsingParams = new FileParsingParameters();
-				fileParsingParams.setAlignSeqRes(true);
-				fileParsingParams.setParseBioAssembly(true);
-				cache.setFileParsingParams(fileParsingParams);
-				
-				StructureIO.setAtomCache(cache); 
+			params.getProgressLog().println("Loading PDB data: "+(params.getInFile()==null?params.getPdbCode():params.getInFile().getName()));
+			writeStep("Calculating Interfaces");
+			pdb = null;
+			try {
+				if (!params.isInputAFile()) {
 				
+					AtomCache cache = getAtomCache(params);
 				
-				try {
-					pdb = StructureIO.getStructure(params.getPdbCode());
-				} catch(IOException e) {
-					throw new EppicException(e,"Couldn't get cif file from AtomCache for code "+params.getPdbCode()+". Error: "+e.getMessage(),true);
-				}
+					try {
+						pdb = cache.getStructure(params.getPdbCode());
+					} catch(IOException e) {
+						throw new EppicException(e,"Couldn't get cif file from AtomCache for code "+params.getPdbCode()+". Error: "+e.getMessage(),true);
+					}
 					
-			} else {
+				} else {
 
-				int fileType = FileTypeGuesser.guessFileType(params.getInFile());
+					int fileType = FileTypeGuesser.guessFileType(params.getInFile());
 				
-				if (fileType==FileTypeGuesser.CIF_FILE) {
+					if (fileType==FileTypeGuesser.CIF_FILE) {
 
-					MMcifParser parser = new SimpleMMcifParser();
+						MMcifParser parser = new SimpleMMcifParser();
 
-					SimpleMMcifConsumer consumer = new SimpleMMcifConsumer();
+						SimpleMMcifConsumer consumer = new SimpleMMcifConsumer();
 
-					FileParsingParameters fileParsingParams = new FileParsingParameters();
-					// TODO we should parse PDB files with no X padding if no SEQRES is found. Otherwise matching to uniprot doesn't work in many cases
-					//fileParsingParams.set????					
-					fileParsingParams.setAlignSeqRes(true);
+						FileParsingParameters fileParsingParams = new FileParsingParameters();
+						// TODO we should parse PDB files with no X padding if no SEQRES is found. Otherwise matching to uniprot doesn't work in many cases
+						//fileParsingParams.set????					
+						fileParsingParams.setAlignSeqRes(true);
 
-					consumer.setFileParsingParameters(fileParsingParams);
+						consumer.setFileParsingParameters(fileParsingParams);
 
-					parser.addMMcifConsumer(consumer);
+						parser.addMMcifConsumer(consumer);
 
-					parser.parse(new BufferedReader(new InputStreamReader(IOUtils.openFile(params.getInFile())))); 
+						parser.parse(new BufferedReader(new InputStreamReader(IOUtils.openFile(params.getInFile())))); 
 
-					pdb = consumer.getStructure();
+						pdb = consumer.getStructure();
 					
-				} else if (fileType==FileTypeGuesser.PDB_FILE || fileType==FileTypeGuesser.RAW_PDB_FILE) {
+					} else if (fileType==FileTypeGuesser.PDB_FILE || fileType==FileTypeGuesser.RAW_PDB_FILE) {
 
-					PDBFileParser parser = new PDBFileParser();
+						PDBFileParser parser = new PDBFileParser();
 					
-					FileParsingParameters fileParsingParams = new FileParsingParameters();
-					// TODO we should parse PDB files with no X padding if no SEQRES is found. Otherwise matching to uniprot doesn't work in many cases
-					//fileParsingParams.set????
-					fileParsingParams.setAlignSeqRes(true);
+						FileParsingParameters fileParsingParams = new FileParsingParameters();
+						// TODO we should parse PDB files with no X padding if no SEQRES is found. Otherwise matching to uniprot doesn't work in many cases
+						//fileParsingParams.set????
+						fileParsingParams.setAlignSeqRes(true);
 					
-					parser.setFileParsingParameters(fileParsingParams);
+						parser.setFileParsingParameters(fileParsingParams);
 					
-					pdb = parser.parsePDBFile(new FileInputStream(params.getInFile()));
+						pdb = parser.parsePDBFile(new FileInputStream(params.getInFile()));
 					
-				}
+					}
 
 
+				}
+			} catch (StructureException e) {
+				throw new EppicException(e,"Couldn't load file PDB/mmCIF file. Error: "+e.getMessage(),true);
+			} catch (IOException e) {
+				throw new EppicException(e,"Problems reading PDB data from "+params.getInFile()+". Error: "+e.getMessage(),true);
 			}
-		} catch (StructureException e) {
-			throw new EppicException(e,"Couldn't load file PDB/mmCIF file. Error: "+e.getMessage(),true);
-		} catch (IOException e) {
-			throw new EppicException(e,"Problems reading PDB data from "+params.getInFile()+". Error: "+e.getMessage(),true);
 		}
 		
 		if (pdb.getCrystallographicInfo()==null || pdb.getCrystallographicInfo().getCrystalCell()==null) {
@@ -271,6 +330,7 @@ public class Main {
 		interfaces = interfFinder.getUniqueInterfaces(EppicParams.INTERFACE_DIST_CUTOFF);
 		interfaces.calcAsas(params.getnSpherePointsASAcalc(), params.getNumThreads(), params.getMinSizeCofactorForAsa());
 		interfaces.removeInterfacesBelowArea(EppicParams.MIN_INTERFACE_AREA_TO_KEEP);
+		clusterMemberIndices = null;
 		
 		LOGGER.info("Interfaces calculated with "+params.getnSpherePointsASAcalc()+" sphere points.");
 
@@ -407,34 +467,30 @@ public class Main {
 			return;
 		}
 
-		// interface scoring
-		gps = new ArrayList<GeometryPredictor>();
-		for (StructureInterface interf:interfaces) {
-			GeometryPredictor gp = new GeometryPredictor(interf);
-			gps.add(gp);
+		// interface scoring: each predictor only touches its own interface, so they can run in parallel
+		gps = computeInParallel(interfaces.size(), i -> {
+			GeometryPredictor gp = new GeometryPredictor(interfaces.get(i+1));
 			gp.setBsaToAsaCutoff(params.getCAcutoffForGeom());
 			gp.setMinAsaForSurface(params.getMinAsaForSurface());
 			gp.setMinCoreSizeForBio(params.getMinCoreSizeForBio());
 			gp.computeScores();
-		}
+			return gp;
+		});
 		
 		// interface cluster scoring
-		gcps = new ArrayList<GeometryClusterPredictor>();
-		for (StructureInterfaceCluster interfaceCluster:interfaces.getClusters(EppicParams.CLUSTERING_CONTACT_OVERLAP_SCORE_CUTOFF)) {
+		List<List<Integer>> clusterMembers = getClusterMemberIndices();
+		gcps = computeInParallel(clusterMembers.size(), c -> {
 			List<GeometryPredictor> gpsForCluster = new ArrayList<GeometryPredictor>();
-			
-			for (int i=0;i<interfaces.size();i++) {
-				if ( interfaces.get(i+1).getCluster().getId()==interfaceCluster.getId()) {
-					gpsForCluster.add(gps.get(i));
-				}
+			for (int i:clusterMembers.get(c)) {
+				gpsForCluster.add(gps.get(i));
 			}
 			
 			GeometryClusterPredictor gcp = new GeometryClusterPredictor(gpsForCluster);
 
 			gcp.setMinCoreSizeForBio(params.getMinCoreSizeForBio());
-			gcp.computeScores();			
-			gcps.add(gcp);
-		}
+			gcp.computeScores();
+			return gcp;
+		});
 
 		// writing to the model: for the webui and csv output files
 		modelAdaptor.setInterfaces(interfaces); // this writes all interface geom info, including h-bonds, disulfides etc
@@ -443,6 +499,72 @@ public class Main {
 
 	}
 	
+	/**
+	 * Returns the indices (0-based, in the order of the interface list) of the interfaces 
+	 * belonging to each interface cluster, in the order of {@link StructureInterfaceList#getClusters(double)}.
+	 * The grouping is done in a single pass over the interfaces and then cached.
+	 * @return
+	 */
+	private List<List<Integer>> getClusterMemberIndices() {
+		if (clusterMemberIndices!=null) return clusterMemberIndices;
+		
+		List<StructureInterfaceCluster> clusters = interfaces.getClusters(EppicParams.CLUSTERING_CONTACT_OVERLAP_SCORE_CUTOFF);
+		Map<Integer,List<Integer>> clusterId2indices = new HashMap<Integer, List<Integer>>();
+		List<List<Integer>> indices = new ArrayList<List<Integer>>(clusters.size());
+		for (StructureInterfaceCluster cluster:clusters) {
+			List<Integer> members = new ArrayList<Integer>();
+			clusterId2indices.put(cluster.getId(), members);
+			indices.add(members);
+		}
+		for (int i=0;i<interfaces.size();i++) {
+			List<Integer> members = clusterId2indices.get(interfaces.get(i+1).getCluster().getId());
+			if (members!=null) members.add(i);
+		}
+		clusterMemberIndices = indices;
+		return clusterMemberIndices;
+	}
+	
+	/**
+	 * Computes the given task for each index from 0 to size-1 on a fork-join pool of 
+	 * {@link EppicParams#getNumThreads()} threads, returning the results in index order 
+	 * so that the outcome does not depend on the scheduling of the tasks. 
+	 * With 1 thread the tasks are run sequentially in the calling thread.
+	 * @param size
+	 * @param task
+	 * @return
+	 * @throws EppicException if any of the tasks throws an exception
+	 */
+	private <T> List<T> computeInParallel(int size, IntFunction<T> task) throws EppicException {
+		List<T> results = new ArrayList<T>(size);
+		if (params.getNumThreads()<=1 || size<=1) {
+			for (int i=0;i<size;i++) {
+				results.add(task.apply(i));
+			}
+			return results;
+		}
+		
+		Object[] array = new Object[size];
+		ForkJoinPool pool = new ForkJoinPool(params.getNumThreads());
+		try {
+			pool.submit(() -> IntStream.range(0, size).parallel().forEach(i -> array[i] = task.apply(i))).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EppicException(e, "Interrupted while scoring interfaces", true);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error) throw (Error) cause;
+			throw new EppicException((Exception)cause, "Problem while scoring interfaces: "+cause.getMessage(), true);
+		} finally {
+			pool.shutdown();
+		}
+		for (Object result:array) {
+			@SuppressWarnings("unchecked")
+			T t = (T) result;
+			results.add(t);
+		}
+		return results;
+	}
+	
 	public void doWriteTextOutputFiles() throws EppicException {
 		
 		TextOutputWriter toW = new TextOutputWriter(modelAdaptor.getPdbInfo(), params);
@@ -506,55 +628,25 @@ public class Main {
 
 		if (!params.isGenerateOutputCoordFiles()) return;
 		
-		
-		
-		try {
-			if (params.isDoEvolScoring() && iecList!=null) { //iecList can be null if there are no interfaces (e.g. NMR monomers)
-				// we set the entropies as bfactors in case we are in evol scoring (-s)
-				// this will reset the bfactors in the Chain objects of the StructureInterface objects
-				// so both interfaces and assembly files will be written with reset bfactors
-				for (InterfaceEvolContext iec:iecList) {				
-					iec.setConservationScoresAsBfactors();
-				}
-			}
-			
-			// INTERFACE files
-			for (StructureInterface interf : interfaces) {
-				File outputFile = params.getOutputFile(EppicParams.INTERFACES_COORD_FILES_SUFFIX + "." + interf.getId() + EppicParams.MMCIF_FILE_EXTENSION);
-				PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(outputFile)));				
-				ps.print(interf.toMMCIF());
-				ps.close();
-				if (params.isGeneratePdbFiles()) { 
-					outputFile = params.getOutputFile(EppicParams.INTERFACES_COORD_FILES_SUFFIX + "." + interf.getId() + EppicParams.PDB_FILE_EXTENSION);
-					ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(outputFile)));
-					ps.print(interf.toPDB());
-					ps.close();
-				}				
-			}
-				
-			// ASSEMBLY files
-			for (Assembly a:validAssemblies) {
-
-				File outputFile= params.getOutputFile(EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX+"." + a.getId() + EppicParams.MMCIF_FILE_EXTENSION);
-
-				try {
-					LOGGER.info("Writing assembly {} to {}",a.getId(),outputFile);
-					a.writeToMmCifFile(outputFile);
-					if (params.isGeneratePdbFiles()) {
-						outputFile= params.getOutputFile(EppicParams.ASSEMBLIES_COORD_FILES_SUFFIX+"." + a.getId() +  EppicParams.PDB_FILE_EXTENSION);
-						a.writeToPdbFile(outputFile);
-					}
-
-				} catch (StructureException e) {
-					LOGGER.error("Could not write assembly coordinates file {}: {}",a.getId(),e.getMessage());
-					continue;
-				}
-
+		if (params.isDoEvolScoring() && iecList!=null) { //iecList can be null if there are no interfaces (e.g. NMR monomers)
+			// we set the entropies as bfactors in case we are in evol scoring (-s)
+			// this will reset the bfactors in the Chain objects of the StructureInterface objects
+			// so both interfaces and assembly files will be written with reset bfactors
+			for (InterfaceEvolContext iec:iecList) {				
+				iec.setConservationScoresAsBfactors();
 			}
-			
-		} catch (IOException e) {
-			throw new EppicException(e, "Couldn't write interface PDB files. " + e.getMessage(), true);
-		} 
+		}
+		
+		// INTERFACE and ASSEMBLY files, written concurrently
+		List<StructureInterface> interfs = new ArrayList<StructureInterface>();
+		for (StructureInterface interf : interfaces) {
+			interfs.add(interf);
+		}
+		List<Assembly> assemblies = new ArrayList<Assembly>();
+		for (Assembly a:validAssemblies) {
+			assemblies.add(a);
+		}
+		new CoordFilesWriter(params).writeCoordFiles(interfs, assemblies);
 	}
 
 	public void doWriteAssemblyDiagrams() throws EppicException {
@@ -789,8 +881,16 @@ public class Main {
 			throw new EppicException(e,"Could not connect to local UniProt database server: "+e.getMessage(),true);
 		}
 		
+		writeStep("Finding Homologs and Calculating Entropies");
+		
+		if (params.getNumEvolContextWorkers()>1) {
+			// all steps below run as one task per chain
+			cecs.findEvolContextConcurrently(params, params.getNumEvolContextWorkers());
+			modelAdaptor.setUniProtVersion(cecs.getUniprotVer());
+			return;
+		}
+		
 		// a) getting the uniprot ids corresponding to the query (the pdb sequence)
-		writeStep("Finding Homologs and Calculating Entropies");		
 		cecs.retrieveQueryData(params);
 		modelAdaptor.setUniProtVersion(cecs.getUniprotVer());
 		
@@ -826,6 +926,7 @@ public class Main {
 
 			// core-surface
 			iecList.setCoreSurfacePredBsaToAsaCutoff(params.getCAcutoffForZscore(), params.getMinAsaForSurface()); // calls calcRimAndCores as well
+			iecList.setCoreSurfaceSamplingSeed(params.getCoreSurfSamplingSeed());
 			iecList.scoreCoreSurface();
 
 			// note this adds also the entropies to the residue details
@@ -840,31 +941,32 @@ public class Main {
 		if (interfaces.size()==0) return;
 		
 		// interface scoring
-		List<CombinedPredictor> cps = new ArrayList<CombinedPredictor>();
-		for (int i=0;i<iecList.size();i++) {
+		List<CombinedPredictor> cps = computeInParallel(iecList.size(), i -> {
 			CombinedPredictor cp = 
 					new CombinedPredictor(iecList.get(i), gps.get(i), iecList.get(i).getEvolCoreRimPredictor(), iecList.get(i).getEvolCoreSurfacePredictor());
 			cp.computeScores();
-			cps.add(cp);
-		}
+			return cp;
+		});
 		
 		// interface cluster scoring
-		List<CombinedClusterPredictor> ccps = new ArrayList<CombinedClusterPredictor>();		
-		for (StructureInterfaceCluster interfaceCluster:interfaces.getClusters(EppicParams.CLUSTERING_CONTACT_OVERLAP_SCORE_CUTOFF)) {
+		List<List<Integer>> clusterMembers = getClusterMemberIndices();
+		List<CombinedClusterPredictor> ccps = computeInParallel(clusterMembers.size(), c -> {
 			List<CombinedPredictor> ccpsForCluster = new ArrayList<CombinedPredictor>();
-			
-			for (int i=0;i<interfaces.size();i++) {
-				if ( interfaces.get(i+1).getCluster().getId()==interfaceCluster.getId()) {
-					ccpsForCluster.add(cps.get(i));
-				}
+			for (int i:clusterMembers.get(c)) {
+				ccpsForCluster.add(cps.get(i));
 			}
 			
 			CombinedClusterPredictor ccp = new CombinedClusterPredictor(ccpsForCluster);
 
 			ccp.computeScores();
-			ccps.add(ccp);
-			iecList.setCombinedClusterPredictor(interfaceCluster.getId(), ccp);
-		}			
+			return ccp;
+		});
+		
+		// setting the cluster predictors in order, after the parallel section
+		List<StructureInterfaceCluster> clusters = interfaces.getClusters(EppicParams.CLUSTERING_CONTACT_OVERLAP_SCORE_CUTOFF);
+		for (int c=0;c<clusters.size();c++) {
+			iecList.setCombinedClusterPredictor(clusters.get(c).getId(), ccps.get(c));
+		}
 
 		modelAdaptor.setCombinedPredictors(cps, ccps);
 
@@ -945,54 +1047,7 @@ public class Main {
 				LOGGER.warn("Could not determine host where we are running.");
 			}
 			
-			// 0 load pdb
-			doLoadPdb();
-
-			// 1 finding interfaces
-			doFindInterfaces();
-			
-					
-			// 2 find the assemblies
-			doFindAssemblies();
-
-			
-			// TODO call doHBPlus when fixed
-			// try hbplus if executable is set, writes pdb files needed for it (which then are overwritten in doWritePdbFiles)
-			//doHBPlus();
-			
-			doGeomScoring();
-			
-			if (params.isDoEvolScoring()) {
-				// 3 finding evolutionary context		
-				doFindEvolContext();
-
-				// 4 scoring
-				doEvolScoring();
-				
-				// 5 combined scoring
-				doCombinedScoring();
-				
-			}
-			
-			// 6 score assemblies and predict most likely assembly
-			doAssemblyScoring();
-			
-			// 7 write TSV files (only if not in -w) 	
-			doWriteTextOutputFiles();
-			
-			// 8 write coordinate files (only if in -l)
-			doWriteCoordFiles();
-			
-			// 9 write assembly diagrams (only if in -P)
-			doWriteAssemblyDiagrams();
-			
-			// 10 writing pymol files (only if in -l)
-			doWritePymolFiles();
-			
-			// 11 writing out the model serialized file and "finish" file for web ui (only if in -w)
-			doWriteFinalFiles();
-
-			
+			runSteps();
 
 			long end = System.nanoTime();
 			LOGGER.info("Finished successfully (total runtime "+((end-start)/1000000000L)+"s)");
@@ -1016,6 +1071,76 @@ public class Main {
 		
 	}
 	
+	/**
+	 * Runs the eppic analysis for the given parameters as one entry of a batch of entries 
+	 * processed in the same JVM (see {@link BatchRunner}). Unlike {@link #run(EppicParams)}, 
+	 * logging is not reconfigured (other than the steps log), the config file must have been read 
+	 * into the parameters already and errors are thrown instead of exiting.
+	 * @param params
+	 * @throws EppicException
+	 * @throws StructureException
+	 */
+	public void runEntry(EppicParams params) throws EppicException, StructureException {
+		this.params = params;
+		initStepsLog();
+		runSteps();
+	}
+	
+	/**
+	 * Runs all the steps of the analysis
+	 * @throws EppicException
+	 * @throws StructureException
+	 */
+	private void runSteps() throws EppicException, StructureException {
+		
+		// 0 load pdb
+		doLoadPdb();
+
+		// 1 finding interfaces
+		doFindInterfaces();
+		
+				
+		// 2 find the assemblies
+		doFindAssemblies();
+
+		
+		// TODO call doHBPlus when fixed
+		// try hbplus if executable is set, writes pdb files needed for it (which then are overwritten in doWritePdbFiles)
+		//doHBPlus();
+		
+		doGeomScoring();
+		
+		if (params.isDoEvolScoring()) {
+			// 3 finding evolutionary context		
+			doFindEvolContext();
+
+			// 4 scoring
+			doEvolScoring();
+			
+			// 5 combined scoring
+			doCombinedScoring();
+			
+		}
+		
+		// 6 score assemblies and predict most likely assembly
+		doAssemblyScoring();
+		
+		// 7 write TSV files (only if not in -w) 	
+		doWriteTextOutputFiles();
+		
+		// 8 write coordinate files (only if in -l)
+		doWriteCoordFiles();
+		
+		// 9 write assembly diagrams (only if in -P)
+		doWriteAssemblyDiagrams();
+		
+		// 10 writing pymol files (only if in -l)
+		doWritePymolFiles();
+		
+		// 11 writing out the model serialized file and "finish" file for web ui (only if in -w)
+		doWriteFinalFiles();
+	}
+	
 	public DataModelAdaptor getDataModelAdaptor() {
 		return modelAdaptor;
 	}
@@ -0,0 +1,102 @@
+package eppic;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Samples the distribution of average scores of random subsets (without replacement) of a fixed
+ * set of residues, e.g. the conservation scores of the surface residues of a chain.
+ * <p>
+ * The per-residue scores are given upfront as a primitive array, residues without a score
+ * (e.g. not mapped to the reference UniProt sequence) are marked with NaN and ignored in the
+ * averages, exactly as {@link ChainEvolContext#calcScoreForResidueSet(java.util.List)} does.
+ * Each sample is drawn with a partial Fisher-Yates shuffle of an index array.
+ * <p>
+ * Samples are drawn in blocks of {@value #SAMPLES_PER_BLOCK} that can run in parallel, every block
+ * using its own random generator split off from a root generator seeded with the given seed.
+ * Thus the sampled distribution depends only on the seed and not on the number of threads used.
+ */
+public class ResidueScoreSampler {
+
+	/**
+	 * The number of samples drawn by a single task and random generator
+	 */
+	public static final int SAMPLES_PER_BLOCK = 1000;
+
+	private final double[] scores;
+
+	/**
+	 * Constructs a new sampler for the given per-residue scores
+	 * @param scores the scores of every residue in the population, NaN for residues without a score
+	 */
+	public ResidueScoreSampler(double[] scores) {
+		this.scores = scores;
+	}
+
+	public int getPopulationSize() {
+		return scores.length;
+	}
+
+	/**
+	 * Draws numSamples random subsets of sampleSize residues and returns their average scores.
+	 * @param numSamples the number of samples to draw
+	 * @param sampleSize the number of residues in each sample
+	 * @param seed the seed for the random generator, the same seed always gives the same distribution
+	 * @param parallel whether to draw blocks of samples in parallel
+	 * @return an array of size numSamples with the average score of each sample (NaN if none of the
+	 * residues in the sample has a score)
+	 * @throws IllegalArgumentException if sampleSize is larger than the population size
+	 */
+	public double[] sample(final int numSamples, final int sampleSize, long seed, boolean parallel) {
+		if (sampleSize>scores.length) {
+			throw new IllegalArgumentException("Sample size "+sampleSize+" larger than population size "+scores.length);
+		}
+
+		final double[] dist = new double[numSamples];
+		if (sampleSize==0 || numSamples==0) return dist;
+
+		int numBlocks = (numSamples + SAMPLES_PER_BLOCK - 1) / SAMPLES_PER_BLOCK;
+
+		// splitting is done upfront and in order, so that the generator of each block is always the same
+		SplittableRandom root = new SplittableRandom(seed);
+		final SplittableRandom[] rngs = new SplittableRandom[numBlocks];
+		for (int b=0;b<numBlocks;b++) {
+			rngs[b] = root.split();
+		}
+
+		IntStream blocks = IntStream.range(0, numBlocks);
+		if (parallel) blocks = blocks.parallel();
+		blocks.forEach(b -> sampleBlock(dist, b*SAMPLES_PER_BLOCK, Math.min(numSamples, (b+1)*SAMPLES_PER_BLOCK), sampleSize, rngs[b]));
+
+		return dist;
+	}
+
+	/**
+	 * Fills dist from index start (inclusive) to end (exclusive) with sample averages
+	 */
+	private void sampleBlock(double[] dist, int start, int end, int sampleSize, SplittableRandom rng) {
+		int n = scores.length;
+		int[] indices = new int[n];
+		for (int i=0;i<n;i++) indices[i] = i;
+
+		for (int s=start;s<end;s++) {
+			double totalScore = 0.0;
+			double totalWeight = 0.0;
+			// partial Fisher-Yates: the first sampleSize positions end up with a uniform random subset.
+			// There's no need to reset the array between samples, any permutation is a valid starting point
+			for (int i=0;i<sampleSize;i++) {
+				int j = i + rng.nextInt(n-i);
+				int tmp = indices[i];
+				indices[i] = indices[j];
+				indices[j] = tmp;
+
+				double score = scores[indices[i]];
+				if (!Double.isNaN(score)) {
+					totalScore += score;
+					totalWeight += 1.0;
+				}
+			}
+			dist[s] = totalScore/totalWeight;
+		}
+	}
+}
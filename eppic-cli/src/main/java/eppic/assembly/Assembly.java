@@ -39,10 +39,8 @@ import org.biojava.nbio.structure.Structure;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.StructureTools;
 import org.biojava.nbio.structure.contact.StructureInterfaceCluster;
-import org.biojava.nbio.structure.io.FileConvert;
 import org.biojava.nbio.structure.io.mmcif.MMCIFFileTools;
 import org.biojava.nbio.structure.io.mmcif.SimpleMMcifParser;
-import org.biojava.nbio.structure.io.mmcif.model.AtomSite;
 import org.biojava.nbio.structure.symmetry.core.AxisAligner;
 import org.biojava.nbio.structure.symmetry.core.QuatSymmetryDetector;
 import org.biojava.nbio.structure.symmetry.core.QuatSymmetryParameters;
@@ -62,6 +60,7 @@ import org.slf4j.LoggerFactory;
 
 import eppic.CallType;
 import eppic.InterfaceEvolContextList;
+import eppic.commons.util.AtomSiteWriter;
 import eppic.commons.util.GeomTools;
 import eppic.predictors.InterfaceTypePredictor;
 
@@ -90,7 +89,7 @@ public class Assembly {
 	 * (lowest probability of biological) interfaces are removed from the 
 	 * calculation, in order to loose as little probability density as possible.
 	 */
-	private static final int MAX_NUM_ENGAGED_IFACES_SCORING = 10;
+	private static final int MAX_NUM_ENGAGED_IFACES_SCORING = 20;
 	
 	/**
 	 * A numerical identifier for the assembly, from 1 to n
@@ -243,10 +242,17 @@ public class Assembly {
 	 * <li>
 	 * finally checks that all cycles are closed by enumerating cycles and checking the translations add up to 0
 	 * </li>
+	 * If the parent CrystalAssemblies has a {@link ComponentValidityCache}, the checks are done per connected 
+	 * component and cached.
 	 * @return
 	 */
 	public boolean isClosedSymmetry() {
 		
+		ComponentValidityCache cache = crystalAssemblies.getComponentValidityCache();
+		if (cache!=null) {
+			return assemblyGraph.isClosedSymmetry(cache);
+		}
+		
 		// first we check for infinites, like that we save to compute the graph cycles for infinite cases
 		if (assemblyGraph.containsInfinites()) {
 			logger.debug("Discarding assembly {} because it contains infinite interfaces", toString());
@@ -863,7 +869,18 @@ public class Assembly {
 	 * @throws IOException
 	 */
 	public void writeToPdbFile(File file) throws StructureException, IOException {
-		PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(file)));
+		try (PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+			writeToPdb(ps);
+		}
+	}
+	
+	/**
+	 * Writes this Assembly in PDB format to the given stream with a model per chain, 
+	 * one chain at a time.
+	 * @param ps
+	 * @throws StructureException
+	 */
+	public void writeToPdb(PrintStream ps) throws StructureException {
 		int modelId = 1;
 		for (ChainVertex cv:getStructurePacked()) {
 			ps.println("MODEL"+String.format("%9d",modelId));
@@ -873,7 +890,6 @@ public class Assembly {
 			modelId++;
 		}
 		ps.println("END");
-		ps.close();
 	}
 	
 	/**
@@ -889,6 +905,18 @@ public class Assembly {
 	 * @throws StructureException
 	 */
 	public void writeToMmCifFile(File file) throws IOException, StructureException {
+		try (PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(file)))) {
+			writeToMmCif(ps);
+		}
+	}
+	
+	/**
+	 * Writes this Assembly in mmCIF format to the given stream, as described in {@link #writeToMmCifFile(File)}.
+	 * The atom records are streamed as they are generated, see {@link AtomSiteWriter}.
+	 * @param ps
+	 * @throws StructureException
+	 */
+	public void writeToMmCif(PrintStream ps) throws StructureException {
 
 		// Some molecular viewers like 3Dmol.js need globally unique atom identifiers (across chains)
 		// With the approach below we add an offset to atom ids of sym-related molecules to avoid repeating atom ids
@@ -905,13 +933,9 @@ public class Assembly {
 		if (numChains != uniqueChains.size()) symRelatedChainsExist = true;
 
 
-		PrintStream ps = new PrintStream(new GZIPOutputStream(new FileOutputStream(file)));
-
 		ps.println(SimpleMMcifParser.MMCIF_TOP_HEADER+"eppic_assembly_"+getId());
 
-		ps.print(FileConvert.getAtomSiteHeader());
-
-		List<AtomSite> atomSites = new ArrayList<>();
+		AtomSiteWriter atomSites = new AtomSiteWriter(ps);
 
 		int atomId = 1;
 		for (ChainVertex cv:structure) {
@@ -940,10 +964,7 @@ public class Assembly {
 			}
 		}
 
-		ps.print(MMCIFFileTools.toMMCIF(atomSites, AtomSite.class));
-
-
-		ps.close();
+		atomSites.finish();
 	}
 	
 	/**
@@ -1029,13 +1050,8 @@ public class Assembly {
 	 */
 	public void calcScore() {
 		
-		// Calculate the probabilities for each possible set of interface clusters
-		probability = 0;
 		InterfaceEvolContextList iecl = getCrystalAssemblies().getInterfaceEvolContextList();
 		
-		// Construct a list of all the smaller powersets of this assembly that are equivalent
-		List<PowerSet> pss = new ArrayList<PowerSet>();
-		
 		PowerSet reducedSet = new PowerSet(engagedSet);
 		
 		// If the number of engaged interfaces is high, warn and disengage
@@ -1071,25 +1087,13 @@ public class Assembly {
 			}
 		}
 		
-		for (PowerSet ps : reducedSet.getOnPowerSet(1)) {
-			// Equivalent means that they have the same number of subassemblies
-			Assembly pa = new Assembly(crystalAssemblies, ps);
-			if (pa.getAssemblyGraph().getSubAssemblies().size() == 
-					this.getAssemblyGraph().getSubAssemblies().size())
-				pss.add(ps);
-		}
-		pss.add(reducedSet);
-					
-		for (PowerSet ps : pss) {
-			double prob = 1;
-			for (int i = 1; i < ps.size()+1; i++) {
-				double p = iecl.getCombinedClusterPredictor(i).getScore();
-				if (ps.isOff(i-1))
-					p = (1-p);
-				prob *= p;
-			}
-			probability += prob;
+		// Sum the probabilities of all the smaller powersets of this assembly that are equivalent,
+		// i.e. that have the same number of subassemblies, plus the one of the reduced set
+		double[] probs = new double[engagedSet.size()];
+		for (int i = 1; i < probs.length + 1; i++) {
+			probs[i-1] = iecl.getCombinedClusterPredictor(i).getScore();
 		}
+		probability = getCrystalAssemblies().getAssemblyScorer().calcProbability(engagedSet, reducedSet, probs);
 	}
 	
 	/**
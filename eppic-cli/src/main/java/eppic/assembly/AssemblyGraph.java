@@ -1,9 +1,11 @@
 package eppic.assembly;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.vecmath.Point3i;
@@ -15,6 +17,8 @@ import org.jgrapht.graph.UndirectedSubgraph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import eppic.assembly.ComponentValidityCache.ComponentValidity;
+
 /**
  * A representation of the graph corresponding to a certain Assembly, i.e.
  * a subgraph of the entire lattice graph. 
@@ -103,22 +107,21 @@ public class AssemblyGraph {
 		
 		subAssemblies = new ArrayList<SubAssembly>(connectedSets.size());
 		
-		for (Set<ChainVertex> vertexSubsubSet:connectedSets) {
-			Set<InterfaceEdge> edgeSubsubSet = new HashSet<InterfaceEdge>();
-			// fill the edges
-			int i = -1;
-			for (ChainVertex iVertex:vertexSubsubSet) {
-				i++;
-				int j = -1;
-				for (ChainVertex jVertex:vertexSubsubSet) {
-					j++;
-					if (j>i) {
-						edgeSubsubSet.addAll(subgraph.getAllEdges(iVertex, jVertex));
-					}
-				}
+		// fill the edges of each connected component: an edge belongs to the component of its source vertex
+		Map<ChainVertex,Integer> vertex2Component = new HashMap<ChainVertex, Integer>();
+		List<Set<InterfaceEdge>> edgeSubsubSets = new ArrayList<Set<InterfaceEdge>>(connectedSets.size());
+		for (int i=0;i<connectedSets.size();i++) {
+			for (ChainVertex v:connectedSets.get(i)) {
+				vertex2Component.put(v, i);
 			}
-			
-			subAssemblies.add(new SubAssembly(new UndirectedSubgraph<ChainVertex, InterfaceEdge>(subgraph, vertexSubsubSet, edgeSubsubSet), assembly.getCrystalAssemblies()));
+			edgeSubsubSets.add(new HashSet<InterfaceEdge>());
+		}
+		for (InterfaceEdge edge:subgraph.edgeSet()) {
+			edgeSubsubSets.get(vertex2Component.get(subgraph.getEdgeSource(edge))).add(edge);
+		}
+		
+		for (int i=0;i<connectedSets.size();i++) {
+			subAssemblies.add(new SubAssembly(new UndirectedSubgraph<ChainVertex, InterfaceEdge>(subgraph, connectedSets.get(i), edgeSubsubSets.get(i)), assembly.getCrystalAssemblies()));
 		}
 				
 		
@@ -332,7 +335,112 @@ public class AssemblyGraph {
 		return true;
 	}
 	
-	private boolean isZeroTranslation(UndirectedGraph<ChainVertex, InterfaceEdge> subgraph, List<ChainVertex> cycle) {
+	/**
+	 * Checks whether this AssemblyGraph has closed symmetry, with the same criteria as 
+	 * {@link Assembly#isClosedSymmetry()}, but doing the checks for each connected component 
+	 * separately and looking up the results in the given cache, so that components shared by 
+	 * several assemblies are only checked once.
+	 * @param cache
+	 * @return
+	 */
+	public boolean isClosedSymmetry(ComponentValidityCache cache) {
+		
+		List<ComponentValidity> validities = new ArrayList<ComponentValidity>(subAssemblies.size());
+		for (SubAssembly s : subAssemblies) {
+			validities.add(cache.get(s.getConnectedGraph(), () -> calcComponentValidity(s.getConnectedGraph(), s.getStoichiometry())));
+		}
+		
+		for (ComponentValidity v : validities) {
+			if (v.failsBasicChecks()) {
+				logger.debug("Assembly {} contains infinite interfaces, uneven stoichiometries or non-automorphic components. Discarding", assembly.toString());
+				return false;
+			}
+		}
+		
+		boolean allSingleIsologous = true;
+		for (ComponentValidity v : validities) {
+			if (!v.singleIsologous) allSingleIsologous = false;
+		}
+		if (allSingleIsologous) {
+			logger.debug("All connected components of assembly {} have just 1 isologous interface cluster: closed symmetry, won't check cycles", assembly.toString());
+			return true;
+		}
+		
+		int numCycles = 0;
+		boolean containsHeteromeric = false;
+		for (ComponentValidity v : validities) {
+			if (v.multiEdgeNonZero) {
+				logger.info("Discarding assembly because some of its multi-edges have non-zero sum translations and thus can't be closed");
+				return false;
+			}
+			numCycles += v.numCycles;
+			if (v.containsHeteromeric) containsHeteromeric = true;
+		}
+		
+		if (numCycles==0) {
+			// no cycles at all: heteromeric interfaces are ok, homomeric aren't
+			if (containsHeteromeric) {
+				logger.info("Assembly {} contains heteromeric interfaces and no cycles, assuming it has closed-symmetry", assembly.toString());
+			} else {
+				logger.debug("No cycles in assembly {}: discarding because it can't be a closed-symmetry", assembly.toString());
+			}
+			return containsHeteromeric;
+		}
+		
+		for (ComponentValidity v : validities) {
+			if (!v.allCyclesClosed) {
+				logger.debug("Non-closed cycles in assembly {}. Discarding", assembly.toString());
+				return false;
+			}
+		}
+		
+		logger.debug("All cycles of assembly {} are closed: valid assembly", assembly.toString());
+		return true;
+	}
+	
+	/**
+	 * Does all the closed-symmetry checks for a single connected component
+	 * @param g the connected component
+	 * @param sto the stoichiometry of the connected component
+	 * @return
+	 */
+	static ComponentValidity calcComponentValidity(UndirectedGraph<ChainVertex, InterfaceEdge> g, Stoichiometry<Integer> sto) {
+		
+		ComponentValidity v = new ComponentValidity();
+		
+		for (InterfaceEdge e : g.edgeSet()) {
+			if (e.isInfinite()) v.containsInfinites = true;
+		}
+		v.evenStoichiometry = sto.isEven();
+		// automorphism is only checked if needed
+		v.automorphic = !v.containsInfinites && v.evenStoichiometry && GraphUtils.isAutomorphic(g);
+		
+		v.singleIsologous = GraphUtils.getNumDistinctInterfaces(g) <= 1 && GraphUtils.areAllIsologous(g);
+		v.containsHeteromeric = containsHeteromeric(g);
+		
+		if (v.failsBasicChecks()) return v;
+		
+		v.multiEdgeNonZero = precheckMultiEdges(g);
+		
+		if (v.multiEdgeNonZero) return v;
+		
+		PatonCycleBase<ChainVertex, InterfaceEdge> paton = new PatonCycleBase<ChainVertex, InterfaceEdge>(g);
+		List<List<ChainVertex>> cycles = paton.findCycleBase();
+		
+		v.cyclesComputed = true;
+		v.numCycles = cycles.size();
+		v.allCyclesClosed = true;
+		for (List<ChainVertex> cycle : cycles) {
+			if (!isZeroTranslation(g, cycle)) {
+				logger.debug("Non-closed cycle {} (non-0 translation)", cycle.toString());
+				v.allCyclesClosed = false;
+				break;
+			}
+		}
+		return v;
+	}
+	
+	private static boolean isZeroTranslation(UndirectedGraph<ChainVertex, InterfaceEdge> subgraph, List<ChainVertex> cycle) {
 		
 		Point3i p = new Point3i(0,0,0);
 		for (int i=0;i<cycle.size();i++) {
@@ -390,7 +498,7 @@ public class AssemblyGraph {
 	 * @param subgraph
 	 * @return
 	 */
-	private boolean precheckMultiEdges(UndirectedGraph<ChainVertex,InterfaceEdge> subgraph) {
+	private static boolean precheckMultiEdges(UndirectedGraph<ChainVertex,InterfaceEdge> subgraph) {
 		
 		for (InterfaceEdge edge:subgraph.edgeSet()) {
 			Set<InterfaceEdge> edges = subgraph.getAllEdges(subgraph.getEdgeSource(edge), subgraph.getEdgeTarget(edge));
@@ -417,6 +525,10 @@ public class AssemblyGraph {
 	 * @return
 	 */
 	private boolean containsHeteromeric() {
+		return containsHeteromeric(subgraph);
+	}
+	
+	private static boolean containsHeteromeric(UndirectedGraph<ChainVertex, InterfaceEdge> subgraph) {
 		for (InterfaceEdge e:subgraph.edgeSet()) {
 			ChainVertex s = subgraph.getEdgeSource(e);
 			ChainVertex t = subgraph.getEdgeTarget(e);
@@ -0,0 +1,301 @@
+package eppic.assembly;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jgrapht.UndirectedGraph;
+
+/**
+ * The engine behind the probabilistic scoring of assemblies (see {@link Assembly#calcScore()}).
+ * <p>
+ * The probability of an assembly is the sum of the probabilities of all sets of its engaged interface
+ * clusters that result in the same number of connected components (sub-assemblies) as the assembly itself.
+ * Instead of building an {@link AssemblyGraph} for each of those sets, the number of connected components
+ * is counted with a union-find over the edges of the lattice graph, grouped by interface cluster: the sets
+ * are enumerated depth-first, engaging one interface cluster at a time and undoing it on the way back.
+ * Since the number of components can only decrease when engaging clusters, whole branches are
+ * summed in one go as soon as the count is reached, or discarded if it can't be reached anymore.
+ * The probability products are evaluated as sums of logarithms.
+ * <p>
+ * Sets are handled as {@link BitSet}s so that any number of interface clusters is supported.
+ * The counts of components of the sets are memoized, so that they are shared by all the assemblies of
+ * the same {@link CrystalAssemblies}. The counts depend on the lattice graph, so a new scorer must be
+ * created whenever the graph changes (e.g. after contraction).
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author Jose Duarte
+ */
+public class AssemblyScorer {
+
+	/**
+	 * The maximum number of memoized component counts
+	 */
+	private static final int MAX_NUM_MEMOIZED_COUNTS = 100000;
+
+	private final int numVertices;
+
+	/**
+	 * The end-vertices of the edges of each interface cluster, indexed as in the {@link PowerSet}s
+	 */
+	private final int[][] edgeSources;
+	private final int[][] edgeTargets;
+
+	private final Map<BitSet, Integer> numComponentsMemo;
+
+	// the union-find, with undo history
+	private final int[] parent;
+	private final int[] rank;
+	private final int[] history;
+	private int historySize;
+	private int numComponents;
+
+	// the state of the current enumeration
+	private int[] positions;
+	private BitSet[] suffixMasks;
+	private double[] logP;
+	private double[] log1mP;
+	private int targetNumComponents;
+	private double sum;
+
+	/**
+	 * Constructs a new AssemblyScorer for the given lattice graph, with interface clusters
+	 * indexed as in {@link AssemblyGraph}: position i of a {@link PowerSet} is the i-th distinct
+	 * interface cluster id in ascending order.
+	 * @param graph
+	 */
+	public AssemblyScorer(UndirectedGraph<ChainVertex, InterfaceEdge> graph) {
+
+		Map<ChainVertex, Integer> vertexIndices = new HashMap<>();
+		for (ChainVertex v : graph.vertexSet()) {
+			vertexIndices.put(v, vertexIndices.size());
+		}
+		numVertices = vertexIndices.size();
+
+		List<Integer> distinctInterfClusterIds = new ArrayList<>(GraphUtils.getDistinctInterfaceClusters(graph));
+		Map<Integer, List<InterfaceEdge>> clusterId2Edges = new HashMap<>();
+		for (InterfaceEdge e : graph.edgeSet()) {
+			if (!clusterId2Edges.containsKey(e.getClusterId()))
+				clusterId2Edges.put(e.getClusterId(), new ArrayList<InterfaceEdge>());
+			clusterId2Edges.get(e.getClusterId()).add(e);
+		}
+
+		edgeSources = new int[distinctInterfClusterIds.size()][];
+		edgeTargets = new int[distinctInterfClusterIds.size()][];
+		int totalNumEdges = 0;
+		for (int i=0;i<distinctInterfClusterIds.size();i++) {
+			List<InterfaceEdge> edges = clusterId2Edges.get(distinctInterfClusterIds.get(i));
+			edgeSources[i] = new int[edges.size()];
+			edgeTargets[i] = new int[edges.size()];
+			for (int j=0;j<edges.size();j++) {
+				edgeSources[i][j] = vertexIndices.get(graph.getEdgeSource(edges.get(j)));
+				edgeTargets[i][j] = vertexIndices.get(graph.getEdgeTarget(edges.get(j)));
+			}
+			totalNumEdges += edges.size();
+		}
+
+		numComponentsMemo = new HashMap<>();
+
+		parent = new int[numVertices];
+		rank = new int[numVertices];
+		history = new int[totalNumEdges];
+		reset();
+	}
+
+	/**
+	 * Returns the number of connected components of the lattice graph with only the
+	 * edges of the given interface clusters, i.e. the number of sub-assemblies of the
+	 * assembly with the given engaged set.
+	 * @param engagedSet
+	 * @return
+	 */
+	public int getNumComponents(PowerSet engagedSet) {
+		return getNumComponents(engagedSet.toBitSet());
+	}
+
+	/**
+	 * Calculates the unnormalized probability of an assembly: the sum of probabilities of
+	 * all non-empty subsets of reducedSet that have the same number of connected components
+	 * as engagedSet, plus the probability of reducedSet itself. The probability of a set is the
+	 * product of the probabilities of its engaged interface clusters and of the complementary
+	 * probabilities of the others.
+	 * @param engagedSet the engaged interface clusters of the assembly
+	 * @param reducedSet the engaged interface clusters to consider, a subset of engagedSet
+	 * @param probs the probability of each interface cluster being biologically relevant,
+	 * indexed as the positions of the sets
+	 * @return
+	 */
+	public double calcProbability(PowerSet engagedSet, PowerSet reducedSet, double[] probs) {
+
+		BitSet reducedMask = reducedSet.toBitSet();
+
+		logP = new double[probs.length];
+		log1mP = new double[probs.length];
+		double baseLog = 0;
+		List<Integer> on = new ArrayList<>();
+		for (int i=0;i<probs.length;i++) {
+			logP[i] = Math.log(probs[i]);
+			log1mP[i] = Math.log(1-probs[i]);
+			if (reducedMask.get(i)) on.add(i);
+			else baseLog += log1mP[i];
+		}
+
+		positions = new int[on.size()];
+		suffixMasks = new BitSet[on.size()+1];
+		suffixMasks[on.size()] = new BitSet();
+		for (int d=on.size()-1;d>=0;d--) {
+			positions[d] = on.get(d);
+			suffixMasks[d] = (BitSet) suffixMasks[d+1].clone();
+			suffixMasks[d].set(positions[d]);
+		}
+		targetNumComponents = getNumComponents(engagedSet);
+
+		sum = 0;
+		reset();
+		sumProbabilities(0, new BitSet(), baseLog);
+
+		if (on.size()>0 && targetNumComponents==numVertices) {
+			// the empty set was summed above but it does not count
+			double emptyLog = baseLog;
+			for (int pos : positions) emptyLog += log1mP[pos];
+			sum -= Math.exp(emptyLog);
+		}
+		if (getNumComponents(reducedMask)!=targetNumComponents) {
+			// the reduced set always counts
+			double reducedLog = baseLog;
+			for (int pos : positions) reducedLog += logP[pos];
+			sum += Math.exp(reducedLog);
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Sums the probabilities of all sets that extend the current one (positions before depth
+	 * decided, with engaged ones in mask) and have the target number of components.
+	 * The mask is modified during the call but restored on return.
+	 * @param depth
+	 * @param mask
+	 * @param logProb
+	 */
+	private void sumProbabilities(int depth, BitSet mask, double logProb) {
+
+		if (numComponents==targetNumComponents) {
+			// engaging more clusters can't change the count: all extensions count,
+			// their probabilities sum up to the probability of the decided positions
+			sum += Math.exp(logProb);
+			return;
+		}
+		if (depth==positions.length) return;
+
+		// even engaging all remaining clusters the count can't be reached
+		BitSet maxMask = (BitSet) mask.clone();
+		maxMask.or(suffixMasks[depth]);
+		if (getNumComponents(maxMask) > targetNumComponents) return;
+
+		int pos = positions[depth];
+
+		int mark = historySize;
+		engage(pos);
+		mask.set(pos);
+		sumProbabilities(depth+1, mask, logProb + logP[pos]);
+		mask.clear(pos);
+		undo(mark);
+
+		sumProbabilities(depth+1, mask, logProb + log1mP[pos]);
+	}
+
+	private int getNumComponents(BitSet mask) {
+		Integer count = numComponentsMemo.get(mask);
+		if (count!=null) return count;
+
+		// we use a separate union-find so that an ongoing enumeration is not affected
+		int[] p = new int[numVertices];
+		for (int v=0;v<numVertices;v++) p[v] = v;
+		count = numVertices;
+		for (int i=0;i<edgeSources.length;i++) {
+			if (!mask.get(i)) continue;
+			for (int j=0;j<edgeSources[i].length;j++) {
+				int a = findRoot(p, edgeSources[i][j]);
+				int b = findRoot(p, edgeTargets[i][j]);
+				if (a!=b) {
+					p[a] = b;
+					count--;
+				}
+			}
+		}
+		if (numComponentsMemo.size() < MAX_NUM_MEMOIZED_COUNTS)
+			numComponentsMemo.put((BitSet) mask.clone(), count);
+		return count;
+	}
+
+	private static int findRoot(int[] p, int v) {
+		while (p[v]!=v) {
+			p[v] = p[p[v]];
+			v = p[v];
+		}
+		return v;
+	}
+
+	private void reset() {
+		for (int v=0;v<numVertices;v++) {
+			parent[v] = v;
+			rank[v] = 0;
+		}
+		historySize = 0;
+		numComponents = numVertices;
+	}
+
+	/**
+	 * Unites the end-vertices of all edges of the interface cluster at the given position.
+	 * No path compression so that it can be undone.
+	 * @param pos
+	 */
+	private void engage(int pos) {
+		if (pos>=edgeSources.length) return;
+		for (int j=0;j<edgeSources[pos].length;j++) {
+			int a = find(edgeSources[pos][j]);
+			int b = find(edgeTargets[pos][j]);
+			if (a==b) continue;
+			if (rank[a] > rank[b]) {
+				int tmp = a; a = b; b = tmp;
+			}
+			// a is attached below b, we record a and whether b's rank grew in the sign
+			parent[a] = b;
+			if (rank[a]==rank[b]) {
+				rank[b]++;
+				history[historySize++] = -a-1;
+			} else {
+				history[historySize++] = a;
+			}
+			numComponents--;
+		}
+	}
+
+	private void undo(int mark) {
+		while (historySize > mark) {
+			int h = history[--historySize];
+			int a = h < 0 ? -h-1 : h;
+			int b = parent[a];
+			if (h < 0) rank[b]--;
+			parent[a] = a;
+			numComponents++;
+		}
+	}
+
+	private int find(int v) {
+		while (parent[v]!=v) v = parent[v];
+		return v;
+	}
+
+	/**
+	 * Returns the number of memoized component counts
+	 * @return
+	 */
+	public int getNumMemoizedCounts() {
+		return numComponentsMemo.size();
+	}
+}
@@ -0,0 +1,169 @@
+package eppic.assembly;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongFunction;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Traverses the lattice of all 2^n subsets of n elements level by level (by number of
+ * elements in the subset), pruning off all supersets of invalid subsets. Subsets are represented
+ * as long bitmasks, thus n can be at most 64.
+ * <p>
+ * Since every superset of an invalid node is invalid, the valid nodes form a downward-closed family
+ * and a node has an invalid ancestor if and only if one of its immediate subsets (one element less)
+ * is not among the valid nodes of the previous level. This makes the query "is this node a superset
+ * of any invalid node?" a constant number of hash lookups (one per element of the node) instead of
+ * a scan through all invalid nodes found so far.
+ * <p>
+ * The evaluation of the nodes of each level, which is typically the expensive part, can be done in parallel.
+ * The result does not depend on whether the evaluation is parallel or not.
+ *
+ * @param <T> the type of the object built for each valid node
+ */
+public class BitmaskLatticeEnumerator<T> {
+
+	private static final Logger logger = LoggerFactory.getLogger(BitmaskLatticeEnumerator.class);
+
+	/**
+	 * The maximum number of elements that can be represented in a bitmask
+	 */
+	public static final int MAX_NUM_ELEMENTS = Long.SIZE;
+
+	private final int numElements;
+	private final int maxValidNodes;
+	private final boolean parallel;
+
+	private int numEvaluated;
+	private int numPruned;
+
+	/**
+	 *
+	 * @param numElements the number of elements n, the lattice has 2^n nodes
+	 * @param maxValidNodes the maximum number of valid nodes, if exceeded the enumeration stops
+	 * @param parallel whether to evaluate the nodes of each level in parallel
+	 * @throws IllegalArgumentException if numElements is larger than {@value #MAX_NUM_ELEMENTS}
+	 */
+	public BitmaskLatticeEnumerator(int numElements, int maxValidNodes, boolean parallel) {
+		if (numElements>MAX_NUM_ELEMENTS) {
+			throw new IllegalArgumentException("Can't enumerate subsets of more than "+MAX_NUM_ELEMENTS+" elements with bitmasks");
+		}
+		this.numElements = numElements;
+		this.maxValidNodes = maxValidNodes;
+		this.parallel = parallel;
+	}
+
+	/**
+	 * Enumerates all valid nodes of the lattice. The empty set (mask 0) is always valid
+	 * and is evaluated too.
+	 * @param evaluator a function that for a given mask returns the object for the node if it
+	 * is valid or null if it is invalid. It must be thread safe if enumerating in parallel.
+	 * @return a map of masks to objects for all valid nodes, in order of traversal, or null if
+	 * the number of valid nodes exceeded the maximum
+	 */
+	public Map<Long,T> enumerate(LongFunction<T> evaluator) {
+
+		numEvaluated = 0;
+		numPruned = 0;
+
+		Map<Long,T> valid = new LinkedHashMap<Long,T>();
+
+		valid.put(0L, evaluator.apply(0L));
+		numEvaluated++;
+
+		Set<Long> prevLevel = new HashSet<Long>();
+		prevLevel.add(0L);
+
+		for (int k = 1; k<=numElements && !prevLevel.isEmpty(); k++) {
+
+			logger.debug("Traversing level {} of tree: {} parent nodes",k,prevLevel.size());
+
+			// the candidates are sorted so that the traversal order is always the same
+			TreeSet<Long> candidates = new TreeSet<Long>();
+			for (long p:prevLevel) {
+				for (int i=0;i<numElements;i++) {
+					long c = p | (1L<<i);
+					if (c==p || candidates.contains(c)) continue;
+
+					if (hasInvalidAncestor(c, prevLevel)) {
+						numPruned++;
+						continue;
+					}
+					candidates.add(c);
+				}
+			}
+
+			final List<Long> candidateList = new ArrayList<Long>(candidates);
+			final List<T> evaluated = new ArrayList<T>(candidateList.size());
+			for (int i=0;i<candidateList.size();i++) evaluated.add(null);
+
+			IntStream indices = IntStream.range(0, candidateList.size());
+			if (parallel) indices = indices.parallel();
+			indices.forEach(i -> evaluated.set(i, evaluator.apply(candidateList.get(i))));
+			numEvaluated += candidateList.size();
+
+			Set<Long> nextLevel = new HashSet<Long>();
+			for (int i=0;i<candidateList.size();i++) {
+				long c = candidateList.get(i);
+				T t = evaluated.get(i);
+				if (t==null) {
+					logger.debug("Node {} is invalid, will prune off all of its children", Long.toBinaryString(c));
+					continue;
+				}
+				nextLevel.add(c);
+				valid.put(c, t);
+
+				if (valid.size() > maxValidNodes) {
+					return null;
+				}
+			}
+			prevLevel = nextLevel;
+		}
+
+		logger.debug("Evaluated {} nodes, pruned {} nodes with invalid ancestors, found {} valid nodes", numEvaluated, numPruned, valid.size());
+
+		return valid;
+	}
+
+	/**
+	 * Returns true if any of the immediate subsets of the given mask is not in the set of
+	 * valid nodes of the previous level, i.e. if the node has an invalid ancestor
+	 * @param mask
+	 * @param prevLevel
+	 * @return
+	 */
+	private static boolean hasInvalidAncestor(long mask, Set<Long> prevLevel) {
+		long remaining = mask;
+		while (remaining!=0) {
+			long lowestBit = Long.lowestOneBit(remaining);
+			if (!prevLevel.contains(mask & ~lowestBit)) return true;
+			remaining &= ~lowestBit;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the number of nodes evaluated in the last enumeration
+	 * @return
+	 */
+	public int getNumEvaluated() {
+		return numEvaluated;
+	}
+
+	/**
+	 * Returns the number of nodes pruned without evaluation in the last enumeration, because
+	 * they had an invalid ancestor. Nodes are counted once per parent.
+	 * @return
+	 */
+	public int getNumPruned() {
+		return numPruned;
+	}
+}
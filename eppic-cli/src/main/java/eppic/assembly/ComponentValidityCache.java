@@ -0,0 +1,236 @@
+package eppic.assembly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.vecmath.Point3i;
+
+import org.jgrapht.UndirectedGraph;
+
+/**
+ * A cache of the results of the closed-symmetry checks of connected components (see {@link SubAssembly})
+ * so that a connected component that appears in many assemblies of the assembly tree is checked only once.
+ * <p>
+ * The key of a component is its signature, which does not depend on the chain ids, operator ids or 
+ * unit cell positions of its vertices, so that components that are the same up to crystal symmetry share an entry. 
+ * It is made of the sorted lists of: 
+ * <ul>
+ * <li>its vertices, as entity id and the interface ids, interface cluster ids and neighbour entity ids of their edges</li>
+ * <li>its edges, as interface id, interface cluster id, entity ids of the end-vertices and infinite/isologous flags</li>
+ * </ul>
+ * and of the relative translations: whether the crystal translations of the edges are consistent along all cycles 
+ * (placing the vertices in the lattice from any of them, every edge joins them with zero residual translation)
+ * and whether any multi-edge has non-zero sum translation. 
+ * All the checks of {@link ComponentValidity} only depend on these.
+ * The signature depends on the lattice graph, so the cache must be cleared whenever the graph changes
+ * (e.g. after contraction).
+ * <p>
+ * All methods are thread safe.
+ */
+public class ComponentValidityCache {
+
+	/**
+	 * The outcome of the closed-symmetry checks for a single connected component
+	 */
+	static class ComponentValidity {
+
+		boolean containsInfinites;
+		boolean evenStoichiometry;
+		boolean automorphic;
+		/** whether the component has at most 1 interface cluster and all its edges are isologous */
+		boolean singleIsologous;
+		boolean multiEdgeNonZero;
+		boolean containsHeteromeric;
+		/** whether cycles were computed, they aren't if the component can't be closed for the above reasons */
+		boolean cyclesComputed;
+		int numCycles;
+		boolean allCyclesClosed;
+
+		/**
+		 * Returns true if the component can't be part of a closed-symmetry assembly regardless of the cycles
+		 * and of the other components
+		 * @return
+		 */
+		boolean failsBasicChecks() {
+			return containsInfinites || !evenStoichiometry || !automorphic;
+		}
+	}
+
+	private final ConcurrentHashMap<String, ComponentValidity> cache;
+
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	public ComponentValidityCache() {
+		this.cache = new ConcurrentHashMap<String, ComponentValidity>();
+		this.hits = new AtomicLong(0);
+		this.misses = new AtomicLong(0);
+	}
+
+	/**
+	 * Gets the validity of the given connected component from the cache, computing it with the given 
+	 * calculator if not present. Two threads can compute the same component concurrently, in which case
+	 * the first result is kept.
+	 * @param connectedGraph
+	 * @param calculator
+	 * @return
+	 */
+	ComponentValidity get(UndirectedGraph<ChainVertex, InterfaceEdge> connectedGraph, Supplier<ComponentValidity> calculator) {
+		String signature = getSignature(connectedGraph);
+		ComponentValidity validity = cache.get(signature);
+		if (validity!=null) {
+			hits.incrementAndGet();
+			return validity;
+		}
+		misses.incrementAndGet();
+		validity = calculator.get();
+		ComponentValidity previous = cache.putIfAbsent(signature, validity);
+		return previous==null ? validity : previous;
+	}
+
+	/**
+	 * Returns the signature of the given connected graph, see the class description
+	 * @param g
+	 * @return
+	 */
+	static String getSignature(UndirectedGraph<ChainVertex, InterfaceEdge> g) {
+		List<String> vertices = new ArrayList<String>(g.vertexSet().size());
+		for (ChainVertex v : g.vertexSet()) {
+			List<String> incident = new ArrayList<String>();
+			for (InterfaceEdge e : g.edgesOf(v)) {
+				incident.add(e.getInterfaceId() + "/" + e.getClusterId() + "-" + getOpposite(g, e, v).getEntityId());
+			}
+			Collections.sort(incident);
+			vertices.add(v.getEntityId() + incident.toString());
+		}
+		Collections.sort(vertices);
+
+		List<String> edges = new ArrayList<String>(g.edgeSet().size());
+		for (InterfaceEdge e : g.edgeSet()) {
+			int entity1 = g.getEdgeSource(e).getEntityId();
+			int entity2 = g.getEdgeTarget(e).getEntityId();
+			edges.add(e.getInterfaceId() + "/" + e.getClusterId() + ":" + 
+					Math.min(entity1, entity2) + "-" + Math.max(entity1, entity2) + ":" +
+					(e.isInfinite() ? "i" : "") + (e.isIsologous() ? "s" : ""));
+		}
+		Collections.sort(edges);
+
+		StringBuilder sb = new StringBuilder();
+		for (String v : vertices) {
+			sb.append(v).append(' ');
+		}
+		sb.append('|');
+		for (String e : edges) {
+			sb.append(' ').append(e);
+		}
+		sb.append(" | ").append(isTranslationConsistent(g) ? "closed" : "open");
+		sb.append(hasMultiEdgeNonZero(g) ? " multi-non-0" : "");
+		return sb.toString();
+	}
+
+	private static ChainVertex getOpposite(UndirectedGraph<ChainVertex, InterfaceEdge> g, InterfaceEdge e, ChainVertex v) {
+		ChainVertex source = g.getEdgeSource(e);
+		return source.equals(v) ? g.getEdgeTarget(e) : source;
+	}
+
+	/**
+	 * Places the vertices in the lattice by traversing the graph from an arbitrary vertex and returns true if
+	 * all edges join their vertices with the crystal translation of the edge, i.e. if all cycles have zero
+	 * translation. This doesn't depend on the starting vertex nor on the unit cell positions of the vertices.
+	 * @param g
+	 * @return
+	 */
+	private static boolean isTranslationConsistent(UndirectedGraph<ChainVertex, InterfaceEdge> g) {
+		if (g.vertexSet().isEmpty()) return true;
+
+		Map<ChainVertex, Point3i> positions = new HashMap<ChainVertex, Point3i>();
+		Deque<ChainVertex> toVisit = new ArrayDeque<ChainVertex>();
+		ChainVertex root = g.vertexSet().iterator().next();
+		positions.put(root, new Point3i(0,0,0));
+		toVisit.add(root);
+
+		while (!toVisit.isEmpty()) {
+			ChainVertex v = toVisit.poll();
+			for (InterfaceEdge e : g.edgesOf(v)) {
+				ChainVertex u = getOpposite(g, e, v);
+				// the expected position of u from v and the translation in the direction v->u
+				Point3i p = new Point3i(positions.get(v));
+				if (v.equals(g.getEdgeSource(e))) p.add(e.getXtalTrans());
+				else p.sub(e.getXtalTrans());
+
+				Point3i current = positions.get(u);
+				if (current == null) {
+					positions.put(u, p);
+					toVisit.add(u);
+				} else if (!current.equals(p)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if any of the multi-edges has non-zero sum translation, as in the closed-symmetry checks
+	 * @param g
+	 * @return
+	 */
+	private static boolean hasMultiEdgeNonZero(UndirectedGraph<ChainVertex, InterfaceEdge> g) {
+		for (InterfaceEdge edge : g.edgeSet()) {
+			Set<InterfaceEdge> edges = g.getAllEdges(g.getEdgeSource(edge), g.getEdgeTarget(edge));
+			if (edges.size()==1) continue;
+			Point3i t = new Point3i(0,0,0);
+			for (InterfaceEdge e : edges) {
+				t.add(e.getXtalTrans());
+			}
+			if (!t.equals(new Point3i(0,0,0))) return true;
+		}
+		return false;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns the fraction of lookups that were found in the cache, NaN if there were no lookups
+	 * @return
+	 */
+	public double getHitRate() {
+		long h = hits.get();
+		long total = h + misses.get();
+		return (double) h / (double) total;
+	}
+
+	/**
+	 * Removes all entries and resets the counters
+	 */
+	public void clear() {
+		cache.clear();
+		hits.set(0);
+		misses.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d components cached, %d hits, %d misses (hit rate %.2f)",
+				size(), getHits(), getMisses(), getHitRate());
+	}
+}
@@ -68,6 +68,17 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 		
 	private boolean largeNumAssemblies;
 	
+	/**
+	 * The results of the closed-symmetry checks of the connected components of assemblies
+	 */
+	private ComponentValidityCache componentValidityCache;
+	
+	/**
+	 * The engine for assembly scoring, memoizing the number of sub-assemblies of 
+	 * sets of interface clusters, see {@link #getAssemblyScorer()}
+	 */
+	private AssemblyScorer assemblyScorer;
+	
 	/**
 	 * Whether the assembly enumeration was exhaustive or via 
 	 * heuristically contracting heteromeric edges.
@@ -97,6 +108,7 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 	
 	private void init(Structure structure, StructureInterfaceList interfaces, boolean forceContracted) throws StructureException {
 		this.largeNumAssemblies = false;
+		this.componentValidityCache = new ComponentValidityCache();
 		
 		// for most cases we'll do the exhaustive enumeration, below we set to false when not
 		this.exhaustiveEnumeration = true;
@@ -162,15 +174,65 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 	 * As the tree is traversed, if a node is found to be an invalid assembly, then all of its children
 	 * are pruned off and not tried. Thus the number of combinations reduces very quickly with a few
 	 * pruned top nodes.
+	 * The traversal is done with a {@link BitmaskLatticeEnumerator}, validity of the nodes of each 
+	 * level of the tree is checked in parallel.
 	 * @return
 	 */
 	private void findValidAssemblies() {
-				
-		Set<Assembly> validAssemblies = new HashSet<Assembly>();
 		
 		// in contracted case this will find the distinct interfaces for the contracted graph
 		int numInterfaceClusters = GraphUtils.getNumDistinctInterfaces(latticeGraph.getGraph());
 		
+		// the graph can be different (contracted) from a previous enumeration
+		componentValidityCache.clear();
+		
+		if (numInterfaceClusters > BitmaskLatticeEnumerator.MAX_NUM_ELEMENTS) {
+			logger.warn("More than {} interface clusters, can't use bitmask enumeration. Will use slower PowerSet enumeration", 
+					BitmaskLatticeEnumerator.MAX_NUM_ELEMENTS);
+			findValidAssembliesFromPowerSets(numInterfaceClusters);
+			return;
+		}
+		
+		// the graph's edge containers are created lazily by jgrapht: we make sure they all exist 
+		// before the graph is read from multiple threads
+		for (ChainVertex v : latticeGraph.getGraph().vertexSet()) {
+			latticeGraph.getGraph().edgesOf(v);
+		}
+		
+		BitmaskLatticeEnumerator<Assembly> enumerator = 
+				new BitmaskLatticeEnumerator<Assembly>(numInterfaceClusters, MAX_ALLOWED_ASSEMBLIES, true);
+		
+		// the Assembly (and its AssemblyGraph) is only built for nodes without invalid ancestors
+		Map<Long,Assembly> validAssemblies = enumerator.enumerate(mask -> {
+			Assembly a = new Assembly(this, new PowerSet(mask, numInterfaceClusters));
+			// the empty assembly (no engaged interfaces) is always a valid assembly
+			if (mask==0 || a.isValid()) return a;
+			return null;
+		});
+		
+		logger.info("Assembly enumeration: evaluated {} nodes, pruned {} nodes with invalid ancestors", 
+				enumerator.getNumEvaluated(), enumerator.getNumPruned());
+		logger.info("Connected component validity cache: {}", componentValidityCache.toString());
+		
+		if (validAssemblies == null) {
+			logger.warn("Exceeded the default max number of allowed assemblies ({}). Will do assembly enumeration from heteromeric-contracted graph", MAX_ALLOWED_ASSEMBLIES);
+			largeNumAssemblies = true;
+			all = new HashSet<Assembly>();
+			return;
+		}
+		
+		this.all = new HashSet<Assembly>(validAssemblies.values());
+	}
+	
+	/**
+	 * Same as {@link #findValidAssemblies()} but representing the nodes of the tree as {@link PowerSet}s, 
+	 * for the cases with more interface clusters than a bitmask can hold.
+	 * @param numInterfaceClusters
+	 */
+	private void findValidAssembliesFromPowerSets(int numInterfaceClusters) {
+				
+		Set<Assembly> validAssemblies = new HashSet<Assembly>();
+		
 		// the list of nodes in the tree found to be invalid: all of their children will also be invalid
 		List<Assembly> invalidNodes = new ArrayList<Assembly>();		
 		
@@ -321,6 +383,7 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 
 		// this sets the exposed graph in lattice graph back to the full graph
 		latticeGraph.filterEngagedClusters(null); 
+		componentValidityCache.clear();
 		
 		// let's get the number of interfaces in the full graph
 		int numInterfaceClusters = GraphUtils.getNumDistinctInterfaces(latticeGraph.getGraph());
@@ -461,6 +524,28 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 		return all;
 	}
 	
+	/**
+	 * Returns the cache of closed-symmetry checks of connected components used in the 
+	 * validity checks of assemblies
+	 * @return
+	 */
+	public ComponentValidityCache getComponentValidityCache() {
+		return componentValidityCache;
+	}
+	
+	/**
+	 * Returns the engine used in the scoring of assemblies, created on first call from the 
+	 * current lattice graph
+	 * @return
+	 * @see Assembly#calcScore()
+	 */
+	public AssemblyScorer getAssemblyScorer() {
+		if (assemblyScorer==null) {
+			assemblyScorer = new AssemblyScorer(latticeGraph.getGraph());
+		}
+		return assemblyScorer;
+	}
+	
 	public Structure getStructure() {
 		return structure;
 	}
@@ -585,11 +670,13 @@ public class CrystalAssemblies implements Iterable<Assembly> {
 		// this gets each of the unique assembly clusters, represented by the maximal member
 		List<Assembly> uniques = getUniqueAssemblies();
 
-		// 1 Do individual assemblies scoring
+		// 1 Do individual assemblies scoring, with a scorer for the graph as it is now
+		assemblyScorer = new AssemblyScorer(latticeGraph.getGraph());
 		for (Assembly a:uniques) {
 			a.calcScore();
 			a.setCall(CallType.CRYSTAL);
 		}
+		logger.debug("Number of sub-assembly counts memoized in assembly scoring: {}", assemblyScorer.getNumMemoizedCounts());
 		
 		// 2 Compute the sum of probabilities
 		double sumProbs = 0;
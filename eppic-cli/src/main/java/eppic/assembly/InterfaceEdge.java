@@ -91,6 +91,22 @@ public class InterfaceEdge implements InterfaceEdgeInterface {
 		}
 	}
 	
+	/**
+	 * Sets the interface with the given properties instead of calculating them
+	 * from it. Use this for interfaces without contacts, e.g. created from stored data.
+	 * @param i
+	 * @param clusterId
+	 * @param isIsologous
+	 * @param isInfinite
+	 */
+	public void setInterface(StructureInterface i, int clusterId, boolean isIsologous, boolean isInfinite) {
+		this.interf = i;
+		this.interfaceId = interf.getId();
+		this.clusterId = clusterId;
+		this.isIsologous = isIsologous;
+		this.isInfinite = isInfinite;
+	}
+
 	public StructureInterfaceCluster getInterfaceCluster() {
 		return interf.getCluster();
 	}
@@ -14,13 +14,16 @@ import javax.vecmath.Matrix4d;
 import javax.vecmath.Point3d;
 import javax.vecmath.Point3i;
 
+import org.biojava.nbio.structure.Atom;
 import org.biojava.nbio.structure.Chain;
 import org.biojava.nbio.structure.PDBCrystallographicInfo;
 import org.biojava.nbio.structure.Structure;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.contact.StructureInterface;
+import org.biojava.nbio.structure.contact.StructureInterfaceCluster;
 import org.biojava.nbio.structure.contact.StructureInterfaceList;
 import org.biojava.nbio.structure.xtal.CrystalCell;
+import org.biojava.nbio.structure.xtal.CrystalTransform;
 import org.biojava.nbio.structure.xtal.SpaceGroup;
 import org.biojava.nbio.structure.xtal.SymoplibParser;
 import org.jgrapht.EdgeFactory;
@@ -37,6 +40,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
 
+import ch.systemsx.sybit.crkwebui.shared.model.Interface;
 import eppic.commons.util.GeomTools;
 
 
@@ -113,12 +117,80 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 			throw new StructureException("No crystallographic information");
 		}
 
-		initLatticeGraphTopologically(interfaces,vertexFactory,edgeFactory);
+		initLatticeGraphTopologically(interfaces,null,vertexFactory,edgeFactory);
 
 		logger.info("Found {} vertices and {} edges in unit cell\n{}", graph.vertexSet().size(), graph.edgeSet().size(),
 				GraphUtils.asString(graph));
 
 	}
+
+	/**
+	 * Create the graph from the interfaces as stored in the database, without
+	 * calculating the interfaces. Only the operators, chain ids, cluster ids and
+	 * isologous/infinite flags of the interfaces are used, so that the graph can be
+	 * built from the asymmetric unit alone. The edges reference interfaces without
+	 * atoms or contacts, with only ids, chain ids, transforms and clusters set.
+	 * @param struct Structure, which must include crystallographic info
+	 * @param interfaces the stored interfaces of struct
+	 * @param vertexClass Class of vertices, used to create new nodes
+	 * @param edgeClass Class of edges, used to create new edges
+	 * @throws StructureException
+	 */
+	public LatticeGraph(Structure struct, Collection<Interface> interfaces, Class<? extends V> vertexClass,Class<? extends E> edgeClass) throws StructureException {
+
+		this.structure = struct;
+		globalReferencePoint = true;
+
+		VertexFactory<V> vertexFactory = new ClassBasedVertexFactory<V>(vertexClass);
+		EdgeFactory<V,E> edgeFactory = new ClassBasedEdgeFactory<V, E>(edgeClass);
+
+		this.graph = new Pseudograph<V,E>(edgeFactory);
+		this.subgraph = graph;
+
+		if(structure.getCrystallographicInfo() == null) {
+			logger.error("No crystallographic info set for this structure.");
+			throw new StructureException("No crystallographic information");
+		}
+
+		SpaceGroup sg = getSpaceGroup(structure);
+		List<StructureInterface> siList = new ArrayList<>(interfaces.size());
+		Map<Integer,Interface> stored = new HashMap<>(interfaces.size());
+		for (Interface iface : interfaces) {
+			if (iface.getOperatorId() < 0 || iface.getOperatorId() >= sg.getNumOperators()) {
+				throw new StructureException("Operator id "+iface.getOperatorId()+" of interface "+iface.getInterfaceId()
+					+" is out of range: only "+sg.getNumOperators()+" operators in space group "+sg.getShortSymbol());
+			}
+			siList.add(createStructureInterface(iface, sg));
+			stored.put(iface.getInterfaceId(), iface);
+		}
+
+		initLatticeGraphTopologically(siList,stored,vertexFactory,edgeFactory);
+
+		logger.info("Found {} vertices and {} edges in unit cell from {} stored interfaces", graph.vertexSet().size(), graph.edgeSet().size(),
+				interfaces.size());
+	}
+
+	/**
+	 * Creates an interface without atoms or contacts from a stored interface: only
+	 * the id, chain ids, transforms and cluster are set.
+	 * @param iface
+	 * @param sg
+	 * @return
+	 */
+	private static StructureInterface createStructureInterface(Interface iface, SpaceGroup sg) {
+		CrystalTransform firstTransf = new CrystalTransform(sg, 0);
+		CrystalTransform secondTransf = new CrystalTransform(sg, iface.getOperatorId());
+		// the operator includes the translation
+		secondTransf.setMatTransform(SpaceGroup.getMatrixFromAlgebraic(iface.getOperator()));
+
+		StructureInterface siface = new StructureInterface(
+				new Atom[0], new Atom[0], iface.getChain1(), iface.getChain2(), null, firstTransf, secondTransf);
+		siface.setId(iface.getInterfaceId());
+		StructureInterfaceCluster cluster = new StructureInterfaceCluster();
+		cluster.setId(iface.getClusterId());
+		siface.setCluster(cluster);
+		return siface;
+	}
 	
 
 	/**
@@ -156,7 +228,8 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 			V s = vertMap.get(other.graph.getEdgeSource(oEdge));
 			V t = vertMap.get(other.graph.getEdgeTarget(oEdge));
 			E edge = edgeFactory.createEdge(s, t);
-			edge.setInterface(oEdge.getInterface());
+			// not recalculating the properties: the interface may have no contacts
+			edge.setInterface(oEdge.getInterface(), oEdge.getClusterId(), oEdge.isIsologous(), oEdge.isInfinite());
 			edge.setXtalTrans(oEdge.getXtalTrans());
 			this.graph.addEdge(s, t, edge);
 		}
@@ -276,7 +349,16 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 		return chainTransformations;
 	}
 
-	private void initLatticeGraphTopologically(List<StructureInterface> interfaces, VertexFactory<V> vertexFactory, EdgeFactory<V, E> edgeFactory) throws StructureException {		
+	/**
+	 * Adds the vertices and the edges of the interfaces to the graph.
+	 * @param interfaces
+	 * @param stored the stored interfaces by id, to take the edge properties from, or null
+	 * to calculate them from the interfaces
+	 * @param vertexFactory
+	 * @param edgeFactory
+	 * @throws StructureException
+	 */
+	private void initLatticeGraphTopologically(List<StructureInterface> interfaces, Map<Integer,Interface> stored, VertexFactory<V> vertexFactory, EdgeFactory<V, E> edgeFactory) throws StructureException {		
 
 		SpaceGroup sg = getSpaceGroup(structure);
 		final int numOps = sg.getNumOperators();
@@ -334,7 +416,12 @@ public class LatticeGraph<V extends ChainVertex,E extends InterfaceEdge> {
 				tVertex.setOpId(k);
 
 				E edge = edgeFactory.createEdge(sVertex, tVertex);
-				edge.setInterface(interf);
+				if (stored == null) {
+					edge.setInterface(interf);
+				} else {
+					Interface iface = stored.get(interf.getId());
+					edge.setInterface(interf, iface.getClusterId(), iface.isIsologous(), iface.isInfinite());
+				}
 				edge.setXtalTrans(xtalTrans);
 				
 				graph.addEdge(sVertex, tVertex, edge);
@@ -40,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 
+import ch.systemsx.sybit.crkwebui.shared.model.Interface;
 import eppic.assembly.gui.InterfaceEdge3DSourced;
 import eppic.assembly.json.ChainVertex3DJsonAdapter;
 import eppic.assembly.json.InterfaceEdge3DJsonAdapter;
@@ -73,7 +74,7 @@ public class LatticeGraph3D extends LatticeGraph<ChainVertex3D,InterfaceEdge3D>
 	 * @throws StructureException
 	 */
 	public LatticeGraph3D(Structure struc) throws StructureException {
-		this(struc,null);
+		this(struc,(List<StructureInterface>)null);
 	}
 	/**
 	 * 
@@ -102,6 +103,33 @@ public class LatticeGraph3D extends LatticeGraph<ChainVertex3D,InterfaceEdge3D>
 		assignColorsByEntity();
 	}
 
+	/**
+	 * Create the graph from the interfaces as stored in the database, without
+	 * calculating the interfaces.
+	 * @param struc Structure, which must include crystallographic info
+	 * @param interfaces the stored interfaces of struc
+	 * @throws StructureException
+	 * @see LatticeGraph#LatticeGraph(Structure, Collection, Class, Class)
+	 */
+	public LatticeGraph3D(Structure struc, Collection<Interface> interfaces) throws StructureException {
+		super(struc,interfaces,ChainVertex3D.class, InterfaceEdge3D.class);
+
+		this.policy = WrappingPolicy.DUPLICATE;
+
+		// Compute centroids in AU
+		chainCentroid = new HashMap<String,Point3d>();
+		for(Chain c: structure.getChains() ) {
+			chainCentroid.put(c.getChainID(), GeomTools.getCentroid(c));
+		}
+
+		// Compute 3D layout
+		positionVertices();
+		positionEdges();
+
+		// Assign colors
+		assignColorsByEntity();
+	}
+
 //TODO figure out how to do this while preserving the vertex mapping from old to new
 //     For now, just recalculate all 3D-specific properties
 //	public LatticeGraph3D(LatticeGraph3D other) {
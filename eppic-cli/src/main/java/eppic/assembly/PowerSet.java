@@ -2,6 +2,7 @@ package eppic.assembly;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -30,6 +31,18 @@ public class PowerSet {
 		this.set = set;
 	}
 	
+	/**
+	 * Constructs a PowerSet of given size from a bitmask: bit i of the mask is position i of the set
+	 * @param mask
+	 * @param size the size of the set, at most 64
+	 */
+	public PowerSet(long mask, int size) {
+		this.set = new boolean[size];
+		for (int i=0;i<size;i++) {
+			set[i] = (mask & (1L<<i)) != 0;
+		}
+	}
+	
 	/**
 	 * Copy constructor
 	 * @param powerSet
@@ -112,6 +125,35 @@ public class PowerSet {
 		return this.set.length;
 	}
 	
+	/**
+	 * Returns this set as a bitmask: position i of the set is bit i of the mask
+	 * @return
+	 * @throws IllegalStateException if the set is larger than 64
+	 */
+	public long toBitmask() {
+		if (set.length>Long.SIZE) {
+			throw new IllegalStateException("PowerSet of size "+set.length+" can't be represented as a bitmask");
+		}
+		long mask = 0;
+		for (int i=0;i<set.length;i++) {
+			if (set[i]) mask |= (1L<<i);
+		}
+		return mask;
+	}
+	
+	/**
+	 * Returns this set as a BitSet: position i of the set is bit i of the BitSet.
+	 * Contrary to {@link #toBitmask()} it works for any size.
+	 * @return
+	 */
+	public BitSet toBitSet() {
+		BitSet bits = new BitSet(set.length);
+		for (int i=0;i<set.length;i++) {
+			if (set[i]) bits.set(i);
+		}
+		return bits;
+	}
+	
 	@Override
 	public boolean equals(Object other) {
 		if (! (other instanceof PowerSet)) return false;
@@ -1,12 +1,23 @@
 package eppic.commons.blast;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import eppic.commons.sequence.FileFormatException;
 import eppic.commons.sequence.Sequence;
@@ -17,11 +28,14 @@ import eppic.commons.sequence.Sequence;
  */
 public class BlastRunner {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(BlastRunner.class);
+
 	// constants
 	public static final int		BLAST_CLASSIC_OUTPUT_TYPE = 0;  // classic blast output, default in legacy blast and blast+
 	
 	public static final int 	BLASTPLUS_XML_OUTPUT_TYPE = 5;  // xml output 
 	public static final int 	BLASTPLUS_TAB_OUTPUT_TYPE = 6;
+	public static final int 	BLASTPLUS_TAB_COMMENTS_OUTPUT_TYPE = 7;
 	
 	public static final int 	LEGACYBLAST_XML_OUTPUT_TYPE = 7;
 	public static final int		LEGACYBLAST_TAB_OUTPUT_TYPE = 8;
@@ -44,6 +58,83 @@ public class BlastRunner {
 		
 	private String cmdLine;
 	
+	/**
+	 * A writer for the copy of the blast output to the cache file. Errors writing it (e.g. disk full) 
+	 * are logged and only stop the caching, the blast output is still parsed.
+	 */
+	private static class CacheWriter extends Writer {
+		
+		private final File cacheFile;
+		private final Writer writer;
+		private boolean failed;
+		
+		public CacheWriter(File cacheFile, Writer writer) {
+			this.cacheFile = cacheFile;
+			this.writer = writer;
+			this.failed = false;
+		}
+		
+		public boolean hasFailed() {
+			return failed;
+		}
+		
+		private void fail(IOException e) {
+			LOGGER.warn("Couldn't write the blast cache file "+cacheFile+", it won't be cached. Error: "+e.getMessage());
+			failed = true;
+			try {
+				writer.close();
+			} catch (IOException e1) {
+				// nothing to do, the file is deleted anyway
+			}
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			if (failed) return;
+			try {
+				writer.write(cbuf, off, len);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		
+		@Override
+		public void write(String str) {
+			if (failed) return;
+			try {
+				writer.write(str);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		
+		@Override
+		public void write(int c) {
+			if (failed) return;
+			try {
+				writer.write(c);
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		
+		@Override
+		public void flush() {
+			if (failed) return;
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				fail(e);
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			if (failed) return;
+			writer.close();
+		}
+	}
+	
 	/**
 	 * Constructs a BlastRunner object given a blastDbDir
 	 * Use then the setters to set the blast programs paths 
@@ -225,19 +316,8 @@ public class BlastRunner {
 	 */
 	public void runBlastp(File blastPlusBlastp, File queryFile, String db, File outFile, int outputType, boolean noFiltering, int numThreads, int maxNumHits) 
 		throws IOException, BlastException, InterruptedException {
-		int length = 0;
-		try {
-			List<Sequence> readseqs = Sequence.readSeqs(queryFile, null);
-			if (readseqs.size()>0) {
-				length = readseqs.get(0).getLength();
-			} else {
-				throw new BlastException("The given FASTA file for blasting "+queryFile+" contains no sequences");
-			}
-		} catch (FileFormatException e) {
-			throw new BlastException("The given FASTA file for blasting "+queryFile+" does not seem to have the right format");
-		}
 		
-		String mat = getMatrixFromLength(length);		
+		String mat = getMatrixFromLength(readQueryLength(queryFile));
 			
 		checkIO(queryFile, db);
 
@@ -269,6 +349,141 @@ public class BlastRunner {
 		
 	}
 	
+	/**
+	 * Runs blast+ blastp program as {@link #runBlastp(File, File, String, File, int, boolean, int, int)}
+	 * but with a compact tabular output (see {@link BlastTabularParser#FIELDS}) that is parsed
+	 * while it is read from the standard output of blast, without intermediate files. 
+	 * @param blastPlusBlastp
+	 * @param queryFile
+	 * @param db
+	 * @param noFiltering
+	 * @param numThreads
+	 * @param maxNumHits
+	 * @param withAlignments whether the aligned sequences of the HSPs are needed, if false
+	 * the HSPs won't have alignments
+	 * @param cacheFile if not null the output is also written, gzipped, to this file, that can 
+	 * later be read with {@link BlastTabularParser#BlastTabularParser(File)}. The file is only 
+	 * written if blast finishes successfully.
+	 * @return the parsed hits
+	 * @throws IOException
+	 * @throws BlastException if blast exits with an error or its output can't be parsed
+	 * @throws InterruptedException
+	 */
+	public BlastHitList runBlastpTabular(File blastPlusBlastp, File queryFile, String db, boolean noFiltering, int numThreads, int maxNumHits, boolean withAlignments, File cacheFile) 
+		throws IOException, BlastException, InterruptedException {
+		
+		String mat = getMatrixFromLength(readQueryLength(queryFile));
+		
+		checkIO(queryFile, db);
+
+		String dbFullPath = new File(blastDbDir,db).getAbsolutePath();
+		
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(blastPlusBlastp.getAbsolutePath());
+		cmd.add("-matrix"); cmd.add(mat);
+		cmd.add("-db"); cmd.add(dbFullPath);
+		cmd.add("-query"); cmd.add(queryFile.getAbsolutePath());
+		cmd.add("-num_threads"); cmd.add(Integer.toString(numThreads));
+		cmd.add("-outfmt"); 
+		cmd.add(BLASTPLUS_TAB_COMMENTS_OUTPUT_TYPE+" "+(withAlignments?BlastTabularParser.FIELDS_WITH_ALIGNMENT:BlastTabularParser.FIELDS));
+		cmd.add("-seg"); cmd.add(noFiltering?"no":"yes");
+		// default blast max num hits is 500, only if we require more, we pass the option
+		if (maxNumHits>BLAST_DEFAULT_MAX_HITS) {
+			cmd.add("-max_target_seqs"); cmd.add(Integer.toString(maxNumHits));
+		}
+		
+		cmdLine = "";
+		for (String token:cmd) {
+			cmdLine+=token+" ";
+		}
+		
+		File errFile = File.createTempFile("blast.", ".err");
+		errFile.deleteOnExit();
+		
+		ProcessBuilder pb = new ProcessBuilder(cmd);
+		pb.redirectError(errFile);
+		Process blastProc = pb.start();
+		
+		// the cache file is written to a temp file first so that it's never seen incomplete
+		// not being able to write the cache is not fatal: we just don't cache
+		File tmpCacheFile = null;
+		CacheWriter cacheWriter = null;
+		if (cacheFile!=null) {
+			try {
+				tmpCacheFile = File.createTempFile(cacheFile.getName()+".", ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+				cacheWriter = new CacheWriter(cacheFile, 
+						new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tmpCacheFile)))));
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't write the blast cache file "+cacheFile+". Error: "+e.getMessage());
+				if (tmpCacheFile!=null) tmpCacheFile.delete();
+				tmpCacheFile = null;
+			}
+		}
+		
+		boolean cacheWritten = false;
+		try {
+			BlastHitList hits = null;
+			try (InputStream is = blastProc.getInputStream()) {
+				hits = new BlastTabularParser(is, cacheWriter).getHits();
+			} catch (IOException e) {
+				// if parsing failed we don't want blast to keep running
+				blastProc.destroy();
+				throw new BlastException("Could not parse blast tabular output: "+e.getMessage(), e);
+			}
+			
+			int exitValue;
+			try {
+				exitValue = blastProc.waitFor();
+			} catch (InterruptedException e) {
+				blastProc.destroy();
+				throw e;
+			}
+			
+			if (exitValue>0) {
+				String err = new String(Files.readAllBytes(errFile.toPath())).trim();
+				throw new BlastException(blastPlusBlastp.getName() + " exited with error value " + exitValue + 
+						(err.isEmpty()?"":". Error: "+err));
+			}
+			
+			if (tmpCacheFile!=null && !cacheWriter.hasFailed()) {
+				try {
+					cacheWriter.close();
+					Files.move(tmpCacheFile.toPath(), cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					cacheFile.setWritable(true, false);
+					cacheWritten = true;
+				} catch (IOException e) {
+					LOGGER.warn("Couldn't write the blast cache file "+cacheFile+". Error: "+e.getMessage());
+				}
+			}
+			
+			return hits;
+			
+		} finally {
+			// on any failure (including interruption) the incomplete cache file is removed
+			if (tmpCacheFile!=null && !cacheWritten) {
+				try {
+					cacheWriter.close();
+				} catch (IOException e) {
+					// nothing to do, the file is deleted anyway
+				}
+				tmpCacheFile.delete();
+			}
+		}
+	}
+	
+	private int readQueryLength(File queryFile) throws IOException, BlastException {
+		try {
+			List<Sequence> readseqs = Sequence.readSeqs(queryFile, null);
+			if (readseqs.size()>0) {
+				return readseqs.get(0).getLength();
+			} else {
+				throw new BlastException("The given FASTA file for blasting "+queryFile+" contains no sequences");
+			}
+		} catch (FileFormatException e) {
+			throw new BlastException("The given FASTA file for blasting "+queryFile+" does not seem to have the right format");
+		}
+	}
+	
 	/**
 	 * Returns a blast substitution matrix depending on given sequenceLength
 	 * (following http://www.ncbi.nlm.nih.gov/blast/html/sub_matrix.html):
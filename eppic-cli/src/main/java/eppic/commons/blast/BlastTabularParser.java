@@ -0,0 +1,183 @@
+package eppic.commons.blast;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Parser of blast+ tabular output with comment lines (-outfmt 7) for the fields in
+ * {@link #FIELDS} or {@link #FIELDS_WITH_ALIGNMENT}, as written by
+ * {@link BlastRunner#runBlastpTabular(File, File, String, boolean, int, int, boolean, File)}.
+ * <p>
+ * Contrary to {@link BlastXMLParser} the input can be read as a stream while blast
+ * is running, line by line, without the hit definitions and other XML overhead.
+ * The query id, query length and database are read from the comment lines.
+ *
+ * @author duarte_j
+ *
+ */
+public class BlastTabularParser {
+
+	/**
+	 * The fields of the custom tabular format, without the aligned sequences
+	 */
+	public static final String FIELDS = "qseqid sseqid length nident qstart qend sstart send evalue bitscore qlen slen";
+
+	/**
+	 * The fields of the custom tabular format, with the aligned sequences as 2 last columns
+	 */
+	public static final String FIELDS_WITH_ALIGNMENT = FIELDS + " qseq sseq";
+
+	private static final int NUM_FIELDS = 12;
+	private static final int NUM_FIELDS_WITH_ALIGNMENT = 14;
+
+	private static final String QUERY_COMMENT = "# Query:";
+	private static final String DB_COMMENT = "# Database:";
+
+	private static final String LOCAL_ID_PREFIX = "lcl|";
+
+	private BlastHitList hitList;
+
+	private BlastHit currentHit;
+
+	/**
+	 * Constructs a new BlastTabularParser parsing the given file, either plain or gzipped
+	 * (detected automatically).
+	 * Get the hits calling {@link #getHits()}
+	 * @param blastTabFile
+	 * @throws IOException if the file can't be read or is not in the expected format
+	 */
+	public BlastTabularParser(File blastTabFile) throws IOException {
+		try (InputStream is = getInputStream(blastTabFile)) {
+			parse(is, null);
+		}
+	}
+
+	/**
+	 * Constructs a new BlastTabularParser parsing the given stream until its end,
+	 * e.g. the standard output of a running blast process.
+	 * Get the hits calling {@link #getHits()}
+	 * @param is
+	 * @param copy if not null all lines read are also written to it, e.g. to cache the
+	 * output without having to read it twice
+	 * @throws IOException if the stream can't be read or is not in the expected format
+	 */
+	public BlastTabularParser(InputStream is, Writer copy) throws IOException {
+		parse(is, copy);
+	}
+
+	/**
+	 * Returns the parsed BlastHitList
+	 * @return
+	 */
+	public BlastHitList getHits() {
+		return hitList;
+	}
+
+	private void parse(InputStream is, Writer copy) throws IOException {
+		hitList = new BlastHitList();
+		currentHit = null;
+
+		BufferedReader br = new BufferedReader(new InputStreamReader(is));
+		String line;
+		int lineNum = 0;
+		while ((line = br.readLine())!=null) {
+			lineNum++;
+			if (copy!=null) {
+				copy.write(line);
+				copy.write('\n');
+			}
+			if (line.isEmpty()) continue;
+			if (line.startsWith("#")) {
+				parseComment(line);
+				continue;
+			}
+			parseHsp(line, lineNum);
+		}
+	}
+
+	private void parseComment(String line) {
+		if (line.startsWith(QUERY_COMMENT)) {
+			String val = line.substring(QUERY_COMMENT.length()).trim();
+			int space = val.indexOf(' ');
+			hitList.setQueryId(space<0 ? val : val.substring(0, space));
+		}
+		else if (line.startsWith(DB_COMMENT)) {
+			hitList.setDb(line.substring(DB_COMMENT.length()).trim());
+		}
+	}
+
+	private void parseHsp(String line, int lineNum) throws IOException {
+		String[] tokens = line.split("\t");
+		if (tokens.length!=NUM_FIELDS && tokens.length!=NUM_FIELDS_WITH_ALIGNMENT) {
+			throw new IOException("Unexpected number of fields ("+tokens.length+") in line "+lineNum+" of blast tabular output");
+		}
+
+		String subjectId = tokens[1];
+		if (subjectId.startsWith(LOCAL_ID_PREFIX)) subjectId = subjectId.substring(LOCAL_ID_PREFIX.length());
+
+		// the hsps of a hit usually come in consecutive lines
+		if (currentHit!=null && !currentHit.getSubjectId().equals(subjectId)) {
+			currentHit = hitList.contains(subjectId) ? hitList.getHit(subjectId) : null;
+		}
+		if (currentHit==null) {
+			if (hitList.getQueryId()==null) hitList.setQueryId(tokens[0]);
+
+			currentHit = new BlastHit();
+			currentHit.setQueryId(hitList.getQueryId());
+			currentHit.setSubjectId(subjectId);
+			try {
+				int queryLength = Integer.parseInt(tokens[10]);
+				hitList.setQueryLength(queryLength);
+				currentHit.setQueryLength(queryLength);
+				currentHit.setSubjectLength(Integer.parseInt(tokens[11]));
+			} catch (NumberFormatException e) {
+				throw new IOException("Wrong number format in line "+lineNum+" of blast tabular output: "+e.getMessage());
+			}
+			hitList.add(currentHit);
+		}
+
+		BlastHsp hsp = new BlastHsp(currentHit);
+		try {
+			hsp.setAliLength(Integer.parseInt(tokens[2]));
+			hsp.setIdentities(Integer.parseInt(tokens[3]));
+			hsp.setQueryStart(Integer.parseInt(tokens[4]));
+			hsp.setQueryEnd(Integer.parseInt(tokens[5]));
+			hsp.setSubjectStart(Integer.parseInt(tokens[6]));
+			hsp.setSubjectEnd(Integer.parseInt(tokens[7]));
+			hsp.setEValue(Double.parseDouble(tokens[8]));
+			hsp.setScore(Double.parseDouble(tokens[9]));
+		} catch (NumberFormatException e) {
+			throw new IOException("Wrong number format in line "+lineNum+" of blast tabular output: "+e.getMessage());
+		}
+		if (tokens.length==NUM_FIELDS_WITH_ALIGNMENT) {
+			hsp.setAlignment(tokens[12], tokens[13]);
+		}
+		currentHit.addHsp(hsp);
+	}
+
+	/**
+	 * Returns a buffered input stream for the given file, gunzipping it if it
+	 * starts with the gzip magic number
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static InputStream getInputStream(File file) throws IOException {
+		BufferedInputStream bis = new BufferedInputStream(new FileInputStream(file));
+		bis.mark(2);
+		int b1 = bis.read();
+		int b2 = bis.read();
+		bis.reset();
+		if (b1==(GZIPInputStream.GZIP_MAGIC & 0xff) && b2==(GZIPInputStream.GZIP_MAGIC >> 8)) {
+			return new GZIPInputStream(bis);
+		}
+		return bis;
+	}
+}
@@ -0,0 +1,158 @@
+package eppic.commons.sequence;
+
+/**
+ * A compact column-major encoding of a multiple protein sequence alignment in terms of the
+ * groups of an {@link AAAlphabet}. The whole alignment is stored in a single byte array where
+ * the residues of each column are contiguous, so that column counts and entropies can be
+ * computed with a linear scan and no allocation.
+ * <p>
+ * The codes stored are: 0 for gaps (and for standard aminoacids not present in any group of the alphabet,
+ * as in {@link MultipleSequenceAlignment#getColumnCounts(int, AAAlphabet)}), 1 to n for the n groups of the
+ * alphabet and {@value #NON_STANDARD} for non-standard aminoacids, which are not counted at all.
+ * <p>
+ * Instances are immutable and thus thread safe.
+ *
+ * @see MultipleSequenceAlignment#getColumnEntropies(String, AAAlphabet)
+ */
+public class AlignmentColumnMatrix {
+
+	/** The code for non-standard aminoacids, they count neither as gap nor as any group */
+	public static final byte NON_STANDARD = -1;
+
+	private final byte[] codes;
+	private final int numSeqs;
+	private final int numCols;
+	private final int numLetters;
+
+	/**
+	 * The value of p*log2(p) for p=k/numSeqs, for every possible count k
+	 */
+	private final double[] plogp;
+
+	/**
+	 * Encodes the given aligned sequences (all must have the same length) using the given alphabet
+	 * @param sequences
+	 * @param alphabet
+	 * @throws IllegalArgumentException if sequences differ in length
+	 */
+	public AlignmentColumnMatrix(String[] sequences, AAAlphabet alphabet) {
+		this.numSeqs = sequences.length;
+		this.numCols = numSeqs==0 ? 0 : sequences[0].length();
+		this.numLetters = alphabet.getNumLetters();
+
+		byte[] lookup = getLookupTable(alphabet);
+
+		this.codes = new byte[numSeqs*numCols];
+		for (int i=0;i<numSeqs;i++) {
+			String seq = sequences[i];
+			if (seq.length()!=numCols) {
+				throw new IllegalArgumentException("Sequence "+i+" has length "+seq.length()+", expected "+numCols);
+			}
+			for (int j=0;j<numCols;j++) {
+				char letter = seq.charAt(j);
+				codes[j*numSeqs+i] = letter<lookup.length ? lookup[letter] : NON_STANDARD;
+			}
+		}
+
+		// note we compute the terms with exactly the same expression as MultipleSequenceAlignment did,
+		// so that entropies are identical to the last bit
+		this.plogp = new double[numSeqs+1];
+		double log2 = Math.log(2);
+		for (int k=1;k<=numSeqs;k++) {
+			double prob = (double)k / (double)numSeqs;
+			plogp[k] = prob*(Math.log(prob)/log2);
+		}
+	}
+
+	private static byte[] getLookupTable(AAAlphabet alphabet) {
+		byte[] lookup = new byte[128];
+		for (char c=0;c<lookup.length;c++) {
+			if (c==MultipleSequenceAlignment.GAPCHARACTER) {
+				lookup[c] = 0;
+			} else if (AminoAcid.isStandardAA(c)) {
+				lookup[c] = (byte) alphabet.getGroupByOneLetterCode(c);
+			} else {
+				lookup[c] = NON_STANDARD;
+			}
+		}
+		return lookup;
+	}
+
+	public int getNumberOfSequences() {
+		return numSeqs;
+	}
+
+	public int getAlignmentLength() {
+		return numCols;
+	}
+
+	/**
+	 * Gets the counts of groups of aminoacids for column alignIndex into the given array.
+	 * @param alignIndex the column of the alignment (starting at 1)
+	 * @param counts an array of size at least numGroupsAlphabet+1 where the counts will be written,
+	 * index 0 is for gaps, the rest for the groups of the alphabet
+	 * @return the given counts array
+	 */
+	public int[] getColumnCounts(int alignIndex, int[] counts) {
+		for (int g=0;g<=numLetters;g++) {
+			counts[g] = 0;
+		}
+		int start = (alignIndex-1)*numSeqs;
+		int end = start + numSeqs;
+		for (int k=start;k<end;k++) {
+			byte code = codes[k];
+			if (code!=NON_STANDARD) counts[code]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * Gets the counts of groups of aminoacids for column alignIndex
+	 * @param alignIndex the column of the alignment (starting at 1)
+	 * @return an array of size numGroupsAlphabet+1, index 0 is for gaps, the rest for the groups of the alphabet
+	 */
+	public int[] getColumnCounts(int alignIndex) {
+		return getColumnCounts(alignIndex, new int[numLetters+1]);
+	}
+
+	/**
+	 * Calculates the entropy of column alignIndex, using the given array as working space for the counts.
+	 * Gaps are not considered in the entry summation, but the calculation of amino acid
+	 * column probabilities do take gaps into account.
+	 * @param alignIndex the column of the alignment (starting at 1)
+	 * @param counts an array of size at least numGroupsAlphabet+1
+	 * @return
+	 */
+	public double getColumnEntropy(int alignIndex, int[] counts) {
+		getColumnCounts(alignIndex, counts);
+		double sumplogp = 0.0;
+		for (int g=1;g<=numLetters;g++) {
+			// plogp is 0 for p=0
+			if (counts[g]!=0) sumplogp += plogp[counts[g]];
+		}
+		return (-1.0)*sumplogp;
+	}
+
+	/**
+	 * Calculates the entropy of column alignIndex
+	 * @param alignIndex the column of the alignment (starting at 1)
+	 * @return
+	 */
+	public double getColumnEntropy(int alignIndex) {
+		return getColumnEntropy(alignIndex, new int[numLetters+1]);
+	}
+
+	/**
+	 * Calculates the entropies of all given columns
+	 * @param alignIndices the columns of the alignment (starting at 1)
+	 * @return an array with the entropies, in the order of the given columns
+	 */
+	public double[] getColumnEntropies(int[] alignIndices) {
+		int[] counts = new int[numLetters+1];
+		double[] entropies = new double[alignIndices.length];
+		for (int i=0;i<alignIndices.length;i++) {
+			entropies[i] = getColumnEntropy(alignIndices[i], counts);
+		}
+		return entropies;
+	}
+}
@@ -0,0 +1,354 @@
+package eppic.commons.sequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eppic.commons.blast.BlastHsp;
+
+/**
+ * Single-linkage clustering of homologs by sequence identity, an in-process replacement
+ * of blastclust for redundancy reduction.
+ * <p>
+ * Two homologs are neighbours at a given percent identity if the identity of their HSP
+ * regions is at least that value and the alignment covers at least the given fraction of
+ * both regions (as blastclust with option -b T). The alignment of two homologs is the one
+ * implied by their blast HSPs against the common query: residues aligned to the same query
+ * position are aligned to each other. Residues inserted relative to the query are not aligned,
+ * but as in blastclust they count in the alignment length used for the identity.
+ * <p>
+ * The identities of all pairs are calculated once, in parallel, when homologs are added.
+ * Clusterings are then obtained with a union-find over the pairs sorted by decreasing identity,
+ * so that clustering at successively lower identities only adds the new pairs.
+ *
+ * @author duarte_j
+ *
+ */
+public class HomologClusterer {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HomologClusterer.class);
+
+	private static final char GAP = '-';
+
+	/**
+	 * The HSP region of a homolog projected on the query: the residue aligned to each
+	 * query position between queryStart and queryEnd, or a gap, and the number of residues
+	 * inserted after each query position
+	 */
+	private static class Projection {
+		private final int index;
+		private final String identifier;
+		private final int queryStart;
+		private final char[] residues;
+		private final int[] insertions;
+		private final int length; // number of residues of the HSP region
+
+		private Projection(int index, String identifier, int queryStart, char[] residues, int[] insertions, int length) {
+			this.index = index;
+			this.identifier = identifier;
+			this.queryStart = queryStart;
+			this.residues = residues;
+			this.insertions = insertions;
+			this.length = length;
+		}
+
+		private int getQueryEnd() {
+			return queryStart + residues.length - 1;
+		}
+	}
+
+	/**
+	 * A pair of neighbours
+	 */
+	private static class Edge implements Comparable<Edge> {
+		private final int i;
+		private final int j;
+		private final double percentId;
+
+		private Edge(int i, int j, double percentId) {
+			this.i = i;
+			this.j = j;
+			this.percentId = percentId;
+		}
+
+		@Override
+		public int compareTo(Edge o) {
+			return Double.compare(o.percentId, this.percentId);
+		}
+	}
+
+	private final double minCoverage;
+	private final int numThreads;
+
+	private final List<Projection> projections;
+	private final Map<String,Projection> projectionsById;
+	private final List<Edge> edges;
+	private boolean sorted;
+
+	// the current clustering: union-find over the members
+	private boolean[] isMember;
+	private int[] parent;
+	private int[] rank;
+	private int numClusters;
+	private int nextEdge;
+	private int currentPercentId;
+
+	/**
+	 * Constructs a new clusterer without homologs
+	 * @param minCoverage the minimum fraction of both sequences covered by the alignment
+	 * for them to be neighbours (blastclust option -L)
+	 * @param numThreads the number of threads used to calculate the identities
+	 */
+	public HomologClusterer(double minCoverage, int numThreads) {
+		this.minCoverage = minCoverage;
+		this.numThreads = numThreads;
+		this.projections = new ArrayList<Projection>();
+		this.projectionsById = new HashMap<String,Projection>();
+		this.edges = new ArrayList<Edge>();
+		this.sorted = true;
+		this.isMember = new boolean[0];
+	}
+
+	/**
+	 * Adds the homologs that are not yet known to the clusterer, calculating their
+	 * identities to all known homologs
+	 * @param homologs
+	 * @throws InterruptedException
+	 */
+	public void addHomologs(Collection<Homolog> homologs) throws InterruptedException {
+		int firstNew = projections.size();
+		for (Homolog hom:homologs) {
+			if (projectionsById.containsKey(hom.getIdentifier())) continue;
+			Projection p = project(projections.size(), hom);
+			projections.add(p);
+			projectionsById.put(p.identifier, p);
+		}
+		int numNew = projections.size() - firstNew;
+		if (numNew==0) return;
+
+		long start = System.currentTimeMillis();
+
+		// each new homolog against all the ones before it: every pair is calculated once
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			List<Future<List<Edge>>> futures = new ArrayList<Future<List<Edge>>>(numNew);
+			for (int j=firstNew;j<projections.size();j++) {
+				final Projection pj = projections.get(j);
+				futures.add(executor.submit(() -> {
+					List<Edge> found = new ArrayList<Edge>();
+					for (int i=0;i<pj.index;i++) {
+						Edge edge = align(projections.get(i), pj);
+						if (edge!=null) found.add(edge);
+					}
+					return found;
+				}));
+			}
+			for (Future<List<Edge>> future:futures) {
+				edges.addAll(future.get());
+			}
+		} catch (ExecutionException e) {
+			// there are no checked exceptions in the tasks
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		sorted = false;
+
+		LOGGER.info("Calculated identities of "+numNew+" new homologs against "+firstNew+" known ones in "
+				+(System.currentTimeMillis()-start)+" ms: "+edges.size()+" neighbour pairs in total");
+	}
+
+	/**
+	 * Sets the homologs to be clustered, adding the unknown ones.
+	 * The clustering is reset to single member clusters.
+	 * @param homologs
+	 * @throws InterruptedException
+	 */
+	public void setMembers(Collection<Homolog> homologs) throws InterruptedException {
+		addHomologs(homologs);
+		isMember = new boolean[projections.size()];
+		for (Homolog hom:homologs) {
+			isMember[projectionsById.get(hom.getIdentifier()).index] = true;
+		}
+		resetClustering();
+	}
+
+	/**
+	 * Returns the number of clusters of the members at the given percent identity.
+	 * Calls with decreasing identities only add the new neighbour pairs to the clustering.
+	 * @param percentId
+	 * @return
+	 */
+	public int getNumClusters(int percentId) {
+		clusterTo(percentId);
+		return numClusters;
+	}
+
+	/**
+	 * Returns the clusters of the members at the given percent identity, as lists
+	 * of homolog identifiers. The clusters are sorted by decreasing size and the members
+	 * of each cluster are in the order they were added to the clusterer.
+	 * @param percentId
+	 * @return
+	 */
+	public List<List<String>> getClusters(int percentId) {
+		clusterTo(percentId);
+		Map<Integer,List<String>> clusters = new HashMap<Integer,List<String>>();
+		List<List<String>> list = new ArrayList<List<String>>();
+		for (Projection p:projections) {
+			if (!isMember[p.index]) continue;
+			int root = find(p.index);
+			List<String> cluster = clusters.get(root);
+			if (cluster==null) {
+				cluster = new ArrayList<String>();
+				clusters.put(root, cluster);
+				list.add(cluster);
+			}
+			cluster.add(p.identifier);
+		}
+		// stable sort: clusters of the same size keep the order of their first member
+		Collections.sort(list, (c1,c2) -> Integer.compare(c2.size(), c1.size()));
+		return list;
+	}
+
+	private void clusterTo(int percentId) {
+		if (!sorted) {
+			// the edges are in a new order: starting over
+			Collections.sort(edges);
+			sorted = true;
+			resetClustering();
+		} else if (percentId>currentPercentId) {
+			resetClustering();
+		}
+		while (nextEdge<edges.size() && edges.get(nextEdge).percentId>=percentId) {
+			Edge edge = edges.get(nextEdge);
+			if (isMember[edge.i] && isMember[edge.j] && union(edge.i, edge.j)) {
+				numClusters--;
+			}
+			nextEdge++;
+		}
+		currentPercentId = percentId;
+	}
+
+	private void resetClustering() {
+		int n = projections.size();
+		if (isMember.length<n) {
+			// homologs added after the members were set are not members
+			isMember = Arrays.copyOf(isMember, n);
+		}
+		parent = new int[n];
+		rank = new int[n];
+		numClusters = 0;
+		for (int i=0;i<n;i++) {
+			parent[i] = i;
+			if (isMember[i]) numClusters++;
+		}
+		nextEdge = 0;
+		currentPercentId = Integer.MAX_VALUE;
+	}
+
+	private int find(int i) {
+		while (parent[i]!=i) {
+			parent[i] = parent[parent[i]]; // path halving
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private boolean union(int i, int j) {
+		int ri = find(i);
+		int rj = find(j);
+		if (ri==rj) return false;
+		if (rank[ri]<rank[rj]) {
+			parent[ri] = rj;
+		} else if (rank[ri]>rank[rj]) {
+			parent[rj] = ri;
+		} else {
+			parent[rj] = ri;
+			rank[ri]++;
+		}
+		return true;
+	}
+
+	/**
+	 * Projects the HSP alignment of the homolog on the query: subject residues inserted
+	 * relative to the query are only counted
+	 * @param index
+	 * @param hom
+	 * @return
+	 */
+	private static Projection project(int index, Homolog hom) {
+		BlastHsp hsp = hom.getBlastHsp();
+		MultipleSequenceAlignment al = hsp.getAlignment();
+		int length = hsp.getSubjectEnd() - hsp.getSubjectStart() + 1;
+		if (al==null) {
+			LOGGER.warn("No alignment for the blast hsp of homolog "+hom.getIdentifier()+", it won't be clustered with others");
+			return new Projection(index, hom.getIdentifier(), hsp.getQueryStart(), new char[0], new int[0], length);
+		}
+		String query = al.getAlignedSequence(al.getTagFromIndex(0));
+		String subject = al.getAlignedSequence(al.getTagFromIndex(1));
+		char[] residues = new char[hsp.getQueryEnd() - hsp.getQueryStart() + 1];
+		int[] insertions = new int[residues.length];
+		Arrays.fill(residues, GAP);
+		int pos = 0;
+		for (int c=0;c<query.length() && pos<residues.length;c++) {
+			if (query.charAt(c)==GAP) {
+				if (pos>0 && subject.charAt(c)!=GAP) insertions[pos-1]++;
+				continue;
+			}
+			residues[pos] = subject.charAt(c);
+			pos++;
+		}
+		return new Projection(index, hom.getIdentifier(), hsp.getQueryStart(), residues, insertions, length);
+	}
+
+	/**
+	 * Returns the edge between the two homologs if they are neighbours at any identity,
+	 * null otherwise
+	 * @param p1
+	 * @param p2
+	 * @return
+	 */
+	private Edge align(Projection p1, Projection p2) {
+		int start = Math.max(p1.queryStart, p2.queryStart);
+		int end = Math.min(p1.getQueryEnd(), p2.getQueryEnd());
+		// at most the overlap can be aligned: most pairs are discarded here
+		int maxAligned = end - start + 1;
+		if (maxAligned <= 0 || maxAligned < minCoverage*p1.length || maxAligned < minCoverage*p2.length) {
+			return null;
+		}
+		int aligned = 0;
+		int identities = 0;
+		int columns = 0;
+		for (int pos=start;pos<=end;pos++) {
+			char r1 = p1.residues[pos - p1.queryStart];
+			char r2 = p2.residues[pos - p2.queryStart];
+			boolean gap1 = r1==GAP;
+			boolean gap2 = r2==GAP;
+			if (pos<end) {
+				// the insertions of both homologs after the same query position can be aligned to each other
+				columns += Math.max(p1.insertions[pos - p1.queryStart], p2.insertions[pos - p2.queryStart]);
+			}
+			if (gap1 && gap2) continue;
+			columns++;
+			if (gap1 || gap2) continue;
+			aligned++;
+			if (r1==r2) identities++;
+		}
+		if (aligned < minCoverage*p1.length || aligned < minCoverage*p2.length) {
+			return null;
+		}
+		return new Edge(p1.index, p2.index, 100.0*identities/columns);
+	}
+}
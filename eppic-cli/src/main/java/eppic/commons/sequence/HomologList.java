@@ -15,21 +15,23 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xml.sax.SAXException;
 
 import eppic.commons.blast.BlastException;
 import eppic.commons.blast.BlastHit;
 import eppic.commons.blast.BlastHitList;
 import eppic.commons.blast.BlastHsp;
 import eppic.commons.blast.BlastRunner;
-import eppic.commons.blast.BlastXMLParser;
+import eppic.commons.blast.BlastTabularParser;
 import eppic.commons.sequence.AAAlphabet;
-import eppic.commons.util.Goodies;
 import eppic.commons.util.Interval;
 import uk.ac.ebi.kraken.interfaces.uniparc.UniParcEntry;
 import uk.ac.ebi.uniprot.dataservice.client.exception.ServiceException;
@@ -51,25 +53,31 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 
 	/*------------------------ constants --------------------------*/
 	
-	private static final String 	BLASTOUT_SUFFIX = "blast.out.xml";
 	private static final String 	FASTA_SUFFIX = ".fa";
 	private static final String 	BLAST_BASENAME = "homSearch";
-	private static final String     BLASTCLUST_BASENAME = "homClustering";
-	private static final String     BLASTCLUST_OUT_SUFFIX = ".blastclust.out";
-	private static final String 	BLASTCLUST_SAVE_SUFFIX = ".blastclust.save";
 	 
 	private static final boolean 	BLAST_NO_FILTERING = true;
 	private static final String 	UNIPROT_VER_FILE = "reldate.txt";
 	
-	private static final int        BLASTCLUST_STARTING_CLUSTERING_ID = 98;
+	/**
+	 * The UniProt version returned by {@link #readUniprotVer(String)} if it can't be read
+	 */
+	public static final String		UNKNOWN_UNIPROT_VER = "unknown";
+	
+	private static final int        STARTING_CLUSTERING_ID = 98;
 	private static final int		CLUSTERING_ID_STEP = 1;
-	private static final double 	BLASTCLUST_CLUSTERING_COVERAGE = 0.99;
+	private static final double 	CLUSTERING_COVERAGE = 0.99;
 	
 	
 	private static final boolean 	DEBUG = false;
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(HomologList.class);
 	
+	// the blast searches in progress with a cache file, so that entities with the same 
+	// uniprot id and interval searched concurrently blast only once
+	private static final ConcurrentMap<File, CompletableFuture<Void>> BLAST_CACHE_SEARCHES = 
+			new ConcurrentHashMap<File, CompletableFuture<Void>>();
+	
 	/*-------------------------- members --------------------------*/
 	
 	private UnirefEntry ref;						// the uniref entry (uniprot/uniparc) to which the homologs refer
@@ -83,6 +91,7 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	private String uniprotVer;						// the version of uniprot used in blasting, read from the reldate.txt uniprot file
 	
 	private int usedClusteringPercentId;			// the value of clustering id actually used in redundancy elimination
+	private transient HomologClusterer clusterer;	// the clusterer used in redundancy elimination, with the identities calculated so far
 	
 	private MultipleSequenceAlignment aln;	  		// the protein sequences alignment
 
@@ -125,15 +134,17 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	
 	/**
 	 * Performs a blast search based on the reference UniprotEntry to populate this list of homologs.
-	 * All blast output files will be removed on exit.
-	 * If a gzipped blast xml cacheFile is passed and it exists, blast is not run but instead results 
-	 * are read from cache file. If cacheFile passed but does not exist the blast xml file will be 
-	 * gzipped to cacheFile
+	 * The blast output is read directly from the blast process in a compact tabular format 
+	 * (see {@link BlastTabularParser}).
+	 * If a gzipped blast tabular cacheFile is passed and it exists, blast is not run but instead results 
+	 * are read from cache file. If cacheFile passed but does not exist the blast output will be 
+	 * gzipped to cacheFile. Concurrent searches with the same cacheFile are done one after the 
+	 * other, so that only the first one runs blast and the others read its cache file.
 	 * @param blastPlusBlastp
 	 * @param blastDbDir
 	 * @param blastDb
 	 * @param blastNumThreads
-	 * @param cacheFile a file with the cached gzipped xml blast output file, if null blast will be always run
+	 * @param cacheFile a file with the cached gzipped tabular blast output, if null blast will be always run
 	 * @throws IOException
 	 * @throws BlastException
 	 * @throws InterruptedException
@@ -141,90 +152,27 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	public void searchWithBlast(File blastPlusBlastp, String blastDbDir, String blastDb, int blastNumThreads, int maxNumSeqs, File cacheFile) 
 			throws IOException, BlastException, InterruptedException {
 		
-		File outBlast = null;
-		boolean fromCache = false;
-		BlastHitList blastList = null;
-		
 		this.uniprotVer = readUniprotVer(blastDbDir);
 		
-		// note we also check for size in case empty cache files are around (can happen often because
-		// of the way we create the files from blast redirecting to stdout)
-		if (cacheFile!=null && cacheFile.exists() && cacheFile.length()>0L) {
-
-			outBlast = cacheFile;
-			fromCache = true;
-			LOGGER.info("Reading blast results from cache file "+cacheFile);
-
-			try {
-				// note that by setting second parameter to true we are ignoring the DTD url to avoid unnecessary network connections
-				BlastXMLParser blastParser = new BlastXMLParser(outBlast, true);
-				blastList = blastParser.getHits();
-				
-				// 500 is blast's default, we don't want to check this if we are under default
-				if (maxNumSeqs>BlastRunner.BLAST_DEFAULT_MAX_HITS && blastList.size()<maxNumSeqs) { 
-					// we are asking for more max hits than present in the file, we have to blast again
-					LOGGER.info("Blast cache file exits ("+cacheFile+") but it contains only "+blastList.size()+" hits. Need to re-blast as a max of "+maxNumSeqs+" hits have been requested");
-					fromCache = false;
-					blastList = null;
-				} else {
-					// if we do take the cache file we have to do some sanity checks
-					String blastqueryid = blastList.getQueryId();
-					blastqueryid = blastqueryid.replaceAll("_.*", "");
-					if (!blastqueryid.equals(this.ref.getUniId())) {
-						throw new IOException("Query id "+blastqueryid+" from cache file "+cacheFile+
-								" does not match the id from the sequence: "+this.ref.getUniId());
-					}
-					String uniprotVerFromCache = readUniprotVer(cacheFile.getParent());
-					if (!uniprotVerFromCache.equals(uniprotVer)) {						
-						LOGGER.warn("Uniprot version from blast db dir "+blastDbDir+
-								" ("+uniprotVer+") does not match version in cache dir "+cacheFile.getParent()+" ("+uniprotVerFromCache+")");
-					}
-					if (!blastList.getDb().substring(blastList.getDb().lastIndexOf("/")+1).equals(blastDb)) {
-						LOGGER.error("Blast db used in cache file ("+cacheFile+") different from one requested "+blastDb);
-						LOGGER.error("Please check the blast cache directory.");
-						System.exit(1);
-					}
-				}
-			} catch (SAXException e) {
-				throw new IOException("Cache file "+cacheFile+" does not comply with blast XML format. "+e.getMessage());
-			}
-		} 
-		
-		if (!fromCache) {
-			outBlast = File.createTempFile(BLAST_BASENAME,BLASTOUT_SUFFIX);
-			File inputSeqFile = File.createTempFile(BLAST_BASENAME,FASTA_SUFFIX);
-			// NOTE: we blast the reference uniprot sequence using only the interval specified
-			this.ref.getSeq().getInterval(this.refInterval).writeToFastaFile(inputSeqFile);
-			
-			BlastRunner blastRunner = new BlastRunner(blastDbDir);
-			blastRunner.runBlastp(blastPlusBlastp, inputSeqFile, blastDb, outBlast, BlastRunner.BLASTPLUS_XML_OUTPUT_TYPE, BLAST_NO_FILTERING, blastNumThreads, maxNumSeqs);
-
-			if (!DEBUG) {
-				// note that if blast throws an exception, the files won't be deleted on exit, good for debugging a crash
-				outBlast.deleteOnExit();
-				inputSeqFile.deleteOnExit();
-			}
-
-			LOGGER.info("Run blast: "+blastRunner.getLastBlastCommand());
-			
-			LOGGER.info("Blasted against "+blastDbDir+"/"+blastDb);
-			if (cacheFile!=null) {
+		BlastHitList blastList = null;
+		if (cacheFile==null) {
+			blastList = getBlastHits(blastPlusBlastp, blastDbDir, blastDb, blastNumThreads, maxNumSeqs, null);
+		} else {
+			File key = cacheFile.getAbsoluteFile();
+			CompletableFuture<Void> search = new CompletableFuture<Void>();
+			CompletableFuture<Void> otherSearch;
+			while ((otherSearch = BLAST_CACHE_SEARCHES.putIfAbsent(key, search))!=null) {
 				try {
-					LOGGER.info("Writing blast cache file "+cacheFile);
-					Goodies.gzipFile(outBlast, cacheFile);
-					cacheFile.setWritable(true, false);
-				} catch (IOException e) {
-					LOGGER.warn("Couldn't write the blast cache file "+cacheFile+". Error: "+e.getMessage());
+					otherSearch.get();
+				} catch (ExecutionException e) {
+					// can't happen, the searches are only completed normally
 				}
-			} 
+			}
 			try {
-				// note that by setting second parameter to true we are ignoring the DTD url to avoid unnecessary network connections
-				BlastXMLParser blastParser = new BlastXMLParser(outBlast, true);
-				blastList = blastParser.getHits();
-			} catch (SAXException e) {
-				// if this happens it means that blast doesn't format correctly its XML, i.e. has a bug
-				LOGGER.error("Unexpected error: "+e.getMessage());
-				System.exit(1);
+				blastList = getBlastHits(blastPlusBlastp, blastDbDir, blastDb, blastNumThreads, maxNumSeqs, cacheFile);
+			} finally {
+				BLAST_CACHE_SEARCHES.remove(key, search);
+				search.complete(null);
 			}
 		}
 		
@@ -268,8 +216,85 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 		this.subList = list; // initially the subList is the same as the list until filterToMinIdAndCoverage is called
 	}
 	
+	/**
+	 * Gets the blast hits of the reference sequence interval, from the cacheFile if it exists 
+	 * or else running blast, see {@link #searchWithBlast(File, String, String, int, int, File)}
+	 */
+	private BlastHitList getBlastHits(File blastPlusBlastp, String blastDbDir, String blastDb, int blastNumThreads, int maxNumSeqs, File cacheFile) 
+			throws IOException, BlastException, InterruptedException {
+		
+		boolean fromCache = false;
+		BlastHitList blastList = null;
+		
+		// note we also check for size in case empty cache files are around
+		if (cacheFile!=null && cacheFile.exists() && cacheFile.length()>0L) {
+
+			fromCache = true;
+			LOGGER.info("Reading blast results from cache file "+cacheFile);
+
+			blastList = new BlastTabularParser(cacheFile).getHits();
+
+			// 500 is blast's default, we don't want to check this if we are under default
+			if (maxNumSeqs>BlastRunner.BLAST_DEFAULT_MAX_HITS && blastList.size()<maxNumSeqs) { 
+				// we are asking for more max hits than present in the file, we have to blast again
+				LOGGER.info("Blast cache file exits ("+cacheFile+") but it contains only "+blastList.size()+" hits. Need to re-blast as a max of "+maxNumSeqs+" hits have been requested");
+				fromCache = false;
+				blastList = null;
+			} else {
+				// if we do take the cache file we have to do some sanity checks
+				String blastqueryid = blastList.getQueryId();
+				blastqueryid = blastqueryid.replaceAll("_.*", "");
+				if (!blastqueryid.equals(this.ref.getUniId())) {
+					throw new IOException("Query id "+blastqueryid+" from cache file "+cacheFile+
+							" does not match the id from the sequence: "+this.ref.getUniId());
+				}
+				String uniprotVerFromCache = readUniprotVer(cacheFile.getParent());
+				if (!uniprotVerFromCache.equals(uniprotVer)) {						
+					LOGGER.warn("Uniprot version from blast db dir "+blastDbDir+
+							" ("+uniprotVer+") does not match version in cache dir "+cacheFile.getParent()+" ("+uniprotVerFromCache+")");
+				}
+				if (blastList.getDb()==null || !blastList.getDb().substring(blastList.getDb().lastIndexOf("/")+1).equals(blastDb)) {
+					LOGGER.error("Blast db used in cache file ("+cacheFile+") different from one requested "+blastDb);
+					LOGGER.error("Please check the blast cache directory.");
+					System.exit(1);
+				}
+			}
+		} 
+		
+		if (!fromCache) {
+			File inputSeqFile = File.createTempFile(BLAST_BASENAME,FASTA_SUFFIX);
+			// NOTE: we blast the reference uniprot sequence using only the interval specified
+			this.ref.getSeq().getInterval(this.refInterval).writeToFastaFile(inputSeqFile);
+			
+			BlastRunner blastRunner = new BlastRunner(blastDbDir);
+			if (cacheFile!=null) LOGGER.info("Writing blast cache file "+cacheFile);
+			// the alignments are needed for the redundancy reduction, see HomologClusterer
+			blastList = blastRunner.runBlastpTabular(blastPlusBlastp, inputSeqFile, blastDb, BLAST_NO_FILTERING, blastNumThreads, maxNumSeqs, true, cacheFile);
+
+			if (!DEBUG) {
+				// note that if blast throws an exception, the file won't be deleted on exit, good for debugging a crash
+				inputSeqFile.deleteOnExit();
+			}
+
+			LOGGER.info("Run blast: "+blastRunner.getLastBlastCommand());
+			
+			LOGGER.info("Blasted against "+blastDbDir+"/"+blastDb);
+			if (cacheFile!=null) {
+				cacheFile.setWritable(true, false);
+			}
+		}
+		
+		return blastList;
+	}
+	
+	/**
+	 * Reads the UniProt version from the reldate.txt file in the given directory
+	 * @param blastDbDir
+	 * @return the version or {@value #UNKNOWN_UNIPROT_VER} if the file is missing or can't be parsed
+	 * @see #isKnownUniprotVer(String)
+	 */
 	public static String readUniprotVer(String blastDbDir) {
-		String ver = "unknown";
+		String ver = UNKNOWN_UNIPROT_VER;
 		File uniprotVerFile = new File(blastDbDir,UNIPROT_VER_FILE);
 		try {
 			
@@ -290,6 +315,16 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 		return ver;
 	}
 	
+	/**
+	 * Returns true if the given UniProt version is an actual version, i.e. not null nor
+	 * {@value #UNKNOWN_UNIPROT_VER}
+	 * @param uniprotVer
+	 * @return
+	 */
+	public static boolean isKnownUniprotVer(String uniprotVer) {
+		return uniprotVer!=null && !uniprotVer.equals(UNKNOWN_UNIPROT_VER);
+	}
+	
 	/**
 	 * Retrieves from UniprotKB the sequence and taxonomy info,
 	 * by using the remote UniProt API, for both UniProt entries and UniParc entries.
@@ -741,85 +776,62 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	/**
 	 * Reduces the size of the subset of homologs by reducing the sequence redundancy in it.
 	 * The procedure is based on clustering the sequences at successively smaller clustering sequence 
-	 * identities in steps of {@value #CLUSTERING_ID_STEP}, starting with {@link #BLASTCLUST_STARTING_CLUSTERING_ID}.
+	 * identities in steps of {@value #CLUSTERING_ID_STEP}, starting with {@link #STARTING_CLUSTERING_ID}.
 	 * This procedure will thus always remove duplicates (100% identical pairs).
 	 * Note that the sequences used for clustering are the HSP matching regions only.
 	 * The last cluster list whose size is above the given maxDesiredHomologs is the one taken, then
 	 * from the chosen list of clusters one representative is chosen from each cluster and the other
 	 * cluster members discarded.
+	 * <p>
+	 * The clustering is done in process with a {@link HomologClusterer}, kept between calls so that
+	 * the identities of each pair of homologs are only calculated once.
 	 * @param maxDesiredHomologs
-	 * @param blastBinDir
-	 * @param blastDataDir
-	 * @param blastNumThreads
-	 * @throws IOException 
-	 * @throws BlastException 
+	 * @param numThreads the number of threads used to calculate the identities between homologs
 	 * @throws InterruptedException 
 	 */
-	public void reduceRedundancy(int maxDesiredHomologs, File blastclustBin, String blastDataDir, int blastNumThreads) 
-			throws IOException, InterruptedException, BlastException {
+	public void reduceRedundancy(int maxDesiredHomologs, int numThreads) throws InterruptedException {
 		
 		LOGGER.info("Proceeding to perform redundancy reduction for homologs of "+ref.getUniId()+" by clustering of blast HSP regions");
-				
-		File inputSeqFile = File.createTempFile(BLASTCLUST_BASENAME,FASTA_SUFFIX);
-		File outblastclustFile = File.createTempFile(BLASTCLUST_BASENAME,BLASTCLUST_OUT_SUFFIX);
-		File saveFile = File.createTempFile(BLASTCLUST_BASENAME,BLASTCLUST_SAVE_SUFFIX);
 		
-		writeToFasta(inputSeqFile, false);
-				
-		// first the real run of blastclust (we save neighbors with -s and reuse them in the loop after)
-		BlastRunner blastRunner = new BlastRunner(null);
-		long start = System.currentTimeMillis();
-		blastRunner.runBlastclust(blastclustBin, inputSeqFile, outblastclustFile, true, BLASTCLUST_STARTING_CLUSTERING_ID, BLASTCLUST_CLUSTERING_COVERAGE, blastDataDir, saveFile, blastNumThreads);
-		long end = System.currentTimeMillis();
-		LOGGER.info("Run initial blastclust ("+((end-start)/1000)+"s): "+blastRunner.getLastBlastCommand());
-		
-		int clusteringId = BLASTCLUST_STARTING_CLUSTERING_ID;
-		int countIterations = 0;
+		if (clusterer==null) {
+			clusterer = new HomologClusterer(CLUSTERING_COVERAGE, numThreads);
+		}
+		clusterer.setMembers(subList);
 		
-		List<List<String>> lastclusterslist = null;
-		List<List<String>> currentclusterslist = null;
+		int clusteringId = STARTING_CLUSTERING_ID;
+		int countIterations = 0;
+		int lastNumClusters = -1;
+		int currentNumClusters = -1;
 
 		while (true) {
 			
 			countIterations++;
-			LOGGER.info("Clustering iteration "+countIterations+
-					". Clustering with "+clusteringId+"% identity (and "+
-					String.format("%4.2f", BLASTCLUST_CLUSTERING_COVERAGE)+" coverage on both neighbors)");
 			
-			currentclusterslist = blastRunner.runBlastclust(blastclustBin, outblastclustFile, true, clusteringId, BLASTCLUST_CLUSTERING_COVERAGE, saveFile, blastNumThreads);
-			LOGGER.info("Run blastclust from saved neighbors: "+blastRunner.getLastBlastCommand());
+			currentNumClusters = clusterer.getNumClusters(clusteringId);
 			
-			LOGGER.info("Clustering with "+clusteringId+"% id resulted in "+currentclusterslist.size()+" clusters");
+			LOGGER.info("Clustering iteration "+countIterations+
+					". Clustering with "+clusteringId+"% identity (and "+
+					String.format("%4.2f", CLUSTERING_COVERAGE)+" coverage on both neighbors) resulted in "+currentNumClusters+" clusters");
 			
 			// note that in order not to loop forever if the number of clusters don't shrink, we use the second
 			// condition (clusteringId<idCutoff), using idCutoff seems to make some sense, but in a way it's totally arbitrary
-			if (currentclusterslist.size()<=maxDesiredHomologs || clusteringId<idCutoff*100) break; 
+			if (currentNumClusters<=maxDesiredHomologs || clusteringId<idCutoff*100) break; 
 			
-			lastclusterslist = currentclusterslist;
+			lastNumClusters = currentNumClusters;
 			
 			clusteringId -= CLUSTERING_ID_STEP;
 		}		
-
-		if (!DEBUG) {
-			// note that if blastclust throws an exception then this is not reached and thus files not removed on exit
-			outblastclustFile.deleteOnExit();
-			inputSeqFile.deleteOnExit();
-			saveFile.deleteOnExit();
-		}
-		
 		
-		// the currentclusterslist will contain the one that went under the maxDesiredHomologs, while lastclusterslist 
-		// will be over the maxDesiredHomologs
-		// thus we use lastclusterslist
-		// except if we only do one iteration, in which case we need to take currentclusterslist (lastclusterslist will be null)
-		List<List<String>> clusters = null;
-		if (lastclusterslist==null) {
-			clusters = currentclusterslist;
+		// the current clustering is the one that went under the maxDesiredHomologs, while the last one 
+		// is over the maxDesiredHomologs
+		// thus we use the last one
+		// except if we only do one iteration, in which case we need to take the current one
+		if (lastNumClusters==-1) {
 			usedClusteringPercentId = clusteringId;
 		} else {
-			clusters = lastclusterslist;
 			usedClusteringPercentId = clusteringId+CLUSTERING_ID_STEP;			
 		}
+		List<List<String>> clusters = clusterer.getClusters(usedClusteringPercentId);
 		LOGGER.info("Redundancy elimination will proceed with clusters of "+usedClusteringPercentId+"% identity");		
 		
 		HashSet<String> membersToRemove = new HashSet<String>(); 
@@ -900,7 +912,7 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	
 	/**
 	 * Returns the percent clustering identity that was used for redundancy reduction 
-	 * procedure, see {@link #reduceRedundancy(int, String, String, int, int, boolean)}
+	 * procedure, see {@link #reduceRedundancy(int, int)}
 	 * @return
 	 */
 	public int getUsedClusteringPercentId() {
@@ -922,8 +934,9 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	public void computeEntropies(AAAlphabet alphabet) {
 		this.alphabet = alphabet;
 		this.entropies = new ArrayList<Double>(); 
+		double[] refEntropies = this.aln.getColumnEntropies(ref.getUniId(), alphabet);
 		for (int i=0;i<refInterval.getLength();i++){
-			entropies.add(this.aln.getColumnEntropy(this.aln.seq2al(ref.getUniId(),i+1), alphabet));
+			entropies.add(refEntropies[i]);
 		}
 	}
 	
@@ -938,6 +951,53 @@ public class HomologList implements  Serializable {//Iterable<UniprotHomolog>,
 	public void setUseUniparc(boolean useUniparc) {
 		this.useUniparc = useUniparc;
 	}
+
+	/**
+	 * Returns a copy of this list in which the full list of homologs is replaced by the
+	 * filtered subset, i.e. all that is needed once the alignment and entropies are computed.
+	 * Useful for storing the list, see {@link eppic.EvolContextStore}
+	 * @return
+	 */
+	public HomologList copyFilteredSubset() {
+		HomologList copy = new HomologList(ref, refInterval);
+		copy.list = new ArrayList<Homolog>(subList);
+		copy.subList = new ArrayList<Homolog>(subList);
+		copy.idCutoff = idCutoff;
+		copy.qCoverageCutoff = qCoverageCutoff;
+		copy.uniprotVer = uniprotVer;
+		copy.usedClusteringPercentId = usedClusteringPercentId;
+		copy.aln = aln;
+		copy.alphabet = alphabet;
+		copy.entropies = entropies;
+		copy.useUniparc = useUniparc;
+		return copy;
+	}
+
+	/**
+	 * Replaces the reference entry of this list by another one with the same sequence in the
+	 * given interval, renaming the query sequence in the alignment. Homologs, alignment and
+	 * entropies of a sequence are valid for any entry with that sequence.
+	 * @param newRef
+	 * @param newInterv
+	 * @return true if the reference could be replaced, false if the sequences differ or if the
+	 * new reference is already one of the sequences in the alignment, in which case the list is not modified
+	 */
+	public boolean setReference(UnirefEntry newRef, Interval newInterv) {
+		String seq = ref.getSeq().getInterval(refInterval).getSeq();
+		if (!seq.equals(newRef.getSeq().getInterval(newInterv).getSeq())) {
+			return false;
+		}
+		if (!newRef.getUniId().equals(ref.getUniId())) {
+			if (aln.hasTag(newRef.getUniId())) {
+				return false;
+			}
+			aln.resetTag(ref.getUniId(), newRef.getUniId());
+		}
+		this.ref = newRef;
+		this.refInterval = newInterv;
+		this.isSubInterval = !(refInterval.beg==1 && refInterval.end==ref.getLength());
+		return true;
+	}
 	
 	/**
 	 * Returns a string containing information about the distribution of the sequence entropies for
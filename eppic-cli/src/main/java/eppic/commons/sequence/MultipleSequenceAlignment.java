@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -52,6 +53,12 @@ public class MultipleSequenceAlignment implements Serializable {
 	private TreeMap<Integer,int[]> mapAlign2Seq; // map of seq index to arrays mapping alignment serials to sequence serials 
 	private TreeMap<Integer,int[]> mapSeq2Align; // map of seq index to arrays mapping sequence serials to alignment serials
 	
+	// column-major encoding of the alignment for the last alphabet used for counts/entropies, 
+	// built lazily and reset whenever the sequences change
+	private transient AlignmentColumnMatrix columnMatrix;
+	private transient AAAlphabet columnMatrixAlphabet;
+	private transient String[] columnMatrixGroups;
+	
 	/*----------------------------- constructors ----------------------------*/
 	
 	/**
@@ -197,6 +204,11 @@ public class MultipleSequenceAlignment implements Serializable {
 	private void doMapping() {
 		this.mapAlign2Seq = new TreeMap<Integer, int[]>();
 		this.mapSeq2Align = new TreeMap<Integer, int[]>();
+		
+		// sequences changed: the column encoding needs to be rebuilt
+		this.columnMatrix = null;
+		this.columnMatrixAlphabet = null;
+		this.columnMatrixGroups = null;
 				
 		for (int i=0;i<sequences.length;i++){
 			String seq = sequences[i];
@@ -618,14 +630,15 @@ public class MultipleSequenceAlignment implements Serializable {
      * @return
      */
     public String getSequenceNoGaps(String seqTag){
-    	String seq = "";
-    	for (int i=0;i<getAlignmentLength();i++){
-    		char letter = getAlignedSequence(seqTag).charAt(i);
+    	String alignedSeq = getAlignedSequence(seqTag);
+    	StringBuilder seq = new StringBuilder(alignedSeq.length());
+    	for (int i=0;i<alignedSeq.length();i++){
+    		char letter = alignedSeq.charAt(i);
     		if (letter!=GAPCHARACTER){
-    			seq+=letter;
+    			seq.append(letter);
     		}
     	}
-    	return seq;
+    	return seq.toString();
     }
     
     /**
@@ -662,11 +675,27 @@ public class MultipleSequenceAlignment implements Serializable {
      * @return
      */
     public String getColumn(int alignIndex){
-    	String col="";
-    	for (String seq:sequences){
-    		col+=seq.charAt(alignIndex-1);
+    	char[] col = new char[sequences.length];
+    	for (int i=0;i<sequences.length;i++){
+    		col[i] = sequences[i].charAt(alignIndex-1);
+    	}
+    	return new String(col);
+    }
+    
+    /**
+     * Returns the column-major encoding of this alignment for the given alphabet, building it
+     * if needed. The encoding is kept until the sequences change or another alphabet is requested. 
+     * @param alphabet
+     * @return
+     */
+    public AlignmentColumnMatrix getColumnMatrix(AAAlphabet alphabet) {
+    	// we also compare the groups in case the alphabet was modified with AAAlphabet.setGroups
+    	if (columnMatrix==null || alphabet!=columnMatrixAlphabet || !Arrays.equals(alphabet.getGroups(), columnMatrixGroups)) {
+    		columnMatrix = new AlignmentColumnMatrix(sequences, alphabet);
+    		columnMatrixAlphabet = alphabet;
+    		columnMatrixGroups = alphabet.getGroups().clone();
     	}
-    	return col;
+    	return columnMatrix;
     }
     
     /**
@@ -679,22 +708,25 @@ public class MultipleSequenceAlignment implements Serializable {
      * @return
      */
     public double getColumnEntropy(int alignIndex, AAAlphabet alphabet) {
-    	int[] counts = getColumnCounts(alignIndex, alphabet);
-    	
     	// important: we are considering also gaps when calculating probabilities
-    	
-    	double sumplogp = 0.0;
-    	double log2 = Math.log(2);
-    	
-    	for (int i = 1; i <= alphabet.getNumLetters(); i++) {
-			double prob = (double)counts[i] / (double)this.getNumberOfSequences(); // i.e. we consider gaps!
-			if (prob != 0){ // plogp is defined to be 0 when p=0 (because of limit). If we let java calculate it, it gives NaN (-infinite) because it tries to compute log(0) 
-				sumplogp += prob*(Math.log(prob)/log2);
-			}
-		}
-		return (-1.0)*sumplogp;
+    	return getColumnMatrix(alphabet).getColumnEntropy(alignIndex);
     }   
     
+    /**
+     * Calculates the entropies of all the columns where the sequence of the given tag has no gaps,
+     * in the order of the positions of the sequence, i.e. element i is the entropy of the column 
+     * of sequence index i+1. See {@link #getColumnEntropy(int, AAAlphabet)}
+     * @param seqTag
+     * @param alphabet the AAAlphabet
+     * @return
+     */
+    public double[] getColumnEntropies(String seqTag, AAAlphabet alphabet) {
+    	int[] seq2al = mapSeq2Align.get(tags2indices.get(seqTag));
+    	int[] alignIndices = new int[seq2al.length-1];
+    	System.arraycopy(seq2al, 1, alignIndices, 0, alignIndices.length);
+    	return getColumnMatrix(alphabet).getColumnEntropies(alignIndices);
+    }
+    
     /**
      * Gets the counts of groups of aminoacids for the column alignIndex
      * @param alignIndex the column of the alignment
@@ -706,24 +738,9 @@ public class MultipleSequenceAlignment implements Serializable {
      * valid ones
      */
     public int[] getColumnCounts(int alignIndex, AAAlphabet alphabet) {
-    	String column = getColumn(alignIndex);
-    	
     	// we use 0 for the gap counts, the rest for the AminoAcid classes counts (see AminoAcid enum)
-    	int[] counts = new int[alphabet.getNumLetters() + 1];
-    	 
-    	for (int i = 0; i < column.length(); i++) {
-    		char letter = column.charAt(i);
-    		
-    		if (letter == GAPCHARACTER) {
-    			counts[0]++;
-    		}     			
-    		else if (AminoAcid.isStandardAA(letter)) {
-    			int index = alphabet.getGroupByOneLetterCode(letter);
-    			counts[index]++;
-    		}
-    		// notice that non-standard aas are not counted neither as gap or as class, that should not be a big problem in most cases
-    	}
-    	return counts;
+    	// notice that non-standard aas are not counted neither as gap or as class, that should not be a big problem in most cases
+    	return getColumnMatrix(alphabet).getColumnCounts(alignIndex);
     }
 
     /**
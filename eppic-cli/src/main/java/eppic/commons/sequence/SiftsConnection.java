@@ -26,6 +26,8 @@ import eppic.commons.util.Interval;
  * This seems to be at the moment the gold standard for PDB to Uniprot mapping. The class loads
  * the results from a given URL or file pointer and caches the results so that subsequent queries
  * are done in O(1) time (for the price of memory consumption).
+ * If the given location is a SIFTS index file (see {@link SiftsIndex}) the index is memory-mapped
+ * instead and queries are binary searches in it, with no parsing and no heap consumption.
  * See {@link http://www.ebi.ac.uk/msd/sifts}
  * 
  * @author duarte, stehr
@@ -39,6 +41,12 @@ public class SiftsConnection {
 	private HashMap<String,ArrayList<SiftsFeature>> chain2uniprot;
 	private HashMap<String,ArrayList<SiftsFeature>> uniprot2chain;	
 	
+	/**
+	 * The memory-mapped index, if the connection was created from an index file, in which
+	 * case the maps above are not used
+	 */
+	private SiftsIndex index;
+	
 	/**
 	 * Constructs a SiftsConnection using the default online URL, parsing the SIFTS data and storing it.
 	 * @throws IOException
@@ -48,13 +56,18 @@ public class SiftsConnection {
 	}
 	
 	/**
-	 * Constructs a SiftsConnection parsing the SIFTS data and storing it.
+	 * Constructs a SiftsConnection parsing the SIFTS data and storing it, or memory-mapping it if 
+	 * the given location is a SIFTS index file written with {@link #writeIndex(File)}.
 	 * To access the SIFTS data use {@link #getMappings(String, String)}
 	 * @param pdb2uniprotURL a URL pointing to the SIFTS pdb to uniprot mapping file or simply 
-	 * a path to a local file
+	 * a path to a local file (SIFTS text file or SIFTS index file)
 	 * @throws IOException
 	 */
 	public SiftsConnection(String pdb2uniprotURL) throws IOException{
+		if (!URL_PATTERN.matcher(pdb2uniprotURL).matches() && SiftsIndex.isIndexFile(new File(pdb2uniprotURL))) {
+			index = new SiftsIndex(new File(pdb2uniprotURL));
+			return;
+		}
 		chain2uniprot = new HashMap<String, ArrayList<SiftsFeature>>();
 		uniprot2chain = new HashMap<String, ArrayList<SiftsFeature>>();		
 		parsePdb2Uniprot(pdb2uniprotURL);
@@ -133,9 +146,17 @@ public class SiftsConnection {
 	 * @throws NoMatchFoundException if no matching UniProt entry is found
 	 */
 	public List<SiftsFeature> getMappings(String pdbCode, String pdbChainCode) throws NoMatchFoundException{
+		if (index!=null) {
+			// the index is already sorted by cif intervals
+			List<SiftsFeature> list = index.getMappings(pdbCode, pdbChainCode);
+			if (list==null) 
+				throw new NoMatchFoundException("No SIFTS mapping for PDB "+pdbCode+", chain "+pdbChainCode);
+			return list;
+		}
 		if (!chain2uniprot.containsKey(pdbCode+pdbChainCode)) 
 			throw new NoMatchFoundException("No SIFTS mapping for PDB "+pdbCode+", chain "+pdbChainCode);
-		List<SiftsFeature> list = chain2uniprot.get(pdbCode+pdbChainCode);
+		// we sort a copy so that the stored data is never modified and the connection can be shared by threads
+		List<SiftsFeature> list = new ArrayList<SiftsFeature>(chain2uniprot.get(pdbCode+pdbChainCode));
 		
 		// before returning the list we make sure it is sorted based on the order of cif intervals, i.e. as they happen in PDB chain
 		Collections.sort(list, new Comparator<SiftsFeature>() {
@@ -144,7 +165,7 @@ public class SiftsConnection {
 				return o1.getCifIntervalSet().iterator().next().compareTo(o2.getCifIntervalSet().iterator().next());
 			}
 		});
-		return chain2uniprot.get(pdbCode+pdbChainCode);
+		return list;
 	}
 	
 	/**
@@ -155,6 +176,12 @@ public class SiftsConnection {
 	 * @throws NoMatchFoundException if no matching PDB chains are found
 	 */
 	public List<SiftsFeature> getUniprot2PdbMappings(String uniprotId) throws NoMatchFoundException {
+		if (index!=null) {
+			List<SiftsFeature> list = index.getUniprot2PdbMappings(uniprotId);
+			if (list==null) 
+				throw new NoMatchFoundException("No SIFTS mapping for UniProtID "+uniprotId);
+			return list;
+		}
 		if (!uniprot2chain.containsKey(uniprotId)) 
 			throw new NoMatchFoundException("No SIFTS mapping for UniProtID "+uniprotId);
 		return uniprot2chain.get(uniprotId);
@@ -165,6 +192,7 @@ public class SiftsConnection {
 	 * @return
 	 */
 	public Collection<ArrayList<SiftsFeature>> getAllMappings() {
+		if (index!=null) return index.getAllMappings().values();
 		return chain2uniprot.values();
 	}
 	
@@ -176,12 +204,14 @@ public class SiftsConnection {
 	 */
 	public HashMap<String, ArrayList<Interval>> getUniqueMappings() throws IOException {
 		HashMap<String, ArrayList<Interval>> uniqueMap = new HashMap<String, ArrayList<Interval>>();
-		System.out.println("Unique UniProts in PDB: "+uniprot2chain.size());
+		Collection<String> uniprotIds = index!=null ? index.getUniprotIds() : uniprot2chain.keySet(); 
+		System.out.println("Unique UniProts in PDB: "+uniprotIds.size());
 		
 		int count = 0;
-		for (String uniprotid:uniprot2chain.keySet()) {
+		for (String uniprotid:uniprotIds) {
 			ArrayList<Interval> uniqueIntervals = new ArrayList<Interval>();
-			for (SiftsFeature f:uniprot2chain.get(uniprotid)) {
+			List<SiftsFeature> features = index!=null ? index.getUniprot2PdbMappings(uniprotid) : uniprot2chain.get(uniprotid);
+			for (SiftsFeature f:features) {
 				for (Interval interv: f.getUniprotIntervalSet()){
 					if(!uniqueIntervals.contains(interv)) uniqueIntervals.add(interv); 
 				}
@@ -200,9 +230,20 @@ public class SiftsConnection {
 	 * @return
 	 */
 	public int getMappingsCount() {
+		if (index!=null) return index.getNumChains();
 		return chain2uniprot.size();
 	}
 	
+	/**
+	 * Writes all mappings of this connection to a SIFTS index file, that can subsequently be used 
+	 * as the location of a SiftsConnection for fast lookups without parsing.
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public void writeIndex(File indexFile) throws IOException {
+		SiftsIndex.write(getAllMappings(), indexFile);
+	}
+	
 	public static void main (String[] args) throws IOException {
 		SiftsConnection sc = new SiftsConnection("/nfs/data/dbs/uniprot/current/pdb_chain_uniprot.lst");
 		
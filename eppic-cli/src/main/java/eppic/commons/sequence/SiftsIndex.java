@@ -0,0 +1,362 @@
+package eppic.commons.sequence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary index of the SIFTS PDB to UniProt mappings that is memory-mapped and
+ * binary-searched on lookup, so that opening it is instantaneous and it takes no heap, as
+ * opposed to parsing the whole SIFTS text file in {@link SiftsConnection}.
+ * <p>
+ * The index is written once from a parsed SIFTS file with {@link #write(Collection, File)} (see
+ * {@link eppic.tools.ConvertSiftsToIndex}) and is used transparently by {@link SiftsConnection}
+ * when its location points to an index file.
+ * <p>
+ * File layout (all big-endian):
+ * <pre>
+ * header      : magic, version, numRecords, numChains, numUniprots, poolSize (6 ints)
+ * records     : numRecords x (pdbCode, chain, uniprotId, pdbBeg, pdbEnd string refs, cifBeg, cifEnd, uniBeg, uniEnd)
+ *               sorted by pdbCode+chain and then by cifBeg
+ * chain index : numChains x (pdbCode+chain key ref, first record, number of records) sorted by key
+ * uniprot idx : numUniprots x (uniprotId key ref, first position in permutation, number of records) sorted by key
+ * permutation : numRecords x record index, records grouped by uniprotId
+ * string pool : the distinct strings, each as an unsigned short length followed by its UTF-8 bytes,
+ *               string refs are offsets into the pool
+ * </pre>
+ * All methods are thread safe, the buffer is only read with absolute gets.
+ */
+public class SiftsIndex {
+
+	private static final int MAGIC = 0x45534946; // "ESIF"
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 6 * 4;
+	private static final int RECORD_SIZE = 9 * 4;
+	private static final int INDEX_ENTRY_SIZE = 3 * 4;
+
+	private final MappedByteBuffer buf;
+
+	private final int numRecords;
+	private final int numChains;
+	private final int numUniprots;
+
+	private final int recordsPos;
+	private final int chainIndexPos;
+	private final int uniIndexPos;
+	private final int permPos;
+	private final int poolPos;
+
+	/**
+	 * Opens the given index file memory-mapping it
+	 * @param indexFile
+	 * @throws IOException if the file is not a valid SIFTS index or can't be read
+	 */
+	public SiftsIndex(File indexFile) throws IOException {
+
+		try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+				FileChannel channel = raf.getChannel()) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("SIFTS index file "+indexFile+" is too large to be memory-mapped");
+			if (channel.size() < HEADER_SIZE)
+				throw new IOException("SIFTS index file "+indexFile+" is truncated");
+			// the mapping remains valid after the channel is closed
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (buf.getInt(0)!=MAGIC)
+			throw new IOException("File "+indexFile+" is not a SIFTS index file");
+		int version = buf.getInt(4);
+		if (version!=VERSION)
+			throw new IOException("Unsupported SIFTS index version "+version+" in file "+indexFile+", expected version "+VERSION);
+
+		numRecords = buf.getInt(8);
+		numChains = buf.getInt(12);
+		numUniprots = buf.getInt(16);
+		int poolSize = buf.getInt(20);
+
+		recordsPos = HEADER_SIZE;
+		chainIndexPos = recordsPos + numRecords * RECORD_SIZE;
+		uniIndexPos = chainIndexPos + numChains * INDEX_ENTRY_SIZE;
+		permPos = uniIndexPos + numUniprots * INDEX_ENTRY_SIZE;
+		poolPos = permPos + numRecords * 4;
+
+		if ((long)poolPos + poolSize != buf.capacity())
+			throw new IOException("SIFTS index file "+indexFile+" is truncated or corrupt: expected size "+((long)poolPos+poolSize)+", actual size "+buf.capacity());
+	}
+
+	/**
+	 * Returns true if the given file is a SIFTS index file, judging from its first bytes
+	 * @param file
+	 * @return
+	 */
+	public static boolean isIndexFile(File file) {
+		if (!file.isFile()) return false;
+		try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+			return dis.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Gets the list of SiftsFeatures for the given PDB chain, sorted according to cif intervals,
+	 * i.e. in the order that they appear in the PDB chain
+	 * @param pdbCode
+	 * @param pdbChainCode
+	 * @return the list of mappings or null if the chain is not in the index
+	 */
+	public List<SiftsFeature> getMappings(String pdbCode, String pdbChainCode) {
+		int i = search(chainIndexPos, numChains, pdbCode+pdbChainCode);
+		if (i<0) return null;
+		int entryPos = chainIndexPos + i * INDEX_ENTRY_SIZE;
+		int first = buf.getInt(entryPos + 4);
+		int count = buf.getInt(entryPos + 8);
+		List<SiftsFeature> list = new ArrayList<SiftsFeature>(count);
+		for (int j=first;j<first+count;j++) {
+			list.add(readRecord(j));
+		}
+		return list;
+	}
+
+	/**
+	 * Gets the list of SiftsFeatures for the given UniProt id
+	 * @param uniprotId
+	 * @return the list of mappings or null if the UniProt id is not in the index
+	 */
+	public List<SiftsFeature> getUniprot2PdbMappings(String uniprotId) {
+		int i = search(uniIndexPos, numUniprots, uniprotId);
+		if (i<0) return null;
+		int entryPos = uniIndexPos + i * INDEX_ENTRY_SIZE;
+		int first = buf.getInt(entryPos + 4);
+		int count = buf.getInt(entryPos + 8);
+		List<SiftsFeature> list = new ArrayList<SiftsFeature>(count);
+		for (int j=first;j<first+count;j++) {
+			list.add(readRecord(buf.getInt(permPos + j * 4)));
+		}
+		return list;
+	}
+
+	/**
+	 * Returns all UniProt ids in the index, sorted
+	 * @return
+	 */
+	public List<String> getUniprotIds() {
+		List<String> ids = new ArrayList<String>(numUniprots);
+		for (int i=0;i<numUniprots;i++) {
+			ids.add(readString(buf.getInt(uniIndexPos + i * INDEX_ENTRY_SIZE)));
+		}
+		return ids;
+	}
+
+	/**
+	 * Reads all mappings in the index into a map of pdbCode+chain to the list of its mappings.
+	 * Note this loads the whole index into memory.
+	 * @return
+	 */
+	public Map<String,ArrayList<SiftsFeature>> getAllMappings() {
+		Map<String,ArrayList<SiftsFeature>> map = new LinkedHashMap<String, ArrayList<SiftsFeature>>();
+		for (int i=0;i<numChains;i++) {
+			int entryPos = chainIndexPos + i * INDEX_ENTRY_SIZE;
+			String key = readString(buf.getInt(entryPos));
+			int first = buf.getInt(entryPos + 4);
+			int count = buf.getInt(entryPos + 8);
+			ArrayList<SiftsFeature> list = new ArrayList<SiftsFeature>(count);
+			for (int j=first;j<first+count;j++) {
+				list.add(readRecord(j));
+			}
+			map.put(key, list);
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the number of PDB chains in the index
+	 * @return
+	 */
+	public int getNumChains() {
+		return numChains;
+	}
+
+	/**
+	 * Returns the number of UniProt ids in the index
+	 * @return
+	 */
+	public int getNumUniprots() {
+		return numUniprots;
+	}
+
+	/**
+	 * Returns the number of mappings (lines of the SIFTS file) in the index
+	 * @return
+	 */
+	public int getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Binary search of the given key in the index section starting at indexPos
+	 * @param indexPos
+	 * @param size
+	 * @param key
+	 * @return the index of the entry or -1 if not found
+	 */
+	private int search(int indexPos, int size, String key) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = readString(buf.getInt(indexPos + mid * INDEX_ENTRY_SIZE)).compareTo(key);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	private SiftsFeature readRecord(int i) {
+		int pos = recordsPos + i * RECORD_SIZE;
+		return new SiftsFeature(
+				readString(buf.getInt(pos)),
+				readString(buf.getInt(pos + 4)),
+				readString(buf.getInt(pos + 8)),
+				buf.getInt(pos + 20), buf.getInt(pos + 24),
+				readString(buf.getInt(pos + 12)),
+				readString(buf.getInt(pos + 16)),
+				buf.getInt(pos + 28), buf.getInt(pos + 32));
+	}
+
+	private String readString(int ref) {
+		int pos = poolPos + ref;
+		int length = buf.getShort(pos) & 0xffff;
+		byte[] bytes = new byte[length];
+		for (int i=0;i<length;i++) {
+			bytes[i] = buf.get(pos + 2 + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the given SIFTS mappings to a binary index file that can then be opened with {@link #SiftsIndex(File)}
+	 * @param mappings the mappings, e.g. from {@link SiftsConnection#getAllMappings()}
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public static void write(Collection<? extends Collection<SiftsFeature>> mappings, File indexFile) throws IOException {
+
+		List<SiftsFeature> records = new ArrayList<SiftsFeature>();
+		for (Collection<SiftsFeature> list : mappings) {
+			records.addAll(list);
+		}
+
+		// the order of records is the order in which they are returned by chain lookups
+		records.sort(Comparator.comparing((SiftsFeature f) -> f.getPdbCode()+f.getPdbChainCode())
+				.thenComparing(f -> f.getCifIntervalSet().first()));
+
+		Map<String,Integer> pool = new HashMap<String, Integer>();
+		List<byte[]> poolStrings = new ArrayList<byte[]>();
+		int[] poolSize = new int[1];
+
+		int[][] recordRefs = new int[records.size()][];
+		List<String> chainKeys = new ArrayList<String>();
+		List<int[]> chainEntries = new ArrayList<int[]>();
+		Map<String,List<Integer>> uniprot2records = new HashMap<String, List<Integer>>();
+
+		for (int i=0;i<records.size();i++) {
+			SiftsFeature f = records.get(i);
+			recordRefs[i] = new int[] {
+					addToPool(f.getPdbCode(), pool, poolStrings, poolSize),
+					addToPool(f.getPdbChainCode(), pool, poolStrings, poolSize),
+					addToPool(f.getUniprotId(), pool, poolStrings, poolSize),
+					addToPool(f.getPdbBeg(), pool, poolStrings, poolSize),
+					addToPool(f.getPdbEnd(), pool, poolStrings, poolSize)};
+
+			String key = f.getPdbCode()+f.getPdbChainCode();
+			if (chainKeys.isEmpty() || !chainKeys.get(chainKeys.size()-1).equals(key)) {
+				chainKeys.add(key);
+				chainEntries.add(new int[] {addToPool(key, pool, poolStrings, poolSize), i, 0});
+			}
+			chainEntries.get(chainEntries.size()-1)[2]++;
+
+			uniprot2records.computeIfAbsent(f.getUniprotId(), k -> new ArrayList<Integer>()).add(i);
+		}
+
+		List<String> uniprotIds = new ArrayList<String>(uniprot2records.keySet());
+		uniprotIds.sort(null);
+
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+			dos.writeInt(records.size());
+			dos.writeInt(chainEntries.size());
+			dos.writeInt(uniprotIds.size());
+			dos.writeInt(poolSize[0]);
+
+			for (int i=0;i<records.size();i++) {
+				SiftsFeature f = records.get(i);
+				for (int ref : recordRefs[i]) {
+					dos.writeInt(ref);
+				}
+				dos.writeInt(f.getCifIntervalSet().first().beg);
+				dos.writeInt(f.getCifIntervalSet().first().end);
+				dos.writeInt(f.getUniprotIntervalSet().first().beg);
+				dos.writeInt(f.getUniprotIntervalSet().first().end);
+			}
+
+			for (int[] entry : chainEntries) {
+				for (int v : entry) dos.writeInt(v);
+			}
+
+			int first = 0;
+			for (String uniprotId : uniprotIds) {
+				int count = uniprot2records.get(uniprotId).size();
+				dos.writeInt(pool.get(uniprotId));
+				dos.writeInt(first);
+				dos.writeInt(count);
+				first += count;
+			}
+
+			for (String uniprotId : uniprotIds) {
+				for (int i : uniprot2records.get(uniprotId)) {
+					dos.writeInt(i);
+				}
+			}
+
+			for (byte[] bytes : poolStrings) {
+				dos.writeShort(bytes.length);
+				dos.write(bytes);
+			}
+		}
+	}
+
+	private static int addToPool(String s, Map<String,Integer> pool, List<byte[]> poolStrings, int[] poolSize) {
+		Integer ref = pool.get(s);
+		if (ref!=null) return ref;
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xffff)
+			throw new IllegalArgumentException("String too long for SIFTS index: "+s);
+		ref = poolSize[0];
+		pool.put(s, ref);
+		poolStrings.add(bytes);
+		poolSize[0] += 2 + bytes.length;
+		return ref;
+	}
+}
@@ -0,0 +1,156 @@
+package eppic.commons.sequence;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eppic.commons.sequence.UniprotLocalConnection.TaxonomyRecord;
+
+/**
+ * A size-capped in-memory cache of taxonomy records and UniRef cluster representatives
+ * retrieved by {@link UniprotLocalConnection}s.
+ *
+ * A single instance is shared by all connections in the JVM (see {@link #getInstance(String, String)}),
+ * so that the same tax ids and cluster members are not queried over and over again for different
+ * chains or for different entries processed in the same JVM.
+ * The cache is cleared whenever a connection to a different UniProt database or version requests it.
+ * Connections to a database of unknown version get their own cache, since otherwise a cache filled from 
+ * an older release could be served after the database is updated.
+ * Both maps are LRU: when the maximum size is reached the least recently accessed entry is evicted.
+ *
+ * All methods are thread safe.
+ */
+public class UniprotLocalCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(UniprotLocalCache.class);
+
+	/** The maximum number of taxonomy records to keep, a few thousand tax ids cover almost all blast hits */
+	public static final int MAX_TAXONOMY_ENTRIES = 50000;
+	/** The maximum number of cluster member to representative mappings to keep */
+	public static final int MAX_REPRESENTATIVE_ENTRIES = 500000;
+
+	private static UniprotLocalCache instance = null;
+
+	private static class LruMap<K,V> extends LinkedHashMap<K, V> {
+		private static final long serialVersionUID = 1L;
+		private final int maxEntries;
+		public LruMap(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > maxEntries;
+		}
+	}
+
+	private final String uniprotKey;
+
+	private final LruMap<Integer, TaxonomyRecord> taxonomies;
+	private final LruMap<String, UnirefEntryClusterMember> representatives;
+
+	private long taxonomyHits;
+	private long taxonomyMisses;
+	private long representativeHits;
+	private long representativeMisses;
+
+	private UniprotLocalCache(String uniprotKey, int maxTaxonomyEntries, int maxRepresentativeEntries) {
+		this.uniprotKey = uniprotKey;
+		this.taxonomies = new LruMap<Integer, TaxonomyRecord>(maxTaxonomyEntries);
+		this.representatives = new LruMap<String, UnirefEntryClusterMember>(maxRepresentativeEntries);
+	}
+
+	/**
+	 * Returns the JVM-wide cache for the given local UniProt database and version. If the current
+	 * cache belongs to a different database or version it is discarded and a new empty one is returned.
+	 * If the version is unknown (see {@link HomologList#isKnownUniprotVer(String)}) a new empty cache,
+	 * not shared with anyone else, is returned.
+	 * @param dbName
+	 * @param uniprotVer
+	 * @return
+	 */
+	public static synchronized UniprotLocalCache getInstance(String dbName, String uniprotVer) {
+		String uniprotKey = dbName+"/"+uniprotVer;
+		if (!HomologList.isKnownUniprotVer(uniprotVer)) {
+			LOGGER.warn("Unknown UniProt version for local database {}, its cache won't be shared with other connections", dbName);
+			return new UniprotLocalCache(uniprotKey, MAX_TAXONOMY_ENTRIES, MAX_REPRESENTATIVE_ENTRIES);
+		}
+		if (instance==null || !instance.uniprotKey.equals(uniprotKey)) {
+			if (instance!=null) {
+				LOGGER.info("UniProt database changed from {} to {}. Invalidating cache", instance.uniprotKey, uniprotKey);
+			}
+			instance = new UniprotLocalCache(uniprotKey, MAX_TAXONOMY_ENTRIES, MAX_REPRESENTATIVE_ENTRIES);
+		}
+		return instance;
+	}
+
+	/**
+	 * Gets the cached taxonomy record for given tax id
+	 * @param taxId
+	 * @return the taxonomy record or null if not in cache
+	 */
+	public synchronized TaxonomyRecord getTaxonomy(int taxId) {
+		TaxonomyRecord tax = taxonomies.get(taxId);
+		if (tax==null) taxonomyMisses++;
+		else taxonomyHits++;
+		return tax;
+	}
+
+	public synchronized void putTaxonomy(int taxId, TaxonomyRecord tax) {
+		taxonomies.put(taxId, tax);
+	}
+
+	/**
+	 * Gets the cached cluster representative for given uniprot id (cluster member).
+	 * Note the returned object contains the uniprot id of the representative and the tax id of the member.
+	 * @param uniprotId
+	 * @return the representative or null if not in cache
+	 */
+	public synchronized UnirefEntryClusterMember getRepresentative(String uniprotId) {
+		UnirefEntryClusterMember rep = representatives.get(uniprotId);
+		if (rep==null) representativeMisses++;
+		else representativeHits++;
+		return rep;
+	}
+
+	public synchronized void putRepresentative(String uniprotId, UnirefEntryClusterMember rep) {
+		representatives.put(uniprotId, rep);
+	}
+
+	public synchronized long getTaxonomyHits() {
+		return taxonomyHits;
+	}
+
+	public synchronized long getTaxonomyMisses() {
+		return taxonomyMisses;
+	}
+
+	public synchronized long getRepresentativeHits() {
+		return representativeHits;
+	}
+
+	public synchronized long getRepresentativeMisses() {
+		return representativeMisses;
+	}
+
+	/**
+	 * Removes all cached entries and resets the counters
+	 */
+	public synchronized void clear() {
+		taxonomies.clear();
+		representatives.clear();
+		taxonomyHits = 0;
+		taxonomyMisses = 0;
+		representativeHits = 0;
+		representativeMisses = 0;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("taxonomy: %d entries, %d hits, %d misses; representatives: %d entries, %d hits, %d misses",
+				taxonomies.size(), taxonomyHits, taxonomyMisses,
+				representatives.size(), representativeHits, representativeMisses);
+	}
+}
@@ -3,13 +3,18 @@ package eppic.commons.sequence;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -44,9 +49,15 @@ public class UniprotLocalConnection {
 	private static final String CLUSTERS_TABLE = "uniprot_clusters";
 	private static final String TAX_TABLE = "taxonomy";
 	
+	/**
+	 * The maximum number of ids to put in a single IN (...) query, to stay well within the 
+	 * server's max_allowed_packet and avoid huge result sets
+	 */
+	private static final int MAX_IDS_PER_QUERY = 500;
+	
 	private static final Logger LOGGER = LoggerFactory.getLogger(UniprotLocalConnection.class);
 	
-	private class TaxonomyRecord {
+	static class TaxonomyRecord {
 		
 		@SuppressWarnings("unused")
 		public String scientificName;
@@ -63,9 +74,29 @@ public class UniprotLocalConnection {
 	private String dbName;
 	private String uniprotVer;
 	
+	private UniprotLocalCache cache;
+	
 	private HashSet<String> nonReturnedIdsLastMultipleRequest;
 	
+	/**
+	 * Constructs a new UniprotLocalConnection to a database of unknown UniProt version. The cache
+	 * is then not shared with other connections, see {@link UniprotLocalCache#getInstance(String, String)}
+	 * @param dbName
+	 * @throws SQLException
+	 */
 	public UniprotLocalConnection(String dbName) throws SQLException {
+		this(dbName, HomologList.UNKNOWN_UNIPROT_VER);
+	}
+	
+	/**
+	 * Constructs a new UniprotLocalConnection to a database of the given UniProt version.
+	 * @param dbName
+	 * @param uniprotVer the UniProt release the database was built from. It is not stored in the 
+	 * database, so it must be known by the caller, usually it is the release of the blast database (see 
+	 * {@link HomologList#readUniprotVer(String)}) as both are built together
+	 * @throws SQLException
+	 */
+	public UniprotLocalConnection(String dbName, String uniprotVer) throws SQLException {
 		
 		conn = new MySQLConnection();
 		
@@ -74,8 +105,9 @@ public class UniprotLocalConnection {
 		// TODO we need to write the uniprot version in a table in the db so that we can get it here - JD 2017-09-01
 		//      Before we'd get the version from the db name, but that's not practical anymore in a cloud environment
 		//      with automated deployment.
-		this.uniprotVer = "UNKNOWN";
+		this.uniprotVer = uniprotVer;
 		
+		this.cache = UniprotLocalCache.getInstance(dbName, uniprotVer);
 	}
 	
 	public String getVersion() {
@@ -84,6 +116,16 @@ public class UniprotLocalConnection {
 	
 	public void close() {
 		this.conn.close();
+		LOGGER.info("Local UniProt cache usage: {}", cache);
+	}
+	
+	/**
+	 * Returns the cache of taxonomy records and cluster representatives used by this connection,
+	 * shared with all other connections to the same database in this JVM
+	 * @return
+	 */
+	public UniprotLocalCache getCache() {
+		return cache;
 	}
 	
 	/**
@@ -115,9 +157,9 @@ public class UniprotLocalConnection {
 			uniprotId = uniId;
 		}
 		
-		Statement st = conn.createStatement();
-		String sql = "SELECT tax_id, sequence FROM "+dbName+"."+DATA_TABLE+" WHERE "+idColumn+"='"+repId+"'";
-		ResultSet rs = st.executeQuery(sql);
+		PreparedStatement st = conn.prepareStatement("SELECT tax_id, sequence FROM "+dbName+"."+DATA_TABLE+" WHERE "+idColumn+"=?");
+		st.setString(1, repId);
+		ResultSet rs = st.executeQuery();
 		
 		int count = 0;
 		while (rs.next()) {
@@ -152,9 +194,12 @@ public class UniprotLocalConnection {
 	}
 	
 	private UnirefEntryClusterMember getRepresentative(String uniId) throws SQLException, NoMatchFoundException {
-		Statement st = conn.createStatement();
-		String sql = "SELECT representative, tax_id FROM "+dbName+"."+CLUSTERS_TABLE+" WHERE member='"+uniId+"'";
-		ResultSet rs = st.executeQuery(sql);
+		UnirefEntryClusterMember cached = cache.getRepresentative(uniId);
+		if (cached!=null) return cached;
+		
+		PreparedStatement st = conn.prepareStatement("SELECT representative, tax_id FROM "+dbName+"."+CLUSTERS_TABLE+" WHERE member=?");
+		st.setString(1, uniId);
+		ResultSet rs = st.executeQuery();
 		String repUniId = null;
 		int memberTaxId = -1;
 		int count = 0;
@@ -173,33 +218,260 @@ public class UniprotLocalConnection {
 		// we abuse here the UnirefEntryClusterMember class to return the result in one object,
 		// but it is not a correctly constructed object! because the uniprot id is the one of 
 		// the representative and the tax id the one of the member!
-		return new UnirefEntryClusterMember(repUniId, memberTaxId);
+		UnirefEntryClusterMember rep = new UnirefEntryClusterMember(repUniId, memberTaxId);
+		cache.putRepresentative(uniId, rep);
+		return rep;
 	}
 	
 	/**
 	 * Given a list of uniprot or uniparc ids returns the corresponding UnirefEntry records.
+	 * The data is retrieved in batches of at most {@value #MAX_IDS_PER_QUERY} ids: one query joining 
+	 * the clusters and data tables for uniprot ids, one query to the data table for uniparc ids and 
+	 * one query to the taxonomy table for all distinct tax ids.
+	 * The returned list follows the order of the input list.
 	 * If the query does not return all requested ids a warning is logged and the list of non-returned 
 	 * ids can be retrieved through {@link #getNonReturnedIdsLastMultipleRequest()}  
 	 * @param uniIds
 	 * @return
-	 * @throws SQLException
+	 * @throws SQLException if something goes wrong while querying or if multiple matches are returned for an id
 	 */
 	public List<UnirefEntry> getMultipleUnirefEntries(List<String> uniIds) throws SQLException {
 		nonReturnedIdsLastMultipleRequest = new HashSet<String>();
 		
+		// uniprot ids are looked up through their cluster representative, uniparc ids directly
+		List<String> uniprotIds = new ArrayList<String>();
+		List<String> uniparcIds = new ArrayList<String>();
+		for (String uniId:new LinkedHashSet<String>(uniIds)) {
+			if (uniId.startsWith("UPI")) {
+				uniparcIds.add(uniId);
+			} else {
+				uniprotIds.add(uniId);
+			}
+		}
+		
+		Map<String,UnirefEntry> entriesMap = new HashMap<String,UnirefEntry>();
+		
+		// members with a cached representative can be looked up directly in the data table
+		Map<String,UnirefEntryClusterMember> cachedReps = new HashMap<String,UnirefEntryClusterMember>();
+		List<String> uncachedUniprotIds = new ArrayList<String>();
+		for (String uniprotId:uniprotIds) {
+			UnirefEntryClusterMember rep = cache.getRepresentative(uniprotId);
+			if (rep!=null) {
+				cachedReps.put(uniprotId, rep);
+			} else {
+				uncachedUniprotIds.add(uniprotId);
+			}
+		}
+		for (int i=0;i<uncachedUniprotIds.size();i+=MAX_IDS_PER_QUERY) {
+			retrieveUniprotEntries(uncachedUniprotIds.subList(i, Math.min(i+MAX_IDS_PER_QUERY, uncachedUniprotIds.size())), entriesMap);
+		}
+		List<String> cachedUniprotIds = new ArrayList<String>(cachedReps.keySet());
+		for (int i=0;i<cachedUniprotIds.size();i+=MAX_IDS_PER_QUERY) {
+			retrieveUniprotEntriesByRepresentative(cachedUniprotIds.subList(i, Math.min(i+MAX_IDS_PER_QUERY, cachedUniprotIds.size())), cachedReps, entriesMap);
+		}
+		for (int i=0;i<uniparcIds.size();i+=MAX_IDS_PER_QUERY) {
+			retrieveUniparcEntries(uniparcIds.subList(i, Math.min(i+MAX_IDS_PER_QUERY, uniparcIds.size())), entriesMap);
+		}
+		
+		Set<Integer> taxIds = new HashSet<Integer>();
+		for (UnirefEntry uniref:entriesMap.values()) {
+			if (uniref.getNcbiTaxId()!=0) taxIds.add(uniref.getNcbiTaxId());
+		}
+		Map<Integer,TaxonomyRecord> taxonomies = getMultipleTaxonomies(new ArrayList<Integer>(taxIds));
+		
 		List<UnirefEntry> entries = new ArrayList<UnirefEntry>();
-		for (String uniId:uniIds) {			
-			try {
-				entries.add(getUnirefEntry(uniId));
-			} catch (NoMatchFoundException e) {
+		for (String uniId:uniIds) {
+			UnirefEntry uniref = entriesMap.get(uniId);
+			if (uniref==null) {
 				nonReturnedIdsLastMultipleRequest.add(uniId);
 				LOGGER.warn("Information for uniprot/uniparc ID "+uniId+" could not be retrieved from local Uniprot.");
+				continue;
 			}
-			
+			TaxonomyRecord tax = taxonomies.get(uniref.getNcbiTaxId());
+			if (tax!=null) {
+				uniref.setTaxons(tax.taxons);
+			} else {
+				LOGGER.info("No taxonomy information could be found for uniprot/uniparc id "+uniref.getUniId()+" (tax_id="+uniref.getNcbiTaxId()+")");
+			}
+			entries.add(uniref);
 		}
 		return entries;
 	}
 	
+	/**
+	 * Retrieves the sequences of the cluster representatives and the member tax ids for the given 
+	 * uniprot ids in one query and puts the resulting UnirefEntries in the given map 
+	 * @param uniprotIds
+	 * @param entriesMap
+	 * @throws SQLException if multiple matches are returned for an id
+	 */
+	private void retrieveUniprotEntries(List<String> uniprotIds, Map<String,UnirefEntry> entriesMap) throws SQLException {
+		PreparedStatement st = conn.prepareStatement(
+				"SELECT c.member, c.tax_id, d.sequence, c.representative FROM "+dbName+"."+CLUSTERS_TABLE+" AS c "+
+				"INNER JOIN "+dbName+"."+DATA_TABLE+" AS d ON d.uniprot_id=c.representative "+
+				"WHERE c.member IN ("+getPlaceholders(uniprotIds.size())+")");
+		for (int i=0;i<uniprotIds.size();i++) {
+			st.setString(i+1, uniprotIds.get(i));
+		}
+		ResultSet rs = st.executeQuery();
+		while (rs.next()) {
+			String uniprotId = rs.getString(1);
+			if (entriesMap.containsKey(uniprotId)) {
+				rs.close();
+				st.close();
+				throw new SQLException("Multiple matches in tables "+dbName+"."+CLUSTERS_TABLE+"/"+DATA_TABLE+" for uniprot id "+uniprotId);
+			}
+			UnirefEntry uniref = new UnirefEntry();
+			uniref.setUniprotId(uniprotId);
+			uniref.setNcbiTaxId(rs.getInt(2));
+			uniref.setSequence(rs.getString(3));
+			entriesMap.put(uniprotId, uniref);
+			cache.putRepresentative(uniprotId, new UnirefEntryClusterMember(rs.getString(4), rs.getInt(2)));
+		}
+		rs.close();
+		st.close();
+	}
+	
+	/**
+	 * Retrieves the sequences for the given uniprot ids whose cluster representatives are already known,
+	 * with one query to the data table, and puts the resulting UnirefEntries in the given map
+	 * @param uniprotIds
+	 * @param reps the representatives (with member tax ids) of the uniprot ids
+	 * @param entriesMap
+	 * @throws SQLException if multiple matches are returned for a representative
+	 */
+	private void retrieveUniprotEntriesByRepresentative(List<String> uniprotIds, Map<String,UnirefEntryClusterMember> reps, 
+			Map<String,UnirefEntry> entriesMap) throws SQLException {
+		
+		Set<String> repIds = new LinkedHashSet<String>();
+		for (String uniprotId:uniprotIds) {
+			repIds.add(reps.get(uniprotId).getUniprotId());
+		}
+		
+		PreparedStatement st = conn.prepareStatement(
+				"SELECT uniprot_id, sequence FROM "+dbName+"."+DATA_TABLE+" "+
+				"WHERE uniprot_id IN ("+getPlaceholders(repIds.size())+")");
+		int i = 1;
+		for (String repId:repIds) {
+			st.setString(i++, repId);
+		}
+		Map<String,String> repSequences = new HashMap<String,String>();
+		ResultSet rs = st.executeQuery();
+		while (rs.next()) {
+			String repId = rs.getString(1);
+			if (repSequences.containsKey(repId)) {
+				rs.close();
+				st.close();
+				throw new SQLException("Multiple matches in table "+dbName+"."+DATA_TABLE+" for id "+repId);
+			}
+			repSequences.put(repId, rs.getString(2));
+		}
+		rs.close();
+		st.close();
+		
+		for (String uniprotId:uniprotIds) {
+			UnirefEntryClusterMember rep = reps.get(uniprotId);
+			String sequence = repSequences.get(rep.getUniprotId());
+			if (sequence==null) continue;
+			UnirefEntry uniref = new UnirefEntry();
+			uniref.setUniprotId(uniprotId);
+			uniref.setNcbiTaxId(rep.getNcbiTaxId());
+			uniref.setSequence(sequence);
+			entriesMap.put(uniprotId, uniref);
+		}
+	}
+	
+	/**
+	 * Retrieves the sequences and tax ids for the given uniparc ids in one query and puts the 
+	 * resulting UnirefEntries in the given map
+	 * @param uniparcIds
+	 * @param entriesMap
+	 * @throws SQLException if multiple matches are returned for an id
+	 */
+	private void retrieveUniparcEntries(List<String> uniparcIds, Map<String,UnirefEntry> entriesMap) throws SQLException {
+		PreparedStatement st = conn.prepareStatement(
+				"SELECT uniparc_id, tax_id, sequence FROM "+dbName+"."+DATA_TABLE+" "+
+				"WHERE uniparc_id IN ("+getPlaceholders(uniparcIds.size())+")");
+		for (int i=0;i<uniparcIds.size();i++) {
+			st.setString(i+1, uniparcIds.get(i));
+		}
+		ResultSet rs = st.executeQuery();
+		while (rs.next()) {
+			String uniparcId = rs.getString(1);
+			if (entriesMap.containsKey(uniparcId)) {
+				rs.close();
+				st.close();
+				throw new SQLException("Multiple matches in table "+dbName+"."+DATA_TABLE+" for id "+uniparcId);
+			}
+			UnirefEntry uniref = new UnirefEntry();
+			uniref.setUniparcId(uniparcId);
+			uniref.setNcbiTaxId(rs.getInt(2));
+			uniref.setSequence(rs.getString(3));
+			entriesMap.put(uniparcId, uniref);
+		}
+		rs.close();
+		st.close();
+	}
+	
+	/**
+	 * Retrieves the taxonomy records for the given tax ids, from the cache or otherwise from the database
+	 * in chunks of at most {@value #MAX_IDS_PER_QUERY} ids per query
+	 * @param taxIds
+	 * @return a map of tax ids to taxonomy records, tax ids not found in the taxonomy table are not present 
+	 * @throws SQLException
+	 */
+	private Map<Integer,TaxonomyRecord> getMultipleTaxonomies(List<Integer> taxIds) throws SQLException {
+		Map<Integer,TaxonomyRecord> taxonomies = new HashMap<Integer,TaxonomyRecord>();
+		
+		// only the tax ids not in the cache need to be queried
+		List<Integer> uncachedTaxIds = new ArrayList<Integer>();
+		for (int taxId:taxIds) {
+			TaxonomyRecord tax = cache.getTaxonomy(taxId);
+			if (tax!=null) {
+				taxonomies.put(taxId, tax);
+			} else {
+				uncachedTaxIds.add(taxId);
+			}
+		}
+		
+		for (int i=0;i<uncachedTaxIds.size();i+=MAX_IDS_PER_QUERY) {
+			List<Integer> chunk = uncachedTaxIds.subList(i, Math.min(i+MAX_IDS_PER_QUERY, uncachedTaxIds.size()));
+			PreparedStatement st = conn.prepareStatement(
+					"SELECT tax_id, scientific, lineage FROM "+dbName+"."+TAX_TABLE+" "+
+					"WHERE tax_id IN ("+getPlaceholders(chunk.size())+")");
+			for (int j=0;j<chunk.size();j++) {
+				st.setInt(j+1, chunk.get(j));
+			}
+			ResultSet rs = st.executeQuery();
+			while (rs.next()) {
+				int taxId = rs.getInt(1);
+				String scientific = rs.getString(2);
+				String lineage = rs.getString(3);
+				if (scientific==null) continue;
+				TaxonomyRecord tax = new TaxonomyRecord(scientific, Arrays.asList(lineage.split("; ")));
+				taxonomies.put(taxId, tax);
+				cache.putTaxonomy(taxId, tax);
+			}
+			rs.close();
+			st.close();
+		}
+		return taxonomies;
+	}
+	
+	/**
+	 * Returns a string of n comma separated prepared statement placeholders, e.g. "?,?,?"
+	 * @param n
+	 * @return
+	 */
+	private static String getPlaceholders(int n) {
+		StringBuilder sb = new StringBuilder();
+		for (int i=0;i<n;i++) {
+			if (i!=0) sb.append(',');
+			sb.append('?');
+		}
+		return sb.toString();
+	}
+	
 	public HashSet<String> getNonReturnedIdsLastMultipleRequest() {
 		return nonReturnedIdsLastMultipleRequest;
 	}
@@ -207,9 +479,12 @@ public class UniprotLocalConnection {
 	public TaxonomyRecord getTaxonomy(int taxId) throws SQLException {
 		if (taxId==0) return null;
 		
-		Statement st = conn.createStatement();
-		String sql = "SELECT scientific,lineage FROM "+dbName+"."+TAX_TABLE+" WHERE tax_id="+taxId; 
-		ResultSet rs = st.executeQuery(sql);
+		TaxonomyRecord cached = cache.getTaxonomy(taxId);
+		if (cached!=null) return cached;
+		
+		PreparedStatement st = conn.prepareStatement("SELECT scientific,lineage FROM "+dbName+"."+TAX_TABLE+" WHERE tax_id=?");
+		st.setInt(1, taxId);
+		ResultSet rs = st.executeQuery();
 
 		String scientific = null;
 		String lineage = null;
@@ -226,7 +501,9 @@ public class UniprotLocalConnection {
 		String[] taxons = lineage.split("; ");
 		List<String> taxonsAL = Arrays.asList(taxons);
 		
-		return new TaxonomyRecord(scientific, taxonsAL);
+		TaxonomyRecord tax = new TaxonomyRecord(scientific, taxonsAL);
+		cache.putTaxonomy(taxId, tax);
+		return tax;
 	}
 	
 	/**
@@ -0,0 +1,68 @@
+package eppic.commons.util;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.biojava.nbio.structure.io.FileConvert;
+import org.biojava.nbio.structure.io.mmcif.MMCIFFileTools;
+import org.biojava.nbio.structure.io.mmcif.model.AtomSite;
+
+/**
+ * Writes an mmCIF atom_site loop to a stream as atoms are added, in batches of
+ * {@link #BATCH_SIZE} rows, so that the text of the whole loop (as returned by
+ * {@link MMCIFFileTools#toMMCIF(List, Class)}) never needs to be in memory.
+ * Columns are aligned within each batch only, which is still valid mmCIF since values
+ * are separated by whitespace.
+ *
+ * @author Jose Duarte
+ */
+public class AtomSiteWriter {
+
+	/**
+	 * The number of rows formatted at once
+	 */
+	public static final int BATCH_SIZE = 1000;
+
+	private PrintStream ps;
+	private List<AtomSite> batch;
+
+	/**
+	 * Constructs a new AtomSiteWriter and writes the atom_site loop header to the given stream
+	 * @param ps
+	 */
+	public AtomSiteWriter(PrintStream ps) {
+		this.ps = ps;
+		this.batch = new ArrayList<AtomSite>(BATCH_SIZE);
+		ps.print(FileConvert.getAtomSiteHeader());
+	}
+
+	/**
+	 * Adds a row to the loop, writing the current batch if full
+	 * @param atomSite
+	 */
+	public void add(AtomSite atomSite) {
+		batch.add(atomSite);
+		if (batch.size() == BATCH_SIZE) {
+			writeBatch();
+		}
+	}
+
+	/**
+	 * Writes the remaining rows and ends the loop. The underlying stream is not closed.
+	 */
+	public void finish() {
+		writeBatch();
+		ps.println("#");
+		ps.flush();
+	}
+
+	private void writeBatch() {
+		if (batch.isEmpty()) return;
+		String rows = MMCIFFileTools.toMMCIF(batch, AtomSite.class);
+		// the loop terminator is written only once in finish()
+		int end = rows.lastIndexOf('#');
+		ps.print(end<0 ? rows : rows.substring(0, end));
+		batch.clear();
+	}
+}
@@ -10,6 +10,40 @@ import java.util.Properties;
 
 public class DbConfigGenerator {
 
+	/**
+	 * Connection pool implementations that can be chosen with property {@value #PROP_POOL}
+	 */
+	public static final String POOL_C3P0 = "c3p0";
+	public static final String POOL_HIKARI = "hikari";
+	
+	// optional properties
+	public static final String PROP_URL = "url";
+	public static final String PROP_DRIVER = "driver";
+	public static final String PROP_POOL = "pool";
+	public static final String PROP_POOL_MIN_SIZE = "pool.min_size";
+	public static final String PROP_POOL_MAX_SIZE = "pool.max_size";
+	public static final String PROP_POOL_TIMEOUT = "pool.timeout";
+	public static final String PROP_POOL_MAX_STATEMENTS = "pool.max_statements";
+	public static final String PROP_CACHE = "cache";
+	public static final String PROP_STATS = "stats";
+	
+	private static final String DEFAULT_DRIVER = "com.mysql.jdbc.Driver";
+	private static final String DEFAULT_POOL_MIN_SIZE = "5";
+	private static final String DEFAULT_POOL_MAX_SIZE = "20";
+	// in seconds
+	private static final String DEFAULT_POOL_TIMEOUT = "1800";
+	private static final String DEFAULT_POOL_MAX_STATEMENTS = "50";
+	
+	/**
+	 * The name of the Hikari pool, also used for its JMX beans
+	 */
+	public static final String HIKARI_POOL_NAME = "eppic";
+	
+	/**
+	 * The ehcache configuration for the second-level and query caches, see {@value #PROP_CACHE}
+	 */
+	public static final String EHCACHE_CONFIG_RESOURCE = "/eppic-ehcache.xml";
+
 
 	/**
 	 * Generate DB config parameters by reading a properties file (configurationFile).
@@ -19,6 +53,17 @@ public class DbConfigGenerator {
 	 * 		Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME, map);
 	 * </pre>
 	 * 
+	 * Apart from the connection parameters, the file can optionally contain:
+	 * <ul>
+	 * <li>{@value #PROP_URL}, {@value #PROP_DRIVER}: a full jdbc url and driver class to use instead of the 
+	 * mysql one built from host, port and db name (e.g. an embedded H2 database for testing)</li>
+	 * <li>{@value #PROP_POOL}: the connection pool, either {@value #POOL_C3P0} (default) or {@value #POOL_HIKARI}</li>
+	 * <li>{@value #PROP_POOL_MIN_SIZE}, {@value #PROP_POOL_MAX_SIZE}, {@value #PROP_POOL_TIMEOUT} (idle timeout in seconds), 
+	 * {@value #PROP_POOL_MAX_STATEMENTS} (prepared statements cache size): the pool sizing</li>
+	 * <li>{@value #PROP_CACHE}: if true the second-level cache for the cacheable entities and the query cache are enabled</li>
+	 * <li>{@value #PROP_STATS}: if true hibernate statistics are collected and the pool beans registered in JMX</li>
+	 * </ul>
+	 * 
 	 * @param configurationFile
 	 * @param dbName the database name, if null then it will be read from configurationFile's 'dbname' property
 	 * @return
@@ -49,13 +94,16 @@ public class DbConfigGenerator {
 		} else {
 			throw new IOException("Missing property 'password' in config file "+configurationFile);
 		}
+		
+		String url = getProperty(properties, PROP_URL, null);
+		
 		if (properties.getProperty("host")!=null && !properties.getProperty("host").isEmpty()) {
 			host = properties.getProperty("host").trim();
-		} else {
+		} else if (url==null) {
 			throw new IOException("Missing property 'host' in config file "+configurationFile);
 		}
 		
-		if (dbName == null) {
+		if (dbName == null && url == null) {
 			// in this case the dbname must be present in file
 			if (properties.getProperty("dbname")!=null && !properties.getProperty("dbname").isEmpty()) { 
 				dbName = properties.getProperty("dbname");
@@ -69,23 +117,76 @@ public class DbConfigGenerator {
 		
 		Map<String, String> map = new HashMap<>();
 		
-		map.put("javax.persistence.jdbc.driver", "com.mysql.jdbc.Driver");
+		String driver = getProperty(properties, PROP_DRIVER, DEFAULT_DRIVER);
+		map.put("javax.persistence.jdbc.driver", driver);
 		//map.put("javax.persistence.nonJtaDataSource", "");
 
-		String url = "jdbc:mysql://"+host+":"+port+"/"+dbName;
+		if (url == null) 
+			url = "jdbc:mysql://"+host+":"+port+"/"+dbName;
 		map.put("javax.persistence.jdbc.url", url);
 		map.put("javax.persistence.jdbc.user", user); 
 		map.put("javax.persistence.jdbc.password", pwd);
 
-		map.put("hibernate.c3p0.min_size", "5");
-		map.put("hibernate.c3p0.max_size", "20");
-		map.put("hibernate.c3p0.timeout", "1800");
-		map.put("hibernate.c3p0.max_statements", "50");		
+		String pool = getProperty(properties, PROP_POOL, POOL_C3P0);
+		String minSize = getProperty(properties, PROP_POOL_MIN_SIZE, DEFAULT_POOL_MIN_SIZE);
+		String maxSize = getProperty(properties, PROP_POOL_MAX_SIZE, DEFAULT_POOL_MAX_SIZE);
+		String timeout = getProperty(properties, PROP_POOL_TIMEOUT, DEFAULT_POOL_TIMEOUT);
+		String maxStatements = getProperty(properties, PROP_POOL_MAX_STATEMENTS, DEFAULT_POOL_MAX_STATEMENTS);
+		boolean stats = Boolean.parseBoolean(getProperty(properties, PROP_STATS, "false"));
+		
+		if (pool.equals(POOL_C3P0)) {
+			map.put("hibernate.c3p0.min_size", minSize);
+			map.put("hibernate.c3p0.max_size", maxSize);
+			map.put("hibernate.c3p0.timeout", timeout);
+			map.put("hibernate.c3p0.max_statements", maxStatements);
+		} else if (pool.equals(POOL_HIKARI)) {
+			map.put("hibernate.connection.provider_class", "org.hibernate.hikaricp.internal.HikariCPConnectionProvider");
+			// the hikari provider reads the connection settings from the hibernate properties only
+			map.put("hibernate.connection.driver_class", driver);
+			map.put("hibernate.connection.url", url);
+			map.put("hibernate.connection.username", user);
+			map.put("hibernate.connection.password", pwd);
+			map.put("hibernate.hikari.poolName", HIKARI_POOL_NAME);
+			map.put("hibernate.hikari.minimumIdle", minSize);
+			map.put("hibernate.hikari.maximumPoolSize", maxSize);
+			map.put("hibernate.hikari.idleTimeout", Long.toString(Long.parseLong(timeout)*1000));
+			map.put("hibernate.hikari.registerMbeans", Boolean.toString(stats));
+			if (url.startsWith("jdbc:mysql:")) {
+				// hikari has no statement cache of its own, it relies on the driver's
+				map.put("hibernate.hikari.dataSource.cachePrepStmts", "true");
+				map.put("hibernate.hikari.dataSource.prepStmtCacheSize", maxStatements);
+				map.put("hibernate.hikari.dataSource.prepStmtCacheSqlLimit", "2048");
+				map.put("hibernate.hikari.dataSource.useServerPrepStmts", "true");
+			}
+		} else {
+			throw new IOException("Invalid value '"+pool+"' for property '"+PROP_POOL+"' in config file "+configurationFile+
+					". Valid values are: "+POOL_C3P0+", "+POOL_HIKARI);
+		}
+		
+		if (Boolean.parseBoolean(getProperty(properties, PROP_CACHE, "false"))) {
+			// only entities marked as cacheable in orm.xml go to the second-level cache (shared-cache-mode is ENABLE_SELECTIVE)
+			map.put("hibernate.cache.use_second_level_cache", "true");
+			map.put("hibernate.cache.use_query_cache", "true");
+			map.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.SingletonEhCacheRegionFactory");
+			map.put("hibernate.cache.default_cache_concurrency_strategy", "nonstrict-read-write");
+			map.put("net.sf.ehcache.configurationResourceName", EHCACHE_CONFIG_RESOURCE);
+		} else {
+			map.put("hibernate.cache.use_second_level_cache", "false");
+			map.put("hibernate.cache.use_query_cache", "false");
+		}
+		
+		map.put("hibernate.generate_statistics", Boolean.toString(stats));
 
 		return map;
 
 	}
 	
+	private static String getProperty(Properties properties, String key, String defaultValue) {
+		String value = properties.getProperty(key);
+		if (value==null || value.trim().isEmpty()) return defaultValue;
+		return value.trim();
+	}
+	
 	public static Map<String, String> createDatabaseProperties(File configurationFile) throws IOException {
 		return createDatabaseProperties(configurationFile, null);
 	}
@@ -6,6 +6,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -291,6 +292,15 @@ public class MySQLConnection {
 		return this.conn.createStatement();
 	}
 	
+	/**
+	 * Returns a prepared statement object for the given SQL created from the underlying connection.
+	 * @param sql
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return this.conn.prepareStatement(sql);
+	}
+	
 	/**
 	 * Execute an SQL operation, e.g. update or delete, ignoring any output.
 	 * @param query
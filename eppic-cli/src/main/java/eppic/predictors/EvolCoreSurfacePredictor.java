@@ -50,6 +50,8 @@ public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 	
 	private int coreSurfaceScoreStrategy;
 	
+	private long samplingSeed;
+	
 
 	
 	public EvolCoreSurfacePredictor(InterfaceEvolContext iec) {
@@ -57,6 +59,7 @@ public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 		this.warnings = new ArrayList<String>();
 		this.callReasonSides = new String[2];
 		this.veto = null;
+		this.samplingSeed = EppicParams.DEF_CORESURF_SAMPLING_SEED;
 	}
 	
 	private boolean canDoEntropyScoring(int molecId) {
@@ -288,7 +291,7 @@ public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 					" residues in surface. Can't do core-surface scoring for interface "+iec.getInterface().getId()+", member "+(molecId+1));
 			return Double.NaN;
 		}
-		surfScoreDist = iec.getSurfaceScoreDist(molecId, NUM_SAMPLES_SCORE_DIST, cores.size(), minAsaForSurface);		
+		surfScoreDist = iec.getSurfaceScoreDist(molecId, NUM_SAMPLES_SCORE_DIST, cores.size(), minAsaForSurface, samplingSeed);		
 
 
 
@@ -352,4 +355,16 @@ public class EvolCoreSurfacePredictor implements InterfaceTypePredictor {
 		return coreSurfaceScoreStrategy;
 	}
 	
+	/**
+	 * Sets the seed used for sampling the surface scores distribution.
+	 * @param samplingSeed
+	 */
+	public void setSamplingSeed(long samplingSeed) {
+		this.samplingSeed = samplingSeed;
+	}
+	
+	public long getSamplingSeed() {
+		return samplingSeed;
+	}
+	
 }
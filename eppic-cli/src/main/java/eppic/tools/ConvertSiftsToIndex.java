@@ -0,0 +1,89 @@
+package eppic.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import eppic.commons.sequence.NoMatchFoundException;
+import eppic.commons.sequence.SiftsConnection;
+import eppic.commons.sequence.SiftsFeature;
+import gnu.getopt.Getopt;
+
+/**
+ * Converts the SIFTS pdb_chain_uniprot.lst text file (local file or URL) to a binary SIFTS index
+ * file (see {@link eppic.commons.sequence.SiftsIndex}). The index can then be used as SIFTS_FILE
+ * in the eppic config file, so that each run memory-maps it instead of parsing the whole SIFTS file.
+ *
+ */
+public class ConvertSiftsToIndex {
+
+	public static void main(String[] args) throws IOException {
+
+		String help =
+				"Usage: ConvertSiftsToIndex\n" +
+				"Converts the SIFTS PDB to UniProt mapping file to a binary index for fast lookups\n" +
+				" [-s <file>]  : SIFTS pdb_chain_uniprot.lst file path or URL. Default: \n"+
+				"                "+SiftsConnection.PDB2UNIPROT_URL+"\n" +
+				"  -o <file>   : output SIFTS index file\n";
+
+		Getopt g = new Getopt("ConvertSiftsToIndex", args, "s:o:h?");
+
+		String siftsLocation = SiftsConnection.PDB2UNIPROT_URL;
+		File outFile = null;
+
+		int c;
+		while ((c = g.getopt()) != -1) {
+			switch(c){
+			case 's':
+				siftsLocation = g.getOptarg();
+				break;
+			case 'o':
+				outFile = new File(g.getOptarg());
+				break;
+			case 'h':
+				System.out.println(help);
+				System.exit(0);
+				break;
+			case '?':
+				System.err.println(help);
+				System.exit(1);
+				break; // getopt() already printed an error
+			}
+		}
+
+		if (outFile == null) {
+			System.err.println("An output file must be specified with -o");
+			System.err.println(help);
+			System.exit(1);
+		}
+
+		long start = System.currentTimeMillis();
+		SiftsConnection text = new SiftsConnection(siftsLocation);
+		System.out.println("Parsed "+text.getMappingsCount()+" PDB chain mappings from "+siftsLocation+
+				" in "+(System.currentTimeMillis()-start)/1000+" s");
+
+		text.writeIndex(outFile);
+
+		// a sanity check of the written index: all chains must be found with the same mappings
+		SiftsConnection index = new SiftsConnection(outFile.toString());
+		if (index.getMappingsCount()!=text.getMappingsCount()) {
+			System.err.println("The written index has "+index.getMappingsCount()+" PDB chain mappings, expected "+text.getMappingsCount());
+			System.exit(1);
+		}
+		try {
+			for (ArrayList<SiftsFeature> mappings : text.getAllMappings()) {
+				String pdbCode = mappings.get(0).getPdbCode();
+				String chain = mappings.get(0).getPdbChainCode();
+				if (index.getMappings(pdbCode, chain).size()!=mappings.size()) {
+					System.err.println("Mismatch in index for PDB "+pdbCode+", chain "+chain);
+					System.exit(1);
+				}
+			}
+		} catch (NoMatchFoundException e) {
+			System.err.println("Written index is missing mappings: "+e.getMessage());
+			System.exit(1);
+		}
+
+		System.out.println("Wrote SIFTS index to "+outFile+" ("+outFile.length()/1024+" KB)");
+	}
+}
@@ -0,0 +1,145 @@
+package eppic.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import eppic.model.PdbInfoDB;
+import eppic.model.io.ResultFileReader;
+import eppic.model.io.ResultFileWriter;
+import gnu.getopt.Getopt;
+
+/**
+ * Converts legacy Java-serialized webui.dat files to the binary result format
+ * (see {@link ResultFileWriter}). Files are replaced in place, files already in
+ * the binary format are skipped.
+ *
+ */
+public class ConvertWebuiFiles {
+
+	private static final String WEBUI_FILE_SUFFIX = ".webui.dat";
+
+	public static void main(String[] args) {
+
+		String help =
+				"Usage: ConvertWebuiFiles\n" +
+				"Converts Java-serialized webui.dat files to the binary result format, in place\n" +
+				" [-d <dir>]  : a directory that will be searched recursively for webui.dat files\n" +
+				" [-k]        : keep a copy of each original file with suffix .bak\n" +
+				" [files...]  : individual webui.dat files to convert\n";
+
+		Getopt g = new Getopt("ConvertWebuiFiles", args, "d:kh?");
+
+		File dir = null;
+		boolean keepBackup = false;
+
+		int c;
+		while ((c = g.getopt()) != -1) {
+			switch(c){
+			case 'd':
+				dir = new File(g.getOptarg());
+				break;
+			case 'k':
+				keepBackup = true;
+				break;
+			case 'h':
+				System.out.println(help);
+				System.exit(0);
+				break;
+			case '?':
+				System.err.println(help);
+				System.exit(1);
+				break; // getopt() already printed an error
+			}
+		}
+
+		List<File> files = new ArrayList<File>();
+		for (int i=g.getOptind();i<args.length;i++) {
+			files.add(new File(args[i]));
+		}
+		if (dir!=null) {
+			if (!dir.isDirectory()) {
+				System.err.println("Given dir "+dir+" is not a directory");
+				System.exit(1);
+			}
+			findWebuiFiles(dir, files);
+		}
+
+		if (files.isEmpty()) {
+			System.err.println("No webui.dat files to convert");
+			System.err.println(help);
+			System.exit(1);
+		}
+
+		int converted = 0;
+		int skipped = 0;
+		int failed = 0;
+		long bytesBefore = 0;
+		long bytesAfter = 0;
+		long start = System.currentTimeMillis();
+
+		for (File file:files) {
+			if (ResultFileReader.isResultFile(file)) {
+				skipped++;
+				continue;
+			}
+			try {
+				long before = file.length();
+				convert(file, keepBackup);
+				bytesBefore += before;
+				bytesAfter += file.length();
+				converted++;
+			} catch (IOException e) {
+				System.err.println("Could not convert file "+file+": "+e.getMessage());
+				failed++;
+			}
+		}
+
+		System.out.println("Converted "+converted+" files, skipped "+skipped+" files already converted, "+failed+" failures. "+
+				"Time: "+(System.currentTimeMillis()-start)/1000+" s");
+		if (converted>0)
+			System.out.printf("Total size before: %d KB, after: %d KB\n", bytesBefore/1024, bytesAfter/1024);
+
+		if (failed>0) System.exit(1);
+	}
+
+	/**
+	 * Converts the given legacy file to the binary format, replacing it only after the
+	 * new file has been written and read back successfully
+	 * @param file
+	 * @param keepBackup
+	 * @throws IOException
+	 */
+	private static void convert(File file, boolean keepBackup) throws IOException {
+		PdbInfoDB pdbInfo = ResultFileReader.readFromFile(file);
+
+		File tmpFile = new File(file.getParentFile(), file.getName()+".tmp");
+		try {
+			ResultFileWriter.writeToFile(pdbInfo, tmpFile);
+			// sanity check before replacing the original
+			ResultFileReader.readFromFile(tmpFile);
+
+			if (keepBackup) {
+				Files.copy(file.toPath(), new File(file.getParentFile(), file.getName()+".bak").toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmpFile.toPath());
+		}
+	}
+
+	private static void findWebuiFiles(File dir, List<File> files) {
+		File[] children = dir.listFiles();
+		if (children==null) return;
+		for (File child:children) {
+			if (child.isDirectory()) {
+				findWebuiFiles(child, files);
+			} else if (child.getName().endsWith(WEBUI_FILE_SUFFIX)) {
+				files.add(child);
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package eppic;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.biojava.nbio.structure.AminoAcidImpl;
+import org.biojava.nbio.structure.Atom;
+import org.biojava.nbio.structure.AtomImpl;
+import org.biojava.nbio.structure.Chain;
+import org.biojava.nbio.structure.ChainImpl;
+import org.biojava.nbio.structure.Element;
+import org.biojava.nbio.structure.Group;
+import org.biojava.nbio.structure.contact.StructureInterface;
+import org.biojava.nbio.structure.xtal.CrystalTransform;
+import org.biojava.nbio.structure.xtal.SpaceGroup;
+import org.biojava.nbio.structure.xtal.SymoplibParser;
+import org.junit.Test;
+
+import eppic.assembly.Assembly;
+import eppic.commons.util.AtomSiteWriter;
+
+public class TestCoordFilesWriter {
+
+	private static Atom[] getAtoms(String chainId, int numAtoms) {
+		Chain c = new ChainImpl();
+		c.setChainID(chainId);
+		Atom[] atoms = new Atom[numAtoms];
+		Group g = null;
+		for (int i=0;i<numAtoms;i++) {
+			if (i%5==0) {
+				g = new AminoAcidImpl();
+				g.setPDBName("ALA");
+				g.setResidueNumber(chainId, i/5+1, null);
+				c.addGroup(g);
+			}
+			Atom a = new AtomImpl();
+			a.setName("CA");
+			a.setElement(Element.C);
+			a.setPDBserial(i+1);
+			a.setCoords(new double[]{i*0.1, -i*0.01, i});
+			a.setOccupancy(1);
+			a.setTempFactor(i%100);
+			g.addAtom(a);
+			atoms[i] = a;
+		}
+		return atoms;
+	}
+
+	private static StructureInterface getInterface(int id, int numAtoms) {
+		SpaceGroup sg = SymoplibParser.getSpaceGroup("P 21 21 21");
+		StructureInterface interf = new StructureInterface(
+				getAtoms("A", numAtoms), getAtoms("A", numAtoms), "A", "A", null,
+				new CrystalTransform(sg, 0), new CrystalTransform(sg, 1));
+		interf.setId(id);
+		return interf;
+	}
+
+	private static String gunzip(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (InputStream gis = new GZIPInputStream(is)) {
+			byte[] buf = new byte[8192];
+			int n;
+			while ((n = gis.read(buf))>0) bos.write(buf, 0, n);
+		}
+		return bos.toString();
+	}
+
+	@Test
+	public void testStreamedOutput() {
+		// more atoms than a batch, so that the loop is written in several parts
+		StructureInterface interf = getInterface(1, AtomSiteWriter.BATCH_SIZE);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(bos);
+		CoordFilesWriter.writeInterfaceMmCif(interf, ps);
+		ps.close();
+		// same tokens, only the column alignment can differ
+		assertEquals(Arrays.asList(interf.toMMCIF().split("\\s+")), Arrays.asList(bos.toString().split("\\s+")));
+
+		bos = new ByteArrayOutputStream();
+		ps = new PrintStream(bos);
+		CoordFilesWriter.writeInterfacePdb(interf, ps);
+		ps.close();
+		assertEquals(interf.toPDB(), bos.toString());
+	}
+
+	@Test
+	public void testArchive() throws Exception {
+		File dir = Files.createTempDirectory("coordfiles").toFile();
+		dir.deleteOnExit();
+
+		EppicParams params = new EppicParams();
+		params.setOutDir(dir);
+		params.setBaseName("test");
+		params.setNumThreads(2);
+		params.setWriteCoordsArchive(true);
+
+		List<StructureInterface> interfaces = new ArrayList<>();
+		for (int i=1;i<=3;i++) interfaces.add(getInterface(i, 10*i));
+		new CoordFilesWriter(params).writeCoordFiles(interfaces, new ArrayList<Assembly>());
+
+		byte[] archive = Files.readAllBytes(params.getOutputFile(EppicParams.COORDS_ARCHIVE_FILE_SUFFIX).toPath());
+		List<String> index = Files.readAllLines(params.getOutputFile(EppicParams.COORDS_ARCHIVE_INDEX_FILE_SUFFIX).toPath());
+		assertEquals(3, index.size());
+
+		StringBuilder all = new StringBuilder();
+		for (int i=1;i<=3;i++) {
+			String[] tokens = index.get(i-1).split("\t");
+			assertEquals(CoordFilesWriter.ARCHIVE_ENTRY_INTERFACE, tokens[0]);
+			assertEquals(i, Integer.parseInt(tokens[1]));
+			// each entry can be read on its own
+			String entry = gunzip(new ByteArrayInputStream(archive, Integer.parseInt(tokens[2]), Integer.parseInt(tokens[3])));
+			File file = params.getOutputFile(EppicParams.INTERFACES_COORD_FILES_SUFFIX+"."+i+EppicParams.MMCIF_FILE_EXTENSION);
+			assertEquals(gunzip(Files.newInputStream(file.toPath())), entry);
+			assertTrue(entry.startsWith("data_BioJava_interface_"+i));
+			all.append(entry);
+		}
+		// and the whole archive is the concatenation of all
+		assertEquals(all.toString(), gunzip(new ByteArrayInputStream(archive)));
+
+		for (File f:dir.listFiles()) f.delete();
+	}
+}
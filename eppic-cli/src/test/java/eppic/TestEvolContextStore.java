@@ -0,0 +1,114 @@
+package eppic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import eppic.commons.sequence.HomologList;
+
+public class TestEvolContextStore {
+
+	private static ArrayList<Double> createEntry(int size) {
+		ArrayList<Double> entropies = new ArrayList<Double>();
+		for (int i=0;i<size;i++) entropies.add(Math.random());
+		return entropies;
+	}
+
+	@Test
+	public void testStore() throws IOException {
+		File dir = Files.createTempDirectory("evolstore").toFile();
+		dir.deleteOnExit();
+
+		// no limit
+		EvolContextStore store = new EvolContextStore(dir, 0);
+
+		assertNull(store.get("a", ArrayList.class));
+		ArrayList<Double> entry = createEntry(100);
+		store.put("a", entry);
+		assertEquals(entry, store.get("a", ArrayList.class));
+		assertEquals(1, store.getHits());
+		assertEquals(1, store.getMisses());
+		assertEquals(0.5, store.getHitRate(), 0.00001);
+
+		// visible to other stores on the same dir (e.g. other processes)
+		EvolContextStore other = new EvolContextStore(dir, 0);
+		assertEquals(entry, other.get("a", ArrayList.class));
+
+		// a corrupted entry is a miss and is deleted
+		try (FileWriter fw = new FileWriter(new File(dir, "b.evol.ser.gz"))) {
+			fw.write("not an entry");
+		}
+		assertNull(store.get("b", ArrayList.class));
+		assertFalse(new File(dir, "b.evol.ser.gz").exists());
+		// and so is one of the wrong type
+		assertNull(store.get("a", String.class));
+		assertFalse(new File(dir, "a.evol.ser.gz").exists());
+
+		// no temporary files left behind
+		assertEquals(0, dir.listFiles().length);
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		File dir = Files.createTempDirectory("evolstore").toFile();
+		dir.deleteOnExit();
+
+		EvolContextStore store = new EvolContextStore(dir, Long.MAX_VALUE);
+		store.put("a", createEntry(1000));
+		long entrySize = new File(dir, "a.evol.ser.gz").length();
+		for (File f:dir.listFiles()) f.delete();
+
+		// room for 3 entries
+		store = new EvolContextStore(dir, (long)(3.5*entrySize));
+		long time = System.currentTimeMillis() - 100000;
+		for (String key:new String[]{"a","b","c"}) {
+			store.put(key, createEntry(1000));
+			new File(dir, key+".evol.ser.gz").setLastModified(time);
+			time += 10000;
+		}
+		// a is read: b is now the least recently used
+		assertNotNull(store.get("a", ArrayList.class));
+		store.put("d", createEntry(1000));
+
+		assertEquals(1, store.getEvictions());
+		assertFalse(new File(dir, "b.evol.ser.gz").exists());
+		assertTrue(new File(dir, "a.evol.ser.gz").exists());
+		assertTrue(new File(dir, "c.evol.ser.gz").exists());
+		assertTrue(new File(dir, "d.evol.ser.gz").exists());
+
+		for (File f:dir.listFiles()) f.delete();
+	}
+
+	@Test
+	public void testUnknownUniprotVer() throws IOException {
+		File dir = Files.createTempDirectory("blastdb").toFile();
+		dir.deleteOnExit();
+
+		// no reldate.txt: the store must not be used
+		String ver = HomologList.readUniprotVer(dir.getAbsolutePath());
+		assertEquals(HomologList.UNKNOWN_UNIPROT_VER, ver);
+		assertFalse(HomologList.isKnownUniprotVer(ver));
+		assertFalse(HomologList.isKnownUniprotVer(null));
+
+		File reldate = new File(dir, "reldate.txt");
+		try (FileWriter fw = new FileWriter(reldate)) {
+			fw.write("not a release line\n");
+		}
+		assertFalse(HomologList.isKnownUniprotVer(HomologList.readUniprotVer(dir.getAbsolutePath())));
+
+		try (FileWriter fw = new FileWriter(reldate)) {
+			fw.write("UniProt Knowledgebase Release 2016_05 consists of:\n");
+		}
+		ver = HomologList.readUniprotVer(dir.getAbsolutePath());
+		assertEquals("2016_05", ver);
+		assertTrue(HomologList.isKnownUniprotVer(ver));
+
+		reldate.delete();
+	}
+}
@@ -0,0 +1,69 @@
+package eppic;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.apache.commons.math.stat.descriptive.moment.Mean;
+import org.apache.commons.math.stat.descriptive.moment.StandardDeviation;
+import org.junit.Test;
+
+public class TestResidueScoreSampler {
+
+	private static double[] getScores(int n) {
+		double[] scores = new double[n];
+		for (int i=0;i<n;i++) {
+			scores[i] = (i*7)%11 / 5.0;
+		}
+		return scores;
+	}
+
+	@Test
+	public void testReproducible() {
+		ResidueScoreSampler sampler = new ResidueScoreSampler(getScores(120));
+
+		double[] serial = sampler.sample(10000, 15, 42, false);
+		double[] parallel = sampler.sample(10000, 15, 42, true);
+		assertArrayEquals(serial, parallel, 0.0);
+
+		double[] other = sampler.sample(10000, 15, 43, true);
+		assertFalse(Arrays.equals(serial, other));
+	}
+
+	@Test
+	public void testDistributionStats() {
+		int n = 100;
+		int k = 10;
+		double[] scores = getScores(n);
+		ResidueScoreSampler sampler = new ResidueScoreSampler(scores);
+
+		double[] dist = sampler.sample(100000, k, 1, true);
+
+		// sampling without replacement: mean of sample means is the population mean and the
+		// variance is sigma^2/k * (n-k)/(n-1)
+		double popMean = new Mean().evaluate(scores);
+		double popVar = new StandardDeviation(false).evaluate(scores);
+		popVar = popVar*popVar;
+		double expectedSd = Math.sqrt(popVar/k * (double)(n-k)/(double)(n-1));
+
+		assertEquals(popMean, new Mean().evaluate(dist), 0.01);
+		assertEquals(expectedSd, new StandardDeviation().evaluate(dist), 0.01);
+	}
+
+	@Test
+	public void testUnmappedResidues() {
+		double[] scores = {1.0, Double.NaN, 3.0, Double.NaN};
+
+		// sampling the whole population: always the average of the residues with scores
+		double[] dist = new ResidueScoreSampler(scores).sample(50, 4, 7, false);
+		for (double d:dist) {
+			assertEquals(2.0, d, 1e-12);
+		}
+
+		// no residues with scores at all
+		dist = new ResidueScoreSampler(new double[]{Double.NaN, Double.NaN}).sample(10, 1, 7, false);
+		for (double d:dist) {
+			assertTrue(Double.isNaN(d));
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package eppic;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import eppic.commons.util.Goodies;
+import eppic.model.AssemblyContentDB;
+import eppic.model.AssemblyDB;
+import eppic.model.AssemblyScoreDB;
+import eppic.model.ChainClusterDB;
+import eppic.model.ContactDB;
+import eppic.model.HomologDB;
+import eppic.model.InterfaceClusterDB;
+import eppic.model.InterfaceClusterScoreDB;
+import eppic.model.InterfaceDB;
+import eppic.model.InterfaceScoreDB;
+import eppic.model.InterfaceWarningDB;
+import eppic.model.PdbInfoDB;
+import eppic.model.ResidueBurialDB;
+import eppic.model.ResidueInfoDB;
+import eppic.model.RunParametersDB;
+import eppic.model.UniProtRefWarningDB;
+import eppic.model.io.ResultFileReader;
+import eppic.model.io.ResultFileWriter;
+
+/**
+ * Round trip tests of the binary result format of {@link ResultFileWriter} and {@link ResultFileReader}
+ */
+public class TestResultFileFormat {
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private static PdbInfoDB createPdbInfo() {
+		PdbInfoDB pdbInfo = new PdbInfoDB();
+		pdbInfo.setPdbCode("1abc");
+		pdbInfo.setTitle("A test structure å");
+		pdbInfo.setReleaseDate(new Date(1000000000000L));
+		pdbInfo.setSpaceGroup("P 21 21 21");
+		pdbInfo.setResolution(1.8);
+		pdbInfo.setRfreeValue(Double.NaN);
+		pdbInfo.setExpMethod("X-RAY DIFFRACTION");
+		pdbInfo.setCellA(50.1);
+		pdbInfo.setNumChainClusters(1);
+
+		RunParametersDB rp = new RunParametersDB();
+		rp.setAlphabet("A:ACDEFGHIKLMNPQRSTVWY");
+		rp.setEppicVersion("3.0.4");
+		rp.setPdbInfo(pdbInfo);
+		pdbInfo.setRunParameters(rp);
+
+		ChainClusterDB cc = new ChainClusterDB();
+		cc.setPdbCode("1abc");
+		cc.setRepChain("A");
+		cc.setMemberChains("A,B");
+		cc.setProtein(true);
+		cc.setPdbInfo(pdbInfo);
+		List<UniProtRefWarningDB> upWarnings = new ArrayList<UniProtRefWarningDB>();
+		UniProtRefWarningDB upWarning = new UniProtRefWarningDB();
+		upWarning.setText("Low coverage");
+		upWarning.setChainCluster(cc);
+		upWarnings.add(upWarning);
+		cc.setUniProtRefWarnings(upWarnings);
+		List<HomologDB> homologs = new ArrayList<HomologDB>();
+		HomologDB h = new HomologDB();
+		h.setUniProtId("P12345");
+		h.setSeqId(0.9);
+		h.setAlignedSeq("MKV-LA");
+		h.setChainCluster(cc);
+		homologs.add(h);
+		cc.setHomologs(homologs);
+		List<ResidueInfoDB> residueInfos = new ArrayList<ResidueInfoDB>();
+		for (int i=1;i<=5;i++) {
+			ResidueInfoDB r = new ResidueInfoDB();
+			r.setPdbCode("1abc");
+			r.setRepChain("A");
+			r.setResidueNumber(i);
+			r.setPdbResidueNumber(i+"A");
+			r.setResidueType(i%2==0 ? "ALA" : "GLY");
+			r.setEntropyScore(i*0.1);
+			r.setChainCluster(cc);
+			residueInfos.add(r);
+		}
+		cc.setResidueInfos(residueInfos);
+		pdbInfo.getChainClusters().add(cc);
+
+		for (int clusterId=1;clusterId<=2;clusterId++) {
+			InterfaceClusterDB ic = new InterfaceClusterDB();
+			ic.setClusterId(clusterId);
+			ic.setPdbCode("1abc");
+			ic.setAvgArea(500.0*clusterId);
+			ic.setPdbInfo(pdbInfo);
+			InterfaceClusterScoreDB ics = new InterfaceClusterScoreDB();
+			ics.setMethod("eppic");
+			ics.setCallName("bio");
+			ics.setInterfaceCluster(ic);
+			ic.addInterfaceClusterScore(ics);
+
+			InterfaceDB interf = new InterfaceDB();
+			interf.setInterfaceId(clusterId);
+			interf.setClusterId(clusterId);
+			interf.setPdbCode("1abc");
+			interf.setChain1("A");
+			interf.setChain2("B");
+			interf.setOperator("X,Y,Z");
+			interf.setXtalTrans_x(-1);
+			interf.setInterfaceCluster(ic);
+			InterfaceWarningDB iw = new InterfaceWarningDB();
+			iw.setText("Clashes");
+			iw.setInterfaceItem(interf);
+			interf.getInterfaceWarnings().add(iw);
+			InterfaceScoreDB is = new InterfaceScoreDB();
+			is.setMethod("geometry");
+			is.setInterfaceId(clusterId);
+			is.setScore(10);
+			is.setInterfaceItem(interf);
+			interf.addInterfaceScore(is);
+
+			List<ContactDB> contacts = new ArrayList<ContactDB>();
+			for (int i=0;i<3;i++) {
+				ContactDB c = new ContactDB();
+				c.setFirstResNumber(i+1);
+				c.setSecondResNumber(i+2);
+				c.setFirstResType("GLY");
+				c.setSecondResType("ALA");
+				c.setMinDistance(3.5+i);
+				c.setClash(i==1);
+				c.setInterfaceId(clusterId);
+				c.setPdbCode("1abc");
+				c.setInterfaceItem(interf);
+				contacts.add(c);
+			}
+			interf.setContacts(contacts);
+
+			for (int i=0;i<residueInfos.size();i++) {
+				ResidueBurialDB b = new ResidueBurialDB();
+				b.setSide(i%2==1);
+				b.setAsa(100+i);
+				b.setBsa(10*i);
+				b.setRegion((short)(i-1));
+				b.setInterfaceItem(interf);
+				// the last one without residue info, as happens for non-matching residues
+				if (i<residueInfos.size()-1) b.setResidueInfo(residueInfos.get(i));
+				interf.getResidueBurials().add(b);
+			}
+			ic.getInterfaces().add(interf);
+			pdbInfo.getInterfaceClusters().add(ic);
+		}
+
+		for (int id=1;id<=2;id++) {
+			AssemblyDB a = new AssemblyDB();
+			a.setId(id);
+			a.setPdbCode("1abc");
+			a.setInterfaceClusterIds(id==1 ? "" : "1,2");
+			a.setPdbInfo(pdbInfo);
+			AssemblyScoreDB as = new AssemblyScoreDB();
+			as.setMethod("eppic");
+			as.setScore(0.5);
+			as.setAssembly(a);
+			a.addAssemblyScore(as);
+			List<AssemblyContentDB> contents = new ArrayList<AssemblyContentDB>();
+			AssemblyContentDB ac = new AssemblyContentDB();
+			ac.setMmSize(id);
+			ac.setSymmetry(id==1 ? "C1" : "C2");
+			ac.setAssembly(a);
+			contents.add(ac);
+			a.setAssemblyContents(contents);
+			if (id==2) {
+				for (InterfaceClusterDB ic:pdbInfo.getInterfaceClusters()) {
+					a.getInterfaceClusters().add(ic);
+					ic.addAssembly(a);
+				}
+			}
+			pdbInfo.addAssembly(a);
+		}
+
+		return pdbInfo;
+	}
+
+	private static byte[] write(PdbInfoDB pdbInfo) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ResultFileWriter writer = new ResultFileWriter(baos)) {
+			writer.write(pdbInfo);
+		}
+		return baos.toByteArray();
+	}
+
+	private static PdbInfoDB read(byte[] bytes) throws IOException {
+		try (ResultFileReader reader = new ResultFileReader(new ByteArrayInputStream(bytes))) {
+			return reader.read();
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		PdbInfoDB orig = createPdbInfo();
+		byte[] bytes = write(orig);
+		PdbInfoDB read = read(bytes);
+
+		// everything that was written must have been read back
+		assertArrayEquals(bytes, write(read));
+
+		assertEquals("1abc", read.getPdbCode());
+		assertEquals(orig.getTitle(), read.getTitle());
+		assertEquals(orig.getReleaseDate(), read.getReleaseDate());
+		assertTrue(Double.isNaN(read.getRfreeValue()));
+		assertNull(read.getJob());
+		assertSame(read, read.getRunParameters().getPdbInfo());
+
+		ChainClusterDB cc = read.getChainClusters().get(0);
+		assertSame(read, cc.getPdbInfo());
+		assertNull(cc.getSeqCluster());
+		assertSame(cc, cc.getHomologs().get(0).getChainCluster());
+		assertEquals(5, cc.getResidueInfos().size());
+		assertEquals("2A", cc.getResidueInfos().get(1).getPdbResidueNumber());
+
+		InterfaceDB interf = read.getInterface(2);
+		assertSame(read.getInterfaceCluster(2), interf.getInterfaceCluster());
+		assertEquals(3, interf.getContacts().size());
+		assertTrue(interf.getContacts().get(1).isClash());
+		assertSame(interf, interf.getContacts().get(0).getInterfaceItem());
+		assertEquals(-1, interf.getXtalTrans_x());
+
+		List<ResidueBurialDB> burials = interf.getResidueBurials();
+		assertSame(interf, burials.get(0).getInterfaceItem());
+		assertSame(cc.getResidueInfos().get(3), burials.get(3).getResidueInfo());
+		assertNull(burials.get(4).getResidueInfo());
+		assertEquals(-1, burials.get(0).getRegion());
+
+		AssemblyDB a1 = read.getAssemblies().get(0);
+		AssemblyDB a2 = read.getAssemblies().get(1);
+		assertTrue(a1.getInterfaceClusters().isEmpty());
+		assertEquals(2, a2.getInterfaceClusters().size());
+		assertTrue(a2.getInterfaceClusters().contains(read.getInterfaceCluster(1)));
+		assertTrue(read.getInterfaceCluster(1).getAssemblies().contains(a2));
+		assertSame(a2, a2.getAssemblyScores().get(0).getAssembly());
+	}
+
+	@Test
+	public void testReadLegacyAndBinaryFiles() throws IOException {
+		PdbInfoDB orig = createPdbInfo();
+
+		File legacyFile = tmpFolder.newFile("1abc.legacy.webui.dat");
+		Goodies.serialize(legacyFile, orig);
+		File binaryFile = tmpFolder.newFile("1abc.webui.dat");
+		ResultFileWriter.writeToFile(orig, binaryFile);
+
+		assertFalse(ResultFileReader.isResultFile(legacyFile));
+		assertTrue(ResultFileReader.isResultFile(binaryFile));
+
+		// both must read to the same graph
+		assertArrayEquals(write(ResultFileReader.readFromFile(legacyFile)), write(ResultFileReader.readFromFile(binaryFile)));
+	}
+}
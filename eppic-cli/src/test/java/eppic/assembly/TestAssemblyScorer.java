@@ -0,0 +1,133 @@
+package eppic.assembly;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.vecmath.Point3i;
+
+import org.biojava.nbio.structure.Chain;
+import org.biojava.nbio.structure.ChainImpl;
+import org.biojava.nbio.structure.Compound;
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.alg.ConnectivityInspector;
+import org.jgrapht.graph.Pseudograph;
+import org.jgrapht.graph.UndirectedSubgraph;
+import org.junit.Test;
+
+public class TestAssemblyScorer {
+
+	private static UndirectedGraph<ChainVertex, InterfaceEdge> getRandomGraph(Random rand, int numVertices, int numClusters, int numEdges) {
+		UndirectedGraph<ChainVertex, InterfaceEdge> g = new Pseudograph<ChainVertex, InterfaceEdge>(InterfaceEdge.class);
+		List<ChainVertex> vertices = new ArrayList<>();
+		for (int i=0;i<numVertices;i++) {
+			Chain c = new ChainImpl();
+			c.setChainID("A");
+			Compound compound = new Compound();
+			compound.setMolId(1);
+			c.setCompound(compound);
+			ChainVertex v = new ChainVertex(c, i);
+			g.addVertex(v);
+			vertices.add(v);
+		}
+		for (int i=0;i<numEdges;i++) {
+			// every cluster has at least 1 edge, self-loops are possible
+			InterfaceEdge e = new InterfaceEdge(null, new Point3i(0,0,0));
+			e.setInterfaceId(i+1);
+			e.setClusterId(i<numClusters ? i+1 : rand.nextInt(numClusters)+1);
+			g.addEdge(vertices.get(rand.nextInt(numVertices)), vertices.get(rand.nextInt(numVertices)), e);
+		}
+		return g;
+	}
+
+	private static int getNumComponents(UndirectedGraph<ChainVertex, InterfaceEdge> g, PowerSet ps) {
+		Set<InterfaceEdge> edges = new HashSet<>();
+		for (InterfaceEdge e : g.edgeSet()) {
+			if (ps.isOn(e.getClusterId()-1)) edges.add(e);
+		}
+		UndirectedSubgraph<ChainVertex, InterfaceEdge> sub = new UndirectedSubgraph<>(g, g.vertexSet(), edges);
+		return new ConnectivityInspector<ChainVertex, InterfaceEdge>(sub).connectedSets().size();
+	}
+
+	/**
+	 * The probability as calculated by Assembly.calcScore() before AssemblyScorer,
+	 * enumerating all sets and calculating their connected components
+	 */
+	private static double calcProbability(UndirectedGraph<ChainVertex, InterfaceEdge> g, PowerSet engagedSet, PowerSet reducedSet, double[] probs) {
+		int numComponents = getNumComponents(g, engagedSet);
+		List<PowerSet> pss = new ArrayList<PowerSet>();
+		for (PowerSet ps : reducedSet.getOnPowerSet(1)) {
+			if (getNumComponents(g, ps) == numComponents)
+				pss.add(ps);
+		}
+		pss.add(reducedSet);
+
+		double probability = 0;
+		for (PowerSet ps : pss) {
+			double prob = 1;
+			for (int i = 0; i < ps.size(); i++) {
+				prob *= ps.isOn(i) ? probs[i] : 1 - probs[i];
+			}
+			probability += prob;
+		}
+		return probability;
+	}
+
+	@Test
+	public void testAgainstEnumeration() {
+		Random rand = new Random(1);
+
+		for (int t=0;t<200;t++) {
+			int numClusters = 1 + rand.nextInt(8);
+			UndirectedGraph<ChainVertex, InterfaceEdge> g = getRandomGraph(rand, 2 + rand.nextInt(8), numClusters, numClusters + rand.nextInt(10));
+
+			double[] probs = new double[numClusters];
+			for (int i=0;i<numClusters;i++) {
+				// including the extreme probabilities
+				probs[i] = rand.nextInt(5)==0 ? rand.nextInt(2) : rand.nextDouble();
+			}
+
+			AssemblyScorer scorer = new AssemblyScorer(g);
+
+			// the memoized counts are shared by all sets
+			for (int s=0;s<5;s++) {
+				PowerSet engagedSet = new PowerSet(rand.nextLong() & ((1L<<numClusters)-1), numClusters);
+				PowerSet reducedSet = new PowerSet(engagedSet);
+				for (int i=0;i<numClusters;i++) {
+					if (rand.nextInt(4)==0) reducedSet.switchOff(i);
+				}
+
+				assertEquals(getNumComponents(g, engagedSet), scorer.getNumComponents(engagedSet));
+				assertEquals(calcProbability(g, engagedSet, engagedSet, probs), scorer.calcProbability(engagedSet, engagedSet, probs), 1e-10);
+				assertEquals(calcProbability(g, engagedSet, reducedSet, probs), scorer.calcProbability(engagedSet, reducedSet, probs), 1e-10);
+			}
+		}
+	}
+
+	@Test
+	public void testMoreClustersThanBitmask() {
+		Random rand = new Random(2);
+
+		int numClusters = Long.SIZE + 10;
+		UndirectedGraph<ChainVertex, InterfaceEdge> g = getRandomGraph(rand, 40, numClusters, numClusters + 30);
+
+		double[] probs = new double[numClusters];
+		for (int i=0;i<numClusters;i++) probs[i] = rand.nextDouble();
+
+		AssemblyScorer scorer = new AssemblyScorer(g);
+
+		for (int s=0;s<5;s++) {
+			// a few engaged clusters, some of them beyond position 63
+			PowerSet engagedSet = new PowerSet(numClusters);
+			for (int i=0;i<8;i++) engagedSet.switchOn(rand.nextInt(numClusters));
+			engagedSet.switchOn(numClusters-1);
+
+			assertEquals(getNumComponents(g, engagedSet), scorer.getNumComponents(engagedSet));
+			assertEquals(calcProbability(g, engagedSet, engagedSet, probs), scorer.calcProbability(engagedSet, engagedSet, probs), 1e-10);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package eppic.assembly;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongFunction;
+
+import org.junit.Test;
+
+/**
+ * Test the lattice traversal of {@link BitmaskLatticeEnumerator} against brute force enumeration.
+ *
+ */
+public class TestBitmaskLatticeEnumerator {
+
+	private static final int NUM_ELEMENTS = 10;
+
+	/**
+	 * The minimal invalid sets: any superset of them is invalid too
+	 */
+	private static final long[] INVALID = {0b11L, 0b1000L, 0b101100000L, 0b1000000001L};
+
+	private static boolean isValid(long mask) {
+		for (long inv:INVALID) {
+			if ((mask & inv) == inv) return false;
+		}
+		return true;
+	}
+
+	private static Set<Long> getValidBruteForce() {
+		Set<Long> valid = new TreeSet<Long>();
+		for (long mask=0;mask<(1L<<NUM_ELEMENTS);mask++) {
+			if (isValid(mask)) valid.add(mask);
+		}
+		return valid;
+	}
+
+	@Test
+	public void testEnumeration() {
+		LongFunction<Long> evaluator = mask -> isValid(mask) ? mask : null;
+
+		Set<Long> expected = getValidBruteForce();
+
+		for (boolean parallel : new boolean[]{false, true}) {
+			BitmaskLatticeEnumerator<Long> enumerator = new BitmaskLatticeEnumerator<Long>(NUM_ELEMENTS, Integer.MAX_VALUE, parallel);
+			Map<Long,Long> valid = enumerator.enumerate(evaluator);
+
+			assertEquals(expected, new TreeSet<Long>(valid.keySet()));
+			// only the valid nodes and their immediate children can be evaluated
+			assertTrue(enumerator.getNumEvaluated() < (1<<NUM_ELEMENTS));
+		}
+	}
+
+	@Test
+	public void testMaxValidNodes() {
+		BitmaskLatticeEnumerator<Long> enumerator = new BitmaskLatticeEnumerator<Long>(NUM_ELEMENTS, 100, true);
+		assertNull(enumerator.enumerate(mask -> isValid(mask) ? mask : null));
+
+		int numValid = getValidBruteForce().size();
+		enumerator = new BitmaskLatticeEnumerator<Long>(NUM_ELEMENTS, numValid, true);
+		assertEquals(numValid, enumerator.enumerate(mask -> isValid(mask) ? mask : null).size());
+	}
+
+	@Test
+	public void testPowerSetBitmask() {
+		PowerSet ps = new PowerSet(0b1011L, 6);
+		assertTrue(ps.isOn(0));
+		assertTrue(ps.isOn(1));
+		assertTrue(ps.isOff(2));
+		assertTrue(ps.isOn(3));
+		assertTrue(ps.isOff(5));
+		assertEquals(0b1011L, ps.toBitmask());
+
+		PowerSet large = new PowerSet(64);
+		large.switchOn(63);
+		assertEquals(Long.MIN_VALUE, large.toBitmask());
+		assertEquals(large, new PowerSet(Long.MIN_VALUE, 64));
+	}
+}
@@ -0,0 +1,143 @@
+package eppic.assembly;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.vecmath.Point3i;
+
+import org.biojava.nbio.structure.Chain;
+import org.biojava.nbio.structure.ChainImpl;
+import org.biojava.nbio.structure.Compound;
+import org.jgrapht.UndirectedGraph;
+import org.jgrapht.graph.Pseudograph;
+import org.junit.Test;
+
+import eppic.assembly.ComponentValidityCache.ComponentValidity;
+
+public class TestComponentValidityCache {
+
+	private static ChainVertex getVertex(String chainId, int opId, int entityId) {
+		Chain c = new ChainImpl();
+		c.setChainID(chainId);
+		Compound compound = new Compound();
+		compound.setMolId(entityId);
+		c.setCompound(compound);
+		return new ChainVertex(c, opId);
+	}
+
+	private static InterfaceEdge getEdge(int interfaceId, int clusterId, Point3i trans) {
+		InterfaceEdge e = new InterfaceEdge(null, trans);
+		e.setInterfaceId(interfaceId);
+		e.setClusterId(clusterId);
+		return e;
+	}
+
+	private static UndirectedGraph<ChainVertex, InterfaceEdge> getDimer(Point3i trans, int clusterId) {
+		UndirectedGraph<ChainVertex, InterfaceEdge> g = new Pseudograph<ChainVertex, InterfaceEdge>(InterfaceEdge.class);
+		ChainVertex a0 = getVertex("A", 0, 1);
+		ChainVertex a1 = getVertex("A", 1, 1);
+		g.addVertex(a0);
+		g.addVertex(a1);
+		g.addEdge(a0, a1, getEdge(1, clusterId, trans));
+		return g;
+	}
+
+	/**
+	 * A cyclic trimer of the given chain and operators, with the given translations for its 3 edges
+	 */
+	private static UndirectedGraph<ChainVertex, InterfaceEdge> getTrimer(String chainId, int firstOpId, Point3i... trans) {
+		UndirectedGraph<ChainVertex, InterfaceEdge> g = new Pseudograph<ChainVertex, InterfaceEdge>(InterfaceEdge.class);
+		List<ChainVertex> vertices = new ArrayList<ChainVertex>();
+		for (int i=0;i<3;i++) {
+			ChainVertex v = getVertex(chainId, firstOpId+i, 1);
+			g.addVertex(v);
+			vertices.add(v);
+		}
+		for (int i=0;i<3;i++) {
+			g.addEdge(vertices.get(i), vertices.get((i+1)%3), getEdge(1, 1, trans[i]));
+		}
+		return g;
+	}
+
+	private static Stoichiometry<Integer> getStoichiometry(UndirectedGraph<ChainVertex, InterfaceEdge> g) {
+		List<Integer> entities = new ArrayList<Integer>();
+		for (ChainVertex v : g.vertexSet()) entities.add(v.getEntityId());
+		return new Stoichiometry<Integer>(entities, null);
+	}
+
+	private static void assertSameValidity(ComponentValidity expected, ComponentValidity actual) {
+		assertEquals(expected.containsInfinites, actual.containsInfinites);
+		assertEquals(expected.evenStoichiometry, actual.evenStoichiometry);
+		assertEquals(expected.automorphic, actual.automorphic);
+		assertEquals(expected.singleIsologous, actual.singleIsologous);
+		assertEquals(expected.multiEdgeNonZero, actual.multiEdgeNonZero);
+		assertEquals(expected.containsHeteromeric, actual.containsHeteromeric);
+		assertEquals(expected.cyclesComputed, actual.cyclesComputed);
+		assertEquals(expected.numCycles, actual.numCycles);
+		assertEquals(expected.allCyclesClosed, actual.allCyclesClosed);
+	}
+
+	@Test
+	public void testSignature() {
+		String s1 = ComponentValidityCache.getSignature(getDimer(new Point3i(0,0,0), 1));
+		String s2 = ComponentValidityCache.getSignature(getDimer(new Point3i(0,0,0), 1));
+		// the same dimer in a neighbouring cell
+		String s3 = ComponentValidityCache.getSignature(getDimer(new Point3i(1,0,0), 1));
+		String s4 = ComponentValidityCache.getSignature(getDimer(new Point3i(0,0,0), 2));
+
+		assertEquals(s1, s2);
+		assertEquals(s1, s3);
+		assertNotEquals(s1, s4);
+	}
+
+	@Test
+	public void testSymmetryEquivalentComponents() {
+		Point3i zero = new Point3i(0,0,0);
+		UndirectedGraph<ChainVertex, InterfaceEdge> trimer1 = getTrimer("A", 0, zero, zero, zero);
+		// the same trimer generated by other operators, with one of its chains in a neighbouring cell
+		UndirectedGraph<ChainVertex, InterfaceEdge> trimer2 = getTrimer("B", 3, new Point3i(1,0,0), zero, new Point3i(-1,0,0));
+		// an infinite fiber with the same interfaces
+		UndirectedGraph<ChainVertex, InterfaceEdge> fiber = getTrimer("A", 0, new Point3i(0,1,0), zero, zero);
+
+		assertEquals(ComponentValidityCache.getSignature(trimer1), ComponentValidityCache.getSignature(trimer2));
+		assertNotEquals(ComponentValidityCache.getSignature(trimer1), ComponentValidityCache.getSignature(fiber));
+
+		ComponentValidityCache cache = new ComponentValidityCache();
+		List<UndirectedGraph<ChainVertex, InterfaceEdge>> components = new ArrayList<UndirectedGraph<ChainVertex, InterfaceEdge>>();
+		components.add(trimer1);
+		components.add(trimer2);
+		components.add(fiber);
+		for (UndirectedGraph<ChainVertex, InterfaceEdge> g : components) {
+			ComponentValidity uncached = AssemblyGraph.calcComponentValidity(g, getStoichiometry(g));
+			ComponentValidity cached = cache.get(g, () -> AssemblyGraph.calcComponentValidity(g, getStoichiometry(g)));
+			assertSameValidity(uncached, cached);
+		}
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+
+		assertTrue(cache.get(trimer2, null).allCyclesClosed);
+		assertFalse(cache.get(fiber, null).allCyclesClosed);
+	}
+
+	@Test
+	public void testHitsAndMisses() {
+		ComponentValidityCache cache = new ComponentValidityCache();
+
+		int[] numCalcs = new int[1];
+
+		for (int i=0;i<3;i++) {
+			cache.get(getDimer(new Point3i(0,0,0), 1), () -> { numCalcs[0]++; return new ComponentValidity(); });
+		}
+
+		assertEquals(1, numCalcs[0]);
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.size());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHits());
+	}
+}
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.vecmath.Point3i;
@@ -17,13 +18,18 @@ import org.biojava.nbio.structure.Structure;
 import org.biojava.nbio.structure.StructureException;
 import org.biojava.nbio.structure.StructureIO;
 import org.biojava.nbio.structure.align.util.AtomCache;
+import org.biojava.nbio.structure.contact.StructureInterface;
 import org.biojava.nbio.structure.contact.StructureInterfaceList;
 import org.biojava.nbio.structure.io.FileParsingParameters;
 import org.biojava.nbio.structure.xtal.CrystalBuilder;
+import org.biojava.nbio.structure.xtal.SpaceGroup;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+
+import ch.systemsx.sybit.crkwebui.shared.model.Interface;
 import eppic.EppicParams;
 import eppic.commons.util.StructureUtils;
 
@@ -463,6 +469,58 @@ public class TestLatticeGraph {
 	}
 	
 
+	@Test
+	public void testLatticeGraphFromStoredInterfaces() throws IOException, StructureException {
+
+		String pdbId = "1smt";
+
+		AtomCache cache = new AtomCache();
+		FileParsingParameters params = new FileParsingParameters();
+		params.setAlignSeqRes(true); 
+		cache.setFileParsingParams(params);
+		StructureIO.setAtomCache(cache);
+
+		Structure s =  StructureIO.getStructure(pdbId);
+		CrystalBuilder cb = new CrystalBuilder(s);
+		StructureInterfaceList interfaces = cb.getUniqueInterfaces();
+		interfaces.calcAsas();
+		interfaces.removeInterfacesBelowArea();
+		interfaces.getClusters(EppicParams.CLUSTERING_CONTACT_OVERLAP_SCORE_CUTOFF);
+
+		// the interfaces as they are stored in the db
+		List<Interface> stored = new ArrayList<>();
+		for (StructureInterface interf : interfaces) {
+			Interface iface = new Interface();
+			iface.setInterfaceId(interf.getId());
+			iface.setClusterId(interf.getCluster().getId());
+			iface.setChain1(interf.getMoleculeIds().getFirst());
+			iface.setChain2(interf.getMoleculeIds().getSecond());
+			iface.setOperator(SpaceGroup.getAlgebraicFromMatrix(interf.getTransforms().getSecond().getMatTransform()));
+			iface.setOperatorId(interf.getTransforms().getSecond().getTransformId());
+			iface.setIsologous(interf.isIsologous());
+			iface.setInfinite(interf.isInfinite());
+			stored.add(iface);
+		}
+
+		LatticeGraph3D calculated = new LatticeGraph3D(s, Lists.newArrayList(interfaces));
+		LatticeGraph3D fromStored = new LatticeGraph3D(s, stored);
+
+		assertEquals(calculated.getGraph().vertexSet().size(), fromStored.getGraph().vertexSet().size());
+		assertEquals(getEdgeDescriptions(calculated), getEdgeDescriptions(fromStored));
+	}
+
+	private static List<String> getEdgeDescriptions(LatticeGraph3D lg) {
+		List<String> descriptions = new ArrayList<>();
+		for (InterfaceEdge3D e : lg.getGraph().edgeSet()) {
+			descriptions.add(lg.getGraph().getEdgeSource(e).getChainId() + lg.getGraph().getEdgeSource(e).getOpId()
+					+ " -" + e.getInterfaceId() + "(" + e.getClusterId() + "," + e.isIsologous() + "," + e.isInfinite() + ")- "
+					+ lg.getGraph().getEdgeTarget(e).getChainId() + lg.getGraph().getEdgeTarget(e).getOpId()
+					+ " " + e.getXtalTrans() + " " + e.getSegments().size());
+		}
+		Collections.sort(descriptions);
+		return descriptions;
+	}
+
 	/**
 	 * Utility to facilitate testing of lattice graph related stuff: gets the CrystalAssemblies object for a given PDB id
 	 * @param pdbId
@@ -0,0 +1,67 @@
+package eppic.commons.blast;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class TestBlastTabularParser {
+
+	private static final String OUTPUT =
+			"# BLASTP 2.2.31+\n" +
+			"# Query: P12345_10-29 some description\n" +
+			"# Database: /data/dbs/uniprot/current/uniref100.fasta\n" +
+			"# Fields: query id, subject id, alignment length, identical, q. start, q. end, s. start, s. end, evalue, bit score, query length, subject length, query seq, subject seq\n" +
+			"# 3 hits found\n" +
+			"P12345_10-29\tUniRef100_P12345\t20\t20\t1\t20\t10\t29\t1e-10\t45.1\t20\t300\tACDEFGHIKLMNPQRSTVWY\tACDEFGHIKLMNPQRSTVWY\n" +
+			"P12345_10-29\tlcl|UniRef100_Q99999\t21\t15\t1\t20\t5\t24\t2e-05\t30.5\t20\t100\tACDEFGHIK-LMNPQRSTVWY\tACDEFGHIKALMNPQRSAAAA\n" +
+			"P12345_10-29\tlcl|UniRef100_Q99999\t5\t4\t16\t20\t60\t64\t0.5\t15.0\t20\t100\tSTVWY\tSTVWA\n" +
+			"# BLAST processed 1 queries\n";
+
+	@Test
+	public void testParseStream() throws Exception {
+		StringWriter copy = new StringWriter();
+		BlastHitList hits = new BlastTabularParser(new ByteArrayInputStream(OUTPUT.getBytes()), copy).getHits();
+
+		assertEquals(OUTPUT, copy.toString());
+
+		assertEquals("P12345_10-29", hits.getQueryId());
+		assertEquals("/data/dbs/uniprot/current/uniref100.fasta", hits.getDb());
+		assertEquals(20, hits.getQueryLength());
+		assertEquals(2, hits.size());
+
+		BlastHit hit = hits.getHit("UniRef100_Q99999");
+		assertEquals(2, hit.getNumHsps());
+		assertEquals(100, hit.getSubjectLength());
+		BlastHsp hsp = hit.getMaxScoringHsp();
+		assertEquals(30.5, hsp.getScore(), 0.0001);
+		assertEquals(2e-05, hsp.getEValue(), 1e-10);
+		assertEquals(100.0*15.0/21.0, hsp.getPercentIdentity(), 0.0001);
+		assertEquals(1.0, hsp.getQueryCoverage(), 0.0001);
+		assertEquals("ACDEFGHIKALMNPQRSAAAA", hsp.getAlignment().getAlignedSequence("UniRef100_Q99999"));
+	}
+
+	@Test
+	public void testParseGzippedFileWithoutAlignments() throws Exception {
+		File file = File.createTempFile("blast", ".tab.gz");
+		file.deleteOnExit();
+		try (Writer w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)))) {
+			// dropping the 2 alignment columns
+			for (String line:OUTPUT.split("\n")) {
+				if (!line.startsWith("#")) line = line.substring(0, line.lastIndexOf('\t', line.lastIndexOf('\t')-1));
+				w.write(line+"\n");
+			}
+		}
+		BlastHitList hits = new BlastTabularParser(file).getHits();
+		assertEquals(2, hits.size());
+		assertEquals(20, hits.get(0).getMaxScoringHsp().getIdentities());
+		assertNull(hits.get(0).getMaxScoringHsp().getAlignment());
+	}
+}
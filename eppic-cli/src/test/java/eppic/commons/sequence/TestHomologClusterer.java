@@ -0,0 +1,84 @@
+package eppic.commons.sequence;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import eppic.commons.blast.BlastHit;
+import eppic.commons.blast.BlastHsp;
+
+public class TestHomologClusterer {
+
+	private static final String QUERY = "ACDEFGHIKLMNPQRSTVWY";
+
+	private static Homolog createHomolog(String id, String queryAln, String subjectAln, int queryStart) {
+		BlastHit hit = new BlastHit();
+		hit.setQueryId("query");
+		hit.setSubjectId(id);
+		BlastHsp hsp = new BlastHsp(hit);
+		hit.addHsp(hsp);
+		int queryLength = queryAln.replace("-", "").length();
+		int subjectLength = subjectAln.replace("-", "").length();
+		hsp.setQueryStart(queryStart);
+		hsp.setQueryEnd(queryStart + queryLength - 1);
+		hsp.setSubjectStart(1);
+		hsp.setSubjectEnd(subjectLength);
+		hsp.setAlignment(queryAln, subjectAln);
+		UnirefEntry entry = new UnirefEntry();
+		entry.setUniprotId(id);
+		return new Homolog(hsp, entry);
+	}
+
+	@Test
+	public void testClustering() throws InterruptedException {
+		Homolog h1 = createHomolog("H1", QUERY, "ACDEFGHIKLMNPQRSTVWY", 1);
+		Homolog h2 = createHomolog("H2", QUERY, "ACDEFGHIKLMNPQRSTVWY", 1);
+		// 95% to h1 and h2
+		Homolog h3 = createHomolog("H3", QUERY, "ACDEFGHIKLMNPQRSTVWA", 1);
+		// 95% to h3, 90% to h1 and h2
+		Homolog h4 = createHomolog("H4", QUERY, "ACDEFGHIKLMNPQRSTVAA", 1);
+		// covering only half of the others: never a neighbour
+		Homolog h5 = createHomolog("H5", "ACDEFGHIKL", "ACDEFGHIKL", 1);
+
+		HomologClusterer clusterer = new HomologClusterer(0.99, 2);
+
+		clusterer.setMembers(Arrays.asList(h1, h2, h3, h5));
+		assertEquals(3, clusterer.getNumClusters(98));
+		assertEquals(2, clusterer.getNumClusters(95));
+
+		// single linkage through h3, the pairs of h4 are only calculated now
+		clusterer.setMembers(Arrays.asList(h1, h2, h3, h4, h5));
+		assertEquals(4, clusterer.getNumClusters(98));
+		assertEquals(2, clusterer.getNumClusters(95));
+		assertEquals(2, clusterer.getNumClusters(90));
+
+		// going back up starts over
+		List<List<String>> clusters = clusterer.getClusters(98);
+		assertEquals(4, clusters.size());
+		assertEquals(Arrays.asList("H1_1-20", "H2_1-20"), clusters.get(0));
+
+		clusters = clusterer.getClusters(95);
+		assertEquals(Arrays.asList("H1_1-20", "H2_1-20", "H3_1-20", "H4_1-20"), clusters.get(0));
+		assertEquals(Arrays.asList("H5_1-10"), clusters.get(1));
+	}
+
+	@Test
+	public void testGapsAndInsertions() throws InterruptedException {
+		// an insertion relative to the query is not aligned to anything: 20 of 21 residues covered,
+		// but it counts in the alignment length: 20 identities in 21 columns
+		Homolog h1 = createHomolog("H1", "ACDEFGHIKL-MNPQRSTVWY", "ACDEFGHIKLWMNPQRSTVWY", 1);
+		Homolog h2 = createHomolog("H2", QUERY, "ACDEFGHIKLMNPQRSTVWY", 1);
+
+		HomologClusterer clusterer = new HomologClusterer(0.95, 1);
+		clusterer.setMembers(Arrays.asList(h1, h2));
+		assertEquals(1, clusterer.getNumClusters(95));
+		assertEquals(2, clusterer.getNumClusters(96));
+
+		clusterer = new HomologClusterer(0.99, 1);
+		clusterer.setMembers(Arrays.asList(h1, h2));
+		assertEquals(2, clusterer.getNumClusters(50));
+	}
+}
@@ -0,0 +1,92 @@
+package eppic.commons.sequence;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestMultipleSequenceAlignment {
+
+	private static final String[] TAGS = {"ref","h1","h2","h3","h4"};
+	private static final String[] SEQS = {
+			"MKV-LAGDE",
+			"MRVILSGEE",
+			"-KIILAG-D",
+			"MKV-XPGDE",
+			"--VKLAGDQ"};
+
+	/**
+	 * Reference implementation of the column entropy with direct counting over the column string
+	 */
+	private static double getEntropyDirect(MultipleSequenceAlignment aln, int alignIndex, AAAlphabet alphabet) {
+		String column = aln.getColumn(alignIndex);
+		int[] counts = new int[alphabet.getNumLetters()+1];
+		for (int i=0;i<column.length();i++) {
+			char letter = column.charAt(i);
+			if (letter==MultipleSequenceAlignment.GAPCHARACTER) counts[0]++;
+			else if (AminoAcid.isStandardAA(letter)) counts[alphabet.getGroupByOneLetterCode(letter)]++;
+		}
+		double sumplogp = 0.0;
+		double log2 = Math.log(2);
+		for (int i=1;i<=alphabet.getNumLetters();i++) {
+			double prob = (double)counts[i] / (double)aln.getNumberOfSequences();
+			if (prob!=0) sumplogp += prob*(Math.log(prob)/log2);
+		}
+		return (-1.0)*sumplogp;
+	}
+
+	@Test
+	public void testColumnEntropies() throws AlignmentConstructionException {
+		MultipleSequenceAlignment aln = new MultipleSequenceAlignment(TAGS, SEQS);
+
+		for (String alphabetStr : new String[]{AAAlphabet.MIRNY_6, AAAlphabet.STANDARD_20, AAAlphabet.MURPHY_2}) {
+			AAAlphabet alphabet = new AAAlphabet(alphabetStr);
+
+			for (int col=1;col<=aln.getAlignmentLength();col++) {
+				assertEquals(getEntropyDirect(aln, col, alphabet), aln.getColumnEntropy(col, alphabet), 0.0);
+			}
+
+			double[] entropies = aln.getColumnEntropies("ref", alphabet);
+			assertEquals(aln.getSequenceNoGaps("ref").length(), entropies.length);
+			for (int i=0;i<entropies.length;i++) {
+				assertEquals(aln.getColumnEntropy(aln.seq2al("ref", i+1), alphabet), entropies[i], 0.0);
+			}
+		}
+	}
+
+	@Test
+	public void testColumnCounts() throws AlignmentConstructionException {
+		MultipleSequenceAlignment aln = new MultipleSequenceAlignment(TAGS, SEQS);
+		AAAlphabet alphabet = new AAAlphabet(AAAlphabet.MIRNY_6);
+
+		assertEquals("MM-M-", aln.getColumn(1));
+		// column 5: L L L X L, the X is non-standard and is not counted
+		int[] counts = aln.getColumnCounts(5, alphabet);
+		assertEquals(0, counts[0]);
+		assertEquals(4, counts[alphabet.getGroupByOneLetterCode('L')]);
+
+		// column 4: gaps are counted in index 0
+		counts = aln.getColumnCounts(4, alphabet);
+		assertEquals(2, counts[0]);
+		assertEquals(2, counts[alphabet.getGroupByOneLetterCode('I')]);
+		assertEquals(1, counts[alphabet.getGroupByOneLetterCode('K')]);
+	}
+
+	@Test
+	public void testEncodingUpdatedOnChanges() throws AlignmentConstructionException {
+		MultipleSequenceAlignment aln = new MultipleSequenceAlignment(TAGS, SEQS);
+		AAAlphabet alphabet = new AAAlphabet(AAAlphabet.MIRNY_6);
+
+		double before = aln.getColumnEntropy(1, alphabet);
+		aln.addSequence("h5", "WKV-LAGDE");
+		double after = aln.getColumnEntropy(1, alphabet);
+		assertEquals(getEntropyDirect(aln, 1, alphabet), after, 0.0);
+		assertNotEquals(before, after, 0.0);
+
+		aln.removeSequence("h5");
+		assertEquals(before, aln.getColumnEntropy(1, alphabet), 0.0);
+
+		// changing the groups of the same alphabet object must be picked up too
+		alphabet.setGroups(AAAlphabet.STANDARD_20.split(":"));
+		assertEquals(getEntropyDirect(aln, 2, alphabet), aln.getColumnEntropy(2, alphabet), 0.0);
+	}
+}
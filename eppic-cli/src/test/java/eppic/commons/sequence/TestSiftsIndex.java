@@ -0,0 +1,92 @@
+package eppic.commons.sequence;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test that a {@link SiftsConnection} backed by a {@link SiftsIndex} gives the same mappings as
+ * one parsed from the SIFTS text file.
+ */
+public class TestSiftsIndex {
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private static final String[] SIFTS_LINES = {
+		"# 2016/10/01 - 08:12 | PDB: 40.16 | UniProt: 2016.09",
+		"PDB	CHAIN	SP_PRIMARY	RES_BEG	RES_END	PDB_BEG	PDB_END	SP_BEG	SP_END",
+		"101m	A	P02185	1	154	0	153	1	154",
+		"1abc	B	P12345	120	200	120	200	300	380",
+		"1abc	B	Q99999	1	119	1	119	1	119",
+		"1abc	A	P12345	1	50	5A	54	10	59",
+		"2xyz	A	P02185	3	150	3	150	5	152",
+	};
+
+	private File writeSiftsFile() throws IOException {
+		File file = tmpFolder.newFile("pdb_chain_uniprot.lst");
+		try (PrintWriter pw = new PrintWriter(file)) {
+			for (String line : SIFTS_LINES) pw.println(line);
+		}
+		return file;
+	}
+
+	@Test
+	public void testIndexLookups() throws Exception {
+		File siftsFile = writeSiftsFile();
+		File indexFile = new File(tmpFolder.getRoot(), "sifts.idx");
+
+		SiftsConnection text = new SiftsConnection(siftsFile.toString());
+		text.writeIndex(indexFile);
+
+		assertFalse(SiftsIndex.isIndexFile(siftsFile));
+		assertTrue(SiftsIndex.isIndexFile(indexFile));
+
+		SiftsConnection index = new SiftsConnection(indexFile.toString());
+
+		assertEquals(text.getMappingsCount(), index.getMappingsCount());
+
+		for (String[] chain : new String[][] {{"101m","A"},{"1abc","A"},{"1abc","B"},{"2xyz","A"}}) {
+			assertEquals(toString(text.getMappings(chain[0], chain[1])), toString(index.getMappings(chain[0], chain[1])));
+		}
+
+		// multi-segment chain must come sorted by cif interval
+		List<SiftsFeature> segments = index.getMappings("1abc", "B");
+		assertEquals("Q99999", segments.get(0).getUniprotId());
+		assertEquals("P12345", segments.get(1).getUniprotId());
+
+		assertEquals("5A", index.getMappings("1abc", "A").get(0).getPdbBeg());
+
+		assertEquals(2, index.getUniprot2PdbMappings("P02185").size());
+		assertEquals(2, index.getUniprot2PdbMappings("P12345").size());
+		assertEquals(1, index.getUniprot2PdbMappings("Q99999").size());
+
+		try {
+			index.getMappings("1abc", "C");
+			fail("Expected NoMatchFoundException");
+		} catch (NoMatchFoundException e) {
+			// expected
+		}
+		try {
+			index.getUniprot2PdbMappings("P00000");
+			fail("Expected NoMatchFoundException");
+		} catch (NoMatchFoundException e) {
+			// expected
+		}
+	}
+
+	private static String toString(List<SiftsFeature> features) {
+		StringBuilder sb = new StringBuilder();
+		for (SiftsFeature f : features) {
+			sb.append(f.getUniprotId()).append(' ').append(f.toString()).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,35 @@
+package eppic.commons.sequence;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class TestUniprotLocalCache {
+
+	@Test
+	public void testInvalidation() {
+		UniprotLocalCache cache = UniprotLocalCache.getInstance("uniprot", "2017_10");
+		cache.putRepresentative("P12345", new UnirefEntryClusterMember("P12345", 9606));
+
+		assertSame(cache, UniprotLocalCache.getInstance("uniprot", "2017_10"));
+		assertNotNull(cache.getRepresentative("P12345"));
+
+		// a new release of the same database
+		UniprotLocalCache newCache = UniprotLocalCache.getInstance("uniprot", "2017_11");
+		assertNotSame(cache, newCache);
+		assertNull(newCache.getRepresentative("P12345"));
+	}
+
+	@Test
+	public void testUnknownVersion() {
+		UniprotLocalCache shared = UniprotLocalCache.getInstance("uniprot", "2017_10");
+
+		UniprotLocalCache cache1 = UniprotLocalCache.getInstance("uniprot", HomologList.UNKNOWN_UNIPROT_VER);
+		UniprotLocalCache cache2 = UniprotLocalCache.getInstance("uniprot", HomologList.UNKNOWN_UNIPROT_VER);
+		assertNotSame(cache1, cache2);
+		assertNotSame(shared, cache1);
+
+		// and the shared cache is kept
+		assertSame(shared, UniprotLocalCache.getInstance("uniprot", "2017_10"));
+	}
+}
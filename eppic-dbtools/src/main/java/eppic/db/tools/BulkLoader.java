@@ -0,0 +1,511 @@
+package eppic.db.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+import eppic.model.ContactDB;
+import eppic.model.InterfaceClusterDB;
+import eppic.model.InterfaceDB;
+import eppic.model.PdbInfoDB;
+import eppic.model.ResidueBurialDB;
+import eppic.model.io.ResultFileReader;
+
+/**
+ * A parallel loader of eppic results into the database. A pool of reader threads deserialises
+ * the webui.dat files and hands them over through a bounded queue to a pool of writer threads,
+ * each with its own EntityManager, that persist several entries per transaction.
+ * <p>
+ * Existence of the entries in the database is checked up front with one query for all of them.
+ * The contacts and residue burials, which make up most of the rows, are written with jdbc batches of
+ * prepared statements instead of being cascaded by the EntityManager: with IDENTITY ids hibernate
+ * inserts every entity with a single statement. For MySQL, see {@link #getBatchingProperties()}.
+ * <p>
+ * If a transaction fails, its entries are retried one per transaction so that a single bad entry
+ * does not prevent the others from being loaded. Any other error in a writer stops the load: readers
+ * stop reading, the remaining entries in the queue are discarded and {@link #load(Map, boolean)} fails.
+ *
+ */
+public class BulkLoader {
+
+	/**
+	 * Every this number of seconds a throughput report is printed
+	 */
+	private static final int REPORT_EVERY = 30;
+
+	private static final String WEBUI_FILE_SUFFIX = ".webui.dat";
+
+	/**
+	 * An entry read from disk, ready to be persisted. A null pdbInfo means an error job
+	 * (no webui.dat file in the job directory)
+	 */
+	private static class Entry {
+		final String pdbCode;
+		final File jobDirectory;
+		final PdbInfoDB pdbInfo;
+		Entry(String pdbCode, File jobDirectory, PdbInfoDB pdbInfo) {
+			this.pdbCode = pdbCode;
+			this.jobDirectory = jobDirectory;
+			this.pdbInfo = pdbInfo;
+		}
+	}
+
+	/**
+	 * Signals the writers that there are no more entries
+	 */
+	private static final Entry END = new Entry(null, null, null);
+
+	private static final String[] CONTACT_PROPERTIES = {
+		"firstResNumber", "firstResType", "firstBurial", "secondResNumber", "secondResType", "secondBurial",
+		"minDistance", "numAtoms", "numHBonds", "disulfide", "clash", "pdbCode", "interfaceId", "interfaceItem"};
+
+	private static final String[] RESIDUE_BURIAL_PROPERTIES = {
+		"side", "asa", "bsa", "region", "interfaceItem", "residueInfo"};
+
+	/**
+	 * The contacts and residue burials of an interface, taken out of the entity graph to be written with jdbc batches
+	 */
+	private static class InterfaceRows {
+		final InterfaceDB interf;
+		final List<ContactDB> contacts;
+		final List<ResidueBurialDB> residueBurials;
+		InterfaceRows(InterfaceDB interf) {
+			this.interf = interf;
+			this.contacts = interf.getContacts();
+			this.residueBurials = interf.getResidueBurials();
+		}
+	}
+
+	private final DBHandler dbh;
+	private final int numReaders;
+	private final int numWriters;
+	private final int entriesPerTransaction;
+	private final int jdbcBatchSize;
+
+	private volatile String contactInsertSql;
+	private volatile String residueBurialInsertSql;
+
+	private final AtomicInteger countRead = new AtomicInteger(0);
+	private final AtomicInteger countUploaded = new AtomicInteger(0);
+	private final AtomicInteger countErrorJob = new AtomicInteger(0);
+	private int countPresent;
+	private int countRemoved;
+	private final List<String> pdbsWithWarnings = Collections.synchronizedList(new ArrayList<String>());
+
+	/**
+	 * The first error of a writer, once set the load is stopped
+	 */
+	private final AtomicReference<Throwable> writerFailure = new AtomicReference<Throwable>();
+
+	/**
+	 * Constructs a new BulkLoader
+	 * @param dbh the DBHandler, its EntityManagerFactory is shared by all writers
+	 * @param numReaders number of threads reading webui.dat files
+	 * @param numWriters number of threads writing to the database, each one uses a connection
+	 * @param entriesPerTransaction number of entries committed together in one transaction
+	 * @param jdbcBatchSize number of contact or residue burial rows sent together in one jdbc batch
+	 */
+	public BulkLoader(DBHandler dbh, int numReaders, int numWriters, int entriesPerTransaction, int jdbcBatchSize) {
+		this.dbh = dbh;
+		this.numReaders = numReaders;
+		this.numWriters = numWriters;
+		this.entriesPerTransaction = entriesPerTransaction;
+		this.jdbcBatchSize = jdbcBatchSize;
+	}
+
+	/**
+	 * Returns the connection properties, to be passed to the {@link DBHandler} constructor, that make 
+	 * the MySQL driver send each jdbc batch as multi-row inserts instead of one statement per row.
+	 * They are ignored by other drivers.
+	 * @return
+	 */
+	public static Map<String,String> getBatchingProperties() {
+		Map<String,String> props = new HashMap<String,String>();
+		// driver properties: the first for the default connection provider and c3p0, the second for hikari
+		props.put("hibernate.connection.rewriteBatchedStatements", "true");
+		props.put("hibernate.hikari.dataSource.rewriteBatchedStatements", "true");
+		return props;
+	}
+
+	/**
+	 * Loads the given entries into the database. Entries already present are skipped,
+	 * unless force is true in which case they are first removed.
+	 * @param jobDirectories a map of PDB codes to their job directories
+	 * @param force
+	 * @throws InterruptedException
+	 * @throws ExecutionException if a writer failed, with the error as cause. Entries committed before
+	 * the failure remain in the database
+	 */
+	public void load(Map<String,File> jobDirectories, boolean force) throws InterruptedException, ExecutionException {
+
+		long start = System.currentTimeMillis();
+
+		Set<String> existing = dbh.getExistingJobIds(jobDirectories.keySet());
+		System.out.println("Found "+existing.size()+" of the "+jobDirectories.size()+" entries already in database ("+
+				(System.currentTimeMillis()-start)/1000+" s)");
+
+		final ConcurrentLinkedQueue<String> toRead = new ConcurrentLinkedQueue<String>();
+		for (String pdbCode:jobDirectories.keySet()) {
+			if (existing.contains(pdbCode)) {
+				if (!force) {
+					countPresent++;
+					continue;
+				}
+				if (dbh.removeJob(pdbCode)) countRemoved++;
+			}
+			toRead.add(pdbCode);
+		}
+		if (force) System.out.println("Removed "+countRemoved+" entries that will be reinserted");
+
+		final int total = toRead.size();
+		final BlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(Math.max(1, 2*numWriters*entriesPerTransaction));
+		final CountDownLatch readersDone = new CountDownLatch(numReaders);
+		final CountDownLatch writersDone = new CountDownLatch(numWriters);
+
+		ExecutorService readers = Executors.newFixedThreadPool(numReaders);
+		for (int i=0;i<numReaders;i++) {
+			readers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						String pdbCode;
+						while (writerFailure.get()==null && (pdbCode = toRead.poll())!=null) {
+							Entry entry = read(pdbCode, jobDirectories.get(pdbCode));
+							if (entry!=null) queue.put(entry);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						readersDone.countDown();
+					}
+				}
+			});
+		}
+
+		ExecutorService writers = Executors.newFixedThreadPool(numWriters);
+		for (int i=0;i<numWriters;i++) {
+			writers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						write(queue);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						writersDone.countDown();
+					}
+				}
+			});
+		}
+
+		final long loadStart = System.currentTimeMillis();
+		ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				report(total, loadStart);
+			}
+		}, REPORT_EVERY, REPORT_EVERY, TimeUnit.SECONDS);
+
+		readersDone.await();
+		readers.shutdown();
+		for (int i=0;i<numWriters;i++) queue.put(END);
+		writersDone.await();
+		writers.shutdown();
+		reporter.shutdownNow();
+
+		report(total, loadStart);
+
+		Throwable failure = writerFailure.get();
+		if (failure!=null) {
+			throw new ExecutionException("Loading stopped after an error while writing to the database: "+failure.getMessage(), failure);
+		}
+	}
+
+	private void report(int total, long loadStart) {
+		double secs = (System.currentTimeMillis() - loadStart)/1000.0;
+		int uploaded = countUploaded.get();
+		System.out.printf("Read %d, uploaded %d of %d entries in %.0f s: %.1f entries/s\n",
+				countRead.get(), uploaded, total, secs, secs>0 ? uploaded/secs : 0);
+	}
+
+	/**
+	 * Reads the entry for the given pdbCode, returns null if reading failed
+	 * @param pdbCode
+	 * @param jobDirectory
+	 * @return
+	 */
+	private Entry read(String pdbCode, File jobDirectory) {
+		File webuiFile = new File(jobDirectory, pdbCode + WEBUI_FILE_SUFFIX);
+		PdbInfoDB pdbInfo = null;
+		if (webuiFile.isFile()) {
+			try {
+				pdbInfo = ResultFileReader.readFromFile(webuiFile);
+			} catch (IOException e) {
+				System.err.println("Problem reading serialized file, skipping entry "+webuiFile+". Error: "+e.getMessage());
+				pdbsWithWarnings.add(pdbCode);
+				return null;
+			}
+		}
+		countRead.incrementAndGet();
+		return new Entry(pdbCode, jobDirectory, pdbInfo);
+	}
+
+	/**
+	 * Persists the entries taken from the queue until {@link #END}. After a writer failure the
+	 * entries are still taken but discarded, so that readers never block on a full queue
+	 * @param queue
+	 * @throws InterruptedException
+	 */
+	private void write(BlockingQueue<Entry> queue) throws InterruptedException {
+		EntityManager em = null;
+		try {
+			em = dbh.getEntityManager();
+			initInsertSqls(em);
+		} catch (Throwable t) {
+			fail(t);
+		}
+		try {
+			List<Entry> batch = new ArrayList<Entry>(entriesPerTransaction);
+			Entry entry;
+			while ((entry = queue.take()) != END) {
+				if (writerFailure.get()!=null) continue;
+				batch.add(entry);
+				if (batch.size()>=entriesPerTransaction) flush(em, batch);
+			}
+			if (!batch.isEmpty() && writerFailure.get()==null) flush(em, batch);
+		} finally {
+			if (em!=null) em.close();
+		}
+	}
+
+	private void flush(EntityManager em, List<Entry> batch) {
+		try {
+			persist(em, batch);
+		} catch (Throwable t) {
+			fail(t);
+		}
+		batch.clear();
+	}
+
+	private void fail(Throwable t) {
+		if (writerFailure.compareAndSet(null, t)) {
+			System.err.println("ERROR: writing to the database failed, stopping the load. Error: "+t);
+			t.printStackTrace();
+		}
+	}
+
+	/**
+	 * Persists the given entries in a single transaction. If it fails, the entries are
+	 * read again and persisted one per transaction
+	 * @param em
+	 * @param batch
+	 */
+	private void persist(EntityManager em, List<Entry> batch) {
+		try {
+			persistInTransaction(em, batch);
+			return;
+		} catch (RuntimeException e) {
+			rollback(em);
+			if (batch.size()==1) {
+				warn(batch.get(0).pdbCode, e);
+				return;
+			}
+			System.err.println("WARNING: transaction of "+batch.size()+" entries failed, retrying them one by one. Error: "+e.getMessage());
+		}
+
+		for (Entry entry:batch) {
+			// the graph of a rolled back entry can't be persisted again (it has been assigned ids), we need to reread it
+			Entry reread = read(entry.pdbCode, entry.jobDirectory);
+			if (reread == null) continue;
+			try {
+				persistInTransaction(em, Collections.singletonList(reread));
+			} catch (RuntimeException e) {
+				rollback(em);
+				warn(entry.pdbCode, e);
+			}
+		}
+	}
+
+	private void persistInTransaction(EntityManager em, List<Entry> entries) {
+		em.getTransaction().begin();
+		int errorJobs = 0;
+		final List<InterfaceRows> rows = new ArrayList<InterfaceRows>();
+		for (Entry entry:entries) {
+			if (entry.pdbInfo!=null) {
+				rows.addAll(detachInterfaceRows(entry.pdbInfo));
+				em.persist(DBHandler.createFinishedJob(entry.pdbInfo));
+			} else {
+				em.persist(DBHandler.createErrorJob(entry.pdbCode));
+				errorJobs++;
+			}
+		}
+		// the interfaces and residues need their ids before the rows referencing them are written
+		em.flush();
+		em.unwrap(Session.class).doWork(connection -> insertInterfaceRows(connection, rows));
+		em.getTransaction().commit();
+		em.clear();
+		countUploaded.addAndGet(entries.size());
+		countErrorJob.addAndGet(errorJobs);
+	}
+
+	/**
+	 * Takes the contacts and residue burials out of the interfaces of the given entry, so that they 
+	 * are not cascaded when persisting it
+	 * @param pdbInfo
+	 * @return
+	 */
+	private static List<InterfaceRows> detachInterfaceRows(PdbInfoDB pdbInfo) {
+		List<InterfaceRows> rows = new ArrayList<InterfaceRows>();
+		if (pdbInfo.getInterfaceClusters()==null) return rows;
+		for (InterfaceClusterDB cluster : pdbInfo.getInterfaceClusters()) {
+			if (cluster.getInterfaces()==null) continue;
+			for (InterfaceDB interf : cluster.getInterfaces()) {
+				rows.add(new InterfaceRows(interf));
+				interf.setContacts(new ArrayList<ContactDB>());
+				interf.setResidueBurials(new ArrayList<ResidueBurialDB>());
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Finds the table and column names of the contacts and residue burials from the mapping, so that
+	 * the jdbc inserts write to the same schema as the EntityManager
+	 * @param em
+	 */
+	private void initInsertSqls(EntityManager em) {
+		if (contactInsertSql!=null) return;
+		SessionFactory sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactory.class);
+		residueBurialInsertSql = getInsertSql(sessionFactory, ResidueBurialDB.class, RESIDUE_BURIAL_PROPERTIES);
+		contactInsertSql = getInsertSql(sessionFactory, ContactDB.class, CONTACT_PROPERTIES);
+	}
+
+	private static String getInsertSql(SessionFactory sessionFactory, Class<?> entityClass, String[] properties) {
+		AbstractEntityPersister persister = (AbstractEntityPersister) sessionFactory.getClassMetadata(entityClass);
+		StringBuilder columns = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		for (String property : properties) {
+			if (columns.length()>0) {
+				columns.append(", ");
+				values.append(", ");
+			}
+			columns.append(persister.getPropertyColumnNames(property)[0]);
+			values.append('?');
+		}
+		return "INSERT INTO "+persister.getTableName()+" ("+columns+") VALUES ("+values+")";
+	}
+
+	/**
+	 * Writes the given contacts and residue burials in batches of {@link #jdbcBatchSize} rows. The NaN
+	 * values are replaced as done by the entity listeners of {@link ContactDB} and {@link ResidueBurialDB}
+	 * @param connection
+	 * @param rows
+	 * @throws SQLException
+	 */
+	private void insertInterfaceRows(Connection connection, List<InterfaceRows> rows) throws SQLException {
+		try (PreparedStatement contactStmt = connection.prepareStatement(contactInsertSql);
+			 PreparedStatement burialStmt = connection.prepareStatement(residueBurialInsertSql)) {
+
+			int numContacts = 0;
+			int numBurials = 0;
+			for (InterfaceRows r : rows) {
+				if (r.contacts!=null) {
+					for (ContactDB c : r.contacts) {
+						int i = 1;
+						contactStmt.setInt(i++, c.getFirstResNumber());
+						contactStmt.setString(i++, c.getFirstResType());
+						contactStmt.setDouble(i++, Double.isNaN(c.getFirstBurial()) ? 0 : c.getFirstBurial());
+						contactStmt.setInt(i++, c.getSecondResNumber());
+						contactStmt.setString(i++, c.getSecondResType());
+						contactStmt.setDouble(i++, Double.isNaN(c.getSecondBurial()) ? 0 : c.getSecondBurial());
+						contactStmt.setDouble(i++, c.getMinDistance());
+						contactStmt.setInt(i++, c.getNumAtoms());
+						contactStmt.setInt(i++, c.getNumHBonds());
+						contactStmt.setBoolean(i++, c.isDisulfide());
+						contactStmt.setBoolean(i++, c.isClash());
+						contactStmt.setString(i++, c.getPdbCode());
+						contactStmt.setInt(i++, c.getInterfaceId());
+						contactStmt.setInt(i++, r.interf.getUid());
+						contactStmt.addBatch();
+						if (++numContacts % jdbcBatchSize == 0) contactStmt.executeBatch();
+					}
+				}
+				if (r.residueBurials!=null) {
+					for (ResidueBurialDB b : r.residueBurials) {
+						int i = 1;
+						burialStmt.setBoolean(i++, b.getSide());
+						burialStmt.setDouble(i++, Double.isNaN(b.getAsa()) ? -1 : b.getAsa());
+						burialStmt.setDouble(i++, Double.isNaN(b.getBsa()) ? -1 : b.getBsa());
+						burialStmt.setShort(i++, b.getRegion());
+						burialStmt.setInt(i++, r.interf.getUid());
+						if (b.getResidueInfo()!=null) burialStmt.setInt(i++, b.getResidueInfo().getUid());
+						else burialStmt.setNull(i++, Types.INTEGER);
+						burialStmt.addBatch();
+						if (++numBurials % jdbcBatchSize == 0) burialStmt.executeBatch();
+					}
+				}
+			}
+			if (numContacts % jdbcBatchSize != 0) contactStmt.executeBatch();
+			if (numBurials % jdbcBatchSize != 0) burialStmt.executeBatch();
+		}
+	}
+
+	private static void rollback(EntityManager em) {
+		if (em.getTransaction().isActive()) {
+			em.getTransaction().rollback();
+		}
+		em.clear();
+	}
+
+	private void warn(String pdbCode, Exception e) {
+		System.err.println("WARNING: problems while inserting "+pdbCode+". Error: "+e.getMessage());
+		pdbsWithWarnings.add(pdbCode);
+	}
+
+	public int getCountUploaded() {
+		return countUploaded.get();
+	}
+
+	public int getCountErrorJob() {
+		return countErrorJob.get();
+	}
+
+	public int getCountPresent() {
+		return countPresent;
+	}
+
+	public int getCountRemoved() {
+		return countRemoved;
+	}
+
+	public List<String> getPdbsWithWarnings() {
+		return pdbsWithWarnings;
+	}
+}
@@ -4,9 +4,7 @@
 package eppic.db.tools;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -48,6 +46,7 @@ import eppic.model.ResidueBurialDB_;
 import eppic.model.ResidueInfoDB;
 import eppic.model.SeqClusterDB;
 import eppic.model.SeqClusterDB_;
+import eppic.model.io.ResultFileReader;
 
 /**
  * Class to perform operations on the EPPIC database, such as adding by job,
@@ -61,6 +60,11 @@ public class DBHandler {
 	public static final String DEFAULT_CONFIG_FILE_NAME = "eppic-db.properties";
 	public static final File DEFAULT_CONFIG_FILE = new File(System.getProperty("user.home"), DEFAULT_CONFIG_FILE_NAME);
 	
+	/**
+	 * Maximum number of ids in the 'in' clause of a query
+	 */
+	private static final int MAX_IDS_PER_QUERY = 1000;
+	
 	
 	@PersistenceUnit
 	private EntityManagerFactory emf;
@@ -72,6 +76,18 @@ public class DBHandler {
 	 * @param userConfigFile a user supplied config file, if null the default location {@value #DEFAULT_CONFIG_FILE} will be used.
 	 */
 	public DBHandler(String dbName, File userConfigFile) {
+		this(dbName, userConfigFile, null);
+	}
+	
+	/**
+	 * Constructor.
+	 * 
+	 * @param dbName the database name
+	 * @param userConfigFile a user supplied config file, if null the default location {@value #DEFAULT_CONFIG_FILE} will be used.
+	 * @param extraProperties additional JPA/hibernate properties for the entity manager factory (e.g. jdbc batching 
+	 * settings), overriding the ones from the config file. Can be null
+	 */
+	public DBHandler(String dbName, File userConfigFile, Map<String,String> extraProperties) {
 		
 		File configurationFile = null;
 		
@@ -91,6 +107,8 @@ public class DBHandler {
 			
 			System.out.println("Using database "+dbName+", jdbc url is: "+properties.get("javax.persistence.jdbc.url")); 
 			
+			if (extraProperties!=null) properties.putAll(extraProperties);
+			
 		} catch (IOException e) {
 			System.err.println("Problems while reading the configuration file "+configurationFile+". Error: "+e.getMessage());
 			System.exit(1);
@@ -125,25 +143,45 @@ public class DBHandler {
 		
 		em.getTransaction().begin(); 
 		
-		String pdbCode = pdbInfo.getPdbCode();
-
+		em.persist(createFinishedJob(pdbInfo));
+		
+		em.getTransaction().commit();
+		em.clear(); 
+	}
+	
+	/**
+	 * Creates an empty place-holder job with finished status for the given PdbInfoDB, linking 
+	 * both. Persisting the job persists the whole PdbInfoDB graph.
+	 * @param pdbInfo
+	 * @return
+	 */
+	public static JobDB createFinishedJob(PdbInfoDB pdbInfo) {
+		JobDB job = createPdbCodeJob(pdbInfo.getPdbCode(), StatusOfJob.FINISHED);
+		pdbInfo.setJob(job);
+		job.setPdbInfo(pdbInfo);
+		return job;
+	}
+	
+	/**
+	 * Creates a job with error status for the given pdbCode
+	 * @param pdbCode
+	 * @return
+	 */
+	public static JobDB createErrorJob(String pdbCode) {
+		return createPdbCodeJob(pdbCode, StatusOfJob.ERROR);
+	}
+	
+	private static JobDB createPdbCodeJob(String pdbCode, StatusOfJob status) {
 		JobDB job = new JobDB();
 		job.setJobId(pdbCode);
 		job.setEmail(null);
 		job.setInputName(pdbCode);
 		job.setIp("localhost");
-		job.setStatus(StatusOfJob.FINISHED.getName());
+		job.setStatus(status.getName());
 		job.setSubmissionDate(new Date());
 		job.setInputType(InputType.PDBCODE.getIndex());
 		job.setSubmissionId("-1");
-
-		pdbInfo.setJob(job);
-		job.setPdbInfo(pdbInfo);
-				
-		em.persist(job);
-		
-		em.getTransaction().commit();
-		em.clear(); 
+		return job;
 	}
 	
 	/**
@@ -154,16 +192,7 @@ public class DBHandler {
 
 		em.getTransaction().begin(); 
 		
-		JobDB job = new JobDB();
-		job.setJobId(pdbCode);
-		job.setEmail(null);
-		job.setInputName(pdbCode);
-		job.setIp("localhost");
-		job.setStatus(StatusOfJob.ERROR.getName());
-		job.setSubmissionDate(new Date());
-		job.setInputType(InputType.PDBCODE.getIndex());
-		job.setSubmissionId("-1");
-		em.persist(job);
+		em.persist(createErrorJob(pdbCode));
 		
 		em.getTransaction().commit();
 		em.clear();   
@@ -253,6 +282,38 @@ public class DBHandler {
 		
 	}
 	
+	/**
+	 * Returns the subset of the given jobIds that exist in the DataBase, querying in chunks 
+	 * of {@value #MAX_IDS_PER_QUERY} ids with a single 'in' query each.
+	 * Note that, as in {@link #checkJobExist(String)}, presence of the job doesn't guarantee 
+	 * that the entry is complete
+	 * @param jobIds
+	 * @return
+	 */
+	public Set<String> getExistingJobIds(Collection<String> jobIds) {
+		Set<String> existing = new HashSet<String>();
+		if (jobIds.isEmpty()) return existing;
+		
+		EntityManager em = this.getEntityManager();
+		
+		List<String> ids = new ArrayList<String>(jobIds);
+		for (int i=0;i<ids.size();i+=MAX_IDS_PER_QUERY) {
+			List<String> chunk = ids.subList(i, Math.min(i+MAX_IDS_PER_QUERY, ids.size()));
+			
+			CriteriaBuilder cb = em.getCriteriaBuilder();
+			CriteriaQuery<String> cq = cb.createQuery(String.class);
+			Root<JobDB> rootJob = cq.from(JobDB.class);
+			cq.select(rootJob.get(JobDB_.jobId));
+			cq.where(rootJob.get(JobDB_.jobId).in(chunk));
+			
+			existing.addAll(em.createQuery(cq).getResultList());
+		}
+		
+		em.close();
+		
+		return existing;
+	}
+	
 	/**
 	 * Checks if entries with the given jobIds exist in the DataBase
 	 * Note this returns true whenever the query returns at least 1 record, i.e. it doesn't guarantee
@@ -423,9 +484,7 @@ public class DBHandler {
 		
 		File webuiFile = new File(jobDir, pdbID + ".webui.dat");
 		
-		ObjectInputStream in = new ObjectInputStream(new FileInputStream(webuiFile));
-		PdbInfoDB pdbScoreItem = (PdbInfoDB)in.readObject();
-		in.close();
+		PdbInfoDB pdbScoreItem = ResultFileReader.readFromFile(webuiFile);
 		
 		em.close();
 		
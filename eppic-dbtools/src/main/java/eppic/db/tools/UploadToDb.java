@@ -1,16 +1,18 @@
 package eppic.db.tools;
 
 import eppic.model.PdbInfoDB;
+import eppic.model.io.ResultFileReader;
 import gnu.getopt.Getopt;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.persistence.EntityManager;
 
@@ -26,6 +28,12 @@ public class UploadToDb {
 	private static final int TIME_STATS_EVERY1 = 100;
 	private static final int TIME_STATS_EVERY2 = 1000;
 	
+	// defaults for bulk mode
+	private static final int DEFAULT_NUM_READERS = 4;
+	private static final int DEFAULT_NUM_WRITERS = 4;
+	private static final int DEFAULT_ENTRIES_PER_TRANSACTION = 20;
+	private static final int DEFAULT_JDBC_BATCH_SIZE = 50;
+	
 	public static void main(String[] args) {
 		
 		String help = 
@@ -42,7 +50,14 @@ public class UploadToDb {
 				" OPERATION MODE\n" +
 				" Default operation: only entries not already present in database will be inserted \n"+
 				" [-F]          : forces everything chosen to be inserted, deletes previous entries if present\n" +
-				" [-r]          : removes the specified entries from database\n";
+				" [-r]          : removes the specified entries from database\n" +
+				" BULK LOADING\n" +
+				" [-B]          : bulk mode: reads and inserts entries in parallel, committing several entries per\n" +
+				"                 transaction. Can be combined with -F but not with -r\n" +
+				" [-n <int>]    : number of reader threads in bulk mode. Default: "+DEFAULT_NUM_READERS+"\n" +
+				" [-N <int>]    : number of writer threads (db connections) in bulk mode. Default: "+DEFAULT_NUM_WRITERS+"\n" +
+				" [-t <int>]    : number of entries per transaction in bulk mode. Default: "+DEFAULT_ENTRIES_PER_TRANSACTION+"\n" +
+				" [-b <int>]    : number of contact and residue burial rows per jdbc batch in bulk mode. Default: "+DEFAULT_JDBC_BATCH_SIZE+"\n";
 				
 
 		boolean isDividedLayout = false;
@@ -57,7 +72,13 @@ public class UploadToDb {
 		String dbName = null;
 		File configFile = null;
 		
-		Getopt g = new Getopt("UploadToDB", args, "D:d:lf:g:Frh?");
+		boolean bulk = false;
+		int numReaders = DEFAULT_NUM_READERS;
+		int numWriters = DEFAULT_NUM_WRITERS;
+		int entriesPerTransaction = DEFAULT_ENTRIES_PER_TRANSACTION;
+		int jdbcBatchSize = DEFAULT_JDBC_BATCH_SIZE;
+		
+		Getopt g = new Getopt("UploadToDB", args, "D:d:lf:g:FrBn:N:t:b:h?");
 		int c;
 		while ((c = g.getopt()) != -1) {
 			switch(c){
@@ -86,6 +107,21 @@ public class UploadToDb {
 				modeNew = false;
 				modeEverything = false;
 				break;
+			case 'B':
+				bulk = true;
+				break;
+			case 'n':
+				numReaders = Integer.parseInt(g.getOptarg());
+				break;
+			case 'N':
+				numWriters = Integer.parseInt(g.getOptarg());
+				break;
+			case 't':
+				entriesPerTransaction = Integer.parseInt(g.getOptarg());
+				break;
+			case 'b':
+				jdbcBatchSize = Integer.parseInt(g.getOptarg());
+				break;
 			case 'h':
 				System.out.println(help);
 				System.exit(0);
@@ -118,6 +154,17 @@ public class UploadToDb {
 			System.exit(1);
 		}
 		
+		if (bulk && modeRemove) {
+			System.err.println("\n\nHey Jim, bulk mode -B can't be used to remove entries (-r)! \n");
+			System.err.println(help);
+			System.exit(1);
+		}
+		
+		if (bulk && (numReaders<1 || numWriters<1 || entriesPerTransaction<1 || jdbcBatchSize<1)) {
+			System.err.println("Number of threads, entries per transaction and jdbc batch size must be positive");
+			System.exit(1);
+		}
+		
 		// Get the Directories to be processed
 		File[] jobsDirectories;
 		if(choosefromFile!=null){
@@ -143,6 +190,12 @@ public class UploadToDb {
 			System.out.println("Directories under "+jobDirectoriesRoot+" will be considered to be PDB codes directly, no PDB divided layout will be used. ");
 		}
 		
+		if (bulk) {
+			dbh = new DBHandler(dbName, configFile, BulkLoader.getBatchingProperties());
+			bulkLoad(jobsDirectories, choosefromFile!=null, modeEverything, numReaders, numWriters, entriesPerTransaction, jdbcBatchSize);
+			return;
+		}
+		
 		dbh = new DBHandler(dbName, configFile);
 		
 		List<String> pdbsWithWarnings = new ArrayList<String>();
@@ -304,16 +357,63 @@ public class UploadToDb {
 
 	}
 	
+	private static void bulkLoad(File[] jobsDirectories, boolean fromListFile, boolean force, 
+			int numReaders, int numWriters, int entriesPerTransaction, int jdbcBatchSize) {
+		
+		System.out.println("Bulk loading with "+numReaders+" readers, "+numWriters+" writers and "+
+				entriesPerTransaction+" entries per transaction, "+jdbcBatchSize+" rows per jdbc batch");
+		
+		long totalStart = System.currentTimeMillis();
+		
+		Map<String,File> jobDirs = new LinkedHashMap<String,File>();
+		for (File jobDirectory : jobsDirectories) {
+			if (!jobDirectory.isDirectory()){
+				if(fromListFile) 
+					System.err.println("Warning: "+jobDirectory.getName()+" specified in list file (-f), " +
+															"but directory "+jobDirectory+"is not present, Skipping");
+				continue;
+			}
+			if (!jobDirectory.getName().matches("^\\d\\w\\w\\w$")){
+				System.out.println("Dir name doesn't look like a PDB code, skipping directory " + jobDirectory);
+				continue; 
+			}
+			jobDirs.put(jobDirectory.getName(), jobDirectory);
+		}
+		
+		BulkLoader loader = new BulkLoader(dbh, numReaders, numWriters, entriesPerTransaction, jdbcBatchSize);
+		try {
+			loader.load(jobDirs, force);
+		} catch (InterruptedException e) {
+			System.err.println("Bulk loading was interrupted");
+			System.exit(1);
+		} catch (ExecutionException e) {
+			System.err.println("Bulk loading failed: "+e.getMessage());
+			System.exit(1);
+		}
+		
+		long totalEnd = System.currentTimeMillis();
+		
+		System.out.println("Completed all "+jobDirs.size()+" entries in "+((totalEnd-totalStart)/1000)+" s");
+		if (force) System.out.println("Removed before reinserting: "+loader.getCountRemoved());
+		System.out.println("Already present: "+loader.getCountPresent()+", uploaded: "+loader.getCountUploaded()+
+				", couldn't insert: "+loader.getPdbsWithWarnings().size());
+		System.out.println("There were "+loader.getCountErrorJob()+" error jobs in "+loader.getCountUploaded()+" uploaded entries.");
+		
+		if (!loader.getPdbsWithWarnings().isEmpty()) {
+			System.out.println("These PDBs had problems while inserting to db: ");
+			for (String pdb:loader.getPdbsWithWarnings()) {
+				System.out.print(pdb+" ");
+			}
+			System.out.println();
+		}
+	}
+	
 	private static PdbInfoDB readFromSerializedFile(File webuiFile) {
 		PdbInfoDB pdbScoreItem = null;
 		try {
-			ObjectInputStream in = new ObjectInputStream(new FileInputStream(webuiFile));
-			pdbScoreItem = (PdbInfoDB)in.readObject();
-			in.close();
+			pdbScoreItem = ResultFileReader.readFromFile(webuiFile);
 		} catch (IOException e) {
 			System.err.println("Problem reading serialized file, skipping entry"+webuiFile+". Error: "+e.getMessage());
-		} catch (ClassNotFoundException e) {
-			System.err.println("Problem reading serialized file, skipping entry"+webuiFile+". Error: "+e.getMessage());					
 		}
 		// will be null if an exception occurs
 		return pdbScoreItem;
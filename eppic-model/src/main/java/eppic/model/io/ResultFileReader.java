@@ -0,0 +1,590 @@
+package eppic.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import eppic.model.AssemblyContentDB;
+import eppic.model.AssemblyDB;
+import eppic.model.AssemblyScoreDB;
+import eppic.model.ChainClusterDB;
+import eppic.model.ContactDB;
+import eppic.model.HomologDB;
+import eppic.model.InterfaceClusterDB;
+import eppic.model.InterfaceClusterScoreDB;
+import eppic.model.InterfaceDB;
+import eppic.model.InterfaceScoreDB;
+import eppic.model.InterfaceWarningDB;
+import eppic.model.JobDB;
+import eppic.model.PdbInfoDB;
+import eppic.model.ResidueBurialDB;
+import eppic.model.ResidueInfoDB;
+import eppic.model.RunParametersDB;
+import eppic.model.SeqClusterDB;
+import eppic.model.UniProtRefWarningDB;
+
+/**
+ * Reads a {@link PdbInfoDB} graph written by {@link ResultFileWriter}, restoring the back references
+ * to the parents and the cross references between objects of the graph.
+ * <p>
+ * Use {@link #readFromFile(File)} to read a result file in either the binary format or the legacy
+ * Java-serialized format.
+ *
+ * @see ResultFileWriter
+ */
+public class ResultFileReader implements Closeable {
+
+	private final DataInputStream in;
+
+	private final int version;
+
+	private final List<String> strings;
+
+	/**
+	 * Creates a new reader, reading and checking the header from the given stream.
+	 * @param is
+	 * @throws IOException if the stream is not in the binary result format or its version is not supported
+	 */
+	public ResultFileReader(InputStream is) throws IOException {
+		DataInputStream header = new DataInputStream(is);
+		int magic = header.readInt();
+		if (magic!=ResultFileWriter.MAGIC)
+			throw new IOException("Not an eppic binary result file");
+		version = header.readInt();
+		if (version<1 || version>ResultFileWriter.VERSION)
+			throw new IOException("Unsupported eppic binary result file version "+version+", supported versions are 1 to "+ResultFileWriter.VERSION);
+		this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(is, 65536), 65536));
+		this.strings = new ArrayList<String>();
+	}
+
+	/**
+	 * Returns true if the given file is in the binary result format, judging from its first bytes
+	 * @param file
+	 * @return
+	 */
+	public static boolean isResultFile(File file) {
+		try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+			return dis.readInt()==ResultFileWriter.MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the PdbInfoDB from the given file, which can be either in the binary result format or
+	 * a legacy Java-serialized webui.dat file.
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static PdbInfoDB readFromFile(File file) throws IOException {
+		if (isResultFile(file)) {
+			try (ResultFileReader reader = new ResultFileReader(new FileInputStream(file))) {
+				return reader.read();
+			}
+		}
+		try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			return (PdbInfoDB) ois.readObject();
+		} catch (ClassNotFoundException|ClassCastException e) {
+			throw new IOException("File "+file+" is neither an eppic binary result file nor a serialized PdbInfoDB: "+e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns the format version of the stream being read
+	 * @return
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Reads the PdbInfoDB and all its children.
+	 * @return
+	 * @throws IOException
+	 */
+	public PdbInfoDB read() throws IOException {
+		PdbInfoDB pdbInfo = new PdbInfoDB();
+
+		pdbInfo.setUid(in.readInt());
+		pdbInfo.setPdbCode(readString());
+		pdbInfo.setTitle(readString());
+		pdbInfo.setReleaseDate(readDate());
+		pdbInfo.setSpaceGroup(readString());
+		pdbInfo.setResolution(in.readDouble());
+		pdbInfo.setRfreeValue(in.readDouble());
+		pdbInfo.setExpMethod(readString());
+		pdbInfo.setNumChainClusters(in.readInt());
+		pdbInfo.setNcsOpsPresent(in.readBoolean());
+		pdbInfo.setCellA(in.readDouble());
+		pdbInfo.setCellB(in.readDouble());
+		pdbInfo.setCellC(in.readDouble());
+		pdbInfo.setCellAlpha(in.readDouble());
+		pdbInfo.setCellBeta(in.readDouble());
+		pdbInfo.setCellGamma(in.readDouble());
+		pdbInfo.setCrystalFormId(in.readInt());
+		pdbInfo.setNonStandardSg(in.readBoolean());
+		pdbInfo.setNonStandardCoordFrameConvention(in.readBoolean());
+		pdbInfo.setExhaustiveAssemblyEnumeration(in.readBoolean());
+		pdbInfo.setMaxNumClashesAnyInterface(in.readInt());
+
+		RunParametersDB rp = readRunParameters();
+		if (rp!=null) rp.setPdbInfo(pdbInfo);
+		pdbInfo.setRunParameters(rp);
+
+		JobDB job = readJob();
+		if (job!=null) job.setPdbInfo(pdbInfo);
+		pdbInfo.setJob(job);
+
+		int n = in.readInt();
+		List<ChainClusterDB> chainClusters = null;
+		if (n>=0) {
+			chainClusters = new ArrayList<ChainClusterDB>(n);
+			for (int i=0;i<n;i++) {
+				ChainClusterDB cc = readChainCluster();
+				cc.setPdbInfo(pdbInfo);
+				chainClusters.add(cc);
+			}
+		}
+		pdbInfo.setChainClusters(chainClusters);
+
+		n = in.readInt();
+		List<InterfaceClusterDB> interfaceClusters = null;
+		if (n>=0) {
+			interfaceClusters = new ArrayList<InterfaceClusterDB>(n);
+			for (int i=0;i<n;i++) {
+				InterfaceClusterDB ic = readInterfaceCluster(chainClusters);
+				ic.setPdbInfo(pdbInfo);
+				interfaceClusters.add(ic);
+			}
+		}
+		pdbInfo.setInterfaceClusters(interfaceClusters);
+
+		n = in.readInt();
+		List<AssemblyDB> assemblies = null;
+		if (n>=0) {
+			assemblies = new ArrayList<AssemblyDB>(n);
+			for (int i=0;i<n;i++) {
+				AssemblyDB a = readAssembly(interfaceClusters);
+				a.setPdbInfo(pdbInfo);
+				assemblies.add(a);
+			}
+		}
+		pdbInfo.setAssemblies(assemblies);
+
+		if (interfaceClusters!=null) {
+			for (InterfaceClusterDB ic : interfaceClusters) {
+				ic.setAssemblies(readReferences(assemblies));
+			}
+		}
+
+		return pdbInfo;
+	}
+
+	private RunParametersDB readRunParameters() throws IOException {
+		if (!in.readBoolean()) return null;
+		RunParametersDB rp = new RunParametersDB();
+		rp.setUid(in.readInt());
+		rp.setHomSoftIdCutoff(in.readDouble());
+		rp.setHomHardIdCutoff(in.readDouble());
+		rp.setQueryCovCutoff(in.readDouble());
+		rp.setMinNumSeqsCutoff(in.readInt());
+		rp.setMaxNumSeqsCutoff(in.readInt());
+		rp.setAlphabet(readString());
+		rp.setCaCutoffForGeom(in.readDouble());
+		rp.setCaCutoffForCoreRim(in.readDouble());
+		rp.setCaCutoffForCoreSurface(in.readDouble());
+		rp.setGeomCallCutoff(in.readInt());
+		rp.setCrCallCutoff(in.readDouble());
+		rp.setCsCallCutoff(in.readDouble());
+		rp.setSearchMode(readString());
+		rp.setUniProtVersion(readString());
+		rp.setEppicVersion(readString());
+		rp.setEppicBuild(readString());
+		return rp;
+	}
+
+	private JobDB readJob() throws IOException {
+		if (!in.readBoolean()) return null;
+		JobDB job = new JobDB();
+		if (in.readBoolean()) job.setUid(in.readLong());
+		job.setJobId(readString());
+		job.setStatus(readString());
+		job.setEmail(readString());
+		job.setIp(readString());
+		job.setInputName(readString());
+		job.setInputType(in.readInt());
+		job.setSubmissionDate(readDate());
+		job.setSubmissionId(readString());
+		return job;
+	}
+
+	private ChainClusterDB readChainCluster() throws IOException {
+		ChainClusterDB cc = new ChainClusterDB();
+		cc.setUid(in.readInt());
+		cc.setPdbCode(readString());
+		cc.setRepChain(readString());
+		cc.setMemberChains(readString());
+		cc.setNumMembers(in.readInt());
+		cc.setProtein(in.readBoolean());
+		cc.setRefUniProtId(readString());
+		cc.setRefUniProtStart(in.readInt());
+		cc.setRefUniProtEnd(in.readInt());
+		cc.setPdbStart(in.readInt());
+		cc.setPdbEnd(in.readInt());
+		cc.setPdbAlignedSeq(readString());
+		cc.setRefAlignedSeq(readString());
+		cc.setHasUniProtRef(in.readBoolean());
+		cc.setNumHomologs(in.readInt());
+		cc.setMsaAlignedSeq(readString());
+		cc.setSeqIdCutoff(in.readDouble());
+		cc.setClusteringSeqId(in.readDouble());
+		cc.setFirstTaxon(readString());
+		cc.setLastTaxon(readString());
+
+		int n = in.readInt();
+		List<UniProtRefWarningDB> warnings = null;
+		if (n>=0) {
+			warnings = new ArrayList<UniProtRefWarningDB>(n);
+			for (int i=0;i<n;i++) {
+				UniProtRefWarningDB w = new UniProtRefWarningDB();
+				w.setUid(in.readInt());
+				w.setText(readString());
+				w.setChainCluster(cc);
+				warnings.add(w);
+			}
+		}
+		cc.setUniProtRefWarnings(warnings);
+
+		n = in.readInt();
+		List<HomologDB> homologs = null;
+		if (n>=0) {
+			homologs = new ArrayList<HomologDB>(n);
+			for (int i=0;i<n;i++) {
+				HomologDB h = new HomologDB();
+				h.setUid(in.readInt());
+				h.setUniProtId(readString());
+				h.setSeqId(in.readDouble());
+				h.setQueryCoverage(in.readDouble());
+				h.setFirstTaxon(readString());
+				h.setLastTaxon(readString());
+				h.setQueryStart(in.readInt());
+				h.setQueryEnd(in.readInt());
+				h.setSubjectStart(in.readInt());
+				h.setSubjectEnd(in.readInt());
+				h.setAlignedSeq(readString());
+				h.setChainCluster(cc);
+				homologs.add(h);
+			}
+		}
+		cc.setHomologs(homologs);
+
+		if (in.readBoolean()) {
+			SeqClusterDB sc = new SeqClusterDB();
+			sc.setUid(in.readInt());
+			sc.setPdbCode(readString());
+			sc.setRepChain(readString());
+			sc.setC100(in.readInt());
+			sc.setC95(in.readInt());
+			sc.setC90(in.readInt());
+			sc.setC80(in.readInt());
+			sc.setC70(in.readInt());
+			sc.setC60(in.readInt());
+			sc.setC50(in.readInt());
+			sc.setC40(in.readInt());
+			sc.setC30(in.readInt());
+			sc.setChainCluster(cc);
+			cc.setSeqCluster(sc);
+		}
+
+		n = in.readInt();
+		List<ResidueInfoDB> residueInfos = null;
+		if (n>=0) {
+			residueInfos = new ArrayList<ResidueInfoDB>(n);
+			for (int i=0;i<n;i++) {
+				ResidueInfoDB r = new ResidueInfoDB();
+				r.setChainCluster(cc);
+				residueInfos.add(r);
+			}
+			for (ResidueInfoDB r : residueInfos) r.setUid(in.readInt());
+			for (ResidueInfoDB r : residueInfos) r.setPdbCode(readString());
+			for (ResidueInfoDB r : residueInfos) r.setRepChain(readString());
+			for (ResidueInfoDB r : residueInfos) r.setResidueNumber(in.readInt());
+			for (ResidueInfoDB r : residueInfos) r.setPdbResidueNumber(readString());
+			for (ResidueInfoDB r : residueInfos) r.setResidueType(readString());
+			for (ResidueInfoDB r : residueInfos) r.setUniProtNumber(in.readInt());
+			for (ResidueInfoDB r : residueInfos) r.setMismatchToRef(in.readBoolean());
+			for (ResidueInfoDB r : residueInfos) r.setEntropyScore(in.readDouble());
+		}
+		cc.setResidueInfos(residueInfos);
+
+		return cc;
+	}
+
+	private InterfaceClusterDB readInterfaceCluster(List<ChainClusterDB> chainClusters) throws IOException {
+		InterfaceClusterDB ic = new InterfaceClusterDB();
+		ic.setUid(in.readInt());
+		ic.setClusterId(in.readInt());
+		ic.setPdbCode(readString());
+		ic.setAvgArea(in.readDouble());
+		ic.setAvgContactOverlapScore(in.readDouble());
+		ic.setInfinite(in.readBoolean());
+		ic.setIsologous(in.readBoolean());
+		ic.setNumMembers(in.readInt());
+		ic.setGlobalInterfClusterId(in.readInt());
+
+		int n = in.readInt();
+		List<InterfaceClusterScoreDB> scores = null;
+		if (n>=0) {
+			scores = new ArrayList<InterfaceClusterScoreDB>(n);
+			for (int i=0;i<n;i++) {
+				InterfaceClusterScoreDB s = new InterfaceClusterScoreDB();
+				s.setUid(in.readInt());
+				s.setPdbCode(readString());
+				s.setClusterId(in.readInt());
+				s.setCallName(readString());
+				s.setCallReason(readString());
+				s.setScore(in.readDouble());
+				s.setConfidence(in.readDouble());
+				s.setScore1(in.readDouble());
+				s.setScore2(in.readDouble());
+				s.setMethod(readString());
+				s.setInterfaceCluster(ic);
+				scores.add(s);
+			}
+		}
+		ic.setInterfaceClusterScores(scores);
+
+		n = in.readInt();
+		List<InterfaceDB> interfaces = null;
+		if (n>=0) {
+			interfaces = new ArrayList<InterfaceDB>(n);
+			for (int i=0;i<n;i++) {
+				InterfaceDB interf = readInterface(chainClusters);
+				interf.setInterfaceCluster(ic);
+				interfaces.add(interf);
+			}
+		}
+		ic.setInterfaces(interfaces);
+
+		return ic;
+	}
+
+	private InterfaceDB readInterface(List<ChainClusterDB> chainClusters) throws IOException {
+		InterfaceDB interf = new InterfaceDB();
+		interf.setUid(in.readInt());
+		interf.setPdbCode(readString());
+		interf.setInterfaceId(in.readInt());
+		interf.setClusterId(in.readInt());
+		interf.setArea(in.readDouble());
+		interf.setChain1(readString());
+		interf.setChain2(readString());
+		interf.setOperator(readString());
+		interf.setOperatorType(readString());
+		interf.setInfinite(in.readBoolean());
+		interf.setIsologous(in.readBoolean());
+		interf.setSelfContactOverlapScore(in.readDouble());
+		interf.setProt1(in.readBoolean());
+		interf.setProt2(in.readBoolean());
+		interf.setOperatorId(in.readInt());
+		interf.setXtalTrans_x(in.readInt());
+		interf.setXtalTrans_y(in.readInt());
+		interf.setXtalTrans_z(in.readInt());
+		interf.setGlobalInterfClusterId(in.readInt());
+
+		int n = in.readInt();
+		List<InterfaceWarningDB> warnings = null;
+		if (n>=0) {
+			warnings = new ArrayList<InterfaceWarningDB>(n);
+			for (int i=0;i<n;i++) {
+				InterfaceWarningDB w = new InterfaceWarningDB();
+				w.setUid(in.readInt());
+				w.setText(readString());
+				w.setInterfaceItem(interf);
+				warnings.add(w);
+			}
+		}
+		interf.setInterfaceWarnings(warnings);
+
+		n = in.readInt();
+		List<InterfaceScoreDB> scores = null;
+		if (n>=0) {
+			scores = new ArrayList<InterfaceScoreDB>(n);
+			for (int i=0;i<n;i++) {
+				InterfaceScoreDB s = new InterfaceScoreDB();
+				s.setUid(in.readInt());
+				s.setPdbCode(readString());
+				s.setMethod(readString());
+				s.setInterfaceId(in.readInt());
+				s.setScore1(in.readDouble());
+				s.setScore2(in.readDouble());
+				s.setScore(in.readDouble());
+				s.setConfidence(in.readDouble());
+				s.setCallName(readString());
+				s.setCallReason(readString());
+				s.setInterfaceItem(interf);
+				scores.add(s);
+			}
+		}
+		interf.setInterfaceScores(scores);
+
+		n = in.readInt();
+		List<ContactDB> contacts = null;
+		if (n>=0) {
+			contacts = new ArrayList<ContactDB>(n);
+			for (int i=0;i<n;i++) {
+				ContactDB c = new ContactDB();
+				c.setInterfaceItem(interf);
+				contacts.add(c);
+			}
+			for (ContactDB c : contacts) c.setUid(in.readInt());
+			for (ContactDB c : contacts) c.setFirstResNumber(in.readInt());
+			for (ContactDB c : contacts) c.setSecondResNumber(in.readInt());
+			for (ContactDB c : contacts) c.setFirstResType(readString());
+			for (ContactDB c : contacts) c.setSecondResType(readString());
+			for (ContactDB c : contacts) c.setFirstBurial(in.readDouble());
+			for (ContactDB c : contacts) c.setSecondBurial(in.readDouble());
+			for (ContactDB c : contacts) c.setMinDistance(in.readDouble());
+			for (ContactDB c : contacts) c.setNumAtoms(in.readInt());
+			for (ContactDB c : contacts) c.setClash(in.readBoolean());
+			for (ContactDB c : contacts) c.setNumHBonds(in.readInt());
+			for (ContactDB c : contacts) c.setDisulfide(in.readBoolean());
+			for (ContactDB c : contacts) c.setInterfaceId(in.readInt());
+			for (ContactDB c : contacts) c.setPdbCode(readString());
+		}
+		interf.setContacts(contacts);
+
+		n = in.readInt();
+		List<ResidueBurialDB> burials = null;
+		if (n>=0) {
+			burials = new ArrayList<ResidueBurialDB>(n);
+			for (int i=0;i<n;i++) {
+				ResidueBurialDB b = new ResidueBurialDB();
+				b.setInterfaceItem(interf);
+				burials.add(b);
+			}
+			for (ResidueBurialDB b : burials) b.setUid(in.readInt());
+			for (ResidueBurialDB b : burials) b.setSide(in.readBoolean());
+			for (ResidueBurialDB b : burials) b.setAsa(in.readDouble());
+			for (ResidueBurialDB b : burials) b.setBsa(in.readDouble());
+			for (ResidueBurialDB b : burials) b.setRegion(in.readShort());
+			for (ResidueBurialDB b : burials) {
+				int ccIndex = in.readInt();
+				int riIndex = in.readInt();
+				if (ccIndex>=0) {
+					if (chainClusters==null || ccIndex>=chainClusters.size() ||
+							chainClusters.get(ccIndex).getResidueInfos()==null ||
+							riIndex<0 || riIndex>=chainClusters.get(ccIndex).getResidueInfos().size())
+						throw new IOException("Invalid residue info reference "+ccIndex+"/"+riIndex+" in residue burials of interface "+interf.getInterfaceId());
+					b.setResidueInfo(chainClusters.get(ccIndex).getResidueInfos().get(riIndex));
+				}
+			}
+		}
+		interf.setResidueBurials(burials);
+
+		return interf;
+	}
+
+	private AssemblyDB readAssembly(List<InterfaceClusterDB> interfaceClusters) throws IOException {
+		AssemblyDB a = new AssemblyDB();
+		a.setUid(in.readInt());
+		a.setId(in.readInt());
+		a.setPdbCode(readString());
+		a.setTopologicallyValid(in.readBoolean());
+		a.setInterfaceClusterIds(readString());
+
+		int n = in.readInt();
+		List<AssemblyScoreDB> scores = null;
+		if (n>=0) {
+			scores = new ArrayList<AssemblyScoreDB>(n);
+			for (int i=0;i<n;i++) {
+				AssemblyScoreDB s = new AssemblyScoreDB();
+				s.setUid(in.readInt());
+				s.setMethod(readString());
+				s.setScore(in.readDouble());
+				s.setConfidence(in.readDouble());
+				s.setCallName(readString());
+				s.setCallReason(readString());
+				s.setPdbCode(readString());
+				s.setAssembly(a);
+				scores.add(s);
+			}
+		}
+		a.setAssemblyScores(scores);
+
+		n = in.readInt();
+		List<AssemblyContentDB> contents = null;
+		if (n>=0) {
+			contents = new ArrayList<AssemblyContentDB>(n);
+			for (int i=0;i<n;i++) {
+				AssemblyContentDB c = new AssemblyContentDB();
+				c.setUid(in.readInt());
+				c.setPdbCode(readString());
+				c.setMmSize(in.readInt());
+				c.setSymmetry(readString());
+				c.setStoichiometry(readString());
+				c.setComposition(readString());
+				c.setCompositionRepChainIds(readString());
+				c.setChainIds(readString());
+				c.setAssembly(a);
+				contents.add(c);
+			}
+		}
+		a.setAssemblyContents(contents);
+
+		a.setInterfaceClusters(readReferences(interfaceClusters));
+
+		return a;
+	}
+
+	private <T> Set<T> readReferences(List<T> targets) throws IOException {
+		int n = in.readInt();
+		if (n<0) return null;
+		Set<T> set = new HashSet<T>();
+		for (int i=0;i<n;i++) {
+			int index = in.readInt();
+			if (targets==null || index<0 || index>=targets.size())
+				throw new IOException("Invalid reference "+index+" in eppic binary result file");
+			set.add(targets.get(index));
+		}
+		return set;
+	}
+
+	private Date readDate() throws IOException {
+		if (!in.readBoolean()) return null;
+		return new Date(in.readLong());
+	}
+
+	private String readString() throws IOException {
+		int ref = in.readInt();
+		if (ref==ResultFileWriter.NULL_STRING) return null;
+		if (ref==ResultFileWriter.NEW_STRING) {
+			int length = in.readInt();
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			String s = new String(bytes, StandardCharsets.UTF_8);
+			strings.add(s);
+			return s;
+		}
+		if (ref<0 || ref>=strings.size())
+			throw new IOException("Invalid string reference "+ref+" in eppic binary result file");
+		return strings.get(ref);
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
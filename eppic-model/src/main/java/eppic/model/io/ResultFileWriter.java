@@ -0,0 +1,518 @@
+package eppic.model.io;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import eppic.model.AssemblyContentDB;
+import eppic.model.AssemblyDB;
+import eppic.model.AssemblyScoreDB;
+import eppic.model.ChainClusterDB;
+import eppic.model.ContactDB;
+import eppic.model.HomologDB;
+import eppic.model.InterfaceClusterDB;
+import eppic.model.InterfaceClusterScoreDB;
+import eppic.model.InterfaceDB;
+import eppic.model.InterfaceScoreDB;
+import eppic.model.InterfaceWarningDB;
+import eppic.model.JobDB;
+import eppic.model.PdbInfoDB;
+import eppic.model.ResidueBurialDB;
+import eppic.model.ResidueInfoDB;
+import eppic.model.RunParametersDB;
+import eppic.model.SeqClusterDB;
+import eppic.model.UniProtRefWarningDB;
+
+/**
+ * Writes a {@link PdbInfoDB} graph in the eppic binary result format, the replacement for the
+ * Java-serialized webui.dat files. The graph is streamed directly to the output, no intermediate
+ * copy is made.
+ * <p>
+ * The format is a 4 byte magic number and a 4 byte version, followed by a gzip-compressed body.
+ * The body follows the containment tree of the model: pdb info, run parameters, job, chain clusters
+ * (with their warnings, homologs, sequence cluster and residue infos), interface clusters (with their
+ * scores and interfaces, each with warnings, scores, contacts and residue burials) and assemblies
+ * (with their scores and contents), followed by the links between assemblies and interface clusters.
+ * The bulky residue info, contact and residue burial lists are written column by column.
+ * Back references to parents are not written, they are restored by {@link ResultFileReader}.
+ * Cross references (residue burial to residue info, assembly to interface cluster) are written as
+ * indices into the lists of the graph. Strings are interned: the first occurrence is written in full
+ * and subsequent ones as a reference to it. Lists are prefixed by their size, -1 meaning null.
+ * <p>
+ * Any change to the layout must bump {@link #VERSION} and be handled in the reader.
+ *
+ * @see ResultFileReader
+ */
+public class ResultFileWriter implements Closeable {
+
+	/**
+	 * The magic number at the start of every result file ("EPRS"), Java serialization
+	 * streams start with 0xACED so that both formats can be told apart
+	 */
+	public static final int MAGIC = 0x45505253;
+
+	/**
+	 * The current version of the format
+	 */
+	public static final int VERSION = 1;
+
+	static final int NULL_STRING = -1;
+	static final int NEW_STRING = -2;
+
+	private final DataOutputStream out;
+
+	private final Map<String,Integer> stringRefs;
+
+	private final Map<InterfaceClusterDB,Integer> interfaceClusterIndices;
+	private final Map<AssemblyDB,Integer> assemblyIndices;
+	/** residue info to its chain cluster index (first element) and its index in the chain cluster */
+	private final Map<ResidueInfoDB,int[]> residueInfoIndices;
+
+	/**
+	 * Creates a new writer writing the header to the given stream.
+	 * @param os
+	 * @throws IOException
+	 */
+	public ResultFileWriter(OutputStream os) throws IOException {
+		DataOutputStream header = new DataOutputStream(os);
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		header.flush();
+		this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(os, 65536), 65536));
+
+		this.stringRefs = new HashMap<String, Integer>();
+		this.interfaceClusterIndices = new IdentityHashMap<InterfaceClusterDB, Integer>();
+		this.assemblyIndices = new IdentityHashMap<AssemblyDB, Integer>();
+		this.residueInfoIndices = new IdentityHashMap<ResidueInfoDB, int[]>();
+	}
+
+	/**
+	 * Writes the given pdbInfo to the given file in the binary result format
+	 * @param pdbInfo
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void writeToFile(PdbInfoDB pdbInfo, File file) throws IOException {
+		try (ResultFileWriter writer = new ResultFileWriter(new FileOutputStream(file))) {
+			writer.write(pdbInfo);
+		}
+	}
+
+	/**
+	 * Writes the given pdbInfo and all its children. Only one pdbInfo can be written per stream.
+	 * @param pdbInfo
+	 * @throws IOException
+	 */
+	public void write(PdbInfoDB pdbInfo) throws IOException {
+
+		out.writeInt(pdbInfo.getUid());
+		writeString(pdbInfo.getPdbCode());
+		writeString(pdbInfo.getTitle());
+		writeDate(pdbInfo.getReleaseDate());
+		writeString(pdbInfo.getSpaceGroup());
+		out.writeDouble(pdbInfo.getResolution());
+		out.writeDouble(pdbInfo.getRfreeValue());
+		writeString(pdbInfo.getExpMethod());
+		out.writeInt(pdbInfo.getNumChainClusters());
+		out.writeBoolean(pdbInfo.isNcsOpsPresent());
+		out.writeDouble(pdbInfo.getCellA());
+		out.writeDouble(pdbInfo.getCellB());
+		out.writeDouble(pdbInfo.getCellC());
+		out.writeDouble(pdbInfo.getCellAlpha());
+		out.writeDouble(pdbInfo.getCellBeta());
+		out.writeDouble(pdbInfo.getCellGamma());
+		out.writeInt(pdbInfo.getCrystalFormId());
+		out.writeBoolean(pdbInfo.isNonStandardSg());
+		out.writeBoolean(pdbInfo.isNonStandardCoordFrameConvention());
+		out.writeBoolean(pdbInfo.isExhaustiveAssemblyEnumeration());
+		out.writeInt(pdbInfo.getMaxNumClashesAnyInterface());
+
+		writeRunParameters(pdbInfo.getRunParameters());
+		writeJob(pdbInfo.getJob());
+
+		List<ChainClusterDB> chainClusters = pdbInfo.getChainClusters();
+		writeSize(chainClusters);
+		if (chainClusters!=null) {
+			for (int i=0;i<chainClusters.size();i++) {
+				writeChainCluster(chainClusters.get(i), i);
+			}
+		}
+
+		List<InterfaceClusterDB> interfaceClusters = pdbInfo.getInterfaceClusters();
+		writeSize(interfaceClusters);
+		if (interfaceClusters!=null) {
+			for (int i=0;i<interfaceClusters.size();i++) {
+				interfaceClusterIndices.put(interfaceClusters.get(i), i);
+				writeInterfaceCluster(interfaceClusters.get(i));
+			}
+		}
+
+		List<AssemblyDB> assemblies = pdbInfo.getAssemblies();
+		writeSize(assemblies);
+		if (assemblies!=null) {
+			for (int i=0;i<assemblies.size();i++) {
+				assemblyIndices.put(assemblies.get(i), i);
+				writeAssembly(assemblies.get(i));
+			}
+		}
+
+		// the assemblies of each interface cluster, the inverse relation is written with each assembly
+		if (interfaceClusters!=null) {
+			for (InterfaceClusterDB ic : interfaceClusters) {
+				writeIndices(ic.getAssemblies(), assemblyIndices);
+			}
+		}
+
+		out.flush();
+	}
+
+	private void writeRunParameters(RunParametersDB rp) throws IOException {
+		out.writeBoolean(rp!=null);
+		if (rp==null) return;
+		out.writeInt(rp.getUid());
+		out.writeDouble(rp.getHomSoftIdCutoff());
+		out.writeDouble(rp.getHomHardIdCutoff());
+		out.writeDouble(rp.getQueryCovCutoff());
+		out.writeInt(rp.getMinNumSeqsCutoff());
+		out.writeInt(rp.getMaxNumSeqsCutoff());
+		writeString(rp.getAlphabet());
+		out.writeDouble(rp.getCaCutoffForGeom());
+		out.writeDouble(rp.getCaCutoffForCoreRim());
+		out.writeDouble(rp.getCaCutoffForCoreSurface());
+		out.writeInt(rp.getGeomCallCutoff());
+		out.writeDouble(rp.getCrCallCutoff());
+		out.writeDouble(rp.getCsCallCutoff());
+		writeString(rp.getSearchMode());
+		writeString(rp.getUniProtVersion());
+		writeString(rp.getEppicVersion());
+		writeString(rp.getEppicBuild());
+	}
+
+	private void writeJob(JobDB job) throws IOException {
+		// user sessions are not part of the result and are not written
+		out.writeBoolean(job!=null);
+		if (job==null) return;
+		out.writeBoolean(job.getUid()!=null);
+		if (job.getUid()!=null) out.writeLong(job.getUid());
+		writeString(job.getJobId());
+		writeString(job.getStatus());
+		writeString(job.getEmail());
+		writeString(job.getIp());
+		writeString(job.getInputName());
+		out.writeInt(job.getInputType());
+		writeDate(job.getSubmissionDate());
+		writeString(job.getSubmissionId());
+	}
+
+	private void writeChainCluster(ChainClusterDB cc, int ccIndex) throws IOException {
+		out.writeInt(cc.getUid());
+		writeString(cc.getPdbCode());
+		writeString(cc.getRepChain());
+		writeString(cc.getMemberChains());
+		out.writeInt(cc.getNumMembers());
+		out.writeBoolean(cc.isProtein());
+		writeString(cc.getRefUniProtId());
+		out.writeInt(cc.getRefUniProtStart());
+		out.writeInt(cc.getRefUniProtEnd());
+		out.writeInt(cc.getPdbStart());
+		out.writeInt(cc.getPdbEnd());
+		writeString(cc.getPdbAlignedSeq());
+		writeString(cc.getRefAlignedSeq());
+		out.writeBoolean(cc.isHasUniProtRef());
+		out.writeInt(cc.getNumHomologs());
+		writeString(cc.getMsaAlignedSeq());
+		out.writeDouble(cc.getSeqIdCutoff());
+		out.writeDouble(cc.getClusteringSeqId());
+		writeString(cc.getFirstTaxon());
+		writeString(cc.getLastTaxon());
+
+		List<UniProtRefWarningDB> warnings = cc.getUniProtRefWarnings();
+		writeSize(warnings);
+		if (warnings!=null) {
+			for (UniProtRefWarningDB w : warnings) {
+				out.writeInt(w.getUid());
+				writeString(w.getText());
+			}
+		}
+
+		List<HomologDB> homologs = cc.getHomologs();
+		writeSize(homologs);
+		if (homologs!=null) {
+			for (HomologDB h : homologs) {
+				out.writeInt(h.getUid());
+				writeString(h.getUniProtId());
+				out.writeDouble(h.getSeqId());
+				out.writeDouble(h.getQueryCoverage());
+				writeString(h.getFirstTaxon());
+				writeString(h.getLastTaxon());
+				out.writeInt(h.getQueryStart());
+				out.writeInt(h.getQueryEnd());
+				out.writeInt(h.getSubjectStart());
+				out.writeInt(h.getSubjectEnd());
+				writeString(h.getAlignedSeq());
+			}
+		}
+
+		SeqClusterDB sc = cc.getSeqCluster();
+		out.writeBoolean(sc!=null);
+		if (sc!=null) {
+			out.writeInt(sc.getUid());
+			writeString(sc.getPdbCode());
+			writeString(sc.getRepChain());
+			out.writeInt(sc.getC100());
+			out.writeInt(sc.getC95());
+			out.writeInt(sc.getC90());
+			out.writeInt(sc.getC80());
+			out.writeInt(sc.getC70());
+			out.writeInt(sc.getC60());
+			out.writeInt(sc.getC50());
+			out.writeInt(sc.getC40());
+			out.writeInt(sc.getC30());
+		}
+
+		// residue infos: columnar
+		List<ResidueInfoDB> residueInfos = cc.getResidueInfos();
+		writeSize(residueInfos);
+		if (residueInfos!=null) {
+			for (int i=0;i<residueInfos.size();i++) residueInfoIndices.put(residueInfos.get(i), new int[]{ccIndex, i});
+			for (ResidueInfoDB r : residueInfos) out.writeInt(r.getUid());
+			for (ResidueInfoDB r : residueInfos) writeString(r.getPdbCode());
+			for (ResidueInfoDB r : residueInfos) writeString(r.getRepChain());
+			for (ResidueInfoDB r : residueInfos) out.writeInt(r.getResidueNumber());
+			for (ResidueInfoDB r : residueInfos) writeString(r.getPdbResidueNumber());
+			for (ResidueInfoDB r : residueInfos) writeString(r.getResidueType());
+			for (ResidueInfoDB r : residueInfos) out.writeInt(r.getUniProtNumber());
+			for (ResidueInfoDB r : residueInfos) out.writeBoolean(r.isMismatchToRef());
+			for (ResidueInfoDB r : residueInfos) out.writeDouble(r.getEntropyScore());
+		}
+	}
+
+	private void writeInterfaceCluster(InterfaceClusterDB ic) throws IOException {
+		out.writeInt(ic.getUid());
+		out.writeInt(ic.getClusterId());
+		writeString(ic.getPdbCode());
+		out.writeDouble(ic.getAvgArea());
+		out.writeDouble(ic.getAvgContactOverlapScore());
+		out.writeBoolean(ic.isInfinite());
+		out.writeBoolean(ic.isIsologous());
+		out.writeInt(ic.getNumMembers());
+		out.writeInt(ic.getGlobalInterfClusterId());
+
+		List<InterfaceClusterScoreDB> scores = ic.getInterfaceClusterScores();
+		writeSize(scores);
+		if (scores!=null) {
+			for (InterfaceClusterScoreDB s : scores) {
+				out.writeInt(s.getUid());
+				writeString(s.getPdbCode());
+				out.writeInt(s.getClusterId());
+				writeString(s.getCallName());
+				writeString(s.getCallReason());
+				out.writeDouble(s.getScore());
+				out.writeDouble(s.getConfidence());
+				out.writeDouble(s.getScore1());
+				out.writeDouble(s.getScore2());
+				writeString(s.getMethod());
+			}
+		}
+
+		List<InterfaceDB> interfaces = ic.getInterfaces();
+		writeSize(interfaces);
+		if (interfaces!=null) {
+			for (InterfaceDB i : interfaces) {
+				writeInterface(i);
+			}
+		}
+	}
+
+	private void writeInterface(InterfaceDB i) throws IOException {
+		out.writeInt(i.getUid());
+		writeString(i.getPdbCode());
+		out.writeInt(i.getInterfaceId());
+		out.writeInt(i.getClusterId());
+		out.writeDouble(i.getArea());
+		writeString(i.getChain1());
+		writeString(i.getChain2());
+		writeString(i.getOperator());
+		writeString(i.getOperatorType());
+		out.writeBoolean(i.isInfinite());
+		out.writeBoolean(i.isIsologous());
+		out.writeDouble(i.getSelfContactOverlapScore());
+		out.writeBoolean(i.isProt1());
+		out.writeBoolean(i.isProt2());
+		out.writeInt(i.getOperatorId());
+		out.writeInt(i.getXtalTrans_x());
+		out.writeInt(i.getXtalTrans_y());
+		out.writeInt(i.getXtalTrans_z());
+		out.writeInt(i.getGlobalInterfClusterId());
+
+		List<InterfaceWarningDB> warnings = i.getInterfaceWarnings();
+		writeSize(warnings);
+		if (warnings!=null) {
+			for (InterfaceWarningDB w : warnings) {
+				out.writeInt(w.getUid());
+				writeString(w.getText());
+			}
+		}
+
+		List<InterfaceScoreDB> scores = i.getInterfaceScores();
+		writeSize(scores);
+		if (scores!=null) {
+			for (InterfaceScoreDB s : scores) {
+				out.writeInt(s.getUid());
+				writeString(s.getPdbCode());
+				writeString(s.getMethod());
+				out.writeInt(s.getInterfaceId());
+				out.writeDouble(s.getScore1());
+				out.writeDouble(s.getScore2());
+				out.writeDouble(s.getScore());
+				out.writeDouble(s.getConfidence());
+				writeString(s.getCallName());
+				writeString(s.getCallReason());
+			}
+		}
+
+		// contacts: columnar
+		List<ContactDB> contacts = i.getContacts();
+		writeSize(contacts);
+		if (contacts!=null) {
+			for (ContactDB c : contacts) out.writeInt(c.getUid());
+			for (ContactDB c : contacts) out.writeInt(c.getFirstResNumber());
+			for (ContactDB c : contacts) out.writeInt(c.getSecondResNumber());
+			for (ContactDB c : contacts) writeString(c.getFirstResType());
+			for (ContactDB c : contacts) writeString(c.getSecondResType());
+			for (ContactDB c : contacts) out.writeDouble(c.getFirstBurial());
+			for (ContactDB c : contacts) out.writeDouble(c.getSecondBurial());
+			for (ContactDB c : contacts) out.writeDouble(c.getMinDistance());
+			for (ContactDB c : contacts) out.writeInt(c.getNumAtoms());
+			for (ContactDB c : contacts) out.writeBoolean(c.isClash());
+			for (ContactDB c : contacts) out.writeInt(c.getNumHBonds());
+			for (ContactDB c : contacts) out.writeBoolean(c.isDisulfide());
+			for (ContactDB c : contacts) out.writeInt(c.getInterfaceId());
+			for (ContactDB c : contacts) writeString(c.getPdbCode());
+		}
+
+		// residue burials: columnar
+		List<ResidueBurialDB> burials = i.getResidueBurials();
+		writeSize(burials);
+		if (burials!=null) {
+			for (ResidueBurialDB b : burials) out.writeInt(b.getUid());
+			for (ResidueBurialDB b : burials) out.writeBoolean(b.getSide());
+			for (ResidueBurialDB b : burials) out.writeDouble(b.getAsa());
+			for (ResidueBurialDB b : burials) out.writeDouble(b.getBsa());
+			for (ResidueBurialDB b : burials) out.writeShort(b.getRegion());
+			for (ResidueBurialDB b : burials) {
+				// -1 for residue infos that are not set or not part of the graph
+				int[] ref = b.getResidueInfo()==null ? null : residueInfoIndices.get(b.getResidueInfo());
+				out.writeInt(ref==null ? -1 : ref[0]);
+				out.writeInt(ref==null ? -1 : ref[1]);
+			}
+		}
+	}
+
+	private void writeAssembly(AssemblyDB a) throws IOException {
+		out.writeInt(a.getUid());
+		out.writeInt(a.getId());
+		writeString(a.getPdbCode());
+		out.writeBoolean(a.isTopologicallyValid());
+		writeString(a.getInterfaceClusterIds());
+
+		List<AssemblyScoreDB> scores = a.getAssemblyScores();
+		writeSize(scores);
+		if (scores!=null) {
+			for (AssemblyScoreDB s : scores) {
+				out.writeInt(s.getUid());
+				writeString(s.getMethod());
+				out.writeDouble(s.getScore());
+				out.writeDouble(s.getConfidence());
+				writeString(s.getCallName());
+				writeString(s.getCallReason());
+				writeString(s.getPdbCode());
+			}
+		}
+
+		List<AssemblyContentDB> contents = a.getAssemblyContents();
+		writeSize(contents);
+		if (contents!=null) {
+			for (AssemblyContentDB c : contents) {
+				out.writeInt(c.getUid());
+				writeString(c.getPdbCode());
+				out.writeInt(c.getMmSize());
+				writeString(c.getSymmetry());
+				writeString(c.getStoichiometry());
+				writeString(c.getComposition());
+				writeString(c.getCompositionRepChainIds());
+				writeString(c.getChainIds());
+			}
+		}
+
+		writeIndices(a.getInterfaceClusters(), interfaceClusterIndices);
+	}
+
+	private <T> void writeIndices(Collection<T> items, Map<T,Integer> indices) throws IOException {
+		if (items==null) {
+			out.writeInt(-1);
+			return;
+		}
+		// sorted so that the output does not depend on the iteration order of sets
+		int[] sorted = new int[items.size()];
+		int i = 0;
+		for (T item : items) {
+			Integer index = indices.get(item);
+			if (index==null)
+				throw new IOException("Can't write a reference to an object of class "+item.getClass().getSimpleName()+" that is not part of the PdbInfoDB graph");
+			sorted[i++] = index;
+		}
+		Arrays.sort(sorted);
+		out.writeInt(sorted.length);
+		for (int index : sorted) {
+			out.writeInt(index);
+		}
+	}
+
+	private void writeSize(Collection<?> list) throws IOException {
+		out.writeInt(list==null ? -1 : list.size());
+	}
+
+	private void writeDate(Date date) throws IOException {
+		out.writeBoolean(date!=null);
+		if (date!=null) out.writeLong(date.getTime());
+	}
+
+	private void writeString(String s) throws IOException {
+		if (s==null) {
+			out.writeInt(NULL_STRING);
+			return;
+		}
+		Integer ref = stringRefs.get(s);
+		if (ref!=null) {
+			out.writeInt(ref);
+			return;
+		}
+		stringRefs.put(s, stringRefs.size());
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(NEW_STRING);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Finishes the compressed stream and closes the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
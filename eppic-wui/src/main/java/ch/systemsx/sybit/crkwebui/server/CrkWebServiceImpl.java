@@ -29,26 +29,22 @@ import ch.systemsx.sybit.crkwebui.server.commons.util.log.LogHandler;
 import ch.systemsx.sybit.crkwebui.server.commons.validators.PreSubmitValidator;
 import ch.systemsx.sybit.crkwebui.server.commons.validators.RunJobDataValidator;
 import ch.systemsx.sybit.crkwebui.server.commons.validators.SessionValidator;
-import ch.systemsx.sybit.crkwebui.server.db.dao.AssemblyDAO;
+import ch.systemsx.sybit.crkwebui.server.db.EntityManagerHandler;
 import ch.systemsx.sybit.crkwebui.server.db.dao.ChainClusterDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.InterfaceClusterDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.InterfaceDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.JobDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.PDBInfoDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.ResidueDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.ResultDataDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.UserSessionDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.AssemblyDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.ChainClusterDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.InterfaceClusterDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.InterfaceDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.JobDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.PDBInfoDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.ResidueDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.ResultDataDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.UserSessionDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.db.data.InputWithType;
 import ch.systemsx.sybit.crkwebui.server.email.data.EmailData;
 import ch.systemsx.sybit.crkwebui.server.email.data.EmailMessageData;
 import ch.systemsx.sybit.crkwebui.server.email.managers.EmailSender;
+import ch.systemsx.sybit.crkwebui.server.ip.IPRateLimiter;
 import ch.systemsx.sybit.crkwebui.server.ip.validators.IPVerifier;
 import ch.systemsx.sybit.crkwebui.server.jobs.managers.JobManagerFactory;
 import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobManager;
@@ -61,10 +57,6 @@ import ch.systemsx.sybit.crkwebui.shared.exceptions.JobHandlerException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.JobManagerException;
 import ch.systemsx.sybit.crkwebui.shared.helpers.PDBSearchResult;
 import ch.systemsx.sybit.crkwebui.shared.model.ApplicationSettings;
-import ch.systemsx.sybit.crkwebui.shared.model.Assembly;
-import ch.systemsx.sybit.crkwebui.shared.model.ChainCluster;
-import ch.systemsx.sybit.crkwebui.shared.model.Interface;
-import ch.systemsx.sybit.crkwebui.shared.model.InterfaceCluster;
 import ch.systemsx.sybit.crkwebui.shared.model.JobsForSession;
 import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
 import ch.systemsx.sybit.crkwebui.shared.model.ProcessingData;
@@ -534,6 +526,12 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 
 			}
 
+			if(doIPBasedVerification)
+			{
+				// counted before storing it, see IPRateLimiter
+				IPRateLimiter.getInstance().recordSubmission(getThreadLocalRequest().getRemoteAddr(), currentDate);
+			}
+
 			jobDAO.insertNewJob(runJobData.getJobId(),
 					getThreadLocalRequest().getSession().getId(),
 					runJobData.getEmailAddress(),
@@ -545,6 +543,11 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 					submissionId);
 
 			
+			if(jobStatusUpdater != null)
+			{
+				jobStatusUpdater.jobStatusChanged(runJobData.getJobId());
+			}
+
 			emailSender.sendInSeparateThread(runJobData.getEmailAddress(),
 						emailTitle,
 						emailMessage);
@@ -712,34 +715,8 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 	 */
 	private PdbInfo getResultData(String jobId) throws Exception
 	{
-		JobDAO jobDAO = new JobDAOJpa();
-		InputWithType input = jobDAO.getInputWithTypeForJob(jobId);
-
-		PDBInfoDAO pdbInfoDAO = new PDBInfoDAOJpa();
-		PdbInfo pdbInfo = pdbInfoDAO.getPDBInfo(jobId);
-		
-		AssemblyDAO assemblyDAO = new AssemblyDAOJpa();
-		List<Assembly> assemblies = assemblyDAO.getAssemblies(pdbInfo.getUid());
-		pdbInfo.setAssemblies(assemblies); 
-
-		InterfaceClusterDAO clusterDAO = new InterfaceClusterDAOJpa();
-		List<InterfaceCluster> clusters = clusterDAO.getInterfaceClustersWithoutInterfaces(pdbInfo.getUid());
-
-		InterfaceDAO interfaceDAO = new InterfaceDAOJpa();
-		for(InterfaceCluster cluster: clusters){
-			List<Interface> interfaceItems = interfaceDAO.getInterfacesWithScores(cluster.getUid());
-			cluster.setInterfaces(interfaceItems);
-		}
-		pdbInfo.setInterfaceClusters(clusters);
-
-		ChainClusterDAO chainClusterDAO = new ChainClusterDAOJpa();
-		List<ChainCluster> chainClusters = chainClusterDAO.getChainClusters(pdbInfo.getUid());
-		pdbInfo.setChainClusters(chainClusters);
-		
-		pdbInfo.setInputType(input.getInputType());
-		pdbInfo.setInputName(input.getInputName());
-		
-		return pdbInfo;
+		ResultDataDAO resultDataDAO = new ResultDataDAOJpa();
+		return resultDataDAO.getResultData(jobId);
 	}
 
 	@Override
@@ -875,11 +852,24 @@ public class CrkWebServiceImpl extends XsrfProtectedServiceServlet implements Cr
 	{
 		super.destroy();
 
+		try {
+			logger.info("Database connection pool and cache statistics: {}", EntityManagerHandler.getStatistics());
+		} catch (Throwable e) {
+			logger.warn("Could not get database statistics: {}", e.getMessage());
+		}
+
+		IPRateLimiter.shutdown();
+
 		jobStatusUpdater.setRunning(false);
 
-		while(jobStatusUpdater.isUpdating())
+		try
 		{
-
+			// lets the results being loaded be persisted
+			jobDaemon.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
 		}
 
 		try
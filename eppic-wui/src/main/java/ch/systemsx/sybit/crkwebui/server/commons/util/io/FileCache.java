@@ -3,21 +3,26 @@ package ch.systemsx.sybit.crkwebui.server.commons.util.io;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,12 +30,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Thread-safe caching of files.
- * 
+ *
  * <p>Conceptually this can be thought of as a simple key-value cache, where
  * the unique key happens to be the path to a file and the value can be returned
  * as a String, Reader, File handle, etc. Behind the hood, values are cached to
- * memory (for a limited number of hits) and to disk.
- * 
+ * memory (for a limited number of entries and bytes) and to disk.
+ *
  * <p>All paths referenced in the FileCache should be considered to be owned by
  * the cache. Although the {@link #getFile(String, Callable)} method provides
  * access to the underlying object, this should not be used to write or delete
@@ -38,86 +43,117 @@ import org.slf4j.LoggerFactory;
  * single FileCache should be used with each path. To enforce this, it is
  * recommended that the {@link #getInstance() singleton instance} be used
  * rather than constructing a cache explicitly.
+ *
+ * <p>Entries are looked up in a concurrent map without locking. Concurrent
+ * requests for the same path share a single computation, and the contents are
+ * written to disk in the background. The entries in memory are evicted with a
+ * segmented LRU policy weighted by their size: new entries go to a probation
+ * segment and are promoted to a protected segment when hit again, so that a
+ * burst of one-off requests doesn't flush the entries in use. Entries larger
+ * than {@link #getMaxEntryWeight()} are only kept in memory until written to
+ * disk. Hits, misses and evictions are counted, see {@link #getStatistics()}.
  * @author Spencer Bliven
  */
 public class FileCache {
 	private static final Logger logger = LoggerFactory.getLogger(FileCache.class);
 
+	/**
+	 * Default maximum number of entries in memory
+	 */
+	public static final int DEFAULT_CAPACITY = 1000;
+	/**
+	 * Default maximum total weight of the entries in memory: 64MB
+	 */
+	public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+	/**
+	 * Default maximum weight of an entry to be kept in memory: 8MB
+	 */
+	public static final long DEFAULT_MAX_ENTRY_WEIGHT = 8L * 1024 * 1024;
+
+	// fraction of the maximum weight that the protected segment can use
+	private static final double PROTECTED_FRACTION = 0.8;
+
+	private static final int NR_OF_DISK_WRITERS = 2;
+
 	/**
 	 * Represents the cached contents of a file. Only one CacheFile should exist
 	 * for any given path. Also, it is assumed that this class owns the underlying
 	 * file (e.g. it will not be modified by other processes during the life of
 	 * the CacheFile object.
-	 * 
-	 * <p>This class is not internally synchronized, so external synchronization
-	 * (e.g. on FileCache.memcache) is required for all access.
-	 * @author Spencer Bliven
 	 *
+	 * <p>The futures can be accessed concurrently, the policy fields are
+	 * guarded by FileCache.policyLock.
+	 * @author Spencer Bliven
 	 */
-	protected static class CacheFile implements Comparable<CacheFile> {
-		
-		// auto-incrementing global serial number. Synchronize on the class object for access.
-		private static long nextSerial = 0;
-		// serial number at last time of access
-		private long serial;
-		
-		private final Future<String> contents;
-		private final Future<?> writer;
+	protected static class CacheFile {
 		private final File file;
-		public CacheFile(File file, Callable<String> contents, ExecutorService executor) {
-			// assign next serial number
-			synchronized (CacheFile.class) {
-				serial = nextSerial;
-				nextSerial++;
-			}
+		private final CompletableFuture<String> contents;
+		// completes once the contents are on disk (already completed if read from disk)
+		private final CompletableFuture<Void> writer;
+		private volatile boolean deleted = false;
+
+		// policy fields, written under policyLock. The flags are volatile so
+		// that they can be checked without it
+		private volatile boolean admitted = false;
+		private volatile boolean oversized = false;
+		private boolean isProtected = false;
+		private long weight = 0;
+
+		public CacheFile(File file, Callable<String> contents, ExecutorService executor, ExecutorService diskWriter) {
 			this.file = file;
 
-			// if already cached, don't recalculate
 			if(fileExists(file)) {
-				contents = () -> FileContentReader.readContentOfFile(file, false);
-			}
-			// begin reading contents
-			this.contents = executor.submit(contents);
-			// begin writing contents
-			if(!fileExists(file)) {
-				Runnable write = () -> {
-					try
-					{
-						String str = this.contents.get();
-						try ( FileWriter writer = new FileWriter(file) ) {
-							writer.write(str);
-						}
-					} catch (IOException|InterruptedException|ExecutionException e) {
-						logger.error("Error writing {}",file,e);
-					}
-				};
-				this.writer = executor.submit(write);
+				// if already cached, don't recalculate
+				this.contents = CompletableFuture.supplyAsync(() -> call(() -> FileContentReader.readContentOfFile(file, false)), executor);
+				this.writer = CompletableFuture.completedFuture(null);
 			} else {
-				this.writer = null;
+				this.contents = CompletableFuture.supplyAsync(() -> call(contents), executor);
+				this.writer = this.contents.thenAcceptAsync(this::write, diskWriter);
 			}
 		}
-		@Override
-		public int compareTo(CacheFile o) {
-			return Long.compare(this.serial, o.serial);
+
+		private static String call(Callable<String> contents) {
+			try {
+				return contents.call();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
 		}
+
+		/**
+		 * Writes to a temporary file first, so that a file with the final name is always complete
+		 * @param str
+		 */
+		private void write(String str) {
+			if(deleted) {
+				return;
+			}
+			File tmp = null;
+			try {
+				tmp = File.createTempFile("." + file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+				try ( FileWriter writer = new FileWriter(tmp) ) {
+					writer.write(str);
+				}
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				logger.error("Error writing {}",file,e);
+				if(tmp != null) {
+					tmp.delete();
+				}
+				throw new CompletionException(e);
+			}
+		}
+
 		/**
 		 * @return The contents of this file
-		 * @throws CancellationException if the computation was cancelled
 		 * @throws ExecutionException if the computation threw an exception
 		 * @throws InterruptedException if the current thread was interrupted while waiting
 		 */
-		public String get() throws CancellationException, InterruptedException, ExecutionException {
-			touch();
+		public String get() throws InterruptedException, ExecutionException {
 			return contents.get();
 		}
-		public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-			touch();
-			return contents.get(timeout, unit);
-		}
 		public File getFile() throws InterruptedException, ExecutionException {
-			if(writer != null) {
-				writer.get();
-			}
+			writer.get();
 			assert file.exists();//File should have been written before here
 			return file;
 		}
@@ -125,105 +161,95 @@ public class FileCache {
 			return file.toString();
 		}
 		/**
-		 * Delete this cachefile. The CacheFile object should be discarded afterwards.
+		 * Delete this cachefile, waiting for a running write to finish. The CacheFile
+		 * object should be discarded afterwards.
 		 */
 		public void delete() {
-			if(writer != null)
-				writer.cancel(true);
+			deleted = true;
 			contents.cancel(true);
-			file.delete();
-		}
-		/** Marks this file as recently accessed for purposes of cache recency
-		 */
-		public void touch() {
-			synchronized (CacheFile.class) {
-				if( serial == nextSerial) {
-					return; // already newest file
-				}
-				serial = nextSerial;
-				nextSerial++;
-			}
-		}
-		
-		/**
-		 * Wait for the file to finish writing before finalizing
-		 * @throws Throwable
-		 */
-		@Override
-		protected void finalize() throws Throwable {
-			boolean completed = writer == null || writer.isDone();
-			while(!completed) {
-				logger.info("Waiting to finish writing {}",this.file);
-				try {
-					writer.get(10, TimeUnit.SECONDS);
-					completed = true;
-				} catch(TimeoutException e) {}
+			try {
+				writer.get();
+			} catch (Exception e) {
+				// cancelled or failed: nothing written
 			}
-			super.finalize();
+			file.delete();
 		}
 		/**
 		 * Get whether the contents have finished writing to disk
 		 * @return
 		 */
 		public boolean isSynced() {
-			if(writer != null && writer.isDone() && !writer.isCancelled() ) {
-				return true;
-			}
-			return file.exists() && file.length()>0;
+			return writer.isDone() && !writer.isCompletedExceptionally();
 		}
 	}
-		
 
-	private ExecutorService executor;
+	private final ExecutorService executor;
+	private final ExecutorService diskWriter;
 
-	// access the following 3 members are synchronized on memcache
-	// map of all files currently in memory
-	private Map<String, CacheFile> memcache;
-	// queue of memcache values, to allow easy expiration of oldest entries
-	private PriorityQueue<CacheFile> queue;
+	// map of all files currently in memory, including the ones being computed
+	private final ConcurrentMap<String, CacheFile> memcache = new ConcurrentHashMap<>();
+	// files evicted from memory before being written to disk, until they are
+	private final ConcurrentMap<String, CacheFile> spilling = new ConcurrentHashMap<>();
 	// Set of "safe" files, used to implement purging. null indicates all are safe.
-	private Set<String> notpurged = null;
-	
-	private int capacity;
-	
+	private volatile Set<String> notpurged = null;
+
+	// the segments of the eviction policy, in access order. Guarded by policyLock
+	private final ReentrantLock policyLock = new ReentrantLock();
+	private final LinkedHashMap<String, CacheFile> probation = new LinkedHashMap<>();
+	private final LinkedHashMap<String, CacheFile> protectedSegment = new LinkedHashMap<>();
+	private long probationWeight = 0;
+	private long protectedWeight = 0;
+
+	private volatile int capacity;
+	private volatile long maxWeight;
+	private volatile long maxEntryWeight;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
 	/**
 	 * For most situations, use {@link #getInstance()} instead
 	 */
 	public FileCache() { // package visibility for testing only
-		executor = Executors.newCachedThreadPool();
-		memcache = new HashMap<>();
-		queue = new PriorityQueue<>();
-		setCapacity(16);
+		executor = Executors.newCachedThreadPool(daemonThreads("FileCache"));
+		diskWriter = Executors.newFixedThreadPool(NR_OF_DISK_WRITERS, daemonThreads("FileCache-writer"));
+		setCapacity(DEFAULT_CAPACITY);
+		setMaxWeight(DEFAULT_MAX_WEIGHT);
+		setMaxEntryWeight(DEFAULT_MAX_ENTRY_WEIGHT);
 	}
-	
+
+	private static ThreadFactory daemonThreads(String name) {
+		AtomicInteger count = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+
 	// Singleton instance
 	private static FileCache instance = null;
 	/**
 	 * Get the singleton instance
 	 * @return
 	 */
-	public static FileCache getInstance() {
+	public static synchronized FileCache getInstance() {
 		if(instance == null) {
 			instance = new FileCache();
 		}
 		return instance;
 	}
-	
+
 	/**
 	 * Checks if the path has been calculated, either in memory on on disk
 	 * @param path
 	 * @return
 	 */
 	public boolean isCached(String path) {
-		synchronized(memcache) {
-			if( memcache.containsKey(path) )
-				return true;
-			File file = new File(path);
-			if(fileExists(file) ) {
-				return true;
-			}
-		}
-		return false;
+		return memcache.containsKey(path) || spilling.containsKey(path) || fileExists(new File(path));
 	}
 	/**
 	 * Checks if the path has been calculated and is still in memory
@@ -231,52 +257,195 @@ public class FileCache {
 	 * @return
 	 */
 	public boolean isCachedInMemory(String path) {
-		synchronized(memcache) {
-			return memcache.containsKey(path);
-		}
-
+		return memcache.containsKey(path);
 	}
-	
+
 	private static boolean fileExists(File file) {
 		return file.exists() && file.length()>0;
 	}
 
-	protected void removeExpired() {
-		synchronized( memcache ) {
-			List<CacheFile> stillwriting = new LinkedList<>();
-			while(queue.size() > capacity) {
-				CacheFile expired = queue.remove(); //lowest serial
-				if( !expired.isSynced()) {
-					// save actively writing cases to be pushed back on the queue
-					stillwriting.add(expired);
-				} else {
-					memcache.remove(expired.getFilename());
-				}
-			}
-			//re-add cases that are still writing
-			//Note that this may cause memcache to be temporarily over-capacity
-			queue.addAll(stillwriting);
-		}
-	}
-	
 	protected CacheFile getCacheFile(String path, Callable<String> contents) {
-		CacheFile cacheFile;
-		if( memcache.containsKey(path) ) {
-			cacheFile = memcache.get(path);
-		} else {
-			File file = new File(path);
-			if(notpurged != null && !notpurged.contains(path)) {
+		CacheFile cacheFile = memcache.get(path);
+		if(cacheFile != null) {
+			hits.incrementAndGet();
+			return cacheFile;
+		}
+		// only one thread creates the CacheFile of a path, the others share its computation
+		CacheFile[] created = new CacheFile[1];
+		cacheFile = memcache.computeIfAbsent(path, p -> {
+			CacheFile evicted = spilling.remove(p);
+			if(evicted != null) {
+				hits.incrementAndGet();
+				return evicted;
+			}
+			File file = new File(p);
+			Set<String> notpurged = this.notpurged;
+			if(notpurged != null && !notpurged.contains(p)) {
 				file.delete();
 			}
-			cacheFile = new CacheFile(file, contents, executor);
-			memcache.put(path, cacheFile);
-			queue.add(cacheFile);
+			if(fileExists(file)) {
+				diskHits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+			}
+			created[0] = new CacheFile(file, contents, executor, diskWriter);
 			if(notpurged != null) {
-				notpurged.add(path);
+				notpurged.add(p);
 			}
+			return created[0];
+		});
+		if(created[0] != null) {
+			// outside of computeIfAbsent: it may run right away if the computation already failed
+			created[0].contents.whenComplete((str, e) -> {
+				if(e != null) {
+					// don't keep failures, the next request computes again
+					failures.incrementAndGet();
+					memcache.remove(path, created[0]);
+				}
+			});
 		}
 		return cacheFile;
 	}
+
+	/**
+	 * Records that a request is done with a file. A request that didn't get the
+	 * contents (e.g. interrupted while waiting) still admits the file once it is
+	 * computed, otherwise it would stay in memory outside of the eviction policy.
+	 * @param cacheFile
+	 * @param accessed whether the request got the contents
+	 */
+	private void release(CacheFile cacheFile, boolean accessed) {
+		if(accessed) {
+			touch(cacheFile, true);
+		} else {
+			// failed computations are removed in getCacheFile
+			cacheFile.contents.thenRun(() -> touch(cacheFile, false));
+		}
+	}
+
+	/**
+	 * Records an access to a file whose contents are available, admitting it to
+	 * the eviction policy the first time and evicting other files if needed.
+	 * @param cacheFile
+	 * @param recordAccess false to only admit the file if it isn't yet
+	 */
+	private void touch(CacheFile cacheFile, boolean recordAccess) {
+		String path = cacheFile.getFilename();
+		if(cacheFile.admitted && !recordAccess) {
+			return;
+		}
+		// recency updates are best-effort under contention, admissions are not
+		if(!policyLock.tryLock()) {
+			if(cacheFile.admitted) {
+				return;
+			}
+			policyLock.lock();
+		}
+		try {
+			if(memcache.get(path) != cacheFile) {
+				return; // deleted or cleared meanwhile
+			}
+			if(!cacheFile.admitted) {
+				cacheFile.weight = weigh(cacheFile.contents.getNow(""));
+				if(cacheFile.weight > maxEntryWeight) {
+					// too large to keep: served from disk once written
+					logger.debug("Not keeping {} in memory: {} bytes", path, cacheFile.weight);
+					cacheFile.oversized = true;
+					cacheFile.admitted = true;
+					if(cacheFile.writer.isDone()) {
+						dropOversized(cacheFile);
+					} else {
+						cacheFile.writer.whenComplete((v, e) -> dropOversized(cacheFile));
+					}
+					return;
+				}
+				cacheFile.admitted = true;
+				probation.put(path, cacheFile);
+				probationWeight += cacheFile.weight;
+			} else if(!recordAccess || cacheFile.oversized) {
+				return;
+			} else if(!cacheFile.isProtected) {
+				probation.remove(path);
+				probationWeight -= cacheFile.weight;
+				protectedSegment.put(path, cacheFile);
+				protectedWeight += cacheFile.weight;
+				cacheFile.isProtected = true;
+				demoteProtected();
+			} else {
+				// move to the most recently used end
+				protectedSegment.remove(path);
+				protectedSegment.put(path, cacheFile);
+			}
+			evict();
+		} finally {
+			policyLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes a file too large to be kept in memory, once it is written to disk
+	 * @param cacheFile
+	 */
+	private void dropOversized(CacheFile cacheFile) {
+		if(cacheFile.oversized) {
+			memcache.remove(cacheFile.getFilename(), cacheFile);
+		}
+	}
+
+	private static long weigh(String contents) {
+		// chars are stored with 2 bytes
+		return 2L * contents.length();
+	}
+
+	// requires policyLock
+	private void demoteProtected() {
+		long maxProtectedWeight = (long) (maxWeight * PROTECTED_FRACTION);
+		Iterator<CacheFile> it = protectedSegment.values().iterator();
+		while(protectedWeight > maxProtectedWeight && protectedSegment.size() > 1) {
+			CacheFile demoted = it.next();
+			it.remove();
+			protectedWeight -= demoted.weight;
+			demoted.isProtected = false;
+			probation.put(demoted.getFilename(), demoted);
+			probationWeight += demoted.weight;
+		}
+	}
+
+	// requires policyLock
+	private void evict() {
+		while(probation.size() + protectedSegment.size() > capacity || probationWeight + protectedWeight > maxWeight) {
+			CacheFile expired;
+			if(!probation.isEmpty()) {
+				expired = removeEldest(probation);
+				probationWeight -= expired.weight;
+			} else if(!protectedSegment.isEmpty()) {
+				expired = removeEldest(protectedSegment);
+				protectedWeight -= expired.weight;
+			} else {
+				break;
+			}
+			// admitted again if it comes back from spilling
+			expired.admitted = false;
+			expired.isProtected = false;
+			String path = expired.getFilename();
+			if(memcache.remove(path, expired)) {
+				evictions.incrementAndGet();
+				if(!expired.isSynced()) {
+					// still readable until written
+					spilling.put(path, expired);
+					expired.writer.whenComplete((v, e) -> spilling.remove(path, expired));
+				}
+			}
+		}
+	}
+
+	private static CacheFile removeEldest(LinkedHashMap<String, CacheFile> segment) {
+		Iterator<CacheFile> it = segment.values().iterator();
+		CacheFile eldest = it.next();
+		it.remove();
+		return eldest;
+	}
+
 	/**
 	 * Get the String associated with a particular key, either by computing it
 	 * or by getting the cached value (from memory or disk).
@@ -286,7 +455,8 @@ public class FileCache {
 	 * {@link Callable}s that would produce the same strings). Otherwise the cache may
 	 * be out of date.
 	 * <p>
-	 * This function blocks while the result is calculated.
+	 * This function blocks while the result is calculated. Concurrent calls for the
+	 * same path wait for the same calculation.
 	 * @param path Path to the cache location
 	 * @param contents Method to generate the contents, if needed
 	 * @return A (possibly cached) value equivalent to calling <tt>contents.call()</tt>
@@ -294,21 +464,18 @@ public class FileCache {
 	 * @throws InterruptedException if the computation thread was interrupted while waiting
 	 */
 	public String getString(String path, Callable<String> contents) throws InterruptedException, ExecutionException {
-		synchronized( memcache ) {
-			CacheFile cacheFile = getCacheFile(path, contents);
+		CacheFile cacheFile = getCacheFile(path, contents);
+		boolean accessed = false;
+		try {
 			String contentsStr = cacheFile.get();
-			removeExpired();
+			accessed = true;
 			return contentsStr;
+		} finally {
+			release(cacheFile, accessed);
 		}
 	}
 	/**
-	 * Get the String associated with a particular key, either by computing it
-	 * or by getting the cached value (from memory or disk).
-	 * <p>
-	 * The <tt>contents</tt> parameter should be idempotent with respect to the
-	 * <tt>path</tt> (e.g. multiple calls with the same path should provide
-	 * {@link Callable}s that would produce the same strings). Otherwise the cache may
-	 * be out of date.
+	 * Get the String associated with a particular key, if it is cached in memory.
 	 * <p>
 	 * This function blocks while the result is calculated.
 	 * @param path Path to the cache location
@@ -317,20 +484,29 @@ public class FileCache {
 	 * @throws InterruptedException if the computation thread was interrupted while waiting
 	 */
 	public String getString(String path) throws InterruptedException, ExecutionException {
-		synchronized( memcache) {
-			if( !memcache.containsKey(path) ) {
+		CacheFile cacheFile = memcache.get(path);
+		if( cacheFile == null ) {
+			cacheFile = spilling.get(path);
+			if( cacheFile == null ) {
 				return null;
 			}
-			CacheFile cacheFile = memcache.get(path);
+			return cacheFile.get();
+		}
+		hits.incrementAndGet();
+		boolean accessed = false;
+		try {
 			String contents = cacheFile.get();
+			accessed = true;
 			return contents;
+		} finally {
+			release(cacheFile, accessed);
 		}
 	}
 
 	/**
 	 * Get a file for the specified path location. Blocks until the contents
 	 * are fully written.
-	 * 
+	 *
 	 * <p>Paths should never be directly used as filenames (<tt>new File(path)</tt>)
 	 * since no guarentees can be made in that case about the existence or contents
 	 * of the file. Likewise, the returned File object should not be written or
@@ -342,42 +518,50 @@ public class FileCache {
 	 * @throws ExecutionException
 	 */
 	public File getFile(String path, Callable<String> contents) throws InterruptedException, ExecutionException {
-		synchronized( memcache ) {
-			CacheFile cacheFile = getCacheFile(path, contents);
+		CacheFile cacheFile = getCacheFile(path, contents);
+		boolean accessed = false;
+		try {
 			File contentsFile = cacheFile.getFile();
-			removeExpired();
+			cacheFile.get();
+			accessed = true;
 			return contentsFile;
+		} finally {
+			release(cacheFile, accessed);
 		}
 	}
 	public File getFile(String path) throws InterruptedException, ExecutionException {
-		synchronized( memcache) {
-			File file;
-			if( memcache.containsKey(path) ) {
-				CacheFile cacheFile = memcache.get(path);
-				file = cacheFile.getFile();
-			} else {
-				file = new File(path);
-			}
-			if(fileExists(file)) {
-				if(notpurged != null) {
-					notpurged.add(path);
-				}
-				return file;
+		CacheFile cacheFile = memcache.get(path);
+		if( cacheFile == null ) {
+			cacheFile = spilling.get(path);
+		}
+		File file;
+		if( cacheFile != null ) {
+			file = cacheFile.getFile();
+			// not left in memory after its write, whichever thread runs the callback
+			dropOversized(cacheFile);
+		} else {
+			file = new File(path);
+		}
+		if(fileExists(file)) {
+			Set<String> notpurged = this.notpurged;
+			if(notpurged != null) {
+				notpurged.add(path);
 			}
+			return file;
 		}
 		return null;
 	}
-	
+
 	/**
 	 * Ensure that all files are synced to disk
-	 * @throws ExecutionException 
-	 * @throws InterruptedException 
+	 * @throws ExecutionException
+	 * @throws InterruptedException
 	 */
 	public void flush() throws InterruptedException, ExecutionException {
-		synchronized(memcache) {
-			for( CacheFile f : memcache.values()) {
-				f.getFile();
-			}
+		List<CacheFile> files = new ArrayList<>(memcache.values());
+		files.addAll(spilling.values());
+		for( CacheFile f : files) {
+			f.getFile();
 		}
 	}
 	/**
@@ -395,75 +579,165 @@ public class FileCache {
 	public void setCapacity(int capacity) {
 		this.capacity = capacity;
 	}
-	
+
 	/**
-	 * 
+	 * Get the maximum total weight (approximately the bytes used by the contents) of the files in memory
+	 * @return
+	 */
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	/**
+	 * Set the maximum total weight (approximately the bytes used by the contents) of the files in memory
+	 * @param maxWeight
+	 */
+	public void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+	/**
+	 * Get the maximum weight of a file to be kept in memory. Larger files are read from disk.
+	 * @return
+	 */
+	public long getMaxEntryWeight() {
+		return maxEntryWeight;
+	}
+
+	/**
+	 * Set the maximum weight of a file to be kept in memory. Larger files are read from disk.
+	 * @param maxEntryWeight
+	 */
+	public void setMaxEntryWeight(long maxEntryWeight) {
+		this.maxEntryWeight = maxEntryWeight;
+	}
+
+	/**
+	 *
 	 * @return The number of files cached in memory
 	 */
 	int size() {
 		return memcache.size();
 	}
-	
+
+	/**
+	 * Get the counters of the cache since it was created: hits (in memory),
+	 * diskHits (read from disk), misses (computed), evictions, failures (of the
+	 * computations or reads), plus the current number of entries and weight in memory.
+	 * @return
+	 */
+	public Map<String, Long> getStatistics() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("hits", hits.get());
+		stats.put("diskHits", diskHits.get());
+		stats.put("misses", misses.get());
+		stats.put("evictions", evictions.get());
+		stats.put("failures", failures.get());
+		policyLock.lock();
+		try {
+			stats.put("entries", (long) (probation.size() + protectedSegment.size()));
+			stats.put("weight", probationWeight + protectedWeight);
+		} finally {
+			policyLock.unlock();
+		}
+		return stats;
+	}
+
 	/**
 	 * Clears the in-memory cache. Files on disk are still retained and will be
 	 * reused.
 	 * @see #purge()
 	 */
 	public void clear() {
-		synchronized(memcache) {
+		policyLock.lock();
+		try {
 			memcache.clear();
-			queue.clear();
+			clearPolicy();
+		} finally {
+			policyLock.unlock();
 		}
 	}
-	
+
+	// requires policyLock
+	private void clearPolicy() {
+		probation.clear();
+		protectedSegment.clear();
+		probationWeight = 0;
+		protectedWeight = 0;
+	}
+
 	/**
 	 * Purge a particular file from the cache, both on disk and in memory
 	 * @param path
 	 */
 	public void delete(String path) {
-		synchronized(memcache) {
-			if(memcache.containsKey(path)) {
-				CacheFile file = memcache.get(path);
-				file.delete();
-				memcache.remove(path);
-				queue.remove(file);
-			} else {
-				File file = new File(path);
-				file.delete();
+		CacheFile cacheFile;
+		policyLock.lock();
+		try {
+			cacheFile = memcache.remove(path);
+			if(cacheFile != null && cacheFile.admitted) {
+				if(probation.remove(path) != null) {
+					probationWeight -= cacheFile.weight;
+				} else if(protectedSegment.remove(path) != null) {
+					protectedWeight -= cacheFile.weight;
+				}
 			}
+		} finally {
+			policyLock.unlock();
+		}
+		CacheFile evicted = spilling.remove(path);
+		if(cacheFile != null) {
+			cacheFile.delete();
+		}
+		if(evicted != null) {
+			evicted.delete();
+		}
+		new File(path).delete();
+		Set<String> notpurged = this.notpurged;
+		if(notpurged != null) {
 			notpurged.remove(path);
 		}
 	}
-	
+
 	/**
 	 * Marks all files as out-of-date and in need of recomputation.
 	 * Files currently cached in memory will be deleted, but older items may
 	 * need to be cleaned up manually on disk.
-	 * 
+	 *
 	 * <p>Call purge() on an empty FileCache to enable tracking of all files.
 	 * This guarantees that subsequent calls to purge will remove all files.
 	 */
 	public void purge() {
-		synchronized(memcache) {
-			// delete known files
-			for( CacheFile cacheFile : memcache.values()) {
-				cacheFile.delete();
-			}
-			if(notpurged != null) {
-				for( String filename : notpurged) {
-					File file = new File(filename);
-					file.delete();
-				}
-			}
+		List<CacheFile> files;
+		policyLock.lock();
+		try {
+			files = new ArrayList<>(memcache.values());
+			files.addAll(spilling.values());
 			memcache.clear();
-			queue.clear();
-			notpurged = new HashSet<>();
+			spilling.clear();
+			clearPolicy();
+		} finally {
+			policyLock.unlock();
+		}
+		// delete known files
+		for( CacheFile cacheFile : files) {
+			cacheFile.delete();
+		}
+		Set<String> notpurged = this.notpurged;
+		if(notpurged != null) {
+			for( String filename : notpurged) {
+				File file = new File(filename);
+				file.delete();
+			}
 		}
+		this.notpurged = ConcurrentHashMap.newKeySet();
 	}
 
 	@Override
 	protected void finalize() throws Throwable {
 		flush();
+		executor.shutdown();
+		diskWriter.shutdown();
 		super.finalize();
 	}
 
@@ -1,9 +1,19 @@
 package ch.systemsx.sybit.crkwebui.server.db;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.Persistence;
 
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.Statistics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
 import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
 
 /**
@@ -12,13 +22,83 @@ import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
  */
 public class EntityManagerHandler {
 
+	public static final String PERSISTENCE_UNIT_NAME = "eppicjpa";
+
+	/**
+	 * Query hint to cache the results of a query in the query cache, when enabled
+	 */
+	public static final String QUERY_HINT_CACHEABLE = "org.hibernate.cacheable";
 
-	private final static EntityManagerFactory emf = 
-			Persistence.createEntityManagerFactory("eppicjpa", CrkWebServiceImpl.dbSettings);
+	/**
+	 * Lazy holder of the web application's EntityManagerFactory, so that the static methods of this 
+	 * class can be used with other factories (e.g. in tests) without initialising it
+	 */
+	private static class Holder {
+		private final static EntityManagerFactory emf =
+				createEntityManagerFactory(CrkWebServiceImpl.dbSettings);
+	}
 
 	public static EntityManager getEntityManager() {
-		return emf.createEntityManager();
+		return Holder.emf.createEntityManager();
+	}
+
+	/**
+	 * Creates the EntityManagerFactory for the eppic persistence unit with the given settings,
+	 * as produced by {@link eppic.commons.util.DbConfigGenerator}
+	 * @param dbSettings
+	 * @return
+	 */
+	public static EntityManagerFactory createEntityManagerFactory(Map<String,String> dbSettings) {
+		return Persistence.createEntityManagerFactory(PERSISTENCE_UNIT_NAME, dbSettings);
+	}
+
+	/**
+	 * Returns the connection pool and cache statistics of the web application's EntityManagerFactory
+	 * @return
+	 * @see #getStatistics(EntityManagerFactory)
+	 */
+	public static Map<String,Number> getStatistics() {
+		return getStatistics(Holder.emf);
+	}
+
+	/**
+	 * Returns the connection pool statistics (if the pool is Hikari) and the second-level and query
+	 * cache statistics (if statistics are enabled with 'stats=true' in the db config file) of the
+	 * given EntityManagerFactory
+	 * @param emf
+	 * @return
+	 */
+	public static Map<String,Number> getStatistics(EntityManagerFactory emf) {
+		Map<String,Number> stats = new LinkedHashMap<>();
+
+		SessionFactoryImplementor sf = emf.unwrap(SessionFactoryImplementor.class);
+
+		ConnectionProvider cp = sf.getServiceRegistry().getService(ConnectionProvider.class);
+		if (cp!=null && cp.isUnwrappableAs(HikariDataSource.class)) {
+			HikariPoolMXBean pool = cp.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+			if (pool!=null) {
+				stats.put("pool.activeConnections", pool.getActiveConnections());
+				stats.put("pool.idleConnections", pool.getIdleConnections());
+				stats.put("pool.totalConnections", pool.getTotalConnections());
+				stats.put("pool.threadsAwaitingConnection", pool.getThreadsAwaitingConnection());
+			}
+		}
+
+		Statistics st = sf.getStatistics();
+		if (st.isStatisticsEnabled()) {
+			stats.put("sessions.opened", st.getSessionOpenCount());
+			stats.put("connections.obtained", st.getConnectCount());
+			stats.put("queries.executed", st.getQueryExecutionCount());
+			stats.put("queries.maxTimeMs", st.getQueryExecutionMaxTime());
+			stats.put("secondLevelCache.hits", st.getSecondLevelCacheHitCount());
+			stats.put("secondLevelCache.misses", st.getSecondLevelCacheMissCount());
+			stats.put("secondLevelCache.puts", st.getSecondLevelCachePutCount());
+			stats.put("queryCache.hits", st.getQueryCacheHitCount());
+			stats.put("queryCache.misses", st.getQueryCacheMissCount());
+			stats.put("queryCache.puts", st.getQueryCachePutCount());
+		}
+
+		return stats;
 	}
-	
-	
+
 }
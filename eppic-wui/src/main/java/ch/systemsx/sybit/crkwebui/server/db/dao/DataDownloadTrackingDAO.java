@@ -1,8 +1,10 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao;
 
 import java.util.Date;
+import java.util.List;
 
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
+import ch.systemsx.sybit.server.db.model.DataDownloadTracking;
 
 /**
  * interface for data download ip
@@ -18,6 +20,13 @@ public interface DataDownloadTrackingDAO {
 	 * @throws DaoException
 	 */
 	public void insertNewIP(String ip, Date downloadDate) throws DaoException;
+
+	/**
+	 * persists the given entries in a single transaction
+	 * @param downloads
+	 * @throws DaoException
+	 */
+	public void insertNewIPs(List<DataDownloadTracking> downloads) throws DaoException;
 	
 	/**
 	 * Retrieves number of jobs for specified ip address during last day.
@@ -34,5 +43,13 @@ public interface DataDownloadTrackingDAO {
 	 * @throws DaoException when can not retrieve information from data storage
 	 */
 	public Date getOldestJobDownloadDateDuringLastDay(String ip) throws DaoException;
+
+	/**
+	 * Retrieves the download dates for specified ip address during the last day.
+	 * @param ip ip address
+	 * @return download dates for specified ip address during the last day
+	 * @throws DaoException when can not retrieve information from data storage
+	 */
+	public List<Date> getDownloadDatesDuringLastDay(String ip) throws DaoException;
 	
 }
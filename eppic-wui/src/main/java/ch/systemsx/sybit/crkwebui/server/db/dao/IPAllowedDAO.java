@@ -1,5 +1,7 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao;
 
+import java.util.Map;
+
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 
 /**
@@ -16,4 +18,11 @@ public interface IPAllowedDAO
 	 * @throws DaoException when can not retrieve information from data storage
 	 */
 	public int getNrOfAllowedSubmissionsForIP(String ip) throws DaoException;
+	
+	/**
+	 * Retrieves the number of allowed submissions of all the ip addresses with a specific quota.
+	 * @return map of ip addresses to their number of allowed submissions
+	 * @throws DaoException when can not retrieve information from data storage
+	 */
+	public Map<String, Integer> getNrOfAllowedSubmissionsForIPs() throws DaoException;
 }
@@ -2,6 +2,7 @@ package ch.systemsx.sybit.crkwebui.server.db.dao;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import ch.systemsx.sybit.crkwebui.server.db.data.InputWithType;
 import ch.systemsx.sybit.crkwebui.server.db.data.JobStatusDetails;
@@ -48,6 +49,13 @@ public interface JobDAO
 	 */
 	public void updateStatusOfJob(String jobId, StatusOfJob stopped) throws DaoException;
 
+	/**
+	 * Updates the statuses of several jobs in a single transaction.
+	 * @param statuses the new status of each job, by job identifier
+	 * @throws DaoException when can not update statuses of the jobs
+	 */
+	public void updateStatusOfJobs(Map<String, StatusOfJob> statuses) throws DaoException;
+
 	/**
 	 * Removes links between jobs and selected session.
 	 * @param sessionId identifier of the session
@@ -110,6 +118,14 @@ public interface JobDAO
 	 */
 	public Date getOldestJobSubmissionDateDuringLastDay(String ip) throws DaoException;
 
+	/**
+	 * Retrieves the submission dates of the jobs for specified ip address during last day.
+	 * @param ip ip address
+	 * @return submission dates of the jobs for specified ip address during last day
+	 * @throws DaoException when can not retrieve information from data storage
+	 */
+	public List<Date> getJobSubmissionDatesDuringLastDay(String ip) throws DaoException;
+
 	/**
 	 * Removes session - job link for specified job and session.
 	 * @param sessionId identifier of the session
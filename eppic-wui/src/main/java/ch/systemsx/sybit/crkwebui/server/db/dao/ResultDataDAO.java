@@ -0,0 +1,35 @@
+package ch.systemsx.sybit.crkwebui.server.db.dao;
+
+import java.util.List;
+
+import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
+import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+
+/**
+ * DAO loading the whole result graph of a job (PdbInfo with its interface clusters, interfaces,
+ * chain clusters and assemblies) at once.
+ * @author AS
+ */
+public interface ResultDataDAO {
+
+	/**
+	 * Gets the results of the given job as displayed in the web interface: interfaces with
+	 * their scores and warnings but without residues.
+	 * @param jobId
+	 * @return
+	 * @throws DaoException
+	 */
+	public PdbInfo getResultData(String jobId) throws DaoException;
+
+	/**
+	 * Gets the results of the given job as provided for download: interfaces with their
+	 * scores and residues.
+	 * @param jobId
+	 * @param interfaceIds the ids of the interfaces to include (with their warnings), clusters 
+	 * with none of them are left out. If null all interfaces are included, without warnings
+	 * @param withChainClusters whether to include the chain clusters (sequence information)
+	 * @return
+	 * @throws DaoException
+	 */
+	public PdbInfo getResultDataWithResidues(String jobId, List<Integer> interfaceIds, boolean withChainClusters) throws DaoException;
+}
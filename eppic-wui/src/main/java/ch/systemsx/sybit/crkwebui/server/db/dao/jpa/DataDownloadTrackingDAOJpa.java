@@ -62,6 +62,50 @@ public class DataDownloadTrackingDAOJpa implements DataDownloadTrackingDAO {
 		
 	}
 
+	@Override
+	public void insertNewIPs(List<DataDownloadTracking> downloads) throws DaoException {
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+			entityManager.getTransaction().begin();
+
+			for(DataDownloadTracking download : downloads)
+			{
+				entityManager.persist(download);
+			}
+
+			entityManager.getTransaction().commit();
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+
+			try
+			{
+				entityManager.getTransaction().rollback();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
+
 	@Override
 	public Long getNrOfDownloadsForIPDuringLastDay(String ip) throws DaoException {
 		EntityManager entityManager = null;
@@ -164,4 +208,46 @@ public class DataDownloadTrackingDAOJpa implements DataDownloadTrackingDAO {
 		}
 	}
 
+	@Override
+	public List<Date> getDownloadDatesDuringLastDay(String ip) throws DaoException {
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			Date currentDate = new Date();
+			long oneDay = 1 * 24 * 60 * 60 * 1000;
+			Timestamp dayBeforeTimestamp = new Timestamp(currentDate.getTime() - oneDay);
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Date> criteriaQuery = criteriaBuilder.createQuery(Date.class);
+
+			Root<DataDownloadTracking> root = criteriaQuery.from(DataDownloadTracking.class);
+			criteriaQuery.select(root.get(DataDownloadTracking_.downloadDate));
+
+			Predicate ipCondition = criteriaBuilder.equal(root.get(DataDownloadTracking_.ip), ip);
+			Predicate dateCondition = criteriaBuilder.greaterThan(root.get(DataDownloadTracking_.downloadDate), dayBeforeTimestamp);
+			criteriaQuery.where(criteriaBuilder.and(ipCondition, dateCondition));
+
+			return entityManager.createQuery(criteriaQuery).getResultList();
+		}
+		catch(Throwable t)
+		{
+			t.printStackTrace();
+			throw new DaoException(t);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
+
 }
@@ -1,6 +1,8 @@
 package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
@@ -70,4 +72,38 @@ public class IPForbiddenDAOJpa implements IPForbiddenDAO
 			}
 		}
 	}
+
+	@Override
+	public Set<String> getForbiddenIPs() throws DaoException
+	{
+		EntityManager entityManager = null;
+		
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+			
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<String> criteriaQuery = criteriaBuilder.createQuery(String.class);
+			Root<IPForbidden> sessionRoot = criteriaQuery.from(IPForbidden.class);
+			criteriaQuery.select(sessionRoot.get(IPForbidden_.ip));
+			
+			return new HashSet<String>(entityManager.createQuery(criteriaQuery).getResultList());
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
 }
@@ -3,8 +3,10 @@ package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.persistence.EntityManager;
@@ -152,6 +154,72 @@ public class JobDAOJpa implements JobDAO
 		}
 	}
 
+	@Override
+	public void updateStatusOfJobs(Map<String, StatusOfJob> statuses) throws DaoException
+	{
+		if(statuses.isEmpty())
+		{
+			return;
+		}
+
+		// one bulk update per status
+		Map<StatusOfJob, List<String>> jobIdsByStatus = new EnumMap<StatusOfJob, List<String>>(StatusOfJob.class);
+		for(Map.Entry<String, StatusOfJob> entry : statuses.entrySet())
+		{
+			List<String> jobIds = jobIdsByStatus.get(entry.getValue());
+			if(jobIds == null)
+			{
+				jobIds = new ArrayList<String>();
+				jobIdsByStatus.put(entry.getValue(), jobIds);
+			}
+			jobIds.add(entry.getKey());
+		}
+
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+			entityManager.getTransaction().begin();
+
+			for(Map.Entry<StatusOfJob, List<String>> entry : jobIdsByStatus.entrySet())
+			{
+				Query query = entityManager.createQuery("UPDATE Job j SET j.status = :status WHERE j.jobId IN :jobIds");
+				query.setParameter("status", entry.getKey().getName());
+				query.setParameter("jobIds", entry.getValue());
+				query.executeUpdate();
+			}
+
+			entityManager.getTransaction().commit();
+		}
+		catch(Throwable e)
+		{
+			logger.error(e.getMessage(),e);
+
+			try
+			{
+				entityManager.getTransaction().rollback();
+			}
+			catch(Throwable t)
+			{
+				logger.error("Error rolling back EntityManager",t);
+			}
+
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				logger.error("Error closing EntityManager",t);
+			}
+		}
+	}
+
 	@Override
 	public void untieJobsFromSession(String sessionId) throws DaoException
 	{
@@ -520,6 +588,49 @@ public class JobDAOJpa implements JobDAO
 		}
 	}
 
+	@Override
+	public List<Date> getJobSubmissionDatesDuringLastDay(String ip) throws DaoException
+	{
+		EntityManager entityManager = null;
+
+		try
+		{
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			Date currentDate = new Date();
+			long oneDay = 1 * 24 * 60 * 60 * 1000;
+			Timestamp dayBeforeTimestamp = new Timestamp(currentDate.getTime() - oneDay);
+
+			CriteriaBuilder criteriaBuilder = entityManager.getCriteriaBuilder();
+			CriteriaQuery<Date> criteriaQuery = criteriaBuilder.createQuery(Date.class);
+
+			Root<JobDB> jobRoot = criteriaQuery.from(JobDB.class);
+			criteriaQuery.select(jobRoot.get(JobDB_.submissionDate));
+
+			Predicate ipCondition = criteriaBuilder.equal(jobRoot.get(JobDB_.ip), ip);
+			Predicate submissionDateCondition = criteriaBuilder.greaterThan(jobRoot.get(JobDB_.submissionDate), dayBeforeTimestamp);
+			criteriaQuery.where(criteriaBuilder.and(ipCondition, submissionDateCondition));
+
+			return entityManager.createQuery(criteriaQuery).getResultList();
+		}
+		catch(Throwable t)
+		{
+			logger.error(t.getMessage(),t);
+			throw new DaoException(t);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				logger.error("Error closing EntityManager",t);
+			}
+		}
+	}
+
 	@Override
 	public void untieSelectedJobFromSession(String sessionId, String jobToUntie) throws DaoException
 	{
@@ -67,6 +67,8 @@ public class PDBInfoDAOJpa implements PDBInfoDAO
 									  pdbScoreItemRoot.get(PdbInfoDB_.exhaustiveAssemblyEnumeration));
 			
 			TypedQuery<PdbInfoDB> query = entityManager.createQuery(criteriaQuery);
+			// a hot lookup: served from the query cache if enabled (ignored otherwise)
+			query.setHint(EntityManagerHandler.QUERY_HINT_CACHEABLE, true);
 			PdbInfoDB pdbScoreItemDB = query.getSingleResult();
 			
 			result = PdbInfo.create(pdbScoreItemDB);
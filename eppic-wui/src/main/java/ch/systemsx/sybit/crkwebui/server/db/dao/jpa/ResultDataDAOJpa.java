@@ -0,0 +1,175 @@
+package ch.systemsx.sybit.crkwebui.server.db.dao.jpa;
+
+import java.util.Iterator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.db.EntityManagerHandler;
+import ch.systemsx.sybit.crkwebui.server.db.dao.ResultDataDAO;
+import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
+import ch.systemsx.sybit.crkwebui.shared.model.Interface;
+import ch.systemsx.sybit.crkwebui.shared.model.InterfaceCluster;
+import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+import eppic.model.InterfaceClusterDB;
+import eppic.model.InterfaceDB;
+import eppic.model.PdbInfoDB;
+
+/**
+ * Implementation of ResultDataDAO.
+ * <p>
+ * The whole graph is loaded in a single persistence context with a fixed number of fetch join
+ * queries, one per collection level (bags can't be fetched together), independently of the number
+ * of clusters and interfaces. Once loaded, the shared model objects are created from the entities
+ * without any further lazy loading.
+ *
+ * @author AS
+ */
+public class ResultDataDAOJpa implements ResultDataDAO
+{
+	private static final Logger logger = LoggerFactory.getLogger(ResultDataDAOJpa.class);
+
+	// note: no 'distinct' in the fetch queries, their results are not used, they only initialise the collections
+
+	private static final String PDBINFO_QUERY =
+			"select p from PdbInfo p join fetch p.job j left join fetch p.runParameters where j.jobId = :jobId";
+
+	private static final String[] INTERFACE_QUERIES = {
+		"select p from PdbInfo p left join fetch p.interfaceClusters ic where p = :pdbInfo order by ic.uid",
+		"select ic from InterfaceCluster ic left join fetch ic.interfaceClusterScores s where ic.pdbInfo = :pdbInfo order by s.uid",
+		"select ic from InterfaceCluster ic left join fetch ic.interfaces i where ic.pdbInfo = :pdbInfo order by i.uid",
+		"select i from Interface i left join fetch i.interfaceScores s where i.interfaceCluster.pdbInfo = :pdbInfo order by s.uid"
+	};
+
+	private static final String WARNINGS_QUERY =
+			"select i from Interface i left join fetch i.interfaceWarnings w where i.interfaceCluster.pdbInfo = :pdbInfo order by w.uid";
+
+	private static final String RESIDUES_QUERY =
+			"select i from Interface i left join fetch i.residueBurials r left join fetch r.residueInfo where i.interfaceCluster.pdbInfo = :pdbInfo order by r.uid";
+
+	// chain clusters are always loaded: they are referenced eagerly from residue infos
+	private static final String[] CHAIN_CLUSTER_QUERIES = {
+		"select p from PdbInfo p left join fetch p.chainClusters cc left join fetch cc.seqCluster where p = :pdbInfo order by cc.uid",
+		"select cc from ChainCluster cc left join fetch cc.homologs h where cc.pdbInfo = :pdbInfo order by h.uid",
+		"select cc from ChainCluster cc left join fetch cc.uniProtRefWarnings w where cc.pdbInfo = :pdbInfo order by w.uid"
+	};
+
+	private static final String[] ASSEMBLY_QUERIES = {
+		"select p from PdbInfo p left join fetch p.assemblies a where p = :pdbInfo order by a.uid",
+		"select a from Assembly a left join fetch a.assemblyScores s where a.pdbInfo = :pdbInfo order by s.uid",
+		"select a from Assembly a left join fetch a.assemblyContents c where a.pdbInfo = :pdbInfo order by c.uid",
+		"select a from Assembly a left join fetch a.interfaceClusters where a.pdbInfo = :pdbInfo"
+	};
+
+	@Override
+	public PdbInfo getResultData(String jobId) throws DaoException
+	{
+		return loadResultData(jobId, false, true, true, null);
+	}
+
+	@Override
+	public PdbInfo getResultDataWithResidues(String jobId, List<Integer> interfaceIds, boolean withChainClusters) throws DaoException
+	{
+		// the warnings only for explicitly requested interfaces, as always done for downloads
+		return loadResultData(jobId, true, interfaceIds!=null, withChainClusters, interfaceIds);
+	}
+
+	private PdbInfo loadResultData(String jobId, boolean withResidues, boolean withWarnings, boolean withChainClusters, List<Integer> interfaceIds)
+			throws DaoException
+	{
+		EntityManager entityManager = null;
+
+		try
+		{
+			long start = System.currentTimeMillis();
+
+			entityManager = EntityManagerHandler.getEntityManager();
+
+			TypedQuery<PdbInfoDB> query = entityManager.createQuery(PDBINFO_QUERY, PdbInfoDB.class);
+			query.setParameter("jobId", jobId);
+			PdbInfoDB pdbInfoDB = query.getSingleResult();
+
+			int numQueries = 1;
+			numQueries += fetch(entityManager, pdbInfoDB, INTERFACE_QUERIES);
+			if (withWarnings) numQueries += fetch(entityManager, pdbInfoDB, WARNINGS_QUERY);
+			numQueries += fetch(entityManager, pdbInfoDB, CHAIN_CLUSTER_QUERIES);
+			if (withResidues) numQueries += fetch(entityManager, pdbInfoDB, RESIDUES_QUERY);
+			numQueries += fetch(entityManager, pdbInfoDB, ASSEMBLY_QUERIES);
+
+			// leaving out what was not loaded, so that creating the shared model doesn't trigger lazy loading.
+			// There's no transaction: the changes are never flushed
+			for (InterfaceClusterDB interfaceClusterDB : pdbInfoDB.getInterfaceClusters()) {
+				for (InterfaceDB interfaceDB : interfaceClusterDB.getInterfaces()) {
+					if (!withResidues) interfaceDB.setResidueBurials(null);
+					if (!withWarnings) interfaceDB.setInterfaceWarnings(null);
+				}
+			}
+
+			PdbInfo result = PdbInfo.create(pdbInfoDB);
+
+			result.setJobId(jobId);
+			result.setInputType(pdbInfoDB.getJob().getInputType());
+			result.setInputName(pdbInfoDB.getJob().getInputName());
+
+			if (!withChainClusters) {
+				result.setChainClusters(new PdbInfo().getChainClusters());
+			}
+
+			if (interfaceIds!=null) {
+				filterInterfaces(result, interfaceIds);
+			}
+
+			logger.debug("Loaded result data for job {} with {} queries in {} ms", jobId, numQueries, System.currentTimeMillis()-start);
+
+			return result;
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			throw new DaoException(e);
+		}
+		finally
+		{
+			try
+			{
+				entityManager.close();
+			}
+			catch(Throwable t)
+			{
+				t.printStackTrace();
+			}
+		}
+	}
+
+	private static int fetch(EntityManager entityManager, PdbInfoDB pdbInfoDB, String... queries) {
+		for (String jpql : queries) {
+			entityManager.createQuery(jpql).setParameter("pdbInfo", pdbInfoDB).getResultList();
+		}
+		return queries.length;
+	}
+
+	/**
+	 * Keeps only the given interfaces in the interface clusters of pdbInfo, removing
+	 * the clusters with none of them
+	 * @param pdbInfo
+	 * @param interfaceIds
+	 */
+	private static void filterInterfaces(PdbInfo pdbInfo, List<Integer> interfaceIds) {
+		Iterator<InterfaceCluster> clusterIt = pdbInfo.getInterfaceClusters().iterator();
+		while (clusterIt.hasNext()) {
+			InterfaceCluster cluster = clusterIt.next();
+			Iterator<Interface> it = cluster.getInterfaces().iterator();
+			while (it.hasNext()) {
+				if (!interfaceIds.contains(it.next().getInterfaceId())) it.remove();
+			}
+			if (cluster.getInterfaces().isEmpty()) {
+				clusterIt.remove();
+				logger.debug("Removing cluster uid="+cluster.getUid()+", clusterId="+cluster.getClusterId()+" since none of its interfaces was requested");
+			}
+		}
+	}
+}
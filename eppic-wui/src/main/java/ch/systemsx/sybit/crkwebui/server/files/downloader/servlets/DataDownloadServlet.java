@@ -1,19 +1,23 @@
 package ch.systemsx.sybit.crkwebui.server.files.downloader.servlets;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
-import java.util.Iterator;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import javax.persistence.PersistenceContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 
@@ -21,34 +25,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ch.systemsx.sybit.crkwebui.server.commons.servlets.BaseServlet;
-import ch.systemsx.sybit.crkwebui.server.db.dao.DataDownloadTrackingDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.AssemblyDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.ChainClusterDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.InterfaceClusterDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.InterfaceDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.JobDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.PDBInfoDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.DataDownloadTrackingDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.AssemblyDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.ChainClusterDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.InterfaceClusterDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.InterfaceDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.JobDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.PDBInfoDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.data.InputWithType;
+import ch.systemsx.sybit.crkwebui.server.db.dao.ResultDataDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.ResultDataDAOJpa;
 import ch.systemsx.sybit.crkwebui.server.files.downloader.generators.JobListWithInterfacesGenerator;
 import ch.systemsx.sybit.crkwebui.server.files.downloader.validators.DataDownloadServletInputValidator;
+import ch.systemsx.sybit.crkwebui.server.files.downloader.writers.PdbInfoListWriter;
+import ch.systemsx.sybit.crkwebui.server.files.downloader.writers.PdbInfoListXmlWriter;
+import ch.systemsx.sybit.crkwebui.server.ip.IPRateLimiter;
 import ch.systemsx.sybit.crkwebui.server.ip.validators.IPVerifier;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.ValidationException;
-import ch.systemsx.sybit.crkwebui.shared.model.Assembly;
-import ch.systemsx.sybit.crkwebui.shared.model.ChainCluster;
-import ch.systemsx.sybit.crkwebui.shared.model.Interface;
-import ch.systemsx.sybit.crkwebui.shared.model.InterfaceCluster;
 import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
 
 /**
- * Servlet used to download results in xml format
+ * Servlet used to download results in xml or json format
  * @author biyani_n
  *
  */
@@ -64,6 +54,8 @@ public class DataDownloadServlet extends BaseServlet{
 	
 	private static final Logger logger = LoggerFactory.getLogger(DataDownloadServlet.class);
 		
+	private static final int OUTPUT_BUFFER_SIZE = 8192;
+	
 	//Parameters
 	private int maxNumJobIds;
 	private int defaultNrOfAllowedSubmissionsForIP;
@@ -89,7 +81,7 @@ public class DataDownloadServlet extends BaseServlet{
 		
 		String requestIP = request.getRemoteAddr();
 
-		logger.info("XML data download requested for '{}'",jobIdCommaSep);
+		logger.info("Data download ({}) requested for '{}'",type, jobIdCommaSep);
 		
 		try
 		{	
@@ -103,32 +95,76 @@ public class DataDownloadServlet extends BaseServlet{
 										      defaultNrOfAllowedSubmissionsForIP, 
 										      true);
 			
-			List<PdbInfo> pdbList = new ArrayList<PdbInfo>();
-
-			for(String jobId: jobIdMap.keySet()){
-				pdbList.add(getResultData(jobId, jobIdMap.get(jobId), getSeqInfo));
-			}
-
-			createXMLResponse(response, pdbList);
+			createResponse(request, response, type, jobIdMap, getSeqInfo);
 
 		}
 		catch(ValidationException e) {
 			response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED, "Input values are incorrect: " + e.getMessage());
 		} catch (DaoException e) {
 			throw new ServletException(e);
-		} catch (JAXBException e) {
-			throw new ServletException(e);
 		}
 	}
 	
 	/**
-	 * Inserts the ip to the DB
+	 * Writes the results of the given jobs to the response in the given format, loading and writing 
+	 * one entry at a time so that memory use doesn't depend on the number of jobs. 
+	 * The output is gzip encoded if the client accepts it.
+	 * @param request
+	 * @param response
+	 * @param format
+	 * @param jobIdMap
+	 * @param getSeqInfo
+	 * @throws IOException
+	 * @throws DaoException
+	 */
+	private void createResponse(HttpServletRequest request, HttpServletResponse response, String format,
+			Map<String, List<Integer>> jobIdMap, String getSeqInfo) throws IOException, DaoException {
+		
+		response.setContentType(PdbInfoListWriter.getContentType(format));
+		response.setCharacterEncoding("UTF-8");
+		
+		boolean gzip = acceptsGzip(request);
+		OutputStream out = response.getOutputStream();
+		if (gzip) {
+			response.setHeader("Content-Encoding", "gzip");
+			response.addHeader("Vary", "Accept-Encoding");
+			out = new GZIPOutputStream(out, OUTPUT_BUFFER_SIZE);
+		}
+		
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+		
+		long start = System.currentTimeMillis();
+		
+		PdbInfoListWriter listWriter = PdbInfoListWriter.create(format, writer);
+		listWriter.start();
+		for(String jobId: jobIdMap.keySet()){
+			// once the response is committed errors can't be reported with a status code anymore: 
+			// the validation already checked that all jobs have results
+			listWriter.write(getResultData(jobId, jobIdMap.get(jobId), getSeqInfo));
+		}
+		listWriter.end();
+		
+		// finishes the gzip stream
+		writer.close();
+		
+		logger.info("Wrote {} entries as {}{} in {} ms", jobIdMap.size(), format, gzip?" (gzip)":"", System.currentTimeMillis()-start);
+	}
+	
+	private static boolean acceptsGzip(HttpServletRequest request) {
+		Enumeration<String> values = request.getHeaders("Accept-Encoding");
+		while (values!=null && values.hasMoreElements()) {
+			if (values.nextElement().toLowerCase().contains("gzip")) return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Counts the download for the ip, it is written to the DB asynchronously
 	 * @param ip
 	 * @throws DaoException
 	 */
 	private void addIPToDB(String ip) throws DaoException{
-		DataDownloadTrackingDAO downloadDAO = new DataDownloadTrackingDAOJpa();
-		downloadDAO.insertNewIP(ip, new Date());
+		IPRateLimiter.getInstance().recordDownload(ip, new Date());
 	}
 	
 	/**
@@ -140,96 +176,23 @@ public class DataDownloadServlet extends BaseServlet{
 	 */
 	private PdbInfo getResultData(String jobId, List<Integer> interfaceIdList, String getSeqInfo) throws DaoException
 	{
-		JobDAO jobDAO = new JobDAOJpa();
-		InputWithType input = jobDAO.getInputWithTypeForJob(jobId);
-
-		PDBInfoDAO pdbInfoDAO = new PDBInfoDAOJpa();
-		PdbInfo pdbInfo = pdbInfoDAO.getPDBInfo(jobId);
-		
-		InterfaceClusterDAO clusterDAO = new InterfaceClusterDAOJpa();
-		List<InterfaceCluster> clusters = clusterDAO.getInterfaceClustersWithoutInterfaces(pdbInfo.getUid());
-
-		InterfaceDAO interfaceDAO = new InterfaceDAOJpa();
-		for(InterfaceCluster cluster: clusters){
-			logger.debug("Getting data for interface cluster uid {}", cluster.getUid());
-			List<Interface> interfaceItems;
-			if(interfaceIdList != null){
-				logger.debug("Interface id list requested: {}", interfaceIdList.toString()); 
-				interfaceItems = interfaceDAO.getInterfacesWithResidues(cluster.getUid(), interfaceIdList);
-			}
-			else{
-				interfaceItems = interfaceDAO.getInterfacesWithResidues(cluster.getUid());
-			}
-			cluster.setInterfaces(interfaceItems);
-		}
-
-		// now we remove interface clusters with no interfaces, which can happen when interfaceIdList is provided
-		if (interfaceIdList!=null) {
-			Iterator<InterfaceCluster> it = clusters.iterator();
-			while (it.hasNext()) {
-				InterfaceCluster cluster = it.next();
-				if (cluster.getInterfaces().size()==0) {
-					it.remove();
-					logger.debug("Removing cluster uid="+cluster.getUid()+", clusterId="+cluster.getClusterId()+" since none of its interfaces was requested");
-				}
-			}
+		if(interfaceIdList != null){
+			logger.debug("Interface id list requested: {}", interfaceIdList.toString()); 
 		}
 		
-		pdbInfo.setInterfaceClusters(clusters);
-
-		if(getSeqInfo == null || getSeqInfo.equals("t")){	
-			ChainClusterDAO chainClusterDAO = new ChainClusterDAOJpa();
-			List<ChainCluster> chainClusters = chainClusterDAO.getChainClusters(pdbInfo.getUid());
-			pdbInfo.setChainClusters(chainClusters);
-		}
-		
-		pdbInfo.setInputType(input.getInputType());
-		pdbInfo.setInputName(input.getInputName());
-		
-		
-		// assemblies info
-		AssemblyDAO assemblyDAO = new AssemblyDAOJpa();
-		
-		List<Assembly> assemblies = assemblyDAO.getAssemblies(pdbInfo.getUid());
-		pdbInfo.setAssemblies(assemblies);
-		
-		return pdbInfo;
-	}
-
-	/**
-	 * converts the contents of the class to xml file
-	 * @param response to write xml file
-	 * @throws IOException 
-	 * @throws JAXBException 
-	 */
-	void createXMLResponse(HttpServletResponse response, List<PdbInfo> pdbList) throws IOException, JAXBException{
-
-		if(pdbList == null) return;
-
-		response.setContentType("text/xml");
-		response.setCharacterEncoding("UTF-8");
-
-		PrintWriter writer = response.getWriter();
-
-		serializePdbInfoList(pdbList, writer);
-
+		ResultDataDAO resultDataDAO = new ResultDataDAOJpa();
+		return resultDataDAO.getResultDataWithResidues(jobId, interfaceIdList, getSeqInfo == null || getSeqInfo.equals("t"));
 	}
 
 	public void serializePdbInfoList(List<PdbInfo> pdbList, PrintWriter writer) throws JAXBException {
-	    // create JAXB context and initializing Marshaller
-	    JAXBContext jaxbContext = JAXBContext.newInstance(PdbInfo.class);
-	    Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
-
-	    // for getting nice formatted output
-	    jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-	    jaxbMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+	    // the JAXB context is shared: only the marshaller is created per call
+	    Marshaller jaxbMarshaller = PdbInfoListXmlWriter.createMarshaller();
 
-	    // Writing to console
-	    writer.append("<eppicAnalysisList>");
+	    writer.append("<"+PdbInfoListXmlWriter.LIST_ELEMENT+">");
 	    
 	    for(PdbInfo pdb:pdbList){
 	    	jaxbMarshaller.marshal(pdb, writer);
 	    }
-	    writer.append("</eppicAnalysisList>");
+	    writer.append("</"+PdbInfoListXmlWriter.LIST_ELEMENT+">");
 	}
 }
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import ch.systemsx.sybit.crkwebui.server.db.dao.JobDAO;
 import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.JobDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.files.downloader.writers.PdbInfoListWriter;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.ValidationException;
 import ch.systemsx.sybit.shared.model.StatusOfJob;
@@ -17,8 +18,8 @@ public class DataDownloadServletInputValidator {
 	private static final Logger log = LoggerFactory.getLogger(DataDownloadServletInputValidator.class);
 	
 	/**
-	 * Validates correctness of input data necessary to produce xml file.
-	 * @param type type of the file
+	 * Validates correctness of input data necessary to produce the xml or json file.
+	 * @param type type of the file: xml or json
 	 * @param jobIdMap map of identifier of the job to the interfaceId's
 	 * @param getSeqInfo string with t/f to provide seq info or not
 	 * @param maxXMLCalls maximum number of Job Ids to be used in one call
@@ -30,8 +31,9 @@ public class DataDownloadServletInputValidator {
 											   String getSeqInfo,
 											   int maxXMLJobs) throws ValidationException, DaoException
 	{
-		if(type == null || !type.equals("xml")){
-			throw new ValidationException("Please provide a correct value of file type to be downloaded with &type=");
+		if(type == null || !PdbInfoListWriter.isValidFormat(type)){
+			throw new ValidationException("Please provide a correct value of file type to be downloaded with &type=  ; (allowed: "+
+					PdbInfoListWriter.FORMAT_XML+"/"+PdbInfoListWriter.FORMAT_JSON+")");
 		}
 		
 		if(jobIdMap.size() > maxXMLJobs){
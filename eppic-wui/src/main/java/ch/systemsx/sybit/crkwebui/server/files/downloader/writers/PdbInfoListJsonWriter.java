@@ -0,0 +1,53 @@
+package ch.systemsx.sybit.crkwebui.server.files.downloader.writers;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationModule;
+
+import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+
+/**
+ * Writes results as a json array of objects. The json follows the JAXB annotations of the model,
+ * so that it has the same contents and names as the xml (list names are those of the xml wrapper elements)
+ */
+public class PdbInfoListJsonWriter extends PdbInfoListWriter {
+
+	/**
+	 * Thread-safe once configured: shared by all writers
+	 */
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.registerModule(new JaxbAnnotationModule())
+			.enable(MapperFeature.USE_WRAPPER_NAME_AS_PROPERTY_NAME)
+			.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+	private final JsonGenerator generator;
+
+	public PdbInfoListJsonWriter(Writer writer) throws IOException {
+		super(writer);
+		this.generator = MAPPER.getFactory().createGenerator(writer);
+		// closing is up to the owner of the writer
+		this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	}
+
+	@Override
+	public void start() throws IOException {
+		generator.writeStartArray();
+	}
+
+	@Override
+	public void write(PdbInfo pdbInfo) throws IOException {
+		MAPPER.writeValue(generator, pdbInfo);
+		generator.flush();
+	}
+
+	@Override
+	public void end() throws IOException {
+		generator.writeEndArray();
+		generator.flush();
+	}
+}
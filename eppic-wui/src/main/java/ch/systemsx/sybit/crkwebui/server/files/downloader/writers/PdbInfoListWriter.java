@@ -0,0 +1,60 @@
+package ch.systemsx.sybit.crkwebui.server.files.downloader.writers;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+
+/**
+ * Writes a list of results to a stream one PdbInfo at a time, so that the whole list never 
+ * needs to be held in memory.
+ * Usage: {@link #start()}, then {@link #write(PdbInfo)} for each entry, then {@link #end()}.
+ * The underlying writer is flushed after each entry but never closed.
+ */
+public abstract class PdbInfoListWriter {
+
+	public static final String FORMAT_XML = "xml";
+	public static final String FORMAT_JSON = "json";
+
+	protected final Writer writer;
+
+	protected PdbInfoListWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * Returns a writer for the given format
+	 * @param format one of {@link #FORMAT_XML} or {@link #FORMAT_JSON}
+	 * @param writer
+	 * @return
+	 * @throws IOException
+	 * @throws IllegalArgumentException if the format is not known
+	 */
+	public static PdbInfoListWriter create(String format, Writer writer) throws IOException {
+		if (FORMAT_XML.equals(format)) {
+			return new PdbInfoListXmlWriter(writer);
+		} else if (FORMAT_JSON.equals(format)) {
+			return new PdbInfoListJsonWriter(writer);
+		}
+		throw new IllegalArgumentException("Unknown data format "+format);
+	}
+
+	/**
+	 * Returns the content type of the output of the given format
+	 * @param format
+	 * @return
+	 */
+	public static String getContentType(String format) {
+		return FORMAT_JSON.equals(format) ? "application/json" : "text/xml";
+	}
+
+	public static boolean isValidFormat(String format) {
+		return FORMAT_XML.equals(format) || FORMAT_JSON.equals(format);
+	}
+
+	public abstract void start() throws IOException;
+
+	public abstract void write(PdbInfo pdbInfo) throws IOException;
+
+	public abstract void end() throws IOException;
+}
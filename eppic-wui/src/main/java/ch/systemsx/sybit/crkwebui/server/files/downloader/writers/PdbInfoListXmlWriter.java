@@ -0,0 +1,77 @@
+package ch.systemsx.sybit.crkwebui.server.files.downloader.writers;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import ch.systemsx.sybit.crkwebui.shared.model.PdbInfo;
+
+/**
+ * Writes results as a list of eppicAnalysis xml elements wrapped in an eppicAnalysisList element
+ */
+public class PdbInfoListXmlWriter extends PdbInfoListWriter {
+
+	public static final String LIST_ELEMENT = "eppicAnalysisList";
+
+	/**
+	 * The context is thread-safe and expensive to create: shared by all writers. Marshallers aren't thread-safe
+	 */
+	private static JAXBContext jaxbContext;
+
+	private final Marshaller marshaller;
+
+	public PdbInfoListXmlWriter(Writer writer) throws IOException {
+		super(writer);
+		try {
+			this.marshaller = createMarshaller();
+		} catch (JAXBException e) {
+			throw new IOException("Could not create xml marshaller: "+e.getMessage(), e);
+		}
+	}
+
+	private static synchronized JAXBContext getJAXBContext() throws JAXBException {
+		if (jaxbContext == null) {
+			jaxbContext = JAXBContext.newInstance(PdbInfo.class);
+		}
+		return jaxbContext;
+	}
+
+	/**
+	 * Creates a marshaller from the shared context producing formatted xml fragments (no xml declaration)
+	 * @return
+	 * @throws JAXBException
+	 */
+	public static Marshaller createMarshaller() throws JAXBException {
+		Marshaller jaxbMarshaller = getJAXBContext().createMarshaller();
+
+		// for getting nice formatted output
+		jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+		jaxbMarshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+
+		return jaxbMarshaller;
+	}
+
+	@Override
+	public void start() throws IOException {
+		writer.append("<"+LIST_ELEMENT+">");
+	}
+
+	@Override
+	public void write(PdbInfo pdbInfo) throws IOException {
+		try {
+			marshaller.marshal(pdbInfo, writer);
+		} catch (JAXBException e) {
+			throw new IOException("Could not write xml for "+pdbInfo.getJobId()+": "+e.getMessage(), e);
+		}
+		writer.flush();
+	}
+
+	@Override
+	public void end() throws IOException {
+		writer.append("</"+LIST_ELEMENT+">");
+		writer.flush();
+	}
+}
@@ -0,0 +1,304 @@
+package ch.systemsx.sybit.crkwebui.server.ip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.db.dao.DataDownloadTrackingDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.IPAllowedDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.IPForbiddenDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.JobDAO;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.DataDownloadTrackingDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPAllowedDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPForbiddenDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.JobDAOJpa;
+import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
+import ch.systemsx.sybit.server.db.model.DataDownloadTracking;
+
+/**
+ * In-memory bookkeeping of job submissions and data downloads per ip address, so that
+ * verifying the daily quotas doesn't need to query the database on every request.
+ * <p>
+ * Submissions and downloads are counted in 24h sliding windows, seeded from the database the
+ * first time an ip address is seen. The forbidden ip addresses and the specific quotas are
+ * reloaded from the database every {@value #LISTS_REFRESH_INTERVAL} seconds. Downloads are
+ * written to the database in batches every {@value #FLUSH_INTERVAL} seconds.
+ * <p>
+ * Note that the counts are only shared within one web application: jobs or downloads from other
+ * instances using the same database are only seen when an ip address is first seen.
+ * @author AS
+ */
+public class IPRateLimiter
+{
+	private static final Logger logger = LoggerFactory.getLogger(IPRateLimiter.class);
+
+	/**
+	 * The length of the window for the quotas: one day
+	 */
+	public static final long WINDOW_LENGTH = 24 * 60 * 60 * 1000L;
+
+	/**
+	 * Every this number of seconds the forbidden and allowed ip lists are reloaded
+	 */
+	private static final int LISTS_REFRESH_INTERVAL = 60;
+
+	/**
+	 * Every this number of seconds the pending downloads are written to the database
+	 */
+	private static final int FLUSH_INTERVAL = 5;
+
+	/**
+	 * Every this number of seconds the ip addresses without activity in the last day are forgotten
+	 */
+	private static final int EVICT_INTERVAL = 3600;
+
+	/**
+	 * Maximum number of downloads written in one transaction
+	 */
+	private static final int MAX_DOWNLOADS_PER_FLUSH = 1000;
+
+	private static IPRateLimiter instance;
+
+	private final IPForbiddenDAO ipForbiddenDAO;
+	private final IPAllowedDAO ipAllowedDAO;
+	private final DataDownloadTrackingDAO downloadDAO;
+
+	private final SlidingWindowCounter submissions;
+	private final SlidingWindowCounter downloads;
+
+	private volatile Set<String> forbiddenIPs;
+	private volatile Map<String, Integer> allowedSubmissions;
+
+	private final ConcurrentLinkedQueue<DataDownloadTracking> pendingDownloads = new ConcurrentLinkedQueue<>();
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Returns the rate limiter of the web application, creating it on first use
+	 * @return
+	 */
+	public static synchronized IPRateLimiter getInstance()
+	{
+		if(instance == null)
+		{
+			instance = new IPRateLimiter(new IPForbiddenDAOJpa(),
+										 new IPAllowedDAOJpa(),
+										 new JobDAOJpa(),
+										 new DataDownloadTrackingDAOJpa());
+		}
+		return instance;
+	}
+
+	/**
+	 * Stops the rate limiter of the web application, if it was started, writing the pending
+	 * downloads to the database
+	 */
+	public static synchronized void shutdown()
+	{
+		if(instance != null)
+		{
+			instance.stop();
+			instance = null;
+		}
+	}
+
+	private IPRateLimiter(IPForbiddenDAO ipForbiddenDAO,
+						  IPAllowedDAO ipAllowedDAO,
+						  JobDAO jobDAO,
+						  DataDownloadTrackingDAO downloadDAO)
+	{
+		this.ipForbiddenDAO = ipForbiddenDAO;
+		this.ipAllowedDAO = ipAllowedDAO;
+		this.downloadDAO = downloadDAO;
+
+		submissions = new SlidingWindowCounter(WINDOW_LENGTH, jobDAO::getJobSubmissionDatesDuringLastDay);
+		downloads = new SlidingWindowCounter(WINDOW_LENGTH, downloadDAO::getDownloadDatesDuringLastDay);
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "IPRateLimiter");
+			t.setDaemon(true);
+			return t;
+		});
+
+		scheduler.scheduleWithFixedDelay(this::refreshListsQuietly, LISTS_REFRESH_INTERVAL, LISTS_REFRESH_INTERVAL, TimeUnit.SECONDS);
+		scheduler.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL, FLUSH_INTERVAL, TimeUnit.SECONDS);
+		scheduler.scheduleWithFixedDelay(this::evictIdle, EVICT_INTERVAL, EVICT_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Retrieves information whether the ip address is not allowed to submit jobs.
+	 * @param ip
+	 * @return
+	 * @throws DaoException when the list can not be loaded the first time
+	 */
+	public boolean isIPForbidden(String ip) throws DaoException
+	{
+		loadListsIfNeeded();
+		return forbiddenIPs.contains(ip);
+	}
+
+	/**
+	 * Retrieves the number of allowed submissions per day for the ip address, 0 if there's no specific quota for it.
+	 * @param ip
+	 * @return
+	 * @throws DaoException when the list can not be loaded the first time
+	 */
+	public int getNrOfAllowedSubmissionsForIP(String ip) throws DaoException
+	{
+		loadListsIfNeeded();
+		Integer nrOfAllowedSubmissions = allowedSubmissions.get(ip);
+		return nrOfAllowedSubmissions == null ? 0 : nrOfAllowedSubmissions;
+	}
+
+	/**
+	 * Retrieves the job submissions of the ip address during the last day
+	 * @param ip
+	 * @return
+	 * @throws DaoException when the submissions of a new ip address can not be loaded
+	 */
+	public SlidingWindowCounter.Snapshot getSubmissionsDuringLastDay(String ip) throws DaoException
+	{
+		return submissions.get(ip, System.currentTimeMillis());
+	}
+
+	/**
+	 * Retrieves the data downloads of the ip address during the last day
+	 * @param ip
+	 * @return
+	 * @throws DaoException when the downloads of a new ip address can not be loaded
+	 */
+	public SlidingWindowCounter.Snapshot getDownloadsDuringLastDay(String ip) throws DaoException
+	{
+		return downloads.get(ip, System.currentTimeMillis());
+	}
+
+	/**
+	 * Counts a job submission, to be called before the job is stored in the database
+	 * @param ip
+	 * @param submissionDate
+	 * @throws DaoException when the submissions of a new ip address can not be loaded
+	 */
+	public void recordSubmission(String ip, Date submissionDate) throws DaoException
+	{
+		submissions.add(ip, submissionDate.getTime());
+	}
+
+	/**
+	 * Counts a data download and queues it to be written to the database
+	 * @param ip
+	 * @param downloadDate
+	 * @throws DaoException when the downloads of a new ip address can not be loaded
+	 */
+	public void recordDownload(String ip, Date downloadDate) throws DaoException
+	{
+		downloads.add(ip, downloadDate.getTime());
+		pendingDownloads.add(new DataDownloadTracking(ip, downloadDate));
+	}
+
+	private void loadListsIfNeeded() throws DaoException
+	{
+		if(forbiddenIPs == null)
+		{
+			synchronized (this)
+			{
+				if(forbiddenIPs == null)
+				{
+					refreshLists();
+				}
+			}
+		}
+	}
+
+	private void refreshLists() throws DaoException
+	{
+		Map<String, Integer> allowed = ipAllowedDAO.getNrOfAllowedSubmissionsForIPs();
+		Set<String> forbidden = ipForbiddenDAO.getForbiddenIPs();
+		allowedSubmissions = Collections.unmodifiableMap(allowed);
+		// forbiddenIPs last: it signals that the lists are loaded
+		forbiddenIPs = Collections.unmodifiableSet(forbidden);
+	}
+
+	private void refreshListsQuietly()
+	{
+		try
+		{
+			refreshLists();
+		}
+		catch(Throwable t)
+		{
+			logger.warn("Could not reload the forbidden and allowed ip lists, keeping the previous ones. Error: {}", t.getMessage());
+		}
+	}
+
+	private void flush()
+	{
+		List<DataDownloadTracking> batch = new ArrayList<>();
+		DataDownloadTracking download;
+		while((download = pendingDownloads.poll()) != null)
+		{
+			batch.add(download);
+			if(batch.size() >= MAX_DOWNLOADS_PER_FLUSH)
+			{
+				write(batch);
+				batch = new ArrayList<>();
+			}
+		}
+		if(!batch.isEmpty())
+		{
+			write(batch);
+		}
+	}
+
+	private void write(List<DataDownloadTracking> batch)
+	{
+		try
+		{
+			downloadDAO.insertNewIPs(batch);
+		}
+		catch(Throwable t)
+		{
+			// the downloads are still counted in memory, only the tracking rows are lost
+			logger.error("Could not write {} data download tracking entries to the database. Error: {}", batch.size(), t.getMessage());
+		}
+	}
+
+	private void evictIdle()
+	{
+		try
+		{
+			long now = System.currentTimeMillis();
+			int evicted = submissions.evictIdle(now) + downloads.evictIdle(now);
+			logger.debug("Forgot {} ip addresses without activity, {} submission and {} download windows left",
+					evicted, submissions.size(), downloads.size());
+		}
+		catch(Throwable t)
+		{
+			logger.error("Error while evicting idle ip addresses", t);
+		}
+	}
+
+	private void stop()
+	{
+		// lets a running flush finish, the periodic tasks are cancelled
+		scheduler.shutdown();
+		try
+		{
+			scheduler.awaitTermination(FLUSH_INTERVAL, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+}
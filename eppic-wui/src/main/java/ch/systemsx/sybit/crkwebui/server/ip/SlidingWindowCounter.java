@@ -0,0 +1,197 @@
+package ch.systemsx.sybit.crkwebui.server.ip;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
+
+/**
+ * Counts events per key (ip address) within a sliding time window. Each key has its own
+ * window holding the times of its events, guarded by its own lock, so that events of
+ * different keys never contend.
+ * <p>
+ * The window of a key is seeded with the events already stored (e.g. in the database) the
+ * first time the key is seen, so that the counts are the same that would be obtained querying
+ * the storage. Windows that become empty are removed by {@link #evictIdle(long)}.
+ * @author AS
+ */
+public class SlidingWindowCounter
+{
+	/**
+	 * Retrieves the times of the events of a key that are already stored
+	 */
+	public interface Seeder
+	{
+		/**
+		 * Retrieves the times of the stored events for the key during the last window
+		 * @param key
+		 * @return
+		 * @throws DaoException
+		 */
+		public List<Date> getEventTimes(String key) throws DaoException;
+	}
+
+	private static class Window
+	{
+		private final ArrayDeque<Long> times = new ArrayDeque<>();
+		private boolean seeded;
+		private boolean removed;
+	}
+
+	/**
+	 * Count and oldest event time of a key at a given time
+	 */
+	public static class Snapshot
+	{
+		private final int count;
+		private final long oldest;
+
+		private Snapshot(int count, long oldest)
+		{
+			this.count = count;
+			this.oldest = oldest;
+		}
+
+		public int getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * Returns the time of the oldest event in the window, or the start of the window if there are none
+		 * @return
+		 */
+		public long getOldest()
+		{
+			return oldest;
+		}
+	}
+
+	private final long windowLength;
+	private final Seeder seeder;
+	private final ConcurrentMap<String, Window> windows = new ConcurrentHashMap<>();
+
+	/**
+	 * Constructs a new counter
+	 * @param windowLength length of the window in milliseconds
+	 * @param seeder the source of stored events for keys not seen yet
+	 */
+	public SlidingWindowCounter(long windowLength, Seeder seeder)
+	{
+		this.windowLength = windowLength;
+		this.seeder = seeder;
+	}
+
+	/**
+	 * Adds an event for the key at the given time. The event must not be stored yet, otherwise
+	 * it would be counted twice if the window of the key is seeded now.
+	 * @param key
+	 * @param time
+	 * @throws DaoException when the window of the key can not be seeded
+	 */
+	public void add(String key, long time) throws DaoException
+	{
+		while(true)
+		{
+			Window window = windows.computeIfAbsent(key, k -> new Window());
+			synchronized (window)
+			{
+				if(window.removed) continue;
+				seed(key, window);
+				window.times.addLast(time);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of events and the oldest event of the key within the window ending at now
+	 * @param key
+	 * @param now
+	 * @return
+	 * @throws DaoException when the window of the key can not be seeded
+	 */
+	public Snapshot get(String key, long now) throws DaoException
+	{
+		while(true)
+		{
+			Window window = windows.computeIfAbsent(key, k -> new Window());
+			synchronized (window)
+			{
+				if(window.removed) continue;
+				seed(key, window);
+				slide(window, now);
+				Long oldest = window.times.peekFirst();
+				return new Snapshot(window.times.size(), oldest == null ? now - windowLength : oldest);
+			}
+		}
+	}
+
+	/**
+	 * Removes the windows without events within the window ending at now
+	 * @param now
+	 * @return the number of removed windows
+	 */
+	public int evictIdle(long now)
+	{
+		int evicted = 0;
+		for(String key : windows.keySet())
+		{
+			Window window = windows.get(key);
+			if(window == null) continue;
+			synchronized (window)
+			{
+				if(!window.seeded) continue;
+				slide(window, now);
+				if(window.times.isEmpty())
+				{
+					window.removed = true;
+					windows.remove(key, window);
+					evicted++;
+				}
+			}
+		}
+		return evicted;
+	}
+
+	/**
+	 * Returns the number of keys currently tracked
+	 * @return
+	 */
+	public int size()
+	{
+		return windows.size();
+	}
+
+	private void seed(String key, Window window) throws DaoException
+	{
+		if(window.seeded) return;
+
+		List<Date> stored = seeder.getEventTimes(key);
+		long[] times = new long[stored.size()];
+		for(int i = 0; i < times.length; i++)
+		{
+			times[i] = stored.get(i).getTime();
+		}
+		Arrays.sort(times);
+		for(long time : times)
+		{
+			window.times.addLast(time);
+		}
+		window.seeded = true;
+	}
+
+	private void slide(Window window, long now)
+	{
+		// same boundary as the db queries: only events strictly after the start of the window count
+		long start = now - windowLength;
+		while(!window.times.isEmpty() && window.times.peekFirst() <= start)
+		{
+			window.times.removeFirst();
+		}
+	}
+}
@@ -7,19 +7,14 @@ import java.util.Date;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import ch.systemsx.sybit.crkwebui.server.db.dao.DataDownloadTrackingDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.IPAllowedDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.IPForbiddenDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.JobDAO;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.DataDownloadTrackingDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPAllowedDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.IPForbiddenDAOJpa;
-import ch.systemsx.sybit.crkwebui.server.db.dao.jpa.JobDAOJpa;
+import ch.systemsx.sybit.crkwebui.server.ip.IPRateLimiter;
+import ch.systemsx.sybit.crkwebui.server.ip.SlidingWindowCounter;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.DaoException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.ValidationException;
 
 /**
  * This class is used to verify whether job can be submitted from specified IP. 
+ * The counts are kept in memory by {@link IPRateLimiter}.
  * @author AS
  */
 public class IPVerifier 
@@ -52,8 +47,8 @@ public class IPVerifier
 											  int defaultNrOfAllowedSubmissionsForIP,
 											  boolean verifyFromDownloads) throws ValidationException, DaoException
 	{
-		IPForbiddenDAO ipForbiddenDAO = new IPForbiddenDAOJpa();
-		boolean isIpForbidden = ipForbiddenDAO.isIPForbidden(ip);
+		IPRateLimiter rateLimiter = IPRateLimiter.getInstance();
+		boolean isIpForbidden = rateLimiter.isIPForbidden(ip);
 		
 		if(isIpForbidden)
 		{
@@ -61,27 +56,22 @@ public class IPVerifier
 		}
 		else
 		{
-			IPAllowedDAO ipAllowedDAO = new IPAllowedDAOJpa();
-			
-			int nrOfAllowedSubmissionsForIPDuringOneDay  = ipAllowedDAO.getNrOfAllowedSubmissionsForIP(ip);
+			int nrOfAllowedSubmissionsForIPDuringOneDay  = rateLimiter.getNrOfAllowedSubmissionsForIP(ip);
 			
 			if(nrOfAllowedSubmissionsForIPDuringOneDay <= 0)
 			{
 				nrOfAllowedSubmissionsForIPDuringOneDay = defaultNrOfAllowedSubmissionsForIP;
 			}
 			
-			long nrOfJobsForIPDuringLastDay;
-			Date date;
+			SlidingWindowCounter.Snapshot lastDay;
 			if(!verifyFromDownloads){
-				JobDAO jobDAO = new JobDAOJpa();
-				nrOfJobsForIPDuringLastDay = jobDAO.getNrOfJobsForIPDuringLastDay(ip);
-				date = jobDAO.getOldestJobSubmissionDateDuringLastDay(ip);
+				lastDay = rateLimiter.getSubmissionsDuringLastDay(ip);
 			}
 			else{
-				DataDownloadTrackingDAO downloadIPDAO = new DataDownloadTrackingDAOJpa();
-				nrOfJobsForIPDuringLastDay = downloadIPDAO.getNrOfDownloadsForIPDuringLastDay(ip);
-				date = downloadIPDAO.getOldestJobDownloadDateDuringLastDay(ip);
+				lastDay = rateLimiter.getDownloadsDuringLastDay(ip);
 			}
+			long nrOfJobsForIPDuringLastDay = lastDay.getCount();
+			Date date = new Date(lastDay.getOldest());
 			
 			if(nrOfJobsForIPDuringLastDay >= nrOfAllowedSubmissionsForIPDuringOneDay)
 			{
@@ -6,26 +6,18 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.zip.GZIPInputStream;
 
-import org.biojava.nbio.structure.Atom;
-//import org.biojava.nbio.structure.PDBCrystallographicInfo;
 import org.biojava.nbio.structure.Structure;
 import org.biojava.nbio.structure.StructureException;
-import org.biojava.nbio.structure.contact.AtomContactSet;
-import org.biojava.nbio.structure.contact.StructureInterface;
-import org.biojava.nbio.structure.contact.StructureInterfaceCluster;
 import org.biojava.nbio.structure.io.PDBFileParser;
 import org.biojava.nbio.structure.io.mmcif.MMcifParser;
 import org.biojava.nbio.structure.io.mmcif.SimpleMMcifConsumer;
 import org.biojava.nbio.structure.io.mmcif.SimpleMMcifParser;
-import org.biojava.nbio.structure.xtal.CrystalTransform;
-import org.biojava.nbio.structure.xtal.SpaceGroup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -125,21 +117,9 @@ public class LatticeGraphPageGenerator {
 
 			Structure struc = readStructure(strucFile);
 
-			// Read spacegroup
-			//PDBCrystallographicInfo crystInfo = struc
-			//		.getCrystallographicInfo();
-			//SpaceGroup sg = crystInfo.getSpaceGroup();
-
-			//List<StructureInterface> siList = createStructureInterfaces(interfaces, sg);
-
-			// Because of issue #159 we have to pass null for the interfaces here so that they are recalculated from 
-			// the passed struc, which makes this quite slow the first time it is called for a certain combination
-			// of interfaces - JD 2017-08-29
-			// This is ok since the json files for all valid assemblies are precalculated in CLI,
-			// this can only be called if a non-valid combination of interfaces is requested by crafting a URL
-			// TODO it'd be good to have a better solution by implementing a LatticeGraph constructor that
-			// takes Interface bean objects as input instead of converting the beans to full StructureInterface objects.
-			LatticeGraph3D graph = new LatticeGraph3D(struc, null);
+			// the graph is built from the stored interfaces: only their operators and chains
+			// are needed, there's no need to recalculate them from the structure
+			LatticeGraph3D graph = new LatticeGraph3D(struc, interfaces);
 			if( requestedIfaces != null ) {
 				logger.info("Filtering LatticeGraph3D to edges {}",requestedIfaces);
 				graph.filterEngagedInterfaces(requestedIfaces);
@@ -164,53 +144,6 @@ public class LatticeGraphPageGenerator {
 		return jsonFilename;
 	}
 
-	/**
-	 * Convert `Interface` beans to full StructureInterface objects
-	 * @param interfaces
-	 * @param sg
-	 * @return
-	 */
-	public static List<StructureInterface> createStructureInterfaces(
-			List<Interface> interfaces, SpaceGroup sg) {
-		
-		// TODO note this is broken at the moment, see https://github.com/eppic-team/eppic/issues/159 - JD 2017-01-20
-		//      the functionality is still fine anyway because we produce the json files from CLI
-		List<StructureInterface> siList = new ArrayList<StructureInterface>(
-				interfaces.size());
-		for (Interface iface : interfaces) {
-			Atom[] firstMolecule = new Atom[0];
-			Atom[] secondMolecule = new Atom[0];
-			String firstMoleculeId = iface.getChain1();
-			String secondMoleculeId = iface.getChain2();
-			AtomContactSet contacts = null;
-			int interfaceId = iface.getInterfaceId();
-			int opId = iface.getOperatorId();
-			if(opId < 0 || opId >= sg.getNumOperators() ) {
-				logger.error("Found interface {} in the database, but only {} operators in spacegroup",opId, sg.getNumOperators());
-				continue;
-			}
-			CrystalTransform firstTransf = new CrystalTransform(sg, 0);
-			CrystalTransform secondTransf = new CrystalTransform(sg,
-					opId);
-			secondTransf.setMatTransform(SpaceGroup.getMatrixFromAlgebraic(iface.getOperator()));
-			
-			// TODO The problem with issue #159 is that here we can't set the isologous property in StructureInterface.
-			// Later when isIsologous is called it results in a NPE because the code attempts to calculate it 
-			// from contact overlap scores which is not possible because the residue information is missing - JD 2017-08-29
-			
-			StructureInterface siface = new StructureInterface(
-					firstMolecule, secondMolecule, firstMoleculeId,
-					secondMoleculeId, contacts, firstTransf, secondTransf);
-			siface.setId(interfaceId);
-			// hack, new cluster for each interface but with duplicate IDs
-			StructureInterfaceCluster cluster = new StructureInterfaceCluster();
-			cluster.setId(iface.getClusterId());
-			siface.setCluster(cluster );
-			siList.add(siface);
-		}
-		return siList;
-	}
-
 	/**
 	 * Loads a structure from given file path.
 	 * @param auFile
@@ -0,0 +1,162 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.commons;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
+
+/**
+ * Watches the directories of running jobs for the marker files written when a job ends
+ * (finished or killed), notifying a listener as soon as they appear. Used with job managers
+ * that don't notify the status changes themselves.
+ * @author AS
+ */
+public class JobDirectoryWatcher implements Runnable
+{
+	private static final Logger logger = LoggerFactory.getLogger(JobDirectoryWatcher.class);
+
+	private final WatchService watchService;
+	private final JobStatusListener listener;
+
+	private final Map<String, WatchKey> keysByJobId = new ConcurrentHashMap<>();
+	private final Map<WatchKey, String> jobIdsByKey = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new watcher, to be run in its own thread.
+	 * @param listener listener to notify
+	 * @throws IOException when the file system can not be watched
+	 */
+	public JobDirectoryWatcher(JobStatusListener listener) throws IOException
+	{
+		this.watchService = FileSystems.getDefault().newWatchService();
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts watching the directory of the job, if not watched yet.
+	 * @param jobId identifier of the job
+	 * @param jobDirectory directory of the job
+	 */
+	public void watch(String jobId, File jobDirectory)
+	{
+		if(keysByJobId.containsKey(jobId) || !jobDirectory.isDirectory())
+		{
+			return;
+		}
+
+		try
+		{
+			WatchKey key = jobDirectory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+			jobIdsByKey.put(key, jobId);
+			keysByJobId.put(jobId, key);
+
+			// the job may have ended before the registration
+			if(hasMarkerFile(jobDirectory))
+			{
+				listener.jobStatusChanged(jobId);
+			}
+		}
+		catch(IOException | ClosedWatchServiceException e)
+		{
+			logger.warn("Could not watch directory {} of job {}: {}", jobDirectory, jobId, e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops watching the directory of the job.
+	 * @param jobId identifier of the job
+	 */
+	public void unwatch(String jobId)
+	{
+		WatchKey key = keysByJobId.remove(jobId);
+		if(key != null)
+		{
+			key.cancel();
+			jobIdsByKey.remove(key);
+		}
+	}
+
+	/**
+	 * Retrieves the number of watched job directories
+	 * @return
+	 */
+	public int getNrOfWatchedJobs()
+	{
+		return keysByJobId.size();
+	}
+
+	@Override
+	public void run()
+	{
+		try
+		{
+			while(true)
+			{
+				WatchKey key = watchService.take();
+				String jobId = jobIdsByKey.get(key);
+
+				for(WatchEvent<?> event : key.pollEvents())
+				{
+					if(jobId == null)
+					{
+						continue;
+					}
+					if(event.kind() == StandardWatchEventKinds.OVERFLOW ||
+					   isMarkerFile(((Path) event.context()).getFileName().toString()))
+					{
+						listener.jobStatusChanged(jobId);
+					}
+				}
+
+				key.reset();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch(ClosedWatchServiceException e)
+		{
+			// closed: stopping
+		}
+	}
+
+	/**
+	 * Stops watching all directories, ending {@link #run()}
+	 */
+	public void close()
+	{
+		try
+		{
+			watchService.close();
+		}
+		catch(IOException e)
+		{
+			logger.warn("Could not close the job directory watcher: {}", e.getMessage());
+		}
+	}
+
+	private static boolean isMarkerFile(String fileName)
+	{
+		return fileName.equals(CrkWebServiceImpl.FINISHED_FILE_NAME) ||
+			   fileName.equals(CrkWebServiceImpl.KILLED_FILE_NAME);
+	}
+
+	private static boolean hasMarkerFile(File jobDirectory)
+	{
+		return new File(jobDirectory, CrkWebServiceImpl.FINISHED_FILE_NAME).exists() ||
+			   new File(jobDirectory, CrkWebServiceImpl.KILLED_FILE_NAME).exists();
+	}
+}
@@ -0,0 +1,16 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.commons;
+
+/**
+ * Listener of changes of the status of jobs.
+ * @author AS
+ */
+public interface JobStatusListener
+{
+	/**
+	 * Notifies that the status of the job may have changed. The current status is to be
+	 * retrieved from the job manager. Must return quickly: it is called from the threads running
+	 * or watching the jobs.
+	 * @param jobId identifier of the job
+	 */
+	public void jobStatusChanged(String jobId);
+}
@@ -0,0 +1,14 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.commons;
+
+/**
+ * Job manager which notifies the changes of status of its jobs, so that they don't need to be polled.
+ * @author AS
+ */
+public interface JobStatusNotifier
+{
+	/**
+	 * Adds a listener to be notified whenever a job starts or ends.
+	 * @param listener listener to add
+	 */
+	public void addJobStatusListener(JobStatusListener listener);
+}
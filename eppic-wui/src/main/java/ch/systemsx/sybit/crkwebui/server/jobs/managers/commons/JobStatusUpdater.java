@@ -1,12 +1,22 @@
 package ch.systemsx.sybit.crkwebui.server.jobs.managers.commons;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-//import org.slf4j.Logger;
-//import org.slf4j.LoggerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
 import ch.systemsx.sybit.crkwebui.server.commons.util.io.DirLocatorUtil;
@@ -22,29 +32,79 @@ import ch.systemsx.sybit.crkwebui.shared.exceptions.DeserializationException;
 import ch.systemsx.sybit.crkwebui.shared.exceptions.JobHandlerException;
 import ch.systemsx.sybit.shared.model.StatusOfJob;
 import eppic.model.PdbInfoDB;
+import eppic.model.io.ResultFileReader;
 
 /**
  * Daemon used to update status of submitted jobs.
+ * <p>
+ * The status of a job is checked as soon as the job manager notifies a change (see {@link JobStatusNotifier})
+ * or, for job managers that don't, as soon as the marker file of a job ending appears in its directory
+ * (see {@link JobDirectoryWatcher}). Since jobs can end in the queuing system without writing a marker
+ * file (e.g. killed by it), the status in the job manager of the tracked jobs of the latter is also checked
+ * every {@value #QUEUE_POLLING_INTERVAL} ms. Additionally the unfinished jobs are read again from the database
+ * and checked every {@value #POLLING_INTERVAL} ms, to catch the changes not notified.
+ * <p>
+ * The status changes found in one pass are written to the database together. The results of finished
+ * jobs are read and persisted by a separate pool of {@value #NR_OF_RESULT_LOADERS} threads, so that
+ * large results don't delay the status updates of other jobs.
  * @author AS
  *
  */
-public class JobStatusUpdater implements Runnable
+public class JobStatusUpdater implements Runnable, JobStatusListener
 {
-	//private static final Logger logger = LoggerFactory.getLogger(JobStatusUpdater.class);
+	private static final Logger logger = LoggerFactory.getLogger(JobStatusUpdater.class);
 	
 	/**
-	 * The polling interval in milliseconds
+	 * The interval in milliseconds between checks of all unfinished jobs
 	 */
-	public static final int POLLING_INTERVAL = 2000;
+	public static final int POLLING_INTERVAL = 30000;
+	
+	/**
+	 * The interval in milliseconds between checks in the job manager of the tracked jobs, for job managers
+	 * that don't notify status changes
+	 */
+	public static final int QUEUE_POLLING_INTERVAL = 2000;
+	
+	/**
+	 * The interval in milliseconds between checks of a job whose marker file appeared but whose
+	 * status in the job manager didn't change yet, and the maximum number of such checks
+	 */
+	private static final int RECHECK_INTERVAL = 1000;
+	private static final int MAX_RECHECKS = 10;
+	
+	/**
+	 * Number of threads reading and persisting the results of finished jobs
+	 */
+	public static final int NR_OF_RESULT_LOADERS = 2;
 	
 	private volatile boolean running;
-	private volatile boolean isUpdating;
 	private JobManager jobManager;
+	private final boolean pollingQueue;
 	private JobDAO jobDAO;
 	private String resultsPathUrl;
 	private EmailSender emailSender;
 	private EmailMessageData emailMessageData;
 	private String generalDestinationDirectoryName;
+	
+	private final BlockingQueue<String> notifiedJobs = new LinkedBlockingQueue<String>();
+	
+	/**
+	 * The unfinished jobs as last read from the database, only used by the updater thread
+	 */
+	private final Map<String, JobStatusDetails> unfinishedJobs = new HashMap<String, JobStatusDetails>();
+	
+	/**
+	 * The jobs notified by the directory watcher whose status didn't change yet, with the number of checks done
+	 */
+	private final Map<String, Integer> recheckedJobs = new HashMap<String, Integer>();
+	
+	/**
+	 * The finished jobs whose results are being loaded
+	 */
+	private final Set<String> loadingJobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	private final ExecutorService resultLoaders;
+	private JobDirectoryWatcher directoryWatcher;
 
 	public JobStatusUpdater(JobManager jobManager,
 							JobDAO jobDAO,
@@ -60,76 +120,293 @@ public class JobStatusUpdater implements Runnable
 		this.emailSender = emailSender;
 		this.emailMessageData = emailMessageData;
 		this.generalDestinationDirectoryName = generalDestinationDirectoryName;
+		
+		this.resultLoaders = Executors.newFixedThreadPool(NR_OF_RESULT_LOADERS);
+		
+		if(jobManager instanceof JobStatusNotifier)
+		{
+			((JobStatusNotifier) jobManager).addJobStatusListener(this);
+			pollingQueue = false;
+		}
+		else
+		{
+			pollingQueue = true;
+			
+			try
+			{
+				directoryWatcher = new JobDirectoryWatcher(this);
+				Thread watcherThread = new Thread(directoryWatcher, "JobDirectoryWatcher");
+				watcherThread.setDaemon(true);
+				watcherThread.start();
+			}
+			catch(IOException e)
+			{
+				logger.warn("Could not watch the job directories, job statuses will be updated every {} ms. Error: {}", QUEUE_POLLING_INTERVAL, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Notifies that the status of the job may have changed, e.g. because it was just submitted.
+	 * The job is checked as soon as possible.
+	 */
+	@Override
+	public void jobStatusChanged(String jobId)
+	{
+		notifiedJobs.add(jobId);
 	}
 
 	@Override
 	public void run()
 	{
+		long nextFullUpdate = 0;
+		long nextQueueCheck = 0;
+		
 		while(running)
 		{
-			isUpdating = true;
+			try
+			{
+				Set<String> jobsToCheck = new HashSet<String>();
+				notifiedJobs.drainTo(jobsToCheck);
+				
+				if(System.currentTimeMillis() >= nextFullUpdate)
+				{
+					loadUnfinishedJobs();
+					jobsToCheck.addAll(unfinishedJobs.keySet());
+					nextFullUpdate = System.currentTimeMillis() + POLLING_INTERVAL;
+				}
+				else if(!unfinishedJobs.keySet().containsAll(jobsToCheck))
+				{
+					// newly submitted jobs
+					loadUnfinishedJobs();
+				}
+				
+				if(pollingQueue && System.currentTimeMillis() >= nextQueueCheck)
+				{
+					// the jobs gone from the queue without a marker file
+					jobsToCheck.addAll(unfinishedJobs.keySet());
+					nextQueueCheck = System.currentTimeMillis() + QUEUE_POLLING_INTERVAL;
+				}
+				
+				jobsToCheck.addAll(recheckedJobs.keySet());
+				
+				updateStatuses(jobsToCheck);
+			}
+			catch (Throwable t)
+			{
+				logger.error("Error while updating the statuses of the jobs", t);
+			}
 			
 			try
 			{
-				List<JobStatusDetails> unfinishedJobs = jobDAO.getListOfUnfinishedJobs();
-
-				for(JobStatusDetails unfinishedJob : unfinishedJobs)
+				long nextCheck = pollingQueue ? Math.min(nextFullUpdate, nextQueueCheck) : nextFullUpdate;
+				long timeout = recheckedJobs.isEmpty() ? 
+						nextCheck - System.currentTimeMillis() :
+						Math.min(nextCheck - System.currentTimeMillis(), RECHECK_INTERVAL);
+				String jobId = notifiedJobs.poll(Math.max(timeout, 0), TimeUnit.MILLISECONDS);
+				if(jobId != null)
 				{
-					try
-					{
-						StatusOfJob savedStatus = StatusOfJob.getByName(unfinishedJob.getStatus());
-
-						StatusOfJob currentStatus = jobManager.getStatusOfJob(unfinishedJob.getJobId(), unfinishedJob.getSubmissionId());
+					notifiedJobs.add(jobId);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				running = false;
+			}
+		}
+		
+		shutdown();
+	}
+	
+	/**
+	 * Reads the unfinished jobs from the database, watching the directories of new ones
+	 * @throws DaoException when can not retrieve the jobs
+	 */
+	private void loadUnfinishedJobs() throws DaoException
+	{
+		List<JobStatusDetails> jobs = jobDAO.getListOfUnfinishedJobs();
+		
+		Set<String> previousJobIds = new HashSet<String>(unfinishedJobs.keySet());
+		unfinishedJobs.clear();
+		
+		for(JobStatusDetails job : jobs)
+		{
+			unfinishedJobs.put(job.getJobId(), job);
+			
+			if(directoryWatcher != null && !previousJobIds.remove(job.getJobId()))
+			{
+				directoryWatcher.watch(job.getJobId(), DirLocatorUtil.getJobDir(new File(generalDestinationDirectoryName), job.getJobId()));
+			}
+		}
+		
+		// finished in the meantime, e.g. stopped by the user
+		for(String jobId : previousJobIds)
+		{
+			stopTracking(jobId);
+		}
+	}
+	
+	/**
+	 * Checks the statuses of the given jobs in the job manager, writing the changes to the database
+	 * in one transaction and passing finished jobs to the result loaders.
+	 * @param jobIds
+	 * @throws DaoException when can not write the changes
+	 */
+	private void updateStatuses(Set<String> jobIds) throws DaoException
+	{
+		Map<String, StatusOfJob> changedStatuses = new HashMap<String, StatusOfJob>();
+		
+		for(String jobId : jobIds)
+		{
+			JobStatusDetails unfinishedJob = unfinishedJobs.get(jobId);
+			
+			if(unfinishedJob == null || loadingJobs.contains(jobId))
+			{
+				recheckedJobs.remove(jobId);
+				continue;
+			}
+			
+			try
+			{
+				StatusOfJob savedStatus = StatusOfJob.getByName(unfinishedJob.getStatus());
 
-						if(savedStatus != currentStatus)
-						{
-							File logFileDirectory = DirLocatorUtil.getJobDir(new File(generalDestinationDirectoryName), unfinishedJob.getJobId());
-							File logFile = new File(logFileDirectory, CrkWebServiceImpl.PROGRESS_LOG_FILE_NAME);
+				StatusOfJob currentStatus = jobManager.getStatusOfJob(unfinishedJob.getJobId(), unfinishedJob.getSubmissionId());
 
-							if(currentStatus == StatusOfJob.FINISHED)
-							{
-								handleJobFinishedSuccessfully(unfinishedJob, logFile);
-							}
-							else if(currentStatus == StatusOfJob.ERROR)
-							{
-								handleJobFinishedWithError(unfinishedJob);
-							}
-							else if(currentStatus == StatusOfJob.RUNNING)
-							{
-								handleRunningJob(unfinishedJob.getJobId());
-							}
-							else if(currentStatus == StatusOfJob.WAITING)
-							{
-								handleWaitingJob(unfinishedJob.getJobId());
-							}
-							else if(currentStatus == StatusOfJob.STOPPED)
-							{
-								handleStoppedJob(unfinishedJob.getJobId());
-							}
-						}
+				if(savedStatus != currentStatus)
+				{
+					recheckedJobs.remove(jobId);
+					
+					if(currentStatus == StatusOfJob.FINISHED)
+					{
+						loadResultsInBackground(unfinishedJob);
 					}
-					catch(DeserializationException e)
+					else if(currentStatus == StatusOfJob.ERROR)
 					{
 						handleJobFinishedWithError(unfinishedJob);
+						stopTracking(jobId);
+					}
+					else if(currentStatus == StatusOfJob.RUNNING ||
+							currentStatus == StatusOfJob.WAITING ||
+							currentStatus == StatusOfJob.STOPPED)
+					{
+						changedStatuses.put(jobId, currentStatus);
 					}
-					catch (JobHandlerException e)
+				}
+				else if(directoryWatcher != null && hasEnded(jobId))
+				{
+					// the marker file is written just before the job ends: checking again shortly
+					Integer nrOfChecks = recheckedJobs.get(jobId);
+					nrOfChecks = nrOfChecks == null ? 1 : nrOfChecks + 1;
+					if(nrOfChecks <= MAX_RECHECKS)
 					{
-						e.printStackTrace();
+						recheckedJobs.put(jobId, nrOfChecks);
 					}
-					catch (DaoException e)
+					else
 					{
-						e.printStackTrace();
+						recheckedJobs.remove(jobId);
 					}
 				}
-				
-				Thread.sleep(POLLING_INTERVAL);
 			}
-			catch (Throwable t)
+			catch (JobHandlerException e)
+			{
+				e.printStackTrace();
+			}
+			catch (DaoException e)
 			{
-				t.printStackTrace();
+				e.printStackTrace();
 			}
+		}
+		
+		if(!changedStatuses.isEmpty())
+		{
+			jobDAO.updateStatusOfJobs(changedStatuses);
 			
-			isUpdating = false;
+			for(Map.Entry<String, StatusOfJob> changedStatus : changedStatuses.entrySet())
+			{
+				unfinishedJobs.get(changedStatus.getKey()).setStatus(changedStatus.getValue().getName());
+				
+				if(changedStatus.getValue() == StatusOfJob.STOPPED)
+				{
+					stopTracking(changedStatus.getKey());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads and persists the results of the finished job in one of the result loaders. If that fails
+	 * with a DaoException the job stays unfinished in the database and is tried again.
+	 * @param job
+	 */
+	private void loadResultsInBackground(final JobStatusDetails job)
+	{
+		final String jobId = job.getJobId();
+		
+		loadingJobs.add(jobId);
+		stopTracking(jobId);
+		
+		resultLoaders.execute(new Runnable() {
+			@Override
+			public void run() {
+				try
+				{
+					File logFileDirectory = DirLocatorUtil.getJobDir(new File(generalDestinationDirectoryName), jobId);
+					File logFile = new File(logFileDirectory, CrkWebServiceImpl.PROGRESS_LOG_FILE_NAME);
+					
+					try
+					{
+						handleJobFinishedSuccessfully(job, logFile);
+					}
+					catch(DeserializationException e)
+					{
+						handleJobFinishedWithError(job);
+					}
+				}
+				catch(Throwable t)
+				{
+					logger.error("Could not load the results of job " + jobId, t);
+				}
+				finally
+				{
+					loadingJobs.remove(jobId);
+				}
+			}
+		});
+	}
+	
+	private void stopTracking(String jobId)
+	{
+		unfinishedJobs.remove(jobId);
+		recheckedJobs.remove(jobId);
+		if(directoryWatcher != null)
+		{
+			directoryWatcher.unwatch(jobId);
+		}
+	}
+	
+	private boolean hasEnded(String jobId)
+	{
+		File jobDirectory = DirLocatorUtil.getJobDir(new File(generalDestinationDirectoryName), jobId);
+		return new File(jobDirectory, CrkWebServiceImpl.FINISHED_FILE_NAME).exists() ||
+			   new File(jobDirectory, CrkWebServiceImpl.KILLED_FILE_NAME).exists();
+	}
+	
+	private void shutdown()
+	{
+		if(directoryWatcher != null)
+		{
+			directoryWatcher.close();
+		}
+		
+		resultLoaders.shutdown();
+		try
+		{
+			// the results being persisted are written in one transaction each
+			resultLoaders.awaitTermination(POLLING_INTERVAL, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
 		}
 	}
 
@@ -214,37 +491,6 @@ public class JobStatusUpdater implements Runnable
 						 emailMessage);
 	}
 
-	/**
-	 * Handles job with running status.
-	 * @param jobId identifier of the job
-	 * @throws DaoException when can not appropriately handle running job
-	 */
-	private void handleRunningJob(String jobId) throws DaoException
-	{
-		jobDAO.updateStatusOfJob(jobId, StatusOfJob.RUNNING);
-	}
-	
-	/**
-	 * Handles job with waiting status.
-	 * @param jobId identifier of the job
-	 * @throws DaoException when can not appropriately handle waiting job
-	 */
-	private void handleWaitingJob(String jobId) throws DaoException
-	{
-		jobDAO.updateStatusOfJob(jobId, StatusOfJob.WAITING);
-	}
-	
-	/**
-	 * Handles job with stopped status.
-	 * @param jobId identifier of the job
-	 * @throws DaoException when can not appropriately handle stopped job
-	 */
-	private void handleStoppedJob(String jobId) throws DaoException
-	{
-		jobDAO.updateStatusOfJob(jobId, StatusOfJob.STOPPED);
-	}
-
-
 	/**
 	 * Retrieves result of processing from specified file.
 	 * @param resultFileName file containing result of processing
@@ -257,34 +503,16 @@ public class JobStatusUpdater implements Runnable
 
 		if (resultFile.exists())
 		{
-			FileInputStream fileInputStream = null;
-			ObjectInputStream inputStream = null;
-
 			try
 			{
-				fileInputStream = new FileInputStream(resultFile);
-				inputStream = new ObjectInputStream(fileInputStream);
-				pdbScoreItem = (PdbInfoDB)inputStream.readObject();
+				// reads both the binary result format and legacy serialized files
+				pdbScoreItem = ResultFileReader.readFromFile(resultFile);
 			}
 			catch (Throwable e)
 			{
 				e.printStackTrace();
 				throw new DeserializationException(e);
 			}
-			finally
-			{
-				if(inputStream != null)
-				{
-					try
-					{
-						inputStream.close();
-					}
-					catch(Throwable t)
-					{
-						t.printStackTrace();
-					}
-				}
-			}
 		}
 		else
 		{
@@ -297,13 +525,11 @@ public class JobStatusUpdater implements Runnable
 	public void setRunning(boolean running)
 	{
 		this.running = running;
-	}
-
-	/**
-	 * Retrieves information whether daemon is currently updating statuses of the jobs.
-	 * @return information whether daemon is currently updating statuses of the jobs
-	 */
-	public boolean isUpdating() {
-		return isUpdating;
+		
+		if(!running)
+		{
+			// waking up the daemon if waiting
+			notifiedJobs.add("");
+		}
 	}
 }
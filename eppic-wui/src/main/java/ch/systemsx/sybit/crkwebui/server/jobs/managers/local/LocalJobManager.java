@@ -0,0 +1,456 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.core.appender.FileAppender;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
+import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobManager;
+import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobStatusListener;
+import ch.systemsx.sybit.crkwebui.server.jobs.managers.commons.JobStatusNotifier;
+import ch.systemsx.sybit.crkwebui.shared.exceptions.JobHandlerException;
+import ch.systemsx.sybit.crkwebui.shared.exceptions.JobManagerException;
+import ch.systemsx.sybit.shared.model.StatusOfJob;
+import eppic.BatchRunner;
+import eppic.EppicException;
+import eppic.EppicParams;
+import eppic.Main;
+
+/**
+ * Implementation of JobManager running the jobs inside the web application's JVM,
+ * for deployments without a queuing system.
+ * <p>
+ * Jobs are run by a fixed pool of max_concurrent_jobs workers, at most max_queued_jobs
+ * can wait for a free worker. Waiting jobs are started in order of their maximum number of
+ * sequences (-q, as the evolutionary calculation dominates the runtime) and then of submission.
+ * The command is the same as for the queuing systems: the jvm arguments up to the jar are ignored
+ * and the rest are passed to {@link EppicParams}.
+ * <p>
+ * As for the queuing systems, the error message of a failed job is written to file
+ * jobId.e&lt;submissionId&gt; in the job directory.
+ * @author AS
+ */
+public class LocalJobManager implements JobManager, JobStatusNotifier
+{
+	private static final Logger logger = LoggerFactory.getLogger(LocalJobManager.class);
+
+	public static final String MAX_CONCURRENT_JOBS = "max_concurrent_jobs";
+	public static final String MAX_QUEUED_JOBS = "max_queued_jobs";
+	public static final String EPPIC_CONFIG_FILE = "eppic_config_file";
+
+	private static final int DEFAULT_MAX_CONCURRENT_JOBS = 2;
+	private static final int DEFAULT_MAX_QUEUED_JOBS = 100;
+
+	private final String jobsDirectory;
+	private final File eppicConfigFile;
+	private final int maxQueuedJobs;
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * The jobs not yet finished or whose final status has not been retrieved, by submission id
+	 */
+	private final Map<String, LocalJob> jobs = new ConcurrentHashMap<>();
+	private final AtomicInteger nrOfQueuedJobs = new AtomicInteger(0);
+
+	private final List<JobStatusListener> listeners = new CopyOnWriteArrayList<>();
+
+	private final AtomicLong submissionIdGenerator = new AtomicLong(System.currentTimeMillis());
+	private final AtomicLong submissionOrderGenerator = new AtomicLong(0);
+
+	/**
+	 * A job and its execution state
+	 */
+	private class LocalJob implements Runnable, Comparable<LocalJob>
+	{
+		private final String jobId;
+		private final String submissionId;
+		private final String[] eppicArgs;
+		private final File jobDirectory;
+		private final int maxNrOfSequences;
+		private final long submissionOrder;
+
+		private StatusOfJob status = StatusOfJob.QUEUING;
+		private Thread thread;
+
+		private LocalJob(String jobId, String submissionId, String[] eppicArgs, File jobDirectory, int maxNrOfSequences)
+		{
+			this.jobId = jobId;
+			this.submissionId = submissionId;
+			this.eppicArgs = eppicArgs;
+			this.jobDirectory = jobDirectory;
+			this.maxNrOfSequences = maxNrOfSequences;
+			this.submissionOrder = submissionOrderGenerator.incrementAndGet();
+		}
+
+		@Override
+		public int compareTo(LocalJob o)
+		{
+			if(maxNrOfSequences != o.maxNrOfSequences)
+			{
+				return Integer.compare(maxNrOfSequences, o.maxNrOfSequences);
+			}
+			return Long.compare(submissionOrder, o.submissionOrder);
+		}
+
+		private synchronized StatusOfJob getStatus()
+		{
+			return status;
+		}
+
+		private synchronized boolean start()
+		{
+			if(status == StatusOfJob.STOPPED)
+			{
+				return false;
+			}
+			status = StatusOfJob.RUNNING;
+			thread = Thread.currentThread();
+			return true;
+		}
+
+		private synchronized void finish(StatusOfJob finalStatus)
+		{
+			if(status != StatusOfJob.STOPPED)
+			{
+				status = finalStatus;
+			}
+			thread = null;
+			// the interrupt of stop() may arrive after the job finished: it must not affect the next job of this worker
+			Thread.interrupted();
+		}
+
+		/**
+		 * Stops the job, interrupting it if running. A running job keeps its worker until it reaches
+		 * a point where the interruption is checked (e.g. waiting for an external program)
+		 * @return true if the job was still waiting to be run
+		 */
+		private synchronized boolean stop()
+		{
+			boolean wasQueuing = status == StatusOfJob.QUEUING;
+			if(status == StatusOfJob.QUEUING || status == StatusOfJob.RUNNING)
+			{
+				status = StatusOfJob.STOPPED;
+				if(thread != null)
+				{
+					thread.interrupt();
+				}
+			}
+			return wasQueuing;
+		}
+
+		@Override
+		public void run()
+		{
+			nrOfQueuedJobs.decrementAndGet();
+
+			if(!start())
+			{
+				return;
+			}
+			notifyListeners(jobId);
+
+			long startTime = System.currentTimeMillis();
+			logger.info("Starting job {} (submission id {})", jobId, submissionId);
+
+			StatusOfJob finalStatus = StatusOfJob.ERROR;
+			String errorMessage = null;
+			EppicParams params = new EppicParams();
+			FileAppender appender = null;
+
+			try
+			{
+				params.parseCommandLine(eppicArgs);
+				appender = BatchRunner.startEntryLog(jobId, new File(params.getOutDir(), params.getBaseName() + ".log"));
+
+				params.readConfigFile(eppicConfigFile);
+				params.checkConfigFileInput();
+
+				new Main().runEntry(params);
+
+				if(new File(jobDirectory, CrkWebServiceImpl.FINISHED_FILE_NAME).exists())
+				{
+					finalStatus = StatusOfJob.FINISHED;
+				}
+				else
+				{
+					errorMessage = "The job finished without producing the final files";
+				}
+			}
+			catch(EppicException e)
+			{
+				errorMessage = e.getMessage();
+			}
+			catch(Throwable t)
+			{
+				logger.error("Unexpected error in job " + jobId, t);
+				errorMessage = "Unexpected error: " + t;
+			}
+			finally
+			{
+				if(appender != null)
+				{
+					BatchRunner.stopEntryLog(appender);
+				}
+				if(params.getProgressLog() != null && params.getProgressLog() != System.out)
+				{
+					params.getProgressLog().close();
+				}
+			}
+
+			if(errorMessage != null)
+			{
+				writeErrorFile(errorMessage);
+			}
+
+			finish(finalStatus);
+			notifyListeners(jobId);
+
+			logger.info("Job {} ended with status {} in {} s", jobId, getStatus().getName(), (System.currentTimeMillis() - startTime) / 1000);
+		}
+
+		private void writeErrorFile(String errorMessage)
+		{
+			File errorFile = new File(jobDirectory, jobId + ".e" + submissionId);
+			try (PrintWriter pw = new PrintWriter(errorFile))
+			{
+				pw.println(errorMessage);
+			}
+			catch(IOException e)
+			{
+				logger.warn("Could not write error file {} for job {}: {}", errorFile, jobId, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Creates instance of local job manager.
+	 * @param queuingSystemProperties properties of the local queuing system, see {@link #MAX_CONCURRENT_JOBS},
+	 * {@link #MAX_QUEUED_JOBS} and {@link #EPPIC_CONFIG_FILE}
+	 * @param jobsDirectory directory where results of jobs are stored
+	 * @throws JobManagerException when the properties are not valid
+	 */
+	public LocalJobManager(Properties queuingSystemProperties,
+						   String jobsDirectory) throws JobManagerException
+	{
+		this.jobsDirectory = jobsDirectory;
+
+		int maxConcurrentJobs;
+		try
+		{
+			maxConcurrentJobs = Integer.parseInt(queuingSystemProperties.getProperty(MAX_CONCURRENT_JOBS,
+					String.valueOf(DEFAULT_MAX_CONCURRENT_JOBS)).trim());
+			maxQueuedJobs = Integer.parseInt(queuingSystemProperties.getProperty(MAX_QUEUED_JOBS,
+					String.valueOf(DEFAULT_MAX_QUEUED_JOBS)).trim());
+		}
+		catch(NumberFormatException e)
+		{
+			throw new JobManagerException("Invalid number in local queuing system properties: " + e.getMessage());
+		}
+
+		if(maxConcurrentJobs < 1 || maxQueuedJobs < 0)
+		{
+			throw new JobManagerException("The number of concurrent jobs must be at least 1 and the number of queued jobs can't be negative");
+		}
+
+		String configFile = queuingSystemProperties.getProperty(EPPIC_CONFIG_FILE);
+		if(configFile == null || configFile.trim().isEmpty())
+		{
+			eppicConfigFile = new File(System.getProperty("user.home"), EppicParams.CONFIG_FILE_NAME);
+		}
+		else
+		{
+			eppicConfigFile = new File(configFile.trim());
+		}
+
+		if(!eppicConfigFile.isFile())
+		{
+			throw new JobManagerException("EPPIC config file " + eppicConfigFile + " for local jobs does not exist");
+		}
+
+		AtomicInteger threadCounter = new AtomicInteger(0);
+		executor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs,
+										  0, TimeUnit.MILLISECONDS,
+										  new PriorityBlockingQueue<Runnable>(),
+										  r -> {
+											  Thread t = new Thread(r, "LocalJobManager-" + threadCounter.incrementAndGet());
+											  t.setDaemon(true);
+											  return t;
+										  });
+
+		logger.info("Local job manager running up to {} jobs concurrently, with up to {} waiting jobs", maxConcurrentJobs, maxQueuedJobs);
+	}
+
+	@Override
+	public String startJob(String javaVMExec,
+						   String jobId,
+						   List<String> command,
+						   String jobDirectory,
+						   int nrOfThreadsForSubmission) throws JobHandlerException
+	{
+		// the eppic arguments are the ones after the jar
+		int jarIndex = command.indexOf("-jar");
+		if(jarIndex < 0 || jarIndex + 1 >= command.size())
+		{
+			throw new JobHandlerException("Can not find the EPPIC arguments in command " + command);
+		}
+		String[] eppicArgs = command.subList(jarIndex + 2, command.size()).toArray(new String[0]);
+
+		int maxNrOfSequences = Integer.MAX_VALUE;
+		int qIndex = command.lastIndexOf("-q");
+		if(qIndex > jarIndex && qIndex + 1 < command.size())
+		{
+			try
+			{
+				maxNrOfSequences = Integer.parseInt(command.get(qIndex + 1));
+			}
+			catch(NumberFormatException e)
+			{
+				// it'll be reported when the job runs
+			}
+		}
+
+		if(nrOfQueuedJobs.incrementAndGet() > maxQueuedJobs + executor.getMaximumPoolSize() - executor.getActiveCount())
+		{
+			nrOfQueuedJobs.decrementAndGet();
+			throw new JobHandlerException("Too many jobs waiting to be run, please try again later");
+		}
+
+		String submissionId = String.valueOf(submissionIdGenerator.incrementAndGet());
+		LocalJob job = new LocalJob(jobId, submissionId, eppicArgs, new File(jobDirectory), maxNrOfSequences);
+		jobs.put(submissionId, job);
+
+		try
+		{
+			executor.execute(job);
+		}
+		catch(Throwable t)
+		{
+			jobs.remove(submissionId);
+			nrOfQueuedJobs.decrementAndGet();
+			throw new JobHandlerException(t);
+		}
+
+		return submissionId;
+	}
+
+	@Override
+	public void addJobStatusListener(JobStatusListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	private void notifyListeners(String jobId)
+	{
+		for(JobStatusListener listener : listeners)
+		{
+			listener.jobStatusChanged(jobId);
+		}
+	}
+
+	@Override
+	public StatusOfJob getStatusOfJob(String jobId, String submissionId) throws JobHandlerException
+	{
+		LocalJob job = submissionId == null ? null : jobs.get(submissionId);
+
+		if(job == null)
+		{
+			// not submitted by this instance (e.g. before a restart)
+			return getStatusFromFiles(jobId);
+		}
+
+		StatusOfJob status = job.getStatus();
+		if(status != StatusOfJob.QUEUING && status != StatusOfJob.RUNNING)
+		{
+			// the final status is also found from the files afterwards
+			jobs.remove(submissionId);
+		}
+		return status;
+	}
+
+	@Override
+	public void stopJob(String submissionId) throws JobHandlerException
+	{
+		LocalJob job = submissionId == null ? null : jobs.get(submissionId);
+
+		if(job != null && job.stop())
+		{
+			// not started yet: freeing its place in the queue
+			if(executor.remove(job))
+			{
+				nrOfQueuedJobs.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the status of a job not known to this job manager from the files in its directory,
+	 * as done by the queuing systems for undetermined jobs.
+	 * @param jobId
+	 * @return
+	 */
+	private StatusOfJob getStatusFromFiles(String jobId)
+	{
+		File jobDirectory = new File(jobsDirectory, jobId);
+
+		if(!jobDirectory.exists())
+		{
+			return StatusOfJob.NONEXISTING;
+		}
+		else if(new File(jobDirectory, CrkWebServiceImpl.FINISHED_FILE_NAME).exists())
+		{
+			return StatusOfJob.FINISHED;
+		}
+		else if(new File(jobDirectory, CrkWebServiceImpl.KILLED_FILE_NAME).exists())
+		{
+			return StatusOfJob.STOPPED;
+		}
+		else
+		{
+			return StatusOfJob.ERROR;
+		}
+	}
+
+	/**
+	 * Retrieves the number of jobs waiting to be run
+	 * @return
+	 */
+	public int getNrOfQueuedJobs()
+	{
+		return nrOfQueuedJobs.get();
+	}
+
+	@Override
+	public void finalize() throws JobHandlerException
+	{
+		executor.shutdownNow();
+
+		for(LocalJob job : jobs.values())
+		{
+			job.stop();
+		}
+
+		try
+		{
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
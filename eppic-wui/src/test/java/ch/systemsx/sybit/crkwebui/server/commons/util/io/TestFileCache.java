@@ -4,8 +4,16 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 import org.slf4j.Logger;
@@ -108,6 +116,107 @@ public class TestFileCache {
 
 	}
 
+	@Test
+	public void testWeightAndConcurrentCalls() throws Exception {
+		FileCache cache = new FileCache();
+		cache.purge();
+		// room for two strings of 10 chars
+		cache.setMaxWeight(40);
+		cache.setMaxEntryWeight(30);
+
+		String one = tmp("one");
+		String two = tmp("two");
+		String three = tmp("three");
+		String big = tmp("big");
+
+		// concurrent requests for the same path share one computation
+		AtomicInteger nrOfCalls = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Callable<String> slow = () -> {
+			nrOfCalls.incrementAndGet();
+			started.countDown();
+			release.await();
+			return "0123456789";
+		};
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		List<Future<String>> results = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			results.add(pool.submit(() -> cache.getString(one, slow)));
+		}
+		started.await();
+		release.countDown();
+		for (Future<String> result : results) {
+			assertEquals("0123456789", result.get());
+		}
+		pool.shutdown();
+		assertEquals("Should have been calculated once", 1, nrOfCalls.get());
+
+		// hit again: protected from the following one-off entries
+		cache.getString(one, slow);
+		cache.getString(two, new SimpleCallable("abcdefghij"));
+		cache.getString(three, new SimpleCallable("ABCDEFGHIJ"));
+		assertTrue(cache.isCachedInMemory(one));
+		assertFalse(cache.isCachedInMemory(two));
+		assertTrue(cache.isCachedInMemory(three));
+
+		// too large to be kept in memory, but still cached on disk
+		assertEquals("0123456789abcdef", cache.getString(big, new SimpleCallable("0123456789abcdef")));
+		assertTrue(cache.getFile(big).exists());
+		assertFalse(cache.isCachedInMemory(big));
+		SimpleCallable computer = new SimpleCallable("0123456789abcdef");
+		assertEquals("0123456789abcdef", cache.getString(big, computer));
+		assertFalse("Should have been cached", computer.calculated);
+
+		Map<String, Long> stats = cache.getStatistics();
+		assertEquals(4, stats.get("misses").longValue());
+		assertEquals(1, stats.get("evictions").longValue());
+		assertEquals(40, stats.get("weight").longValue());
+
+		cache.purge();
+	}
+
+	@Test
+	public void testInterruptedRequest() throws Exception {
+		FileCache cache = new FileCache();
+		cache.purge();
+
+		String one = tmp("one");
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		Callable<String> slow = () -> {
+			started.countDown();
+			release.await();
+			return "one";
+		};
+		Thread requester = new Thread(() -> {
+			try {
+				cache.getString(one, slow);
+				fail("Should have been interrupted");
+			} catch (InterruptedException e) {
+				// expected
+			} catch (ExecutionException e) {
+				fail(e.getMessage());
+			}
+		});
+		requester.start();
+		started.await();
+		requester.interrupt();
+		requester.join();
+
+		// the computation goes on and is still admitted to the eviction policy
+		release.countDown();
+		assertTrue(cache.getFile(one).exists());
+		long deadline = System.currentTimeMillis() + 5000;
+		while(cache.getStatistics().get("entries") == 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(1, cache.getStatistics().get("entries").longValue());
+		assertEquals("one", cache.getString(one));
+
+		cache.purge();
+	}
+
 	private String tmp(String s) throws IOException {
 		File tmp = File.createTempFile("TestFileCache-"+s, ".txt");
 		tmp.deleteOnExit();
@@ -0,0 +1,106 @@
+package ch.systemsx.sybit.crkwebui.server.db;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.TypedQuery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.systemsx.sybit.shared.model.InputType;
+import ch.systemsx.sybit.shared.model.StatusOfJob;
+import eppic.commons.util.DbConfigGenerator;
+import eppic.model.JobDB;
+import eppic.model.PdbInfoDB;
+
+/**
+ * Tests the pooled and cached persistence unit setup against an embedded H2 database
+ */
+public class EntityManagerHandlerTest {
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private Map<String,String> createSettings() throws Exception {
+		File configFile = tmpFolder.newFile("eppic-db.properties");
+		try (PrintWriter pw = new PrintWriter(configFile)) {
+			pw.println("url=jdbc:h2:mem:eppictest;MODE=MySQL;DB_CLOSE_DELAY=-1");
+			pw.println("driver=org.h2.Driver");
+			pw.println("user=sa");
+			pw.println("password=eppic");
+			pw.println("pool=hikari");
+			pw.println("pool.min_size=1");
+			pw.println("pool.max_size=4");
+			pw.println("cache=true");
+			pw.println("stats=true");
+		}
+		return DbConfigGenerator.createDatabaseProperties(configFile);
+	}
+
+	private static PdbInfoDB findByJobId(EntityManagerFactory emf, String jobId) {
+		EntityManager em = emf.createEntityManager();
+		try {
+			TypedQuery<PdbInfoDB> query = em.createQuery("SELECT p FROM PdbInfo p WHERE p.job.jobId = :jobId", PdbInfoDB.class);
+			query.setParameter("jobId", jobId);
+			query.setHint(EntityManagerHandler.QUERY_HINT_CACHEABLE, true);
+			return query.getSingleResult();
+		} finally {
+			em.close();
+		}
+	}
+
+	@Test
+	public void testPoolAndCaches() throws Exception {
+		EntityManagerFactory emf = EntityManagerHandler.createEntityManagerFactory(createSettings());
+
+		try {
+			PdbInfoDB pdbInfo = new PdbInfoDB();
+			pdbInfo.setPdbCode("1abc");
+			pdbInfo.setTitle("A test structure");
+
+			JobDB job = new JobDB();
+			job.setJobId("1abc");
+			job.setInputName("1abc");
+			job.setIp("localhost");
+			job.setStatus(StatusOfJob.FINISHED.getName());
+			job.setSubmissionDate(new Date());
+			job.setInputType(InputType.PDBCODE.getIndex());
+			job.setSubmissionId("-1");
+			job.setPdbInfo(pdbInfo);
+			pdbInfo.setJob(job);
+
+			EntityManager em = emf.createEntityManager();
+			em.getTransaction().begin();
+			em.persist(job);
+			em.getTransaction().commit();
+			em.close();
+
+			int uid = findByJobId(emf, "1abc").getUid();
+			// second time from the query cache
+			assertEquals(uid, findByJobId(emf, "1abc").getUid());
+
+			em = emf.createEntityManager();
+			assertEquals("1abc", em.find(PdbInfoDB.class, uid).getPdbCode());
+			em.close();
+
+			Map<String,Number> stats = EntityManagerHandler.getStatistics(emf);
+
+			assertTrue(stats.get("queryCache.hits").longValue()>=1);
+			assertTrue(stats.get("secondLevelCache.hits").longValue()>=1);
+
+			int total = stats.get("pool.totalConnections").intValue();
+			assertTrue(total>=1 && total<=4);
+			assertEquals(0, stats.get("pool.activeConnections").intValue());
+		} finally {
+			emf.close();
+		}
+	}
+}
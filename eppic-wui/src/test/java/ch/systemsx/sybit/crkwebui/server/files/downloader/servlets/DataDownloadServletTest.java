@@ -3,6 +3,7 @@ package ch.systemsx.sybit.crkwebui.server.files.downloader.servlets;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
@@ -15,6 +16,7 @@ import javax.xml.bind.PropertyException;
 
 import org.junit.Test;
 
+import ch.systemsx.sybit.crkwebui.server.files.downloader.writers.PdbInfoListWriter;
 import ch.systemsx.sybit.crkwebui.shared.model.Assembly;
 import ch.systemsx.sybit.crkwebui.shared.model.AssemblyContent;
 import ch.systemsx.sybit.crkwebui.shared.model.AssemblyScore;
@@ -50,6 +52,24 @@ public class DataDownloadServletTest {
 		assertTrue("Result should contain the interface cluster", resultString.contains("<interfaceCluster>"));
 	}
 
+	@Test
+	public void testStreamPdbInfoListJson() throws IOException {
+		StringWriter stringWriter = new StringWriter();
+
+		PdbInfoListWriter writer = PdbInfoListWriter.create(PdbInfoListWriter.FORMAT_JSON, stringWriter);
+		writer.start();
+		for (PdbInfo pdbInfo : getPdbInfo()) {
+			writer.write(pdbInfo);
+		}
+		writer.end();
+
+		String resultString = stringWriter.getBuffer().toString();
+		assertTrue("Result should be a json array", resultString.startsWith("[") && resultString.endsWith("]"));
+		assertTrue("Result should contain pdb title", resultString.contains("\"title\":\"SMTB REPRESSOR FROM SYNECHOCOCCUS PCC7942\""));
+		assertTrue("Result should contain the interface", resultString.contains("\"operatorType\":\"OP\""));
+		assertTrue("Result should contain the interface clusters", resultString.contains("\"interfaceClusters\":["));
+	}
+
 	private List<PdbInfo> getPdbInfo() {
 		PdbInfo pdbInfo = new PdbInfo();
 		pdbInfo.setInputType(0);
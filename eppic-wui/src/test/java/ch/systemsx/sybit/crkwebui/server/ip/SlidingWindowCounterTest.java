@@ -0,0 +1,53 @@
+package ch.systemsx.sybit.crkwebui.server.ip;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class SlidingWindowCounterTest {
+
+	private static final long WINDOW = 1000;
+
+	@Test
+	public void testSlidingWindow() throws Exception {
+		final AtomicInteger seeded = new AtomicInteger(0);
+		SlidingWindowCounter counter = new SlidingWindowCounter(WINDOW, key -> {
+			seeded.incrementAndGet();
+			return "1.2.3.4".equals(key) ?
+					Arrays.asList(new Date(600), new Date(100)) :
+					Collections.<Date>emptyList();
+		});
+
+		// seeded from the stored events, only once
+		SlidingWindowCounter.Snapshot snapshot = counter.get("1.2.3.4", 1000);
+		assertEquals(2, snapshot.getCount());
+		assertEquals(100, snapshot.getOldest());
+		counter.add("1.2.3.4", 1050);
+		assertEquals(1, seeded.get());
+
+		// the event at 100 is out of the window (boundary excluded as in the db queries)
+		snapshot = counter.get("1.2.3.4", 1100);
+		assertEquals(2, snapshot.getCount());
+		assertEquals(600, snapshot.getOldest());
+
+		// no events: the oldest is the start of the window
+		snapshot = counter.get("5.6.7.8", 1100);
+		assertEquals(0, snapshot.getCount());
+		assertEquals(100, snapshot.getOldest());
+		assertEquals(2, seeded.get());
+
+		assertEquals(1, counter.evictIdle(1100));
+		assertEquals(1, counter.size());
+		assertEquals(1, counter.evictIdle(2050));
+		assertEquals(0, counter.size());
+
+		// forgotten keys are seeded again
+		assertEquals(0, counter.get("1.2.3.4", 2100).getCount());
+		assertEquals(3, seeded.get());
+	}
+}
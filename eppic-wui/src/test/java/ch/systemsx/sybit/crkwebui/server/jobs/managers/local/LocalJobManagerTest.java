@@ -0,0 +1,110 @@
+package ch.systemsx.sybit.crkwebui.server.jobs.managers.local;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ch.systemsx.sybit.crkwebui.server.CrkWebServiceImpl;
+import ch.systemsx.sybit.shared.model.StatusOfJob;
+
+public class LocalJobManagerTest {
+
+	@Rule
+	public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+	private LocalJobManager getJobManager(File jobsDir) throws Exception {
+		Properties props = new Properties();
+		props.setProperty(LocalJobManager.MAX_CONCURRENT_JOBS, "1");
+		props.setProperty(LocalJobManager.EPPIC_CONFIG_FILE, tmpFolder.newFile("eppic.conf").toString());
+
+		return new LocalJobManager(props, jobsDir.toString());
+	}
+
+	private static StatusOfJob waitForJob(LocalJobManager jobManager, String jobId, String submissionId, long timeout) throws Exception {
+		StatusOfJob status;
+		long start = System.currentTimeMillis();
+		while((status = jobManager.getStatusOfJob(jobId, submissionId)) == StatusOfJob.QUEUING ||
+				status == StatusOfJob.RUNNING) {
+			assertTrue("The job didn't end", System.currentTimeMillis() - start < timeout);
+			Thread.sleep(50);
+		}
+		return status;
+	}
+
+	/**
+	 * Writes a small structure of 2 chains in contact, without crystal information
+	 * @param file
+	 * @throws Exception
+	 */
+	private static void writeStructureFile(File file) throws Exception {
+		String[] resNames = {"ALA", "LEU", "VAL", "ILE", "GLY", "SER", "THR", "LYS", "GLU", "PHE"};
+		try (PrintWriter pw = new PrintWriter(file)) {
+			int serial = 1;
+			for (String chainId : new String[] {"A", "B"}) {
+				for (int i=0;i<resNames.length;i++) {
+					double x = i*3.8;
+					double y = chainId.equals("A") ? 0 : 4.5;
+					pw.println(String.format("ATOM  %5d  CA  %3s %s%4d    %8.3f%8.3f%8.3f  1.00 20.00           C",
+							serial++, resNames[i], chainId, i+1, x, y, 0.0));
+				}
+				pw.println("TER");
+			}
+			pw.println("END");
+		}
+	}
+
+	@Test
+	public void testSuccessfulJob() throws Exception {
+		File jobsDir = tmpFolder.newFolder("jobs");
+		File jobDir = new File(jobsDir, "job1");
+		assertTrue(jobDir.mkdir());
+		File inputFile = new File(jobDir, "input.pdb");
+		writeStructureFile(inputFile);
+
+		LocalJobManager jobManager = getJobManager(jobsDir);
+
+		// the -L progress log is passed by the server, the steps log is only written with it
+		List<String> command = Arrays.asList("-Xmx512m", "-jar", "eppic.jar", "-i", inputFile.toString(),
+				"-o", jobDir.toString(), "-b", "job1", "-w", "-L", new File(jobDir, "job1.progress").toString());
+		String submissionId = jobManager.startJob("java", "job1", command, jobDir.toString(), 1);
+
+		assertEquals(StatusOfJob.FINISHED, waitForJob(jobManager, "job1", submissionId, 60000));
+		assertTrue(new File(jobDir, CrkWebServiceImpl.FINISHED_FILE_NAME).exists());
+		assertTrue(new File(jobDir, "job1" + CrkWebServiceImpl.STEPS_FILE_NAME_SUFFIX).exists());
+		assertFalse(new File(jobDir, "job1.e" + submissionId).exists());
+
+		jobManager.finalize();
+	}
+
+	@Test
+	public void testFailingJob() throws Exception {
+		File jobsDir = tmpFolder.newFolder("jobs");
+		File jobDir = new File(jobsDir, "job1");
+		assertTrue(jobDir.mkdir());
+
+		LocalJobManager jobManager = getJobManager(jobsDir);
+
+		// no -i: the job fails when parsing the arguments
+		List<String> command = Arrays.asList("-Xmx512m", "-jar", "eppic.jar", "-o", jobDir.toString(), "-b", "job1");
+		String submissionId = jobManager.startJob("java", "job1", command, jobDir.toString(), 1);
+
+		StatusOfJob status = waitForJob(jobManager, "job1", submissionId, 10000);
+
+		assertEquals(StatusOfJob.ERROR, status);
+		assertTrue(new File(jobDir, "job1.e" + submissionId).exists());
+		// once retrieved, the status comes from the job directory
+		assertEquals(StatusOfJob.ERROR, jobManager.getStatusOfJob("job1", submissionId));
+		assertEquals(StatusOfJob.NONEXISTING, jobManager.getStatusOfJob("job2", "1"));
+		assertEquals(0, jobManager.getNrOfQueuedJobs());
+
+		jobManager.finalize();
+	}
+}